@@ -8,12 +8,18 @@
  */
 package com.softlagos.httpserver;
 
-import java.util.HashSet;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.softlagos.httpserver.tls.TlsContext;
 import com.softlagos.reactor.Acceptor;
 import com.softlagos.reactor.AcceptorStrategyAbstractFactory;
 import com.softlagos.reactor.ConcurrencyStrategy;
@@ -29,6 +35,11 @@ import com.softlagos.reactor.SocketHandle;
  * A concrete HTTP Acceptor that is responsible to
  * handle and delegate the incoming HTTP request to a specific
  * HTTP service handler.
+ * <p>
+ * On shutdown the acceptor drains the server: it stops accepting
+ * connections, waits for those in flight to finish, and only then
+ * closes the service handlers still open.
+ * </p>
  *
  * @author Rubens Gomes
  */
@@ -44,7 +55,9 @@ public final class HttpAcceptor
      */
     public HttpAcceptor()
     {
-        v_service_handlers = new HashSet<ServiceHandler>();
+        v_service_handlers = ConcurrentHashMap.newKeySet();
+        v_listening = new AtomicBoolean();
+        v_drained = new AtomicBoolean();
     }
 
     /* (non-Javadoc)
@@ -69,12 +82,18 @@ public final class HttpAcceptor
         v_reactor = reactor;
         v_factory = factory;
 
+        // the strategies are stateless, so they are created once
+        // rather than for every event handled
+        v_creator = factory.createCreationStrategy();
+        v_concurrency = factory.createConcurrencyStrategy();
+
         if(logger.isTraceEnabled())
         {
             logger.trace("creating server socket handle");
         }
 
         v_srv_socket_handle = new ServerSocketHandle(v_port_nr);
+        v_listening.set(true);
 
         if(logger.isTraceEnabled())
         {
@@ -111,14 +130,24 @@ public final class HttpAcceptor
             throw new IllegalArgumentException("handle must be SocketHandle.");
         }
 
-        CreationStrategy creator = v_factory.createCreationStrategy();
-        ConcurrencyStrategy concurrency = v_factory.createConcurrencyStrategy();
         SocketHandle socket_handle = (SocketHandle) handle;
 
         if( evtType == EventType.ACCEPT  )
         {
             ServiceHandler handler = null;
 
+            if( HttpDrain.instance().isDraining() )
+            {
+                // accepted just before the listener was closed
+                refuse(socket_handle, 503);
+                return;
+            }
+
+            if(! admit(socket_handle) )
+            {
+                return;
+            }
+
             try
             {
 
@@ -127,7 +156,7 @@ public final class HttpAcceptor
                     logger.trace("creating service handler");
                 }
 
-                handler = creator.create(socket_handle);
+                handler = v_creator.create(socket_handle);
 
                 if(! v_service_handlers.contains(handler))
                 {
@@ -139,7 +168,18 @@ public final class HttpAcceptor
                     logger.trace("activating service handler");
                 }
 
-                concurrency.activate(handler);
+                HttpShards shards = HttpShards.instance();
+                if( shards != null && handler instanceof HttpServiceHandler )
+                {
+                    // the connection stays on its shard until closed
+                    HttpShard shard = shards.assign();
+                    ((HttpServiceHandler) handler).setShard(shard);
+                    shard.execute(handler);
+                }
+                else
+                {
+                    v_concurrency.activate(handler);
+                }
             }
             catch(InstantiationException ex)
             {
@@ -155,14 +195,10 @@ public final class HttpAcceptor
 
             if(logger.isTraceEnabled())
             {
-                logger.trace("closing service handler");
-            }
-
-            for(ServiceHandler handler: v_service_handlers)
-            {
-                handler.close();
+                logger.trace("draining service handlers");
             }
 
+            drain();
         }
         else
         {
@@ -171,6 +207,55 @@ public final class HttpAcceptor
         }
     }
 
+    /**
+     * Drains the server: stops accepting connections, waits, at
+     * most the drain timeout, for the connections in flight to
+     * finish, and then closes the service handlers left.  Only the
+     * first call drains.
+     */
+    public void drain()
+    {
+        if(! v_drained.compareAndSet(false, true) )
+        {
+            return;
+        }
+
+        stopAccepting();
+        HttpDrain.instance().drain(DRAIN_TIMEOUT_MS);
+
+        for(ServiceHandler handler: v_service_handlers)
+        {
+            handler.close();
+        }
+    }
+
+    /**
+     * Closes the listening socket, so that no new connection is
+     * accepted and the port is free for another server to bind.
+     */
+    public void stopAccepting()
+    {
+        if(! v_listening.compareAndSet(true, false) )
+        {
+            return;
+        }
+
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("closing listener on port [" + v_port_nr + "]");
+        }
+
+        try
+        {
+            v_srv_socket_handle.close();
+        }
+        catch(IOException ex)
+        {
+            logger.error("Error closing server socket handle: " +
+                         ex.getMessage());
+        }
+    }
+
     /* (non-Javadoc)
      * @see com.softlagos.reactor.EventHandler#getHandle()
      */
@@ -181,10 +266,98 @@ public final class HttpAcceptor
     }
 
     // ------ >>> Private <<< ------
+
+    /** The maximum time in milliseconds to wait for a drain. */
+    private static final long DRAIN_TIMEOUT_MS =
+            HttpProperties.getLong(HttpProperties.DRAIN_TIMEOUT_MS,
+                                   HttpDrain.DEFAULT_TIMEOUT_MS);
+
+    /**
+     * Applies the per client rate limiter to a newly accepted
+     * connection.  A refused connection is sent the canned 429
+     * response and closed.
+     *
+     * @param socket_handle the accepted connection
+     * @return true, if the connection should be served.
+     */
+    private boolean admit(SocketHandle socket_handle)
+    {
+        HttpRateLimiter limiter = HttpRateLimiter.instance();
+        if( limiter == null )
+        {
+            return true;
+        }
+
+        Socket socket = socket_handle.getSocket();
+        InetAddress address = socket.getInetAddress();
+
+        if( limiter.tryAcquireConnection(address) )
+        {
+            if( limiter.tryAcquireRequest(address) )
+            {
+                return true;
+            }
+
+            limiter.releaseConnection(address);
+        }
+
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("rate limiting client [" + address + "]");
+        }
+
+        refuse(socket_handle, 429);
+        return false;
+    }
+
+    /**
+     * Refuses a newly accepted connection: it is sent the canned
+     * response of the given status code and closed.
+     *
+     * @param socket_handle the accepted connection
+     * @param status_code the error status code
+     */
+    private void refuse(SocketHandle socket_handle, int status_code)
+    {
+        try
+        {
+            // a TLS client cannot read a cleartext response
+            if( TlsContext.instance() == null )
+            {
+                OutputStream out = socket_handle.getSocket().getOutputStream();
+                HttpCannedResponse.write(status_code, out);
+                out.flush();
+            }
+        }
+        catch(IOException ex)
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("error writing " + status_code + " response: " +
+                             ex.getMessage());
+            }
+        }
+        finally
+        {
+            try
+            {
+                socket_handle.close();
+            }
+            catch(IOException ex)
+            {
+                logger.error("Error closing IO handle: " + ex.getMessage());
+            }
+        }
+    }
+
     private int v_port_nr;
     private Reactor v_reactor;
     private ServerSocketHandle v_srv_socket_handle;
     private AcceptorStrategyAbstractFactory v_factory;
+    private CreationStrategy v_creator;
+    private ConcurrencyStrategy v_concurrency;
     private final Set<ServiceHandler> v_service_handlers;
+    private final AtomicBoolean v_listening;
+    private final AtomicBoolean v_drained;
 
 }
@@ -0,0 +1,473 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpBodyInputStream.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import com.softlagos.httpserver.enums.HttpMetricType;
+
+/**
+ * <p>
+ * An input stream over the message body of a request, read
+ * straight from the connection as the handler consumes it.
+ * Nothing is read from the socket until the handler asks for
+ * it, so a handler that falls behind slows the client down
+ * through TCP flow control instead of growing the heap.
+ * </p>
+ * <p>
+ * Both a Content-Length delimited body and the "chunked"
+ * transfer coding are supported.  Each socket read waits at
+ * most the grace period, and once the reads have waited longer
+ * than the grace period in all, the client must keep up the
+ * minimum upload rate over that waiting time or a
+ * SocketTimeoutException is raised.
+ * </p>
+ * <p>
+ * Closing the stream does not close the connection.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "Section 3.3 and 4.1 of RFC7230 - Hypertext Transfer Protocol
+ * (HTTP/1.1): Message Syntax and Routing"
+ */
+public final class HttpBodyInputStream extends InputStream
+{
+    /** The maximum length of a chunk-size line. */
+    private static final int MAX_CHUNK_LINE = 1024;
+
+    /**
+     * The maximum size of the trailer section of a chunked body,
+     * as for a request head.
+     */
+    private static final int MAX_TRAILER_SIZE =
+            HttpProperties.getInt(HttpProperties.MAX_HEADER_SIZE, 16384);
+
+    /** The maximum number of trailer fields of a chunked body. */
+    private static final int MAX_TRAILER_COUNT =
+            HttpProperties.getInt(HttpProperties.MAX_HEADER_COUNT, 100);
+
+    /**
+     * Creates the message body stream announced by the given
+     * request header.
+     *
+     * @param header the HTTP request header
+     * @param reader the connection reader positioned right after
+     * the request head.
+     * @param socket the connection socket
+     * @param min_rate the minimum upload rate in bytes per second
+     * @param grace_ms the time in milliseconds before the minimum
+     * rate is enforced, also the longest wait for a single read.
+     * @return the message body stream, or null if the request
+     * does not have a message body.
+     * @throws HttpErrorException if the message body framing
+     * header fields are not valid, or if both Transfer-Encoding
+     * and Content-Length are present.
+     * @see "Section 3.3.3 of RFC7230"
+     */
+    public static HttpBodyInputStream create(HttpRequestHeader header,
+                                             HttpLineReader reader,
+                                             Socket socket,
+                                             long min_rate,
+                                             int grace_ms)
+        throws HttpErrorException
+    {
+        if( header == null )
+        {
+            throw new IllegalArgumentException("header cannot be null.");
+        }
+
+        String coding = header.getHeader("Transfer-Encoding");
+        if( coding != null )
+        {
+            // both framings would let the client and an upstream
+            // disagree on where the message ends
+            if( header.getHeader("Content-Length") != null )
+            {
+                String msg = "both Transfer-Encoding and Content-Length " +
+                        "are present";
+                throw new HttpClientErrorException(400, msg);
+            }
+
+            if(! "chunked".equalsIgnoreCase(coding.trim()) )
+            {
+                String msg = "Transfer-Encoding [" + coding +
+                        "] is not implemented";
+                throw new HttpServerErrorException(501, msg);
+            }
+
+            return new HttpBodyInputStream(reader, socket, -1L,
+                                           min_rate, grace_ms);
+        }
+
+        String value = header.getHeader("Content-Length");
+        if( value == null )
+        {
+            return null;
+        }
+
+        long length = 0;
+        try
+        {
+            length = Long.parseLong(value.trim());
+        }
+        catch(NumberFormatException ex)
+        {
+            length = -1;
+        }
+
+        if( length < 0 )
+        {
+            String msg = "Invalid Content-Length [" + value + "]";
+            throw new HttpClientErrorException(400, msg);
+        }
+
+        if( length == 0 )
+        {
+            return null;
+        }
+
+        return new HttpBodyInputStream(reader, socket, length,
+                                       min_rate, grace_ms);
+    }
+
+    /**
+     * @return the announced Content-Length, or -1 if the body
+     * uses the chunked transfer coding.
+     */
+    public long getContentLength()
+    {
+        return v_length;
+    }
+
+    /**
+     * @return the number of message body octets read so far.
+     */
+    public long getReceived()
+    {
+        return v_received;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read()
+        throws IOException
+    {
+        byte one [] = new byte[1];
+        int count = read(one, 0, 1);
+        return (count < 0) ? -1 : (one[0] & 0xff);
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte buff [], int off, int len)
+        throws IOException
+    {
+        if( buff == null )
+        {
+            throw new IllegalArgumentException("buff cannot be null.");
+        }
+
+        if( len == 0 )
+        {
+            return 0;
+        }
+
+        if( v_eof || v_closed )
+        {
+            return -1;
+        }
+
+        if( ! v_started )
+        {
+            v_started = true;
+            v_socket.setSoTimeout(v_grace_ms);
+        }
+
+        if( v_remaining == 0 )
+        {
+            if( v_length >= 0 || ! nextChunk() )
+            {
+                v_eof = true;
+                return -1;
+            }
+        }
+
+        int max = (int) Math.min((long) len, v_remaining);
+        int count = 0;
+        long begin = System.nanoTime();
+        try
+        {
+            count = v_reader.read(buff, off, max);
+        }
+        catch(SocketTimeoutException ex)
+        {
+            HttpMetrics.instance().increment(HttpMetricType.TIMEOUT_BODY);
+            throw ex;
+        }
+        finally
+        {
+            v_blocked += System.nanoTime() - begin;
+        }
+
+        if( count < 0 )
+        {
+            throw new EOFException("connection closed after [" +
+                    v_received + "] message body octets");
+        }
+
+        v_received += count;
+        v_remaining -= count;
+        checkRate();
+        return count;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available()
+    {
+        return 0;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#close()
+     */
+    @Override
+    public void close()
+    {
+        v_closed = true;
+    }
+
+    /**
+     * @return true, if the whole message body was read.
+     */
+    public boolean isComplete()
+    {
+        return v_eof || (v_length >= 0 && v_remaining == 0);
+    }
+
+    // ------ >>> Private <<< ------
+    private HttpBodyInputStream(HttpLineReader reader, Socket socket,
+                                long length, long min_rate, int grace_ms)
+    {
+        if( reader == null )
+        {
+            throw new IllegalArgumentException("reader cannot be null.");
+        }
+
+        if( socket == null )
+        {
+            throw new IllegalArgumentException("socket cannot be null.");
+        }
+
+        v_reader = reader;
+        v_socket = socket;
+        v_length = length;
+        v_remaining = (length < 0) ? 0 : length;
+        v_min_rate = min_rate;
+        v_grace_ms = grace_ms;
+    }
+
+    /**
+     * Reads the next chunk-size line of a chunked body.
+     *
+     * @return false after the last chunk and its trailer.
+     * @throws IOException if the chunk is malformed or an I/O
+     * error occurs.
+     */
+    private boolean nextChunk()
+        throws IOException
+    {
+        try
+        {
+            // the CRLF ending the previous chunk data
+            if( v_chunks > 0 && readChunkLine().length() != 0 )
+            {
+                throw new IOException("chunk data not followed by CRLF");
+            }
+
+            String line = readChunkLine();
+            int semi = line.indexOf(';');
+            String size = (semi < 0) ? line : line.substring(0, semi);
+            if( semi >= 0 )
+            {
+                // the BWS allowed before a chunk-ext
+                int end = size.length();
+                while( end > 0 && (size.charAt(end - 1) == ' ' ||
+                                   size.charAt(end - 1) == '\t') )
+                {
+                    end--;
+                }
+
+                size = size.substring(0, end);
+            }
+
+            long chunk_size = parseChunkSize(size);
+            v_chunks++;
+
+            if( chunk_size == 0 )
+            {
+                skipTrailer();
+                return false;
+            }
+
+            v_remaining = chunk_size;
+            return true;
+        }
+        catch(HttpClientErrorException ex)
+        {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @param size the chunk-size of a chunk-size line
+     * @return the chunk size
+     * @throws IOException if the chunk-size is not 1*HEXDIG, such
+     * as a signed or empty one, or is too large.
+     * @see "Section 4.1 of RFC7230"
+     */
+    private static long parseChunkSize(String size)
+        throws IOException
+    {
+        if( size.isEmpty() || size.length() > 15 )
+        {
+            throw new IOException("invalid chunk-size [" + size + "]");
+        }
+
+        long chunk_size = 0;
+        for(int idx = 0; idx < size.length(); idx++)
+        {
+            char ch = size.charAt(idx);
+            int digit;
+            if( ch >= '0' && ch <= '9' )
+            {
+                digit = ch - '0';
+            }
+            else if( ch >= 'a' && ch <= 'f' )
+            {
+                digit = ch - 'a' + 10;
+            }
+            else if( ch >= 'A' && ch <= 'F' )
+            {
+                digit = ch - 'A' + 10;
+            }
+            else
+            {
+                throw new IOException("invalid chunk-size [" + size + "]");
+            }
+
+            chunk_size = (chunk_size << 4) | digit;
+        }
+
+        return chunk_size;
+    }
+
+    /**
+     * Skips the trailer fields of a chunked body up to the empty
+     * line, which are not used, within the limits of a request
+     * head.
+     *
+     * @throws IOException if the trailer section is too large or
+     * an I/O error occurs.
+     * @throws HttpClientErrorException if a line is too long
+     * @see "Section 4.1.2 of RFC7230"
+     */
+    private void skipTrailer()
+        throws IOException, HttpClientErrorException
+    {
+        int size = 0;
+        int count = 0;
+        String line;
+        while( (line = readChunkLine()).length() != 0 )
+        {
+            size += line.length() + 2;
+            if( ++count > MAX_TRAILER_COUNT || size > MAX_TRAILER_SIZE )
+            {
+                throw new IOException("chunked trailer section too large");
+            }
+        }
+    }
+
+    /**
+     * @return the next line of the chunked framing
+     * @throws IOException if the connection is closed or an
+     * I/O error occurs.
+     * @throws HttpClientErrorException if the line is too long
+     */
+    private String readChunkLine()
+        throws IOException, HttpClientErrorException
+    {
+        String line;
+        long begin = System.nanoTime();
+        try
+        {
+            line = v_reader.readLine(MAX_CHUNK_LINE, 400);
+        }
+        finally
+        {
+            v_blocked += System.nanoTime() - begin;
+        }
+
+        if( line == null )
+        {
+            throw new EOFException("connection closed in chunked body");
+        }
+
+        // a client trickling the framing lines is held to the
+        // minimum rate as well
+        checkRate();
+        return line;
+    }
+
+    /**
+     * Enforces the minimum upload rate once the grace period
+     * is over.  Only the time spent waiting for the client counts:
+     * the time the handler spends between two reads, such as
+     * writing to a slow upstream, is not the client's doing.
+     *
+     * @throws SocketTimeoutException if the client is below the
+     * minimum rate.
+     */
+    private void checkRate()
+        throws SocketTimeoutException
+    {
+        long elapsed_ms = v_blocked / 1000000L;
+        if( elapsed_ms > v_grace_ms &&
+            v_received * 1000L / elapsed_ms < v_min_rate )
+        {
+            HttpMetrics.instance().increment(HttpMetricType.TIMEOUT_BODY);
+            throw new SocketTimeoutException("upload rate [" +
+                    (v_received * 1000L / elapsed_ms) +
+                    "] bytes/s below minimum [" + v_min_rate + "]");
+        }
+    }
+
+    private final HttpLineReader v_reader;
+    private final Socket v_socket;
+    private final long v_length;
+    private final long v_min_rate;
+    private final int v_grace_ms;
+    private long v_remaining;
+    private long v_received;
+    private long v_blocked;
+    private boolean v_started;
+    private int v_chunks;
+    private boolean v_eof;
+    private boolean v_closed;
+}
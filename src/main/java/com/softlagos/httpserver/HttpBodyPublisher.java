@@ -0,0 +1,268 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpBodyPublisher.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>
+ * A single subscriber Flow.Publisher of the octets of an input
+ * stream, typically a request message body.
+ * </p>
+ * <p>
+ * The stream is read only when the subscriber signals demand,
+ * on the thread calling Subscription.request, one buffer per
+ * unit of demand.  A subscriber that stops requesting stops the
+ * reading of the socket.  Requests made from within onNext are
+ * added to the demand and served by the loop already running,
+ * so the call stack does not grow with the number of buffers.
+ * </p>
+ * <p>
+ * The stream is closed once the subscription ends, whether the
+ * stream was read to its end, failed, or the subscriber
+ * cancelled; a stream borrowing a connection, such as the body
+ * of an upstream response, gives it back on close.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpBodyPublisher
+  implements Flow.Publisher<ByteBuffer>
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpBodyPublisher.class);
+
+    /** The default size of the buffers published. */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /**
+     * Instantiates a new body publisher.
+     *
+     * @param in the stream to publish
+     * @param chunk_size the maximum size of each buffer published
+     */
+    public HttpBodyPublisher(InputStream in, int chunk_size)
+    {
+        if( in == null )
+        {
+            throw new IllegalArgumentException("in cannot be null.");
+        }
+
+        if( chunk_size <= 0 )
+        {
+            throw new IllegalArgumentException("chunk_size must be greater than 0");
+        }
+
+        v_in = in;
+        v_chunk_size = chunk_size;
+        v_subscribed = new AtomicBoolean();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.Flow.Publisher#subscribe(java.util.concurrent.Flow.Subscriber)
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber)
+    {
+        if( subscriber == null )
+        {
+            throw new NullPointerException("subscriber cannot be null.");
+        }
+
+        if(! v_subscribed.compareAndSet(false, true) )
+        {
+            subscriber.onSubscribe(new Flow.Subscription()
+            {
+                @Override
+                public void request(long n)
+                {
+                }
+
+                @Override
+                public void cancel()
+                {
+                }
+            });
+            subscriber.onError(new IllegalStateException(
+                    "body publisher allows a single subscriber"));
+            return;
+        }
+
+        subscriber.onSubscribe(new BodySubscription(subscriber));
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * The subscription reading the stream on demand.
+     */
+    private final class BodySubscription implements Flow.Subscription
+    {
+        private BodySubscription(Flow.Subscriber<? super ByteBuffer> subscriber)
+        {
+            v_subscriber = subscriber;
+            v_demand = new AtomicLong();
+            v_wip = new AtomicLong();
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if( v_done )
+            {
+                return;
+            }
+
+            if( n <= 0 )
+            {
+                v_done = true;
+                v_error = new IllegalArgumentException(
+                        "demand must be greater than 0");
+            }
+            else
+            {
+                // add the demand without overflowing
+                long current;
+                do
+                {
+                    current = v_demand.get();
+                }
+                while(! v_demand.compareAndSet(current,
+                          (Long.MAX_VALUE - current < n) ?
+                                  Long.MAX_VALUE : current + n) );
+            }
+
+            serialize();
+        }
+
+        @Override
+        public void cancel()
+        {
+            v_done = true;
+            v_cancelled = true;
+            serialize();
+        }
+
+        /**
+         * Runs the drain loop unless another thread is running
+         * it; that thread then goes through the loop once more.
+         */
+        private void serialize()
+        {
+            // only one thread drains at a time
+            if( v_wip.getAndIncrement() != 0 )
+            {
+                return;
+            }
+
+            do
+            {
+                drain();
+            }
+            while( v_wip.decrementAndGet() != 0 );
+        }
+
+        /**
+         * Publishes a buffer for each unit of demand, and closes
+         * the stream once the subscription has ended.
+         */
+        private void drain()
+        {
+            if( v_done )
+            {
+                if( ! v_closed )
+                {
+                    v_closed = true;
+                    close();
+                    if( v_error != null && ! v_cancelled )
+                    {
+                        v_subscriber.onError(v_error);
+                    }
+                }
+
+                return;
+            }
+
+            while( ! v_done && v_demand.get() > 0 )
+            {
+                byte buff [] = new byte[v_chunk_size];
+                int count;
+
+                try
+                {
+                    count = v_in.read(buff, 0, buff.length);
+                }
+                catch(IOException ex)
+                {
+                    v_done = true;
+                    v_closed = true;
+                    close();
+                    v_subscriber.onError(ex);
+                    return;
+                }
+
+                if( count < 0 )
+                {
+                    v_done = true;
+                    v_closed = true;
+                    close();
+                    v_subscriber.onComplete();
+                    return;
+                }
+
+                if( count > 0 )
+                {
+                    v_demand.decrementAndGet();
+                    v_subscriber.onNext(ByteBuffer.wrap(buff, 0, count));
+                }
+            }
+        }
+
+        /**
+         * Closes the stream, ignoring the errors: the subscriber
+         * has had every octet it will get.
+         */
+        private void close()
+        {
+            try
+            {
+                v_in.close();
+            }
+            catch(IOException ex)
+            {
+                if(logger.isDebugEnabled())
+                {
+                    logger.debug("error closing body stream: " +
+                                 ex.getMessage());
+                }
+            }
+        }
+
+        private final Flow.Subscriber<? super ByteBuffer> v_subscriber;
+        private final AtomicLong v_demand;
+        private final AtomicLong v_wip;
+        private volatile boolean v_done;
+        private volatile boolean v_cancelled;
+        private volatile Throwable v_error;
+        private boolean v_closed;
+    }
+
+    private final InputStream v_in;
+    private final int v_chunk_size;
+    private final AtomicBoolean v_subscribed;
+}
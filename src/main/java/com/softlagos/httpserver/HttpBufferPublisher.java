@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpBufferPublisher.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A single subscriber Flow.Publisher of the octets already held
+ * in a sequence of buffers, such as the regions of a memory
+ * mapped file or a cached response body.
+ * </p>
+ * <p>
+ * The buffers are published as slices of at most the given size,
+ * one slice per unit of demand, without copying the octets.  The
+ * positions of the buffers given are advanced as the slices are
+ * published, so a buffer shared between responses must be passed
+ * as a duplicate.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpBufferPublisher
+  implements Flow.Publisher<ByteBuffer>
+{
+    /**
+     * Instantiates a new buffer publisher.
+     *
+     * @param buffers the buffers to publish, in order
+     * @param slice_size the maximum size of each slice published
+     */
+    public HttpBufferPublisher(ByteBuffer buffers [], int slice_size)
+    {
+        if( buffers == null )
+        {
+            throw new IllegalArgumentException("buffers cannot be null.");
+        }
+
+        if( slice_size <= 0 )
+        {
+            throw new IllegalArgumentException("slice_size must be greater than 0");
+        }
+
+        v_buffers = buffers;
+        v_slice_size = slice_size;
+        v_subscribed = new AtomicBoolean();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.Flow.Publisher#subscribe(java.util.concurrent.Flow.Subscriber)
+     */
+    @Override
+    public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber)
+    {
+        if( subscriber == null )
+        {
+            throw new NullPointerException("subscriber cannot be null.");
+        }
+
+        if(! v_subscribed.compareAndSet(false, true) )
+        {
+            throw new IllegalStateException(
+                    "buffer publisher allows a single subscriber");
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription()
+        {
+            @Override
+            public void request(long n)
+            {
+                if( n <= 0 )
+                {
+                    v_done = true;
+                    subscriber.onError(new IllegalArgumentException(
+                            "demand must be greater than 0"));
+                    return;
+                }
+
+                // add the demand without overflowing
+                long current;
+                do
+                {
+                    current = v_demand.get();
+                }
+                while(! v_demand.compareAndSet(current,
+                          (Long.MAX_VALUE - current < n) ?
+                                  Long.MAX_VALUE : current + n) );
+
+                // only one thread drains at a time
+                if( v_wip.getAndIncrement() != 0 )
+                {
+                    return;
+                }
+
+                do
+                {
+                    drain();
+                }
+                while( v_wip.decrementAndGet() != 0 );
+            }
+
+            @Override
+            public void cancel()
+            {
+                v_done = true;
+            }
+
+            private void drain()
+            {
+                while( ! v_done && v_demand.get() > 0 )
+                {
+                    while( v_index < v_buffers.length &&
+                           ! v_buffers[v_index].hasRemaining() )
+                    {
+                        v_index++;
+                    }
+
+                    if( v_index == v_buffers.length )
+                    {
+                        v_done = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+
+                    ByteBuffer buffer = v_buffers[v_index];
+                    ByteBuffer slice = buffer.slice();
+                    int length = Math.min(slice.remaining(), v_slice_size);
+                    slice.limit(length);
+                    buffer.position(buffer.position() + length);
+
+                    v_demand.decrementAndGet();
+                    subscriber.onNext(slice);
+                }
+            }
+
+            private final AtomicLong v_demand = new AtomicLong();
+            private final AtomicLong v_wip = new AtomicLong();
+            private volatile boolean v_done;
+            private int v_index;
+        });
+    }
+
+    // ------ >>> Private <<< ------
+    private final ByteBuffer v_buffers [];
+    private final int v_slice_size;
+    private final AtomicBoolean v_subscribed;
+}
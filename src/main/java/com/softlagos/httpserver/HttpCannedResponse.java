@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpCannedResponse.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.softlagos.Constants;
+import com.softlagos.httpserver.enums.HttpStatusCodeType;
+
+/**
+ * <p>
+ * The pre-encoded error responses, one per client and server
+ * error status code.  Each one is a complete HTTP/1.1 response
+ * with a Content-Type, a Content-Length and "Connection: close",
+ * whose message body is the reason phrase, so a client never
+ * waits for the connection to close to know the response ended.
+ * </p>
+ * <p>
+ * The responses are encoded once, when the class is loaded, and
+ * never change afterwards; answering an error is a single write
+ * of an array shared by all the connections.  The details of an
+ * error are logged rather than sent to the client.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "Section 6.5 and 6.6 of RFC7231 - Hypertext Transfer
+ * Protocol (HTTP/1.1): Semantics and Content"
+ */
+public final class HttpCannedResponse
+{
+    /**
+     * @param status_code a client or server error status code
+     * @return a read-only buffer of the whole response, or null
+     * if the status code is not a client or server error.
+     */
+    public static ByteBuffer getResponse(int status_code)
+    {
+        byte octets [] = lookup(RESPONSES, status_code);
+        return (octets == null) ? null :
+            ByteBuffer.wrap(octets).asReadOnlyBuffer();
+    }
+
+    /**
+     * @param status_code a client or server error status code
+     * @return a read-only buffer of the message body alone, as
+     * sent over HTTP/2, or null if the status code is not a client
+     * or server error.
+     */
+    public static ByteBuffer getBody(int status_code)
+    {
+        byte octets [] = lookup(BODIES, status_code);
+        return (octets == null) ? null :
+            ByteBuffer.wrap(octets).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the response of the given status code.  The stream
+     * is not flushed.
+     *
+     * @param status_code a client or server error status code
+     * @param out the client output stream
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void write(int status_code, OutputStream out)
+        throws IOException
+    {
+        write(status_code, out, true);
+    }
+
+    /**
+     * Writes the response of the given status code, with or
+     * without its message body.  The response to a HEAD request
+     * is written without it, but with its Content-Length.  The
+     * stream is not flushed.
+     *
+     * @param status_code a client or server error status code
+     * @param out the client output stream
+     * @param with_body false, to write the header only
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void write(int status_code, OutputStream out,
+                             boolean with_body)
+        throws IOException
+    {
+        if( out == null )
+        {
+            throw new IllegalArgumentException("out cannot be null.");
+        }
+
+        byte octets [] = lookup(RESPONSES, status_code);
+        if( octets == null )
+        {
+            throw new IllegalArgumentException("status [" + status_code +
+                    "] not a client or server error code.");
+        }
+
+        int length = octets.length;
+        if(! with_body )
+        {
+            length -= lookup(BODIES, status_code).length;
+        }
+
+        out.write(octets, 0, length);
+    }
+
+    // ------ >>> Private <<< ------
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final Map<HttpStatusCodeType, byte []> RESPONSES;
+    private static final Map<HttpStatusCodeType, byte []> BODIES;
+
+    static
+    {
+        Map<HttpStatusCodeType, byte []> responses =
+                new EnumMap<HttpStatusCodeType, byte []>(HttpStatusCodeType.class);
+        Map<HttpStatusCodeType, byte []> bodies =
+                new EnumMap<HttpStatusCodeType, byte []>(HttpStatusCodeType.class);
+
+        for(HttpStatusCodeType type : HttpStatusCodeType.values())
+        {
+            if(! type.statusClassCompare(Constants.HTTP_CLIENT_ERROR) &&
+               ! type.statusClassCompare(Constants.HTTP_SERVER_ERROR) )
+            {
+                continue;
+            }
+
+            String body = type.getReasonPhrase();
+            StringBuilder buff = new StringBuilder();
+            buff.append(Constants.HTTP_SERVER_VERSION);
+            buff.append(Constants.SP);
+            buff.append(type.getStatusCode());
+            buff.append(Constants.SP);
+            buff.append(type.getReasonPhrase());
+            buff.append(Constants.CRLF);
+            buff.append("Content-Type: text/plain").append(Constants.CRLF);
+            buff.append("Content-Length: ").append(body.length());
+            buff.append(Constants.CRLF);
+            buff.append("Connection: close").append(Constants.CRLF);
+
+            // the client may try again shortly
+            if( type.getStatusCode() == 429 || type.getStatusCode() == 503 )
+            {
+                buff.append("Retry-After: 1").append(Constants.CRLF);
+            }
+
+            buff.append(Constants.CRLF);
+            buff.append(body);
+
+            responses.put(type, buff.toString().getBytes(US_ASCII));
+            bodies.put(type, body.getBytes(US_ASCII));
+        }
+
+        RESPONSES = Collections.unmodifiableMap(responses);
+        BODIES = Collections.unmodifiableMap(bodies);
+    }
+
+    /**
+     * @return the octets of the given status code, or null
+     */
+    private static byte [] lookup(Map<HttpStatusCodeType, byte []> table,
+                                  int status_code)
+    {
+        HttpStatusCodeType type = HttpStatusCodeType.getEnum(status_code);
+        return (type == null) ? null : table.get(type);
+    }
+
+    private HttpCannedResponse()
+    {
+    }
+}
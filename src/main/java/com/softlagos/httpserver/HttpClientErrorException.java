@@ -12,7 +12,9 @@ import com.softlagos.Constants;
 import com.softlagos.httpserver.enums.HttpStatusCodeType;
 
 /**
- * The HTTP Client Error (4xx).
+ * The HTTP Client Error (4xx).  A client error is the expected
+ * answer to a bad request rather than a fault of the server, so
+ * it is raised without a stack trace.
  *
  * @author Rubens Gomes
  * @see "Section 6.5 of RFC7231 - Hypertext Transfer Protocol
@@ -32,7 +34,7 @@ public final class HttpClientErrorException
      */
     public HttpClientErrorException(int status_code, String body_message)
     {
-        super(status_code, body_message);
+        super(status_code, body_message, false);
 
         HttpStatusCodeType http_status =
                 HttpStatusCodeType.getEnum(status_code);
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpConnectionContext.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.softlagos.httpserver.enums.HttpMetricType;
+
+/**
+ * <p>
+ * The buffers a connection needs while it is served: the line
+ * reader with its read and line buffers, and the output buffer.
+ * </p>
+ * <p>
+ * The contexts are pooled: a connection acquires one, and
+ * releases it once closed so the next connection accepted reuses
+ * its buffers rather than allocating new ones.  A pool keeps at
+ * most a bounded number of idle contexts; the others are left to
+ * the garbage collector.  Each reactor shard has a pool of its own;
+ * the connections outside of any shard share the default pool.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+final class HttpConnectionContext
+{
+    /**
+     * A bounded pool of idle contexts.
+     */
+    static final class Pool
+    {
+        /**
+         * Instantiates a new pool.
+         *
+         * @param size the maximum number of idle contexts kept
+         */
+        Pool(int size)
+        {
+            v_size = size;
+        }
+
+        /**
+         * Acquires a context reading from and writing to the given
+         * streams.
+         *
+         * @param in the client input stream
+         * @param out the client output stream, or null if the
+         * connection writes through a stream of its own.
+         * @return the context
+         */
+        HttpConnectionContext acquire(InputStream in, OutputStream out)
+        {
+            HttpConnectionContext context = v_idle_contexts.poll();
+            if( context == null )
+            {
+                return new HttpConnectionContext(this, in, out);
+            }
+
+            v_idle.decrementAndGet();
+            HttpMetrics.instance().increment(HttpMetricType.CONTEXTS_REUSED);
+            context.v_reader.reset(in);
+            if( out != null )
+            {
+                context.v_out.reset(out);
+            }
+
+            return context;
+        }
+
+        // ------ >>> Private <<< ------
+        private final int v_size;
+        private final Queue<HttpConnectionContext> v_idle_contexts =
+                new ConcurrentLinkedQueue<HttpConnectionContext>();
+        private final AtomicInteger v_idle = new AtomicInteger();
+    }
+
+    /**
+     * Acquires a context of the default pool.
+     *
+     * @param in the client input stream
+     * @param out the client output stream, or null if the
+     * connection writes through a stream of its own.
+     * @return the context
+     */
+    static HttpConnectionContext acquire(InputStream in, OutputStream out)
+    {
+        return DEFAULT_POOL.acquire(in, out);
+    }
+
+    /**
+     * Returns the context to its pool.  The connection must no
+     * longer use its reader nor its output buffer.
+     */
+    void release()
+    {
+        if( v_pool.v_idle.incrementAndGet() > v_pool.v_size )
+        {
+            v_pool.v_idle.decrementAndGet();
+            return;
+        }
+
+        // an idle context does not hold on to the closed socket
+        v_reader.reset(NO_INPUT);
+        v_out.reset(NO_OUTPUT);
+        v_pool.v_idle_contexts.offer(this);
+    }
+
+    /**
+     * @return the line reader
+     */
+    HttpLineReader getReader()
+    {
+        return v_reader;
+    }
+
+    /**
+     * @return the output buffer
+     */
+    HttpOutputBuffer getOutputStream()
+    {
+        return v_out;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The size of the output buffer. */
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    /** The pool of the connections outside of any shard. */
+    private static final Pool DEFAULT_POOL = new Pool(
+            HttpProperties.getInt(HttpProperties.CONTEXT_POOL_SIZE, 256));
+
+    /** The placeholder input of an idle context. */
+    private static final InputStream NO_INPUT = InputStream.nullInputStream();
+
+    /**
+     * The placeholder output of an idle context, or of one used by
+     * a connection writing through a stream of its own.
+     */
+    private static final OutputStream NO_OUTPUT =
+            OutputStream.nullOutputStream();
+
+    private HttpConnectionContext(Pool pool, InputStream in, OutputStream out)
+    {
+        v_pool = pool;
+        v_reader = new HttpLineReader(in, HttpLineReader.DEFAULT_BUFFER_SIZE);
+        v_out = new HttpOutputBuffer((out == null) ? NO_OUTPUT : out,
+                                     OUTPUT_BUFFER_SIZE);
+    }
+
+    private final Pool v_pool;
+    private final HttpLineReader v_reader;
+    private final HttpOutputBuffer v_out;
+}
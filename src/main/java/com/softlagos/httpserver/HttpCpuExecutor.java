@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpCpuExecutor.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.enums.HttpMetricType;
+
+/**
+ * <p>
+ * The CPU tier of the server: a work-stealing pool, one thread per
+ * processor by default, running the handlers declaring themselves
+ * CPU bound, such as compression, templating or hashing.
+ * </p>
+ * <p>
+ * The I/O threads, which read the requests and write the responses
+ * of their connections, hand such a handler over to the CPU tier
+ * and wait for its response.  The computations thus never run on
+ * more threads than there are processors, whatever the number of
+ * connections, and a long one does not take the processor time of
+ * the I/O threads of the other connections.  A handler computing
+ * in parallel may fork tasks of its own on the pool.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see HttpRequestHandler#isCpuBound()
+ */
+public final class HttpCpuExecutor
+{
+    private static final Logger logger =
+            LogManager.getLogger(HttpCpuExecutor.class);
+
+    /**
+     * @return the single instance of the CPU tier.
+     */
+    public static HttpCpuExecutor instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs the given handler on the tier it declares: on the CPU
+     * tier if it is CPU bound, and on the calling thread otherwise.
+     * A streaming handler, which reads its message body from the
+     * connection, always runs on the calling thread.
+     *
+     * @param handler the request handler
+     * @param request the HTTP request
+     * @return the handler response
+     * @throws HttpErrorException if the handler raises one.
+     * @throws IOException if the handler raises one.
+     */
+    public HttpResponse handle(final HttpRequestHandler handler,
+                               final HttpRequest request)
+        throws HttpErrorException, IOException
+    {
+        if( ! handler.isCpuBound() || handler.isStreaming() ||
+            ForkJoinTask.inForkJoinPool() )
+        {
+            return handler.handle(request);
+        }
+
+        HttpMetrics.instance().increment(HttpMetricType.CPU_TASKS);
+        HandlerTask task = new HandlerTask(handler, request);
+        v_pool.execute(task);
+
+        try
+        {
+            HttpResponse response = task.get();
+            if( task.v_error instanceof HttpErrorException )
+            {
+                throw (HttpErrorException) task.v_error;
+            }
+
+            if( task.v_error instanceof IOException )
+            {
+                throw (IOException) task.v_error;
+            }
+
+            return response;
+        }
+        catch(InterruptedException ex)
+        {
+            task.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new HttpServerErrorException(503,
+                    "interrupted waiting for the handler");
+        }
+        catch(ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+
+            if( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+
+            throw new HttpServerErrorException(500,
+                    "handler failed: " + cause, (Exception) cause);
+        }
+    }
+
+    /**
+     * @return the work-stealing pool, on which a CPU bound handler
+     * may fork tasks of its own.
+     */
+    public ForkJoinPool getPool()
+    {
+        return v_pool;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * A handler run on the CPU tier.  The checked exceptions of the
+     * handler are kept for the waiting thread to raise, rather than
+     * wrapped by the pool.
+     */
+    @SuppressWarnings("serial")
+    private static final class HandlerTask
+      extends RecursiveTask<HttpResponse>
+    {
+        private HandlerTask(HttpRequestHandler handler, HttpRequest request)
+        {
+            v_handler = handler;
+            v_request = request;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.concurrent.RecursiveTask#compute()
+         */
+        @Override
+        protected HttpResponse compute()
+        {
+            try
+            {
+                return v_handler.handle(v_request);
+            }
+            catch(HttpErrorException | IOException ex)
+            {
+                v_error = ex;
+                return null;
+            }
+        }
+
+        private final HttpRequestHandler v_handler;
+        private final HttpRequest v_request;
+        private Exception v_error;
+    }
+
+    private static final HttpCpuExecutor INSTANCE = new HttpCpuExecutor(
+            HttpProperties.getInt(HttpProperties.CPU_WORKERS,
+                    Runtime.getRuntime().availableProcessors()));
+
+    private HttpCpuExecutor(int parallelism)
+    {
+        if(logger.isInfoEnabled())
+        {
+            logger.info("running the CPU bound handlers on [" +
+                        parallelism + "] threads");
+        }
+
+        v_pool = new ForkJoinPool(parallelism,
+                new ForkJoinPool.ForkJoinWorkerThreadFactory()
+                {
+                    private final AtomicInteger v_count = new AtomicInteger();
+
+                    @Override
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+                    {
+                        ForkJoinWorkerThread thread =
+                                ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                                        .newThread(pool);
+                        thread.setName("http-cpu-" + v_count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, null, false);
+    }
+
+    private final ForkJoinPool v_pool;
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpDeadlineTimer.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.enums.HttpMetricType;
+import com.softlagos.reactor.SocketHandle;
+
+/**
+ * <p>
+ * A single timer thread shared by all connections that closes
+ * a connection when one of its I/O deadlines expires.
+ * </p>
+ * <p>
+ * Blocking reads and writes cannot be interrupted, but closing
+ * the socket makes them fail right away.  Arming a deadline
+ * before a blocking phase (receiving the request head, writing
+ * the response) and cancelling it afterwards therefore bounds
+ * the time a worker thread can be held by a slow client,
+ * without a watchdog thread per connection.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpDeadlineTimer
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpDeadlineTimer.class);
+
+    /**
+     * @return the single instance of the deadline timer.
+     */
+    public static HttpDeadlineTimer instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Arms a deadline that closes the given connection once the
+     * given timeout elapses, unless it is cancelled first.
+     *
+     * @param handle the connection to close
+     * @param timeout_ms the timeout in milliseconds
+     * @param metric the counter incremented if the deadline
+     * expires.
+     * @return the armed deadline
+     */
+    public Deadline arm(SocketHandle handle, long timeout_ms,
+                        HttpMetricType metric)
+    {
+        if( handle == null )
+        {
+            throw new IllegalArgumentException("handle cannot be null.");
+        }
+
+        if( metric == null )
+        {
+            throw new IllegalArgumentException("metric cannot be null.");
+        }
+
+        if( timeout_ms <= 0 )
+        {
+            throw new IllegalArgumentException("timeout_ms must be greater than 0");
+        }
+
+        Deadline deadline = new Deadline(handle, metric);
+        deadline.v_future = v_executor.schedule(deadline, timeout_ms,
+                                                TimeUnit.MILLISECONDS);
+        return deadline;
+    }
+
+    /**
+     * A deadline armed on a connection.
+     */
+    public static final class Deadline implements Runnable
+    {
+        /**
+         * Cancels this deadline.  It has no effect if the
+         * deadline has already expired.
+         */
+        public void cancel()
+        {
+            ScheduledFuture<?> future = v_future;
+            if( future != null )
+            {
+                future.cancel(false);
+            }
+        }
+
+        /**
+         * @return true, if the deadline expired and the
+         * connection was closed.
+         */
+        public boolean isExpired()
+        {
+            return v_expired;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run()
+        {
+            v_expired = true;
+            HttpMetrics.instance().increment(v_metric);
+
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("deadline [" + v_metric.getName() +
+                             "] expired: closing connection");
+            }
+
+            try
+            {
+                v_handle.close();
+            }
+            catch(IOException ex)
+            {
+                logger.error("Error closing IO handle: " + ex.getMessage());
+            }
+        }
+
+        // ------ >>> Private <<< ------
+        private Deadline(SocketHandle handle, HttpMetricType metric)
+        {
+            v_handle = handle;
+            v_metric = metric;
+        }
+
+        private final SocketHandle v_handle;
+        private final HttpMetricType v_metric;
+        private volatile ScheduledFuture<?> v_future;
+        private volatile boolean v_expired;
+    }
+
+    // ------ >>> Private <<< ------
+    private static final HttpDeadlineTimer INSTANCE =
+            new HttpDeadlineTimer("http-deadline-timer");
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Instantiates a new deadline timer, such as the timer of a
+     * reactor shard.
+     *
+     * @param name the name of the timer thread
+     */
+    HttpDeadlineTimer(final String name)
+    {
+        v_executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // cancelled deadlines are the common case; do not keep
+        // them queued until their delay elapses.
+        v_executor.setRemoveOnCancelPolicy(true);
+    }
+
+    private final ScheduledThreadPoolExecutor v_executor;
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpDrain.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.http2.Http2Connection;
+
+/**
+ * <p>
+ * Keeps track of the connections in flight so the server can
+ * shut down without cutting them off.
+ * </p>
+ * <p>
+ * A connection is in flight from the time its task is created,
+ * when it is accepted, until the task closes it.  Draining waits,
+ * up to a deadline, for the connections in flight to finish.  An
+ * HTTP/1.1 connection already closes after its response, which
+ * carries "Connection: close"; an HTTP/2 connection is sent a
+ * GOAWAY so the client opens no new stream on it, and closes once
+ * its open streams are answered.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpDrain
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpDrain.class);
+
+    /** The default time in milliseconds to wait for a drain. */
+    public static final long DEFAULT_TIMEOUT_MS = 30000L;
+
+    /**
+     * @return the single instance
+     */
+    public static HttpDrain instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Counts a new connection in flight.
+     */
+    public void enter()
+    {
+        synchronized(v_lock)
+        {
+            v_inflight++;
+        }
+    }
+
+    /**
+     * Counts a connection in flight as finished.
+     */
+    public void exit()
+    {
+        synchronized(v_lock)
+        {
+            v_inflight--;
+            if( v_inflight <= 0 )
+            {
+                v_lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Registers an HTTP/2 connection to be sent a GOAWAY when the
+     * server drains.  A connection registered while draining is
+     * sent it right away.
+     *
+     * @param connection the HTTP/2 connection
+     */
+    public void register(Http2Connection connection)
+    {
+        if( connection == null )
+        {
+            throw new IllegalArgumentException("connection cannot be null.");
+        }
+
+        v_connections.add(connection);
+        if( v_draining )
+        {
+            connection.shutdown();
+        }
+    }
+
+    /**
+     * @param connection an HTTP/2 connection that is closed
+     */
+    public void unregister(Http2Connection connection)
+    {
+        v_connections.remove(connection);
+    }
+
+    /**
+     * @return true, if the server is draining.
+     */
+    public boolean isDraining()
+    {
+        return v_draining;
+    }
+
+    /**
+     * @return the number of connections in flight
+     */
+    public int getInflight()
+    {
+        synchronized(v_lock)
+        {
+            return v_inflight;
+        }
+    }
+
+    /**
+     * Starts draining, and waits for the connections in flight to
+     * finish.
+     *
+     * @param timeout_ms the maximum time in milliseconds to wait
+     * @return true, if all the connections finished in time.
+     */
+    public boolean drain(long timeout_ms)
+    {
+        v_draining = true;
+        for(Http2Connection connection : v_connections)
+        {
+            connection.shutdown();
+        }
+
+        long deadline = System.currentTimeMillis() + timeout_ms;
+        synchronized(v_lock)
+        {
+            while( v_inflight > 0 )
+            {
+                long wait_ms = deadline - System.currentTimeMillis();
+                if( wait_ms <= 0 )
+                {
+                    logger.warn("drain timed out with [" + v_inflight +
+                                "] connections in flight");
+                    return false;
+                }
+
+                try
+                {
+                    v_lock.wait(wait_ms);
+                }
+                catch(InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("all connections drained");
+        }
+
+        return true;
+    }
+
+    // ------ >>> Private <<< ------
+    private HttpDrain()
+    {
+        v_lock = new Object();
+        v_connections = ConcurrentHashMap.newKeySet();
+    }
+
+    private static final HttpDrain INSTANCE = new HttpDrain();
+
+    private final Object v_lock;
+    private final Set<Http2Connection> v_connections;
+    private int v_inflight;
+    private volatile boolean v_draining;
+}
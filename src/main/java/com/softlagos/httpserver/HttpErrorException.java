@@ -69,6 +69,32 @@ public class HttpErrorException extends Exception
         v_message_body = body_message;
     }
 
+    /**
+     * Instantiates a generic HTTP error exception, optionally
+     * without a stack trace.  Filling in the stack trace is most
+     * of the cost of an exception; errors answering bad requests
+     * are expected and never need one.
+     *
+     * @param status_code the HTTP error status code
+     * @param body_message a message body containing the payload
+     * body if any.
+     * @param stack_trace false, to skip filling in the stack trace
+     */
+    protected HttpErrorException(int status_code, String body_message,
+                                 boolean stack_trace)
+    {
+        super(body_message, null, false, stack_trace);
+
+        if( HttpStatusCodeType.getEnum(status_code) == null )
+        {
+            throw new IllegalArgumentException("status [" +
+                    status_code + "] not valid.");
+        }
+
+        v_status_code = status_code;
+        v_message_body = body_message;
+    }
+
     /**
      * Gets the status code.
      *
@@ -9,7 +9,7 @@
 package com.softlagos.httpserver;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -17,7 +17,8 @@ import org.apache.logging.log4j.Logger;
 /**
  * An Error Handler responsible for handling
  * either client or server related exceptions
- * raised in the HTTP server.
+ * raised in the HTTP server.  The client is sent the canned
+ * response of the error status code.
  *
  * @author Rubens Gomes
  */
@@ -31,41 +32,44 @@ public final class HttpErrorHandler
      * Instantiates a new http error handler.
      *
      * @param ex the exception raised
-     * @param writer the writer to send HTTP response
+     * @param out the client output stream
      */
-    public HttpErrorHandler(Exception ex, OutputStreamWriter writer)
+    public HttpErrorHandler(Exception ex, OutputStream out)
+    {
+        this(ex, out, true);
+    }
+
+    /**
+     * Instantiates a new http error handler.
+     *
+     * @param ex the exception raised
+     * @param out the client output stream
+     * @param with_body false, to answer a HEAD request with the
+     * header of the response only.
+     */
+    public HttpErrorHandler(Exception ex, OutputStream out,
+                            boolean with_body)
     {
         if(ex == null)
         {
             throw new IllegalArgumentException("ex cannot be null.");
         }
 
-        if(writer == null)
-        {
-            throw new IllegalArgumentException("writer cannot be null.");
-        }
-
-        v_writer = writer;
-        HttpStatusLine status_line =
-                HttpStatusLine.makeHttpStatusLine(ex);
-
-        if(logger.isDebugEnabled())
+        if(out == null)
         {
-            logger.debug("HTTP response status_line: " + status_line);
+            throw new IllegalArgumentException("out cannot be null.");
         }
 
-        HttpResponseHeader header =
-                new HttpResponseHeader(status_line);
-
-        HttpMessageBody body = new HttpMessageBody();
-        body.add(ex.getMessage());
+        v_out = out;
+        v_with_body = with_body;
+        v_status_code = (ex instanceof HttpErrorException) ?
+                ((HttpErrorException) ex).getStatusCode() : 500;
 
         if(logger.isDebugEnabled())
         {
-            logger.debug("HTTP message body: " + body);
+            logger.debug("HTTP error response [" + v_status_code + "]: " +
+                         ex.getMessage());
         }
-
-        v_response = new HttpResponse(header, body);
     }
 
     /**
@@ -73,18 +77,12 @@ public final class HttpErrorHandler
      */
     public void sendResponse() throws IOException
     {
-        if( (v_response == null) || (v_response.toString() == null) )
-        {
-            throw new IllegalStateException("v_response cannot be empty.");
-        }
-
-        String resp = v_response.toString();
-        v_writer.write(resp, 0, resp.length());
-        v_writer.flush();
+        HttpCannedResponse.write(v_status_code, v_out, v_with_body);
+        v_out.flush();
     }
 
-    /** The v_status_line. */
     // ------ >>> Private <<< ------
-    private final OutputStreamWriter v_writer;
-    private final HttpResponse v_response;
+    private final OutputStream v_out;
+    private final int v_status_code;
+    private final boolean v_with_body;
 }
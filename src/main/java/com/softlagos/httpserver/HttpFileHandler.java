@@ -0,0 +1,240 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpFileHandler.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.enums.HttpRequestMethodType;
+
+/**
+ * <p>
+ * A handler serving the files under a root directory.  The
+ * request path, after the route prefix, names a file relative to
+ * the root; a directory is served through its index.html.
+ * </p>
+ * <p>
+ * Small files are read into memory.  Larger files are memory
+ * mapped and streamed from the mapping, so the file octets are
+ * read by the page cache rather than copied through the heap;
+ * under TLS, where the kernel cannot send the file itself, the
+ * records are encrypted straight from the mapped buffers.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpFileHandler
+  implements HttpRequestHandler
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpFileHandler.class);
+
+    /** Files up to this size are read into memory. */
+    public static final int MAP_THRESHOLD = 64 * 1024;
+
+    /**
+     * Instantiates a new file handler.
+     *
+     * @param route the path prefix the handler is registered under
+     * @param root the directory of the files served
+     */
+    public HttpFileHandler(String route, Path root)
+    {
+        if( route == null || ! route.startsWith("/") )
+        {
+            throw new IllegalArgumentException(
+                    "route cannot be null and must start with /.");
+        }
+
+        if( root == null )
+        {
+            throw new IllegalArgumentException("root cannot be null.");
+        }
+
+        v_route = route.endsWith("/") ?
+                route.substring(0, route.length() - 1) : route;
+        v_root = root.toAbsolutePath().normalize();
+    }
+
+    /* (non-Javadoc)
+     * @see com.softlagos.httpserver.HttpRequestHandler#handle(com.softlagos.httpserver.HttpRequest)
+     */
+    @Override
+    public HttpResponse handle(HttpRequest request)
+        throws HttpErrorException, IOException
+    {
+        // a HEAD is served as a GET, whose body is left out when
+        // the response is sent.
+        HttpRequestLine request_line = request.getHeader().getRequestLine();
+        if( request_line.getMethod() != HttpRequestMethodType.GET &&
+            request_line.getMethod() != HttpRequestMethodType.HEAD )
+        {
+            String msg = "method [" + request_line.getMethod() +
+                    "] not allowed on static files";
+            throw new HttpClientErrorException(405, msg);
+        }
+
+        Path file = resolve(request_line.getRequestTarget());
+        if( file != null && Files.isDirectory(file) )
+        {
+            file = file.resolve(INDEX_FILE);
+        }
+
+        if( file == null || ! Files.isRegularFile(file) ||
+            ! Files.isReadable(file) )
+        {
+            String msg = "no file found for [" +
+                    request_line.getRequestURI() + "]";
+            throw new HttpClientErrorException(404, msg);
+        }
+
+        HttpResponseHeader header = new HttpResponseHeader(
+                HttpStatusLine.makeHttpStatusLine(200));
+        header.addHeader("Content-Type", contentType(file));
+        header.addLastModified(new Date(
+                Files.getLastModifiedTime(file).toMillis()));
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try
+        {
+            long size = channel.size();
+            if( size <= MAP_THRESHOLD )
+            {
+                HttpMessageBody body = new HttpMessageBody((int) size);
+                ByteBuffer buff = ByteBuffer.allocate((int) size);
+                while( buff.hasRemaining() )
+                {
+                    if( channel.read(buff) < 0 )
+                    {
+                        break;
+                    }
+                }
+
+                body.add(buff.array(), 0, buff.position());
+                return new HttpResponse(header, body);
+            }
+
+            // the mappings stay valid once the channel is closed
+            int count = (int) ((size + MAX_MAPPING - 1) / MAX_MAPPING);
+            ByteBuffer regions [] = new ByteBuffer[count];
+            for(int idx = 0; idx < count; idx++)
+            {
+                long position = idx * (long) MAX_MAPPING;
+                MappedByteBuffer region = channel.map(
+                        FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAX_MAPPING, size - position));
+                regions[idx] = region;
+            }
+
+            header.addContentLength(size);
+            return new HttpResponse(header,
+                    new HttpBufferPublisher(regions, SLICE_SIZE));
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The file served for a directory. */
+    private static final String INDEX_FILE = "index.html";
+
+    /** The largest region of a file mapped at once. */
+    private static final int MAX_MAPPING = 1 << 30;
+
+    /** The size of the buffers published from a mapped region. */
+    private static final int SLICE_SIZE = 256 * 1024;
+
+    /**
+     * Maps a request target to a file under the root directory.
+     *
+     * @param target the request target
+     * @return the file, or null if the target falls outside of
+     * the root directory.
+     * @throws HttpClientErrorException if the target path has a
+     * malformed percent-encoding.
+     */
+    private Path resolve(HttpRequestTarget target)
+        throws HttpClientErrorException
+    {
+        // normalized and percent-decoded, without the query; the
+        // route must be followed by a '/' or end the path.
+        String path = target.getDecodedPath();
+        if( path == null || ! path.startsWith(v_route) ||
+            (path.length() > v_route.length() &&
+             path.charAt(v_route.length()) != '/') ||
+            path.indexOf('\0') >= 0 )
+        {
+            return null;
+        }
+
+        String relative = path.substring(v_route.length());
+        while( relative.startsWith("/") )
+        {
+            relative = relative.substring(1);
+        }
+
+        Path file = v_root.resolve(relative).normalize();
+        if(! file.startsWith(v_root) )
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("request target [" + target +
+                             "] outside of the static root");
+            }
+
+            return null;
+        }
+
+        // symbolic links must not lead outside of the root either
+        if( Files.exists(file, LinkOption.NOFOLLOW_LINKS) )
+        {
+            try
+            {
+                if(! file.toRealPath().startsWith(v_root.toRealPath()) )
+                {
+                    return null;
+                }
+            }
+            catch(IOException ex)
+            {
+                return null;
+            }
+        }
+
+        return file;
+    }
+
+    /**
+     * @return the media type of the file from its name
+     */
+    private static String contentType(Path file)
+    {
+        String type = URLConnection.getFileNameMap().getContentTypeFor(
+                file.getFileName().toString());
+        return (type == null) ? "application/octet-stream" : type;
+    }
+
+    private final String v_route;
+    private final Path v_root;
+}
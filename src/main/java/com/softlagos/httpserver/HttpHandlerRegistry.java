@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpHandlerRegistry.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.cache.HttpCachingHandler;
+import com.softlagos.httpserver.cache.HttpResponseCache;
+import com.softlagos.httpserver.enums.HttpRequestMethodType;
+
+/**
+ * The registry of the request handlers, each one mounted on a
+ * request-target path prefix.  A request is routed to the
+ * handler with the longest prefix matching its path.
+ * <p>
+ * Handlers are registered at start up; the routes are kept in
+ * an array replaced on every registration so lookups need no
+ * locking.
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpHandlerRegistry
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpHandlerRegistry.class);
+
+    /**
+     * @return the single instance of the handler registry.
+     */
+    public static HttpHandlerRegistry instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Mounts the given handler on the given path prefix,
+     * replacing any handler already mounted on it.
+     *
+     * @param prefix the request-target path prefix starting
+     * with "/".
+     * @param handler the request handler; a handler buffering its
+     * request bodies is put behind the response cache, if enabled.
+     */
+    public synchronized void register(String prefix,
+                                      HttpRequestHandler handler)
+    {
+        if( prefix == null || ! prefix.startsWith("/") )
+        {
+            throw new IllegalArgumentException(
+                    "prefix cannot be null and must start with /");
+        }
+
+        if( handler == null )
+        {
+            throw new IllegalArgumentException("handler cannot be null.");
+        }
+
+        if(logger.isInfoEnabled())
+        {
+            logger.info("registering handler [" +
+                    handler.getClass().getName() + "] on [" + prefix + "]");
+        }
+
+        // buffered responses may be answered from the cache
+        HttpResponseCache cache = HttpResponseCache.instance();
+        if( cache != null && ! handler.isStreaming() &&
+            ! (handler instanceof HttpCachingHandler) )
+        {
+            handler = new HttpCachingHandler(handler, cache);
+        }
+
+        Route routes [] = v_routes;
+        int count = routes.length;
+        Route updated [] = new Route[count + 1];
+        int pos = 0;
+
+        for(Route route : routes)
+        {
+            if(! route.v_prefix.equals(prefix) )
+            {
+                updated[pos++] = route;
+            }
+        }
+
+        updated[pos++] = new Route(prefix, handler);
+        updated = Arrays.copyOf(updated, pos);
+
+        // longest prefixes first
+        Arrays.sort(updated, new Comparator<Route>()
+        {
+            @Override
+            public int compare(Route r1, Route r2)
+            {
+                return r2.v_prefix.length() - r1.v_prefix.length();
+            }
+        });
+
+        v_routes = updated;
+    }
+
+    /**
+     * Finds the handler of the given request-target, from its path
+     * normalized as by HttpRequestTarget.
+     *
+     * @param request_target the origin-form or absolute-form
+     * request-target.
+     * @return the handler, or null if no handler is mounted
+     * on a prefix of the request-target path.
+     */
+    public HttpRequestHandler lookup(String request_target)
+    {
+        if( request_target == null )
+        {
+            throw new IllegalArgumentException("request_target cannot be null.");
+        }
+
+        try
+        {
+            return lookup(new HttpRequestTarget(HttpRequestMethodType.GET,
+                                                request_target));
+        }
+        catch(HttpClientErrorException ex)
+        {
+            // not a target a resource is found with
+            return null;
+        }
+    }
+
+    /**
+     * Finds the handler of the given request target from its
+     * normalized path, so a target with "." or ".." segments is
+     * routed to the handler of the resource it names.
+     *
+     * @param request_target the request target
+     * @return the handler, or null if no handler is mounted
+     * on a prefix of the request target path.
+     */
+    public HttpRequestHandler lookup(HttpRequestTarget request_target)
+    {
+        if( request_target == null )
+        {
+            throw new IllegalArgumentException("request_target cannot be null.");
+        }
+
+        String path = request_target.getNormalizedPath();
+        return (path == null) ? null : find(path);
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * A handler mounted on a path prefix.
+     */
+    private static final class Route
+    {
+        private Route(String prefix, HttpRequestHandler handler)
+        {
+            v_prefix = prefix;
+            v_handler = handler;
+        }
+
+        private final String v_prefix;
+        private final HttpRequestHandler v_handler;
+    }
+
+    /**
+     * A prefix matches whole path segments only: "/api" matches
+     * "/api" and "/api/users", but not "/apix".
+     *
+     * @param path the path of a request-target
+     * @return the handler mounted on the longest prefix of the
+     * path, or null.
+     */
+    private HttpRequestHandler find(String path)
+    {
+        for(Route route : v_routes)
+        {
+            String prefix = route.v_prefix;
+            if( path.startsWith(prefix) &&
+                (path.length() == prefix.length() || prefix.endsWith("/") ||
+                 path.charAt(prefix.length()) == '/') )
+            {
+                return route.v_handler;
+            }
+        }
+
+        return null;
+    }
+
+    private static final HttpHandlerRegistry INSTANCE =
+            new HttpHandlerRegistry();
+
+    private HttpHandlerRegistry()
+    {
+        v_routes = new Route[0];
+    }
+
+    private volatile Route v_routes [];
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpHandoff.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>
+ * Hands the listening port over from a running server to a new
+ * one, for restarts without downtime.
+ * </p>
+ * <p>
+ * Each server listens on a control port of the loopback
+ * interface.  A new server starting up first asks the server
+ * already on that control port to release its listener; the old
+ * server closes its listening socket and its control port, answers,
+ * and then drains its connections in flight and exits, while the
+ * new server binds the port and serves the new connections.
+ * </p>
+ * <p>
+ * The exchange is a single line each way: the new server sends
+ * "HANDOFF" followed by the shared secret, and the old one answers
+ * "RELEASED".  Any local process may connect to the loopback control
+ * port, so the secret is read by both servers from a file only its
+ * owner can access, and a request without it is ignored.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpHandoff
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpHandoff.class);
+
+    /**
+     * Reads the shared secret of the handoff.
+     *
+     * @param file the path of the secret file, readable and
+     * writable by its owner only.
+     * @return the secret
+     * @throws IOException if the file is not set, cannot be read,
+     * is empty, or may be accessed by other users.
+     */
+    public static String readSecret(String file)
+        throws IOException
+    {
+        if( file == null )
+        {
+            throw new IOException("no handoff secret file set");
+        }
+
+        Path path = Paths.get(file);
+        PosixFileAttributeView view = Files.getFileAttributeView(path,
+                PosixFileAttributeView.class);
+        if( view != null )
+        {
+            Set<PosixFilePermission> permissions =
+                    view.readAttributes().permissions();
+            permissions.remove(PosixFilePermission.OWNER_READ);
+            permissions.remove(PosixFilePermission.OWNER_WRITE);
+            if(! permissions.isEmpty() )
+            {
+                throw new IOException("handoff secret file [" + file +
+                        "] must be readable by its owner only");
+            }
+        }
+
+        String secret = new String(Files.readAllBytes(path),
+                                   StandardCharsets.UTF_8).trim();
+        if( secret.isEmpty() || secret.indexOf('\n') >= 0 )
+        {
+            throw new IOException("handoff secret file [" + file +
+                    "] must hold the secret on a single line");
+        }
+
+        return secret;
+    }
+
+    /**
+     * Asks the server listening on the given control port, if any,
+     * to release its listener, and waits for it to do so.
+     *
+     * @param control_port the loopback control port
+     * @param secret the shared secret of the handoff
+     * @param timeout_ms the maximum time in milliseconds to wait
+     * @return true, if a running server released its listener.
+     */
+    public static boolean takeOver(int control_port, String secret,
+                                   int timeout_ms)
+    {
+        if( secret == null )
+        {
+            throw new IllegalArgumentException("secret cannot be null.");
+        }
+
+        try (Socket socket = new Socket())
+        {
+            socket.connect(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), control_port),
+                    timeout_ms);
+            socket.setSoTimeout(timeout_ms);
+
+            OutputStream out = socket.getOutputStream();
+            out.write((HANDOFF + " " + secret + "\n").getBytes(
+                    StandardCharsets.UTF_8));
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.US_ASCII));
+            boolean released = RELEASED.equals(in.readLine());
+            if( released )
+            {
+                logger.info("took over the listener of the running server");
+            }
+
+            return released;
+        }
+        catch(ConnectException ex)
+        {
+            // no server is running
+            return false;
+        }
+        catch(IOException ex)
+        {
+            logger.warn("error taking over the running server: " +
+                        ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Listens on the given control port for a new server taking
+     * over, on a daemon thread.  On a handoff, the acceptor stops
+     * accepting and drains, and the process exits.
+     *
+     * @param control_port the loopback control port
+     * @param secret the shared secret of the handoff
+     * @param acceptor the acceptor of this server
+     * @throws IOException if the control port cannot be bound.
+     */
+    public static void listen(int control_port, String secret,
+                              final HttpAcceptor acceptor)
+        throws IOException
+    {
+        if( secret == null )
+        {
+            throw new IllegalArgumentException("secret cannot be null.");
+        }
+
+        if( acceptor == null )
+        {
+            throw new IllegalArgumentException("acceptor cannot be null.");
+        }
+
+        final byte expected [] = (HANDOFF + " " + secret)
+                .getBytes(StandardCharsets.UTF_8);
+
+        final ServerSocket control = new ServerSocket(control_port, 1,
+                InetAddress.getLoopbackAddress());
+
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if( serve(control, expected, acceptor) )
+                {
+                    acceptor.drain();
+                    logger.info("drained after handoff; exiting");
+                    System.exit(0);
+                }
+            }
+        }, "http-handoff");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // ------ >>> Private <<< ------
+    private HttpHandoff()
+    {
+    }
+
+    /** The request of a new server taking over. */
+    private static final String HANDOFF = "HANDOFF";
+
+    /** The answer of the server releasing its listener. */
+    private static final String RELEASED = "RELEASED";
+
+    /** The time in milliseconds a control client has to ask. */
+    private static final int READ_TIMEOUT_MS = 5000;
+
+    /**
+     * Waits for a new server to take over, and releases the
+     * listener to it.
+     *
+     * @param control the control server socket
+     * @param expected the request line carrying the shared secret
+     * @param acceptor the acceptor of this server
+     * @return true, if the listener was handed over.
+     */
+    private static boolean serve(ServerSocket control, byte expected [],
+                                 HttpAcceptor acceptor)
+    {
+        while( true )
+        {
+            try (Socket socket = control.accept())
+            {
+                socket.setSoTimeout(READ_TIMEOUT_MS);
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), StandardCharsets.UTF_8));
+                String line = in.readLine();
+
+                // compared in constant time, not to leak the secret
+                if( line == null || ! MessageDigest.isEqual(expected,
+                        line.getBytes(StandardCharsets.UTF_8)) )
+                {
+                    logger.warn("ignoring a handoff request without the " +
+                                "shared secret");
+                    continue;
+                }
+
+                // both ports are freed before the new server is told
+                acceptor.stopAccepting();
+                control.close();
+
+                OutputStream out = socket.getOutputStream();
+                out.write((RELEASED + "\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                logger.info("listener handed over to a new server");
+                return true;
+            }
+            catch(IOException ex)
+            {
+                if( control.isClosed() )
+                {
+                    // the listener is already released
+                    return true;
+                }
+
+                if(logger.isDebugEnabled())
+                {
+                    logger.debug("error on handoff control connection: " +
+                                 ex.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpHeaderFields.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.nio.charset.Charset;
+
+/**
+ * <p>
+ * The header fields of a request as received: the octets of the
+ * field lines in a single array, and the offset and length of each
+ * field name and value in it.
+ * </p>
+ * <p>
+ * A name or value is only decoded into a String the first time it
+ * is asked for; looking a field up by name compares its octets, so
+ * the fields a handler never reads are never decoded.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "Section 3.2 of RFC7230 - Hypertext Transfer Protocol
+ * (HTTP/1.1): Message Syntax and Routing"
+ */
+public final class HttpHeaderFields
+{
+    /**
+     * Instantiates new, empty, header fields.
+     */
+    public HttpHeaderFields()
+    {
+        v_octets = new byte[INITIAL_SIZE];
+        v_slices = new int[INITIAL_FIELDS * 4];
+    }
+
+    /**
+     * Adds a field line: the field name, a colon, and the field
+     * value.  The whitespace around the name and the value is not
+     * kept.
+     *
+     * @param line the octets of the line
+     * @param off the start offset of the line
+     * @param len the length of the line, without its terminator
+     * @return false if the line is not a field line, and was not
+     * added.
+     */
+    public boolean add(byte line [], int off, int len)
+    {
+        if( line == null )
+        {
+            throw new IllegalArgumentException("line cannot be null.");
+        }
+
+        int colon = off;
+        int end = off + len;
+        while( colon < end && line[colon] != ':' )
+        {
+            colon++;
+        }
+
+        int name_start = skip(line, off, colon);
+        int name_end = trail(line, name_start, colon);
+        if( colon == end || name_start == name_end )
+        {
+            return false;
+        }
+
+        int value_start = skip(line, colon + 1, end);
+        int value_end = trail(line, value_start, end);
+
+        int name_len = name_end - name_start;
+        int value_len = value_end - value_start;
+        ensure(name_len + value_len);
+
+        int slice = v_count * 4;
+        if( slice == v_slices.length )
+        {
+            int slices [] = new int[v_slices.length * 2];
+            System.arraycopy(v_slices, 0, slices, 0, v_slices.length);
+            v_slices = slices;
+        }
+
+        v_slices[slice] = v_length;
+        v_slices[slice + 1] = name_len;
+        System.arraycopy(line, name_start, v_octets, v_length, name_len);
+        v_length += name_len;
+
+        v_slices[slice + 2] = v_length;
+        v_slices[slice + 3] = value_len;
+        System.arraycopy(line, value_start, v_octets, v_length, value_len);
+        v_length += value_len;
+
+        v_count++;
+        v_names = null;
+        v_values = null;
+        return true;
+    }
+
+    /**
+     * @return the number of fields
+     */
+    public int size()
+    {
+        return v_count;
+    }
+
+    /**
+     * @return the number of octets of the field names and values
+     */
+    public int length()
+    {
+        return v_length;
+    }
+
+    /**
+     * @param index the index of the field
+     * @return the field name
+     */
+    public String getName(int index)
+    {
+        check(index);
+        if( v_names == null )
+        {
+            v_names = new String[v_count];
+        }
+
+        if( v_names[index] == null )
+        {
+            v_names[index] = decode(index * 4);
+        }
+
+        return v_names[index];
+    }
+
+    /**
+     * @param index the index of the field
+     * @return the field value
+     */
+    public String getValue(int index)
+    {
+        check(index);
+        if( v_values == null )
+        {
+            v_values = new String[v_count];
+        }
+
+        if( v_values[index] == null )
+        {
+            v_values[index] = decode(index * 4 + 2);
+        }
+
+        return v_values[index];
+    }
+
+    /**
+     * Gets the value of the given field.  Field names are
+     * case-insensitive; if the field was received more than once,
+     * the last value is returned.
+     *
+     * @param name the field name
+     * @return the field value, or null if the field was not
+     * received.
+     */
+    public String get(String name)
+    {
+        int index = indexOf(name);
+        return (index < 0) ? null : getValue(index);
+    }
+
+    /**
+     * @param name the field name
+     * @return true, if the field was received.
+     */
+    public boolean contains(String name)
+    {
+        return indexOf(name) >= 0;
+    }
+
+    // ------ >>> Private <<< ------
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /** The initial size of the field octets. */
+    private static final int INITIAL_SIZE = 512;
+
+    /** The initial number of fields. */
+    private static final int INITIAL_FIELDS = 16;
+
+    /**
+     * @param name the field name
+     * @return the index of the last field of the given name, or -1.
+     */
+    private int indexOf(String name)
+    {
+        if( name == null )
+        {
+            throw new IllegalArgumentException("name cannot be null.");
+        }
+
+        int name_len = name.length();
+        for(int index = v_count - 1; index >= 0; index--)
+        {
+            int slice = index * 4;
+            if( v_slices[slice + 1] != name_len )
+            {
+                continue;
+            }
+
+            int pos = v_slices[slice];
+            int i = 0;
+            while( i < name_len &&
+                   lower(v_octets[pos + i] & 0xFF) == lower(name.charAt(i)) )
+            {
+                i++;
+            }
+
+            if( i == name_len )
+            {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param c a character
+     * @return the character in lower case if it is an ASCII letter
+     */
+    private static int lower(int c)
+    {
+        return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * @return the first position from start not holding whitespace
+     */
+    private static int skip(byte line [], int start, int end)
+    {
+        while( start < end && (line[start] == ' ' || line[start] == '\t') )
+        {
+            start++;
+        }
+
+        return start;
+    }
+
+    /**
+     * @return the position after the last octet before end not
+     * holding whitespace
+     */
+    private static int trail(byte line [], int start, int end)
+    {
+        while( end > start && (line[end - 1] == ' ' || line[end - 1] == '\t') )
+        {
+            end--;
+        }
+
+        return end;
+    }
+
+    /**
+     * Grows the octets to hold count more.
+     *
+     * @param count the number of octets to add
+     */
+    private void ensure(int count)
+    {
+        if( v_length + count > v_octets.length )
+        {
+            byte octets [] = new byte[Math.max(v_length + count,
+                                               v_octets.length * 2)];
+            System.arraycopy(v_octets, 0, octets, 0, v_length);
+            v_octets = octets;
+        }
+    }
+
+    /**
+     * @param index the index of a field
+     */
+    private void check(int index)
+    {
+        if( index < 0 || index >= v_count )
+        {
+            throw new IndexOutOfBoundsException("no header field [" +
+                                                index + "]");
+        }
+    }
+
+    /**
+     * @param slice the position of a slice offset
+     * @return the octets of the slice decoded as ISO-8859-1
+     */
+    private String decode(int slice)
+    {
+        return new String(v_octets, v_slices[slice], v_slices[slice + 1],
+                          ISO_8859_1);
+    }
+
+    private byte v_octets [];
+    private int v_slices [];
+    private int v_length;
+    private int v_count;
+    private String v_names [];
+    private String v_values [];
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpHealthHandler.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+/**
+ * A health check handler answering "200 OK" as long as the
+ * server is able to serve requests.
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpHealthHandler
+  implements HttpRequestHandler
+{
+    /* (non-Javadoc)
+     * @see com.softlagos.httpserver.HttpRequestHandler#handle(com.softlagos.httpserver.HttpRequest)
+     */
+    @Override
+    public HttpResponse handle(HttpRequest request)
+    {
+        HttpResponseHeader header = new HttpResponseHeader(
+                HttpStatusLine.makeHttpStatusLine(200));
+        header.addHeader("Content-Type", "text/plain");
+
+        HttpMessageBody body = new HttpMessageBody();
+        body.add("OK");
+
+        return new HttpResponse(header, body);
+    }
+}
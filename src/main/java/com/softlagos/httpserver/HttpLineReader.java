@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpLineReader.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * <p>
+ * A buffered reader of the octets sent by an HTTP client.  It
+ * splits the request head into lines while the octets are read,
+ * so a line longer than the caller's limit is rejected as soon
+ * as the limit is crossed rather than after the whole line has
+ * been buffered.  The octets following the request head are
+ * read as-is, through the same buffer.
+ * </p>
+ * <p>
+ * Lines end in CRLF; a bare LF is also accepted as allowed by
+ * Section 3.5 of RFC7230.  Lines are decoded as ISO-8859-1.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "Section 3 of RFC7230 - Hypertext Transfer Protocol
+ * (HTTP/1.1): Message Syntax and Routing"
+ */
+public final class HttpLineReader
+{
+    /** The default read buffer size. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * Instantiates a new line reader.
+     *
+     * @param in the client input stream
+     * @param buffer_size the read buffer size
+     */
+    public HttpLineReader(InputStream in, int buffer_size)
+    {
+        if( in == null )
+        {
+            throw new IllegalArgumentException("in cannot be null.");
+        }
+
+        if( buffer_size <= 0 )
+        {
+            throw new IllegalArgumentException("buffer_size must be greater than 0");
+        }
+
+        v_in = in;
+        v_buffer = new byte[buffer_size];
+        v_line = new byte[Math.min(buffer_size, LINE_SIZE)];
+    }
+
+    /**
+     * Resets the reader to read from another stream, discarding
+     * any octet buffered from the previous one, so the reader and
+     * its buffers can serve a new connection.
+     *
+     * @param in the client input stream
+     */
+    public void reset(InputStream in)
+    {
+        if( in == null )
+        {
+            throw new IllegalArgumentException("in cannot be null.");
+        }
+
+        v_in = in;
+        v_pos = 0;
+        v_limit = 0;
+        if( v_line.length > v_buffer.length )
+        {
+            // a long line of the previous connection is not kept
+            v_line = new byte[Math.min(v_buffer.length, LINE_SIZE)];
+        }
+    }
+
+    /**
+     * Reads the next line.
+     *
+     * @param max_length the maximum number of octets of the line,
+     * not counting the line terminator.
+     * @param status_code the HTTP client error status code raised
+     * when the line is longer than max_length.
+     * @return the line without its terminator, or null if the
+     * connection was closed before the first octet of the line.
+     * @throws HttpClientErrorException if the line is too long, or
+     * if the connection was closed in the middle of the line.
+     * @throws IOException if an I/O error occurs.
+     */
+    public String readLine(int max_length, int status_code)
+        throws HttpClientErrorException, IOException
+    {
+        int length = readLineOctets(max_length, status_code);
+        return (length < 0) ? null :
+                new String(v_line, 0, length, ISO_8859_1);
+    }
+
+    /**
+     * Reads the next line into the line buffer, without decoding
+     * it.  The octets are those of getLineOctets() up to the next
+     * line read.
+     *
+     * @param max_length the maximum number of octets of the line,
+     * not counting the line terminator.
+     * @param status_code the HTTP client error status code raised
+     * when the line is longer than max_length.
+     * @return the length of the line without its terminator, or -1
+     * if the connection was closed before the first octet of the
+     * line.
+     * @throws HttpClientErrorException if the line is too long, or
+     * if the connection was closed in the middle of the line.
+     * @throws IOException if an I/O error occurs.
+     */
+    public int readLineOctets(int max_length, int status_code)
+        throws HttpClientErrorException, IOException
+    {
+        int length = 0;
+
+        while( true )
+        {
+            if( v_pos == v_limit && ! fill() )
+            {
+                if( length == 0 )
+                {
+                    return -1;
+                }
+
+                String msg = "connection closed in the middle of a line";
+                throw new HttpClientErrorException(400, msg);
+            }
+
+            int end = v_pos;
+            while( end < v_limit && v_buffer[end] != '\n' )
+            {
+                end++;
+            }
+
+            boolean found = (end < v_limit);
+            int count = end - v_pos;
+
+            // the CR of the terminator is allowed past the limit
+            if( length + count > max_length + 1 )
+            {
+                String msg = "line exceeds the maximum length of [" +
+                        max_length + "] octets";
+                throw new HttpClientErrorException(status_code, msg);
+            }
+
+            append(length, count);
+            length += count;
+            v_pos = found ? end + 1 : end;
+
+            if( found )
+            {
+                if( length > 0 && v_line[length - 1] == '\r' )
+                {
+                    length--;
+                }
+
+                if( length > max_length )
+                {
+                    String msg = "line exceeds the maximum length of [" +
+                            max_length + "] octets";
+                    throw new HttpClientErrorException(status_code, msg);
+                }
+
+                return length;
+            }
+        }
+    }
+
+    /**
+     * @return the line buffer holding the octets of the last line
+     * read by readLineOctets()
+     */
+    public byte [] getLineOctets()
+    {
+        return v_line;
+    }
+
+    /**
+     * Reads up to len octets, first from the read buffer and
+     * then from the client input stream.
+     *
+     * @param buff the buffer into which the octets are read
+     * @param off the start offset in buff
+     * @param len the maximum number of octets to read
+     * @return the number of octets read, or -1 at the end of the
+     * stream.
+     * @throws IOException if an I/O error occurs.
+     */
+    public int read(byte buff [], int off, int len)
+        throws IOException
+    {
+        if( v_pos < v_limit )
+        {
+            int count = Math.min(len, v_limit - v_pos);
+            System.arraycopy(v_buffer, v_pos, buff, off, count);
+            v_pos += count;
+            return count;
+        }
+
+        return v_in.read(buff, off, len);
+    }
+
+    /**
+     * Checks whether the next octets are the given prefix without
+     * consuming them.  It reads only as far as needed to tell,
+     * so a client that sent less than the prefix is read until
+     * its octets stop matching.
+     *
+     * @param prefix the octets to look for; at most the read
+     * buffer size.
+     * @return true, if the next octets are the prefix; false if
+     * they differ or the connection was closed before the whole
+     * prefix was received.
+     * @throws IOException if an I/O error occurs.
+     */
+    public boolean startsWith(byte prefix [])
+        throws IOException
+    {
+        if( prefix == null || prefix.length > v_buffer.length )
+        {
+            throw new IllegalArgumentException(
+                    "prefix cannot be null or larger than the read buffer.");
+        }
+
+        int checked = 0;
+        while( checked < prefix.length )
+        {
+            if( v_pos + checked == v_limit )
+            {
+                // make room after the buffered octets and read more
+                if( v_pos > 0 )
+                {
+                    System.arraycopy(v_buffer, v_pos, v_buffer, 0,
+                                     v_limit - v_pos);
+                    v_limit -= v_pos;
+                    v_pos = 0;
+                }
+
+                int count = v_in.read(v_buffer, v_limit,
+                                      v_buffer.length - v_limit);
+                if( count <= 0 )
+                {
+                    return false;
+                }
+
+                v_limit += count;
+            }
+
+            if( v_buffer[v_pos + checked] != prefix[checked] )
+            {
+                return false;
+            }
+
+            checked++;
+        }
+
+        return true;
+    }
+
+    // ------ >>> Private <<< ------
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /** The initial size of the line buffer. */
+    private static final int LINE_SIZE = 256;
+
+    /**
+     * Refills the read buffer.
+     *
+     * @return false at the end of the stream.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean fill()
+        throws IOException
+    {
+        int count = v_in.read(v_buffer, 0, v_buffer.length);
+        if( count <= 0 )
+        {
+            return false;
+        }
+
+        v_pos = 0;
+        v_limit = count;
+        return true;
+    }
+
+    /**
+     * Appends count octets at the read position to the line.
+     *
+     * @param length the current line length
+     * @param count the number of octets to append
+     */
+    private void append(int length, int count)
+    {
+        if( length + count > v_line.length )
+        {
+            byte line [] = new byte[Math.max(length + count, v_line.length * 2)];
+            System.arraycopy(v_line, 0, line, 0, length);
+            v_line = line;
+        }
+
+        System.arraycopy(v_buffer, v_pos, v_line, length, count);
+    }
+
+    private InputStream v_in;
+    private final byte v_buffer [];
+    private byte v_line [];
+    private int v_pos;
+    private int v_limit;
+}
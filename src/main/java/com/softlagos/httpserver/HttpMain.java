@@ -8,11 +8,17 @@
  */
 package com.softlagos.httpserver;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.softlagos.Constants;
-import com.softlagos.reactor.Acceptor;
+import com.softlagos.httpserver.jfr.HttpRecordingHandler;
+import com.softlagos.httpserver.proxy.HttpBalancer;
+import com.softlagos.httpserver.proxy.HttpProxyHandler;
+import com.softlagos.httpserver.proxy.HttpUpstream;
 import com.softlagos.reactor.AcceptorStrategyAbstractFactory;
 import com.softlagos.reactor.InitiationDispatcher;
 import com.softlagos.reactor.Reactor;
@@ -33,6 +39,60 @@ public final class HttpMain
 
     public static void main(String args[])
     {
+        if(logger.isTraceEnabled())
+        {
+            logger.trace("registering request handlers...");
+        }
+
+        HttpHandlerRegistry.instance().register("/health",
+                new HttpHealthHandler());
+
+        String static_root = HttpProperties.getString(
+                HttpProperties.STATIC_ROOT, null);
+        if( static_root != null )
+        {
+            String route = HttpProperties.getString(
+                    HttpProperties.STATIC_ROUTE, "/static");
+            HttpHandlerRegistry.instance().register(route,
+                    new HttpFileHandler(route, Paths.get(static_root)));
+        }
+
+        String jfr_route = HttpProperties.getString(
+                HttpProperties.JFR_ROUTE, null);
+        if( jfr_route != null )
+        {
+            HttpHandlerRegistry.instance().register(jfr_route,
+                    new HttpRecordingHandler(jfr_route, Paths.get(
+                            HttpProperties.getString(HttpProperties.JFR_DIR,
+                                    System.getProperty("java.io.tmpdir"))),
+                            HttpProperties.getInt(
+                                    HttpProperties.JFR_MAX_DUMPS, 10)));
+        }
+
+        String upstream_list [] = HttpProperties.getList(
+                HttpProperties.PROXY_UPSTREAMS);
+        if( upstream_list.length > 0 )
+        {
+            HttpUpstream upstreams [] = new HttpUpstream[upstream_list.length];
+            for(int i = 0; i < upstream_list.length; i++)
+            {
+                upstreams[i] = HttpUpstream.parse(upstream_list[i],
+                        HttpProperties.getInt(
+                                HttpProperties.PROXY_CONNECT_TIMEOUT_MS, 2000),
+                        HttpProperties.getInt(
+                                HttpProperties.PROXY_TIMEOUT_MS, 30000),
+                        HttpProperties.getInt(
+                                HttpProperties.PROXY_MAX_IDLE, 32),
+                        HttpProperties.getLong(
+                                HttpProperties.PROXY_IDLE_TIMEOUT_MS, 30000L));
+            }
+
+            String route = HttpProperties.getString(
+                    HttpProperties.PROXY_ROUTE, "/");
+            HttpHandlerRegistry.instance().register(route,
+                    new HttpProxyHandler(new HttpBalancer(upstreams)));
+        }
+
         if(logger.isTraceEnabled())
         {
             logger.trace("creating acceptor strategy factor...");
@@ -55,7 +115,7 @@ public final class HttpMain
             logger.trace("creating HTTP acceptor ...");
         }
 
-        Acceptor acceptor = new HttpAcceptor();
+        final HttpAcceptor acceptor = new HttpAcceptor();
 
         if(logger.isTraceEnabled())
         {
@@ -69,8 +129,54 @@ public final class HttpMain
             logger.trace("initializing HTTP acceptor ...");
         }
 
+        int handoff_port = HttpProperties.getInt(
+                HttpProperties.HANDOFF_PORT, 0);
+        String handoff_secret = null;
+        if( handoff_port > 0 )
+        {
+            try
+            {
+                handoff_secret = HttpHandoff.readSecret(
+                        HttpProperties.getString(
+                                HttpProperties.HANDOFF_SECRET_FILE, null));
+            }
+            catch(IOException ex)
+            {
+                logger.error("handoff disabled: " + ex.getMessage());
+            }
+        }
+
+        if( handoff_secret != null )
+        {
+            // a server still running releases the port first
+            HttpHandoff.takeOver(handoff_port, handoff_secret,
+                                 HANDOFF_TIMEOUT_MS);
+        }
+
         acceptor.open(port_nr, reactor, factory);
 
+        if( handoff_secret != null )
+        {
+            try
+            {
+                HttpHandoff.listen(handoff_port, handoff_secret, acceptor);
+            }
+            catch(IOException ex)
+            {
+                logger.error("error listening for handoff on port [" +
+                             handoff_port + "]: " + ex.getMessage());
+            }
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                acceptor.drain();
+            }
+        }, "http-drain"));
+
         if(logger.isTraceEnabled())
         {
             logger.trace("start reactor: listen to events...");
@@ -78,4 +184,9 @@ public final class HttpMain
 
         reactor.handleEvents();
     }
+
+    // ------ >>> Private <<< ------
+
+    /** The time in milliseconds to wait for a running server. */
+    private static final int HANDOFF_TIMEOUT_MS = 5000;
 }
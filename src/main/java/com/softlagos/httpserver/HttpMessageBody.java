@@ -8,6 +8,8 @@
  */
 package com.softlagos.httpserver;
 
+import java.nio.charset.Charset;
+
 /**
  * The HTTP message body.
  *
@@ -17,13 +19,33 @@ package com.softlagos.httpserver;
  */
 public final class HttpMessageBody
 {
+    /** The default maximum message body size (10 MB). */
+    public static final int DEFAULT_MAX_LENGTH = 10 * 1024 * 1024;
 
     /**
-     * Instantiates a new http message body.
+     * Instantiates a new http message body bounded by the
+     * default maximum message body size.
      */
     public HttpMessageBody()
     {
-        v_message_body = new StringBuilder();
+        this(DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Instantiates a new http message body.
+     *
+     * @param max_length the maximum number of octets the body
+     * may hold.
+     */
+    public HttpMessageBody(int max_length)
+    {
+        if( max_length < 0 )
+        {
+            throw new IllegalArgumentException("max_length cannot be negative");
+        }
+
+        v_max_length = max_length;
+        v_octets = new byte[Math.min(max_length, 256)];
     }
 
     /* (non-Javadoc)
@@ -47,19 +69,77 @@ public final class HttpMessageBody
             throw new IllegalArgumentException("input_line cannot be null.");
         }
 
-        v_message_body.append(input_line);
+        byte octets [] = input_line.getBytes(UTF_8);
+        add(octets, 0, octets.length);
+    }
+
+    /**
+     * Adds the given octets to the message body.
+     *
+     * @param octets the HTTP message body octets
+     * @param off the start offset in octets
+     * @param len the number of octets to add
+     * @throws IllegalStateException if the message body would
+     * exceed its maximum size.
+     */
+    public synchronized void add(byte octets [], int off, int len)
+    {
+        if(octets == null)
+        {
+            throw new IllegalArgumentException("octets cannot be null.");
+        }
+
+        if( len > v_max_length - v_length )
+        {
+            throw new IllegalStateException("message body exceeds [" +
+                    v_max_length + "] octets");
+        }
+
+        if( v_length + len > v_octets.length )
+        {
+            int size = (int) Math.min((long) v_max_length,
+                    Math.max((long) v_length + len, 2L * v_octets.length));
+            byte grown [] = new byte[size];
+            System.arraycopy(v_octets, 0, grown, 0, v_length);
+            v_octets = grown;
+        }
+
+        System.arraycopy(octets, off, v_octets, v_length, len);
+        v_length += len;
     }
 
     /**
      * Gets the message body.
      *
-     * @return the HTTP message body
+     * @return the HTTP message body decoded as UTF-8
      */
-    public String getMessageBody()
+    public synchronized String getMessageBody()
     {
-        return v_message_body.toString();
+        return new String(v_octets, 0, v_length, UTF_8);
+    }
+
+    /**
+     * @return a copy of the HTTP message body octets
+     */
+    public synchronized byte [] getBytes()
+    {
+        byte octets [] = new byte[v_length];
+        System.arraycopy(v_octets, 0, octets, 0, v_length);
+        return octets;
+    }
+
+    /**
+     * @return the number of octets in the message body
+     */
+    public synchronized int length()
+    {
+        return v_length;
     }
 
     // ------ >>> Private <<< ---
-    private final StringBuilder v_message_body;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int v_max_length;
+    private byte v_octets [];
+    private int v_length;
 }
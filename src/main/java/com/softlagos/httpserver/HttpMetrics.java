@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpMetrics.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.softlagos.httpserver.enums.HttpMetricType;
+
+/**
+ * The process wide counters kept by the HTTP server.  Each
+ * counter is a lock-free atomic so it can be updated from
+ * any worker thread on the request path.
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpMetrics
+{
+    /**
+     * @return the single instance of the HTTP metrics.
+     */
+    public static HttpMetrics instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Increments the given counter by one.
+     *
+     * @param type the counter to increment
+     */
+    public void increment(HttpMetricType type)
+    {
+        add(type, 1L);
+    }
+
+    /**
+     * Adds the given delta to the given counter.
+     *
+     * @param type the counter to update
+     * @param delta the value to add
+     */
+    public void add(HttpMetricType type, long delta)
+    {
+        if( type == null )
+        {
+            throw new IllegalArgumentException("type cannot be null.");
+        }
+
+        v_counters.addAndGet(type.ordinal(), delta);
+    }
+
+    /**
+     * Gets the current value of the given counter.
+     *
+     * @param type the counter to read
+     * @return the counter value
+     */
+    public long get(HttpMetricType type)
+    {
+        if( type == null )
+        {
+            throw new IllegalArgumentException("type cannot be null.");
+        }
+
+        return v_counters.get(type.ordinal());
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder buff = new StringBuilder();
+        for(HttpMetricType type : HttpMetricType.values())
+        {
+            buff.append(type.getName());
+            buff.append("=");
+            buff.append(get(type));
+            buff.append("\n");
+        }
+
+        return buff.toString();
+    }
+
+    // ------ >>> Private <<< ------
+    private static final HttpMetrics INSTANCE = new HttpMetrics();
+
+    private HttpMetrics()
+    {
+        v_counters = new AtomicLongArray(HttpMetricType.values().length);
+    }
+
+    private final AtomicLongArray v_counters;
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpOutputBuffer.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A buffered output stream to an HTTP client which, unlike
+ * java.io.BufferedOutputStream, can be reset to write to another
+ * stream, so its buffer can serve a new connection.  Writes as
+ * large as the buffer go straight to the underlying stream.
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpOutputBuffer
+  extends OutputStream
+{
+    /**
+     * Instantiates a new output buffer.
+     *
+     * @param out the client output stream
+     * @param buffer_size the buffer size
+     */
+    public HttpOutputBuffer(OutputStream out, int buffer_size)
+    {
+        if( out == null )
+        {
+            throw new IllegalArgumentException("out cannot be null.");
+        }
+
+        if( buffer_size <= 0 )
+        {
+            throw new IllegalArgumentException("buffer_size must be greater than 0");
+        }
+
+        v_out = out;
+        v_buffer = new byte[buffer_size];
+    }
+
+    /**
+     * Resets the buffer to write to another stream, discarding any
+     * octet not flushed to the previous one.
+     *
+     * @param out the client output stream
+     */
+    public void reset(OutputStream out)
+    {
+        if( out == null )
+        {
+            throw new IllegalArgumentException("out cannot be null.");
+        }
+
+        v_out = out;
+        v_count = 0;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#write(int)
+     */
+    @Override
+    public void write(int octet)
+        throws IOException
+    {
+        if( v_count == v_buffer.length )
+        {
+            flushBuffer();
+        }
+
+        v_buffer[v_count++] = (byte) octet;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte buff [], int off, int len)
+        throws IOException
+    {
+        if( len >= v_buffer.length )
+        {
+            flushBuffer();
+            v_out.write(buff, off, len);
+            return;
+        }
+
+        if( len > v_buffer.length - v_count )
+        {
+            flushBuffer();
+        }
+
+        System.arraycopy(buff, off, v_buffer, v_count, len);
+        v_count += len;
+    }
+
+    /**
+     * Writes the remaining octets of the given buffer, copied
+     * straight into this buffer whether the given one is direct,
+     * read-only or backed by an array.  The buffer position is left
+     * unchanged, so a buffer shared between connections may be
+     * passed as is.
+     *
+     * @param buff the octets to write
+     * @throws IOException if an I/O error occurs.
+     */
+    public void write(ByteBuffer buff)
+        throws IOException
+    {
+        if( buff == null )
+        {
+            throw new IllegalArgumentException("buff cannot be null.");
+        }
+
+        ByteBuffer view = buff.duplicate();
+        while( view.hasRemaining() )
+        {
+            if( v_count == v_buffer.length )
+            {
+                flushBuffer();
+            }
+
+            int count = Math.min(view.remaining(), v_buffer.length - v_count);
+            view.get(v_buffer, v_count, count);
+            v_count += count;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#flush()
+     */
+    @Override
+    public void flush()
+        throws IOException
+    {
+        flushBuffer();
+        v_out.flush();
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#close()
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            v_out.close();
+        }
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * Writes the buffered octets to the underlying stream.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    private void flushBuffer()
+        throws IOException
+    {
+        if( v_count > 0 )
+        {
+            v_out.write(v_buffer, 0, v_count);
+            v_count = 0;
+        }
+    }
+
+    private OutputStream v_out;
+    private final byte v_buffer [];
+    private int v_count;
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpPriorityClassifier.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import com.softlagos.httpserver.enums.HttpPriorityType;
+
+/**
+ * Assigns a priority class to an HTTP request by route or by
+ * header.  The rules are applied in the following order:
+ * <ol>
+ * <li>the request-target matches one of the HIGH routes;</li>
+ * <li>the request-target matches one of the LOW routes;</li>
+ * <li>the "Priority" header urgency (0 to 7): 0 and 1 are HIGH,
+ * 6 and 7 are LOW;</li>
+ * <li>a Content-Length above the bulk length is LOW;</li>
+ * <li>anything else is NORMAL.</li>
+ * </ol>
+ *
+ * @author Rubens Gomes
+ * @see "Section 4 of RFC9218 - Extensible Prioritization Scheme
+ * for HTTP"
+ */
+public final class HttpPriorityClassifier
+{
+    /** The default HIGH priority routes. */
+    public static final String DEFAULT_HIGH_ROUTES = "/health";
+
+    /** The default Content-Length (1 MB) of a bulk request. */
+    public static final long DEFAULT_BULK_LENGTH = 1024L * 1024L;
+
+    /**
+     * Instantiates a new classifier using the routes and
+     * bulk length found in the system properties.
+     */
+    public HttpPriorityClassifier()
+    {
+        String high [] = HttpProperties.getList(
+                HttpProperties.PRIORITY_HIGH_ROUTES);
+        v_high_routes = (high.length == 0) ?
+                new String [] { DEFAULT_HIGH_ROUTES } : high;
+        v_low_routes = HttpProperties.getList(
+                HttpProperties.PRIORITY_LOW_ROUTES);
+        v_bulk_length = HttpProperties.getLong(
+                HttpProperties.PRIORITY_BULK_LENGTH, DEFAULT_BULK_LENGTH);
+    }
+
+    /**
+     * Classifies the given request header.
+     *
+     * @param header the HTTP request header
+     * @return the request priority class
+     */
+    public HttpPriorityType classify(HttpRequestHeader header)
+    {
+        if( header == null )
+        {
+            throw new IllegalArgumentException("header cannot be null.");
+        }
+
+        String path = header.getRequestLine().getRequestTarget()
+                .getNormalizedPath();
+
+        if( path != null && matches(v_high_routes, path) )
+        {
+            return HttpPriorityType.HIGH;
+        }
+
+        if( path != null && matches(v_low_routes, path) )
+        {
+            return HttpPriorityType.LOW;
+        }
+
+        int urgency = parseUrgency(header.getHeader("Priority"));
+        if( urgency >= 0 && urgency <= 1 )
+        {
+            return HttpPriorityType.HIGH;
+        }
+        else if( urgency >= 6 )
+        {
+            return HttpPriorityType.LOW;
+        }
+
+        String length = header.getHeader("Content-Length");
+        if( length != null )
+        {
+            try
+            {
+                if( Long.parseLong(length.trim()) > v_bulk_length )
+                {
+                    return HttpPriorityType.LOW;
+                }
+            }
+            catch(NumberFormatException ex)
+            {
+                // a malformed Content-Length is rejected later on.
+            }
+        }
+
+        return HttpPriorityType.NORMAL;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * @param routes the path prefixes
+     * @param path the request-target
+     * @return true, if the path starts with one of the routes,
+     * on a path segment boundary.
+     */
+    private static boolean matches(String routes [], String path)
+    {
+        for(String route : routes)
+        {
+            if( path.startsWith(route) &&
+                (path.length() == route.length() || route.endsWith("/") ||
+                 path.charAt(route.length()) == '/') )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Parses the urgency "u=N" parameter of a Priority header.
+     *
+     * @param priority the Priority header value, or null
+     * @return the urgency, or -1 if not found.
+     */
+    private static int parseUrgency(String priority)
+    {
+        if( priority == null )
+        {
+            return -1;
+        }
+
+        int pos = priority.indexOf("u=");
+        if( pos < 0 || pos + 2 >= priority.length() )
+        {
+            return -1;
+        }
+
+        char digit = priority.charAt(pos + 2);
+        if( digit < '0' || digit > '7' )
+        {
+            return -1;
+        }
+
+        return digit - '0';
+    }
+
+    private final String v_high_routes [];
+    private final String v_low_routes [];
+    private final long v_bulk_length;
+}
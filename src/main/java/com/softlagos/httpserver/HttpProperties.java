@@ -0,0 +1,551 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpProperties.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The names of the JVM system properties used to tune the
+ * HTTP server, along with helper methods to read them using
+ * a default value when the property is not set.
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpProperties
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpProperties.class);
+
+    // ------ >>> Request Queue (CoDel) <<< ------
+
+    /** The CoDel target queueing delay in milliseconds. */
+    public static final String QUEUE_TARGET_MS =
+            "httpserver.queue.target.ms";
+
+    /** The CoDel interval in milliseconds. */
+    public static final String QUEUE_INTERVAL_MS =
+            "httpserver.queue.interval.ms";
+
+    /** Comma separated path prefixes assigned the HIGH priority. */
+    public static final String PRIORITY_HIGH_ROUTES =
+            "httpserver.priority.high.routes";
+
+    /** Comma separated path prefixes assigned the LOW priority. */
+    public static final String PRIORITY_LOW_ROUTES =
+            "httpserver.priority.low.routes";
+
+    /** The Content-Length above which a request is LOW priority. */
+    public static final String PRIORITY_BULK_LENGTH =
+            "httpserver.priority.bulk.length";
+
+    // ------ >>> Rate Limiter <<< ------
+
+    /** Whether the per client rate limiter is enabled. */
+    public static final String RATE_LIMIT_ENABLED =
+            "httpserver.ratelimit.enabled";
+
+    /** The requests per second allowed to each client address. */
+    public static final String RATE_LIMIT_RATE =
+            "httpserver.ratelimit.rate";
+
+    /** The burst of requests allowed to each client address. */
+    public static final String RATE_LIMIT_BURST =
+            "httpserver.ratelimit.burst";
+
+    /** The open connections allowed to each client address. */
+    public static final String RATE_LIMIT_CONNECTIONS =
+            "httpserver.ratelimit.connections";
+
+    /** The maximum number of client addresses tracked. */
+    public static final String RATE_LIMIT_CLIENTS =
+            "httpserver.ratelimit.clients";
+
+    /** The idle time in milliseconds before a client expires. */
+    public static final String RATE_LIMIT_IDLE_MS =
+            "httpserver.ratelimit.idle.ms";
+
+    // ------ >>> Slow Clients <<< ------
+
+    /** The total time in milliseconds to receive the request head. */
+    public static final String HEADER_TIMEOUT_MS =
+            "httpserver.header.timeout.ms";
+
+    /** The minimum message body upload rate in bytes per second. */
+    public static final String BODY_MIN_RATE =
+            "httpserver.body.min.rate";
+
+    /** The time in milliseconds before the body rate is enforced. */
+    public static final String BODY_GRACE_MS =
+            "httpserver.body.grace.ms";
+
+    /** The total time in milliseconds to write a response. */
+    public static final String WRITE_TIMEOUT_MS =
+            "httpserver.write.timeout.ms";
+
+    // ------ >>> Request Size Limits <<< ------
+
+    /** The maximum request-line length in octets. */
+    public static final String MAX_REQUEST_LINE =
+            "httpserver.max.request.line";
+
+    /**
+     * The maximum size in octets of all the header field lines,
+     * also of the trailer section of a chunked body.
+     */
+    public static final String MAX_HEADER_SIZE =
+            "httpserver.max.header.size";
+
+    /**
+     * The maximum number of header fields, also of trailer fields
+     * of a chunked body.
+     */
+    public static final String MAX_HEADER_COUNT =
+            "httpserver.max.header.count";
+
+    /** The maximum message body size in octets. */
+    public static final String MAX_BODY_SIZE =
+            "httpserver.max.body.size";
+
+    // ------ >>> HTTP/2 <<< ------
+
+    /** Whether h2c connections and upgrades are accepted. */
+    public static final String HTTP2_ENABLED =
+            "httpserver.http2.enabled";
+
+    /** The maximum number of concurrent streams per connection. */
+    public static final String HTTP2_MAX_STREAMS =
+            "httpserver.http2.max.streams";
+
+    /**
+     * The receive flow control window of each stream and of the
+     * connection in octets.
+     */
+    public static final String HTTP2_WINDOW_SIZE =
+            "httpserver.http2.window.size";
+
+    /** The number of threads handling HTTP/2 streams. */
+    public static final String HTTP2_WORKERS =
+            "httpserver.http2.workers";
+
+    /** The time in milliseconds an idle HTTP/2 connection is kept. */
+    public static final String HTTP2_IDLE_TIMEOUT_MS =
+            "httpserver.http2.idle.timeout.ms";
+
+    // ------ >>> TLS <<< ------
+
+    /** Whether connections are served over TLS. */
+    public static final String TLS_ENABLED =
+            "httpserver.tls.enabled";
+
+    /** The path of the key store with the server key and certificate. */
+    public static final String TLS_KEYSTORE =
+            "httpserver.tls.keystore";
+
+    /** The key store and private key password. */
+    public static final String TLS_KEYSTORE_PASSWORD =
+            "httpserver.tls.keystore.password";
+
+    /** The key store type. */
+    public static final String TLS_KEYSTORE_TYPE =
+            "httpserver.tls.keystore.type";
+
+    /** Comma separated TLS protocol versions enabled. */
+    public static final String TLS_PROTOCOLS =
+            "httpserver.tls.protocols";
+
+    /** The maximum number of TLS sessions cached for resumption. */
+    public static final String TLS_SESSION_CACHE_SIZE =
+            "httpserver.tls.session.cache.size";
+
+    /** The lifetime in seconds of a cached TLS session. */
+    public static final String TLS_SESSION_TIMEOUT_S =
+            "httpserver.tls.session.timeout.s";
+
+    /** Whether TLS sessions are resumed from stateless tickets. */
+    public static final String TLS_SESSION_TICKETS =
+            "httpserver.tls.session.tickets";
+
+    /** The maximum number of idle TLS record buffers pooled. */
+    public static final String TLS_BUFFER_POOL_SIZE =
+            "httpserver.tls.buffer.pool.size";
+
+    // ------ >>> Static files <<< ------
+
+    /** The directory of the static files served, if any. */
+    public static final String STATIC_ROOT =
+            "httpserver.static.root";
+
+    /** The path prefix under which the static files are served. */
+    public static final String STATIC_ROUTE =
+            "httpserver.static.route";
+
+    // ------ >>> Reverse Proxy <<< ------
+
+    /** The comma separated host:port upstreams proxied to, if any. */
+    public static final String PROXY_UPSTREAMS =
+            "httpserver.proxy.upstreams";
+
+    /** The path prefix of the requests proxied. */
+    public static final String PROXY_ROUTE =
+            "httpserver.proxy.route";
+
+    /** The time to open a connection to an upstream. */
+    public static final String PROXY_CONNECT_TIMEOUT_MS =
+            "httpserver.proxy.connect.timeout.ms";
+
+    /** The longest wait for the octets of an upstream response. */
+    public static final String PROXY_TIMEOUT_MS =
+            "httpserver.proxy.timeout.ms";
+
+    /** The maximum number of idle connections kept per upstream. */
+    public static final String PROXY_MAX_IDLE =
+            "httpserver.proxy.max.idle";
+
+    /** The idle time before a pooled upstream connection is dropped. */
+    public static final String PROXY_IDLE_TIMEOUT_MS =
+            "httpserver.proxy.idle.timeout.ms";
+
+    // ------ >>> Shards <<< ------
+
+    /**
+     * Whether the connections are spread over shards, each with its
+     * own worker threads, connection buffers and deadline timer,
+     * rather than served by the reactor thread pool.
+     */
+    public static final String SHARDS_ENABLED = "httpserver.shards.enabled";
+
+    /** The number of shards; one per processor by default. */
+    public static final String SHARDS = "httpserver.shards";
+
+    /** The number of worker threads of each shard. */
+    public static final String SHARD_WORKERS = "httpserver.shard.workers";
+
+    /** The assignment of the connections: round-robin or least-loaded. */
+    public static final String SHARD_ASSIGNMENT =
+            "httpserver.shard.assignment";
+
+    // ------ >>> CPU Tier <<< ------
+
+    /**
+     * The number of threads of the CPU tier running the CPU bound
+     * handlers; one per processor by default.
+     */
+    public static final String CPU_WORKERS = "httpserver.cpu.workers";
+
+    // ------ >>> Connection Contexts <<< ------
+
+    /**
+     * The maximum number of idle connection contexts, holding the
+     * read and write buffers, kept for reuse; 0 disables the pool.
+     */
+    public static final String CONTEXT_POOL_SIZE =
+            "httpserver.context.pool.size";
+
+    // ------ >>> Request Targets <<< ------
+
+    /**
+     * The maximum number of short origin-form request targets kept
+     * with their decoded path and query; 0 disables the cache.
+     */
+    public static final String TARGET_CACHE_SIZE =
+            "httpserver.target.cache.size";
+
+    // ------ >>> Multipart <<< ------
+
+    /**
+     * The size above which a part of a multipart/form-data body is
+     * spooled to a file rather than kept in memory.
+     */
+    public static final String MULTIPART_THRESHOLD =
+            "httpserver.multipart.threshold";
+
+    /** The maximum size of a part; 0 for no limit. */
+    public static final String MULTIPART_MAX_PART_SIZE =
+            "httpserver.multipart.max.part.size";
+
+    /** The directory the parts are spooled to. */
+    public static final String MULTIPART_DIR = "httpserver.multipart.dir";
+
+    // ------ >>> WebSocket <<< ------
+
+    /** The largest WebSocket message received, in octets. */
+    public static final String WEBSOCKET_MAX_MESSAGE_SIZE =
+            "httpserver.websocket.max.message.size";
+
+    /**
+     * The time in milliseconds after which a quiet WebSocket
+     * connection is pinged, and closed if it stays quiet as long.
+     */
+    public static final String WEBSOCKET_PING_INTERVAL_MS =
+            "httpserver.websocket.ping.interval.ms";
+
+    /**
+     * The octets queued to a WebSocket connection above which the
+     * messages sent to it are refused.
+     */
+    public static final String WEBSOCKET_HIGH_WATER =
+            "httpserver.websocket.high.water";
+
+    /** Whether the permessage-deflate extension is accepted. */
+    public static final String WEBSOCKET_DEFLATE =
+            "httpserver.websocket.deflate";
+
+    /** The number of threads writing the WebSocket messages. */
+    public static final String WEBSOCKET_WRITERS =
+            "httpserver.websocket.writers";
+
+    /**
+     * The comma separated origins allowed to open a WebSocket, or
+     * "*" for any; when not set, only the origin of the endpoint.
+     */
+    public static final String WEBSOCKET_ORIGINS =
+            "httpserver.websocket.origins";
+
+    // ------ >>> Server-Sent Events <<< ------
+
+    /** The number of recent events kept to replay from Last-Event-ID. */
+    public static final String SSE_REPLAY_SIZE = "httpserver.sse.replay.size";
+
+    /**
+     * The number of events queued to a subscriber above which it is
+     * deemed slow.
+     */
+    public static final String SSE_MAX_BACKLOG = "httpserver.sse.max.backlog";
+
+    /**
+     * What is done with a slow subscriber: drop ends its stream, for
+     * the client to reconnect and replay from Last-Event-ID; coalesce
+     * discards its backlog, keeping only the newest event.
+     */
+    public static final String SSE_SLOW_POLICY = "httpserver.sse.slow.policy";
+
+    /**
+     * The time in milliseconds between the comments sent to the idle
+     * subscribers, so the dead ones are found; 0 sends none.
+     */
+    public static final String SSE_HEARTBEAT_MS = "httpserver.sse.heartbeat.ms";
+
+    /** The reconnection time in milliseconds advised to the clients. */
+    public static final String SSE_RETRY_MS = "httpserver.sse.retry.ms";
+
+    /**
+     * The maximum number of subscribers streaming from all the hubs,
+     * each holding a thread; the others are answered 503.
+     */
+    public static final String SSE_MAX_STREAMS = "httpserver.sse.max.streams";
+
+    // ------ >>> Request Tracing <<< ------
+
+    /**
+     * One request out of this many is sampled and traced; 0 samples
+     * none by rate.
+     */
+    public static final String TRACE_SAMPLE_EVERY =
+            "httpserver.trace.sample.every";
+
+    /** The header field name whose presence samples a request. */
+    public static final String TRACE_HEADER = "httpserver.trace.header";
+
+    // ------ >>> Flight Recorder <<< ------
+
+    /** Whether responses carry a Server-Timing header field. */
+    public static final String SERVER_TIMING = "httpserver.server.timing";
+
+    /**
+     * The path prefix of the handler starting, dumping and stopping
+     * Flight Recorder recordings; not set disables the handler.
+     */
+    public static final String JFR_ROUTE = "httpserver.jfr.route";
+
+    /** The directory the Flight Recorder recordings are dumped to. */
+    public static final String JFR_DIR = "httpserver.jfr.dir";
+
+    /**
+     * The number of recording dumps kept in the dump directory; the
+     * older ones are deleted.
+     */
+    public static final String JFR_MAX_DUMPS = "httpserver.jfr.max.dumps";
+
+    // ------ >>> Shutdown <<< ------
+
+    /**
+     * The maximum time to wait on shutdown for the connections in
+     * flight to finish.
+     */
+    public static final String DRAIN_TIMEOUT_MS =
+            "httpserver.drain.timeout.ms";
+
+    /**
+     * The loopback control port a new server uses to take over the
+     * listener of a running one; 0 disables the handoff.
+     */
+    public static final String HANDOFF_PORT =
+            "httpserver.handoff.port";
+
+    /**
+     * The file holding the secret shared by the servers handing
+     * the listener over, readable by its owner only.
+     */
+    public static final String HANDOFF_SECRET_FILE =
+            "httpserver.handoff.secret.file";
+
+    // ------ >>> Response Cache <<< ------
+
+    /** Whether the responses of the buffering handlers are cached. */
+    public static final String CACHE_ENABLED =
+            "httpserver.cache.enabled";
+
+    /** The maximum total size in octets of the cached responses. */
+    public static final String CACHE_MAX_SIZE =
+            "httpserver.cache.max.size";
+
+    /** The maximum message body size in octets of a cached response. */
+    public static final String CACHE_MAX_ENTRY_SIZE =
+            "httpserver.cache.max.entry.size";
+
+    /**
+     * The seconds a cached response may be served stale in place of
+     * an error when it carries no stale-if-error directive.
+     */
+    public static final String CACHE_STALE_IF_ERROR_S =
+            "httpserver.cache.stale.if.error.s";
+
+    /**
+     * The percentage of its freshness lifetime after which a hot
+     * cached response is refreshed ahead of expiry; 0 disables it.
+     */
+    public static final String CACHE_REFRESH_AHEAD_PERCENT =
+            "httpserver.cache.refresh.ahead.percent";
+
+    /** The threads refreshing cached responses in the background. */
+    public static final String CACHE_REFRESH_THREADS =
+            "httpserver.cache.refresh.threads";
+
+    /**
+     * Gets the given system property as an int.
+     *
+     * @param key the system property name
+     * @param default_value the value returned when the property
+     * is not set or is not a valid number.
+     * @return the system property value
+     */
+    public static int getInt(String key, int default_value)
+    {
+        return (int) getLong(key, default_value);
+    }
+
+    /**
+     * Gets the given system property as a long.
+     *
+     * @param key the system property name
+     * @param default_value the value returned when the property
+     * is not set or is not a valid number.
+     * @return the system property value
+     */
+    public static long getLong(String key, long default_value)
+    {
+        String value = getString(key, null);
+        if( value == null )
+        {
+            return default_value;
+        }
+
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch(NumberFormatException ex)
+        {
+            logger.warn("system property [" + key + "] value [" + value +
+                        "] is not a number; using [" + default_value + "]");
+            return default_value;
+        }
+    }
+
+    /**
+     * Gets the given system property as a boolean.
+     *
+     * @param key the system property name
+     * @param default_value the value returned when the property
+     * is not set.
+     * @return the system property value
+     */
+    public static boolean getBoolean(String key, boolean default_value)
+    {
+        String value = getString(key, null);
+        if( value == null )
+        {
+            return default_value;
+        }
+
+        return Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Gets the given system property as a trimmed string.
+     *
+     * @param key the system property name
+     * @param default_value the value returned when the property
+     * is not set or is blank.
+     * @return the system property value
+     */
+    public static String getString(String key, String default_value)
+    {
+        if( key == null || key.trim().length() == 0 )
+        {
+            throw new IllegalArgumentException("key cannot be null or blank.");
+        }
+
+        String value = System.getProperty(key);
+        if( value == null || value.trim().length() == 0 )
+        {
+            return default_value;
+        }
+
+        return value.trim();
+    }
+
+    /**
+     * Gets the given comma separated system property as an array.
+     *
+     * @param key the system property name
+     * @return the trimmed non-blank values, or an empty array
+     * when the property is not set.
+     */
+    public static String [] getList(String key)
+    {
+        String value = getString(key, null);
+        if( value == null )
+        {
+            return new String[0];
+        }
+
+        String tokens [] = value.split(",");
+        int count = 0;
+        for(int i = 0; i < tokens.length; i++)
+        {
+            String token = tokens[i].trim();
+            if( token.length() > 0 )
+            {
+                tokens[count++] = token;
+            }
+        }
+
+        String values [] = new String[count];
+        System.arraycopy(tokens, 0, values, 0, count);
+        return values;
+    }
+
+    // ------ >>> Private <<< ------
+    private HttpProperties()
+    {
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpQueueController.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.enums.HttpPriorityType;
+
+/**
+ * <p>
+ * A CoDel (Controlled Delay) controller for the worker queue
+ * sitting between the reactor and the HTTP service handlers.
+ * </p>
+ * <p>
+ * Every request reports the time it spent queued when a worker
+ * picks it up.  The controller keeps the minimum queueing delay
+ * seen over each interval.  When that minimum stays above the
+ * target delay the queue is standing rather than absorbing a
+ * burst, and the server is considered overloaded until an
+ * interval ends with a minimum below the target.
+ * </p>
+ * <p>
+ * While overloaded, requests whose own queueing delay is above
+ * the threshold of their priority class are shed:
+ * </p>
+ * <ul>
+ * <li>LOW: above the target delay;</li>
+ * <li>NORMAL: above twice the target delay;</li>
+ * <li>HIGH: above the interval.</li>
+ * </ul>
+ * <p>
+ * The oldest requests of the lowest priority are therefore
+ * dropped first, which bounds the latency of the work that
+ * is still served.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "Controlling Queue Delay - K. Nichols and V. Jacobson,
+ * ACM Queue, May 2012"
+ */
+public final class HttpQueueController
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpQueueController.class);
+
+    /** The default target queueing delay in milliseconds. */
+    public static final long DEFAULT_TARGET_MS = 5L;
+
+    /** The default interval in milliseconds. */
+    public static final long DEFAULT_INTERVAL_MS = 100L;
+
+    /**
+     * @return the single instance configured from the system
+     * properties.
+     */
+    public static HttpQueueController instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Instantiates a new queue controller.
+     *
+     * @param target_ms the target queueing delay in milliseconds
+     * @param interval_ms the interval in milliseconds over which
+     * the minimum queueing delay is measured.
+     */
+    public HttpQueueController(long target_ms, long interval_ms)
+    {
+        if( target_ms <= 0 )
+        {
+            throw new IllegalArgumentException("target_ms must be greater than 0");
+        }
+
+        if( interval_ms < target_ms )
+        {
+            throw new IllegalArgumentException(
+                    "interval_ms must not be less than target_ms");
+        }
+
+        v_target = TimeUnit.MILLISECONDS.toNanos(target_ms);
+        v_interval = TimeUnit.MILLISECONDS.toNanos(interval_ms);
+        v_interval_end = new AtomicLong(System.nanoTime() + v_interval);
+        v_min_delay = new AtomicLong(Long.MAX_VALUE);
+    }
+
+    /**
+     * Records the time a request spent queued and decides
+     * whether it should be served or shed.
+     *
+     * @param delay_nanos the time in nanoseconds the request
+     * spent waiting for a worker.
+     * @param priority the request priority class
+     * @return true, if the request should be served; false if
+     * it should be shed.
+     */
+    public boolean admit(long delay_nanos, HttpPriorityType priority)
+    {
+        if( priority == null )
+        {
+            throw new IllegalArgumentException("priority cannot be null.");
+        }
+
+        long now = System.nanoTime();
+        long interval_end = v_interval_end.get();
+
+        if( now - interval_end > 0 &&
+            v_interval_end.compareAndSet(interval_end, now + v_interval) )
+        {
+            long min = v_min_delay.getAndSet(Long.MAX_VALUE);
+            boolean overloaded = (min != Long.MAX_VALUE) && (min > v_target);
+
+            if( overloaded != v_overloaded && logger.isInfoEnabled() )
+            {
+                logger.info("request queue " + (overloaded ?
+                        "overloaded" : "recovered") + ": minimum delay [" +
+                        TimeUnit.NANOSECONDS.toMillis(min) + "] ms");
+            }
+
+            v_overloaded = overloaded;
+        }
+
+        long min = v_min_delay.get();
+        while( delay_nanos < min &&
+               ! v_min_delay.compareAndSet(min, delay_nanos) )
+        {
+            min = v_min_delay.get();
+        }
+
+        if( ! v_overloaded )
+        {
+            return true;
+        }
+
+        long threshold;
+        switch(priority)
+        {
+            case HIGH:
+                threshold = v_interval;
+                break;
+
+            case NORMAL:
+                threshold = 2 * v_target;
+                break;
+
+            default:
+                threshold = v_target;
+                break;
+        }
+
+        return delay_nanos <= threshold;
+    }
+
+    /**
+     * @return true, if the minimum queueing delay over the last
+     * interval was above the target delay.
+     */
+    public boolean isOverloaded()
+    {
+        return v_overloaded;
+    }
+
+    // ------ >>> Private <<< ------
+    private static final HttpQueueController INSTANCE =
+            new HttpQueueController(
+                    HttpProperties.getLong(HttpProperties.QUEUE_TARGET_MS,
+                                           DEFAULT_TARGET_MS),
+                    HttpProperties.getLong(HttpProperties.QUEUE_INTERVAL_MS,
+                                           DEFAULT_INTERVAL_MS));
+
+    private final long v_target;
+    private final long v_interval;
+    private final AtomicLong v_interval_end;
+    private final AtomicLong v_min_delay;
+    private volatile boolean v_overloaded;
+}
@@ -0,0 +1,366 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpRateLimiter.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.enums.HttpMetricType;
+
+/**
+ * <p>
+ * A per client address rate limiter.  Each client address
+ * gets a token bucket refilled at a fixed rate, and a cap on
+ * the number of connections it may hold open at once.
+ * </p>
+ * <p>
+ * The token bucket is kept as a single "theoretical arrival
+ * time" (the Generic Cell Rate Algorithm), so taking a token is
+ * one read and one compare-and-set of an AtomicLong and never
+ * blocks.  Buckets live in a concurrent map bounded to a maximum
+ * number of clients; buckets idle for longer than the idle time
+ * are expired when the map reaches that bound.
+ * </p>
+ * <p>
+ * An IPv6 client is keyed by its /64 prefix, the smallest block
+ * usually handed to a single host, so one host cannot get a fresh
+ * bucket per address.  A new client arriving while the map is full
+ * of active ones shares a single overflow bucket with the other
+ * untracked clients: spreading requests over many addresses cannot
+ * get around the limits, yet a full map does not lock out every
+ * new client either.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpRateLimiter
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpRateLimiter.class);
+
+    /** The default requests per second of each client. */
+    public static final int DEFAULT_RATE = 1000;
+
+    /** The default burst of requests of each client. */
+    public static final int DEFAULT_BURST = 1000;
+
+    /** The default open connections of each client. */
+    public static final int DEFAULT_CONNECTIONS = 256;
+
+    /** The default number of client addresses tracked. */
+    public static final int DEFAULT_CLIENTS = 100000;
+
+    /** The default idle time in milliseconds of a client. */
+    public static final long DEFAULT_IDLE_MS = 60000L;
+
+    /**
+     * @return the single instance configured from the system
+     * properties, or null if rate limiting is disabled.
+     */
+    public static HttpRateLimiter instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Instantiates a new rate limiter.
+     *
+     * @param rate the requests per second allowed to a client
+     * @param burst the requests a client may send at once after
+     * being idle.
+     * @param connections the open connections allowed to a client
+     * @param clients the maximum number of clients tracked
+     * @param idle_ms the idle time in milliseconds after which a
+     * client bucket may be expired.
+     */
+    public HttpRateLimiter(int rate, int burst, int connections,
+                           int clients, long idle_ms)
+    {
+        if( rate <= 0 || burst <= 0 || connections <= 0 ||
+            clients <= 0 || idle_ms <= 0 )
+        {
+            throw new IllegalArgumentException(
+                    "rate limiter settings must be greater than 0");
+        }
+
+        v_emission = TimeUnit.SECONDS.toNanos(1) / rate;
+        v_tolerance = v_emission * (burst - 1);
+        v_connections = connections;
+        v_clients = clients;
+        v_idle = TimeUnit.MILLISECONDS.toNanos(idle_ms);
+        v_buckets = new ConcurrentHashMap<InetAddress, Bucket>();
+        v_overflow = new Bucket();
+        v_last_sweep = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Takes a token from the bucket of the given client.
+     *
+     * @param address the client address
+     * @return true, if the client is within its rate; false if
+     * the request should be refused.
+     */
+    public boolean tryAcquireRequest(InetAddress address)
+    {
+        Bucket bucket = getBucket(toKey(address));
+        long now = System.nanoTime();
+        while(true)
+        {
+            long tat = bucket.v_tat.get();
+            long start = (tat - now > 0) ? tat : now;
+
+            if( start - now > v_tolerance )
+            {
+                HttpMetrics.instance().increment(HttpMetricType.RATE_LIMITED);
+                return false;
+            }
+
+            if( bucket.v_tat.compareAndSet(tat, start + v_emission) )
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reserves one of the connections of the given client.  A
+     * successful call must be paired with a call to
+     * releaseConnection.
+     *
+     * @param address the client address
+     * @return true, if the client is below its connection cap;
+     * false if the connection should be refused.
+     */
+    public boolean tryAcquireConnection(InetAddress address)
+    {
+        InetAddress key = toKey(address);
+        Bucket bucket = getBucket(key);
+        while(true)
+        {
+            int count = bucket.v_open.get();
+            if( count == SWEPT )
+            {
+                // swept since it was looked up: drop it from the
+                // map, if still there, and start over
+                v_buckets.remove(key, bucket);
+                bucket = getBucket(key);
+                continue;
+            }
+
+            if( count >= v_connections )
+            {
+                HttpMetrics.instance().increment(
+                        HttpMetricType.CONNECTION_LIMITED);
+                return false;
+            }
+
+            if( bucket.v_open.compareAndSet(count, count + 1) )
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a connection reserved by tryAcquireConnection.
+     *
+     * @param address the client address
+     */
+    public void releaseConnection(InetAddress address)
+    {
+        if( address == null )
+        {
+            throw new IllegalArgumentException("address cannot be null.");
+        }
+
+        // a connection counted against the overflow bucket is
+        // released from it once the client has none left tracked
+        Bucket bucket = v_buckets.get(toKey(address));
+        if( bucket == null || ! decrement(bucket) )
+        {
+            decrement(v_overflow);
+        }
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * A client token bucket and open connection counter.
+     */
+    private static final class Bucket
+    {
+        /** The theoretical arrival time of the next request. */
+        private final AtomicLong v_tat = new AtomicLong(System.nanoTime());
+
+        /** The number of open connections. */
+        private final AtomicInteger v_open = new AtomicInteger();
+    }
+
+    /** The open connection count of a swept bucket. */
+    private static final int SWEPT = -1;
+
+    /**
+     * @param address the client address
+     * @return the key of the client: the address itself for IPv4,
+     * and the /64 prefix for IPv6.
+     */
+    private static InetAddress toKey(InetAddress address)
+    {
+        if( address == null )
+        {
+            throw new IllegalArgumentException("address cannot be null.");
+        }
+
+        if(! (address instanceof Inet6Address) )
+        {
+            return address;
+        }
+
+        byte octets [] = address.getAddress();
+        Arrays.fill(octets, 8, octets.length, (byte) 0);
+        try
+        {
+            return InetAddress.getByAddress(octets);
+        }
+        catch(UnknownHostException ex)
+        {
+            // not raised for an address of a legal length
+            return address;
+        }
+    }
+
+    /**
+     * Gets or creates the bucket of the given client.
+     *
+     * @param key the client key
+     * @return the client bucket, or the overflow bucket if the map
+     * is full of active clients and the client cannot be tracked.
+     */
+    private Bucket getBucket(InetAddress key)
+    {
+        Bucket bucket = v_buckets.get(key);
+        if( bucket != null )
+        {
+            return bucket;
+        }
+
+        if( v_buckets.size() >= v_clients )
+        {
+            sweep();
+            if( v_buckets.size() >= v_clients )
+            {
+                HttpMetrics.instance().increment(
+                        HttpMetricType.RATE_LIMIT_OVERFLOW);
+                return v_overflow;
+            }
+        }
+
+        bucket = new Bucket();
+        Bucket existing = v_buckets.putIfAbsent(key, bucket);
+        return (existing == null) ? bucket : existing;
+    }
+
+    /**
+     * Releases one open connection of the given bucket.
+     *
+     * @param bucket a client bucket
+     * @return false, if the bucket had no open connection
+     */
+    private static boolean decrement(Bucket bucket)
+    {
+        int count = bucket.v_open.get();
+        while( count > 0 )
+        {
+            if( bucket.v_open.compareAndSet(count, count - 1) )
+            {
+                return true;
+            }
+
+            count = bucket.v_open.get();
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes the buckets of idle clients without open
+     * connections.  Only one thread sweeps, at most once
+     * per second.  A bucket is marked SWEPT before it is
+     * removed, so a connection cannot be counted against a
+     * bucket on its way out of the map.
+     */
+    private void sweep()
+    {
+        long now = System.nanoTime();
+        long last = v_last_sweep.get();
+
+        if( now - last < TimeUnit.SECONDS.toNanos(1) ||
+            ! v_last_sweep.compareAndSet(last, now) )
+        {
+            return;
+        }
+
+        int removed = 0;
+        Iterator<Map.Entry<InetAddress, Bucket>> it =
+                v_buckets.entrySet().iterator();
+        while( it.hasNext() )
+        {
+            Map.Entry<InetAddress, Bucket> entry = it.next();
+            Bucket bucket = entry.getValue();
+            if( now - bucket.v_tat.get() > v_idle &&
+                bucket.v_open.compareAndSet(0, SWEPT) )
+            {
+                v_buckets.remove(entry.getKey(), bucket);
+                removed++;
+            }
+        }
+
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("expired [" + removed + "] client buckets");
+        }
+    }
+
+    private static final HttpRateLimiter INSTANCE =
+            HttpProperties.getBoolean(HttpProperties.RATE_LIMIT_ENABLED, true) ?
+            new HttpRateLimiter(
+                    HttpProperties.getInt(HttpProperties.RATE_LIMIT_RATE,
+                                          DEFAULT_RATE),
+                    HttpProperties.getInt(HttpProperties.RATE_LIMIT_BURST,
+                                          DEFAULT_BURST),
+                    HttpProperties.getInt(HttpProperties.RATE_LIMIT_CONNECTIONS,
+                                          DEFAULT_CONNECTIONS),
+                    HttpProperties.getInt(HttpProperties.RATE_LIMIT_CLIENTS,
+                                          DEFAULT_CLIENTS),
+                    HttpProperties.getLong(HttpProperties.RATE_LIMIT_IDLE_MS,
+                                           DEFAULT_IDLE_MS)) :
+            null;
+
+    private final long v_emission;
+    private final long v_tolerance;
+    private final int v_connections;
+    private final int v_clients;
+    private final long v_idle;
+    private final ConcurrentMap<InetAddress, Bucket> v_buckets;
+    private final Bucket v_overflow;
+    private final AtomicLong v_last_sweep;
+}
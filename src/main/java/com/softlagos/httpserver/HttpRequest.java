@@ -8,13 +8,12 @@
  */
 package com.softlagos.httpserver;
 
-import java.util.Map;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
 
 import com.softlagos.httpserver.enums.HttpHeaderType;
-import com.softlagos.httpserver.enums.HttpRequestMethodType;
 
 /**
  * The HTTP Request message.
@@ -23,11 +22,6 @@ import com.softlagos.httpserver.enums.HttpRequestMethodType;
  */
 public final class HttpRequest
 {
-
-    /** The logger. */
-    private static final Logger logger =
-            LogManager.getLogger(HttpRequest.class);
-
     /**
      * Instantiates a new http request.
      *
@@ -48,6 +42,37 @@ public final class HttpRequest
 
         v_header = header;
         v_message_body = message_body;
+        v_body_stream = null;
+        v_body_publisher = null;
+        validateHeader();
+    }
+
+    /**
+     * Instantiates a new http request whose message body is
+     * read as a stream by the request handler.
+     *
+     * @param header the HTTP request header consisting of
+     * start-line and header fields.
+     * @param body_stream the HTTP message body stream, read from
+     * an HTTP/1.x connection or from an HTTP/2 stream, which
+     * could be null if the request did not have a message body.
+     * @throws HttpClientErrorException if the HTTP request is malformed.
+     */
+    public HttpRequest(HttpRequestHeader header,
+                       InputStream body_stream)
+    throws HttpClientErrorException
+    {
+        if(header == null)
+        {
+            throw new IllegalArgumentException("header cannot be null.");
+        }
+
+        v_header = header;
+        v_message_body = null;
+        v_body_stream = body_stream;
+        v_body_publisher = (body_stream == null) ? null :
+                new HttpBodyPublisher(body_stream,
+                                      HttpBodyPublisher.DEFAULT_CHUNK_SIZE);
         validateHeader();
     }
 
@@ -71,54 +96,46 @@ public final class HttpRequest
     }
 
     /**
-     * Print out this HTTP request using the logger.trace method. It displays a warning 
-     * to the log if the logger. trace is not enabled for this object.
+     * @return the HTTP request message body as a stream read
+     * straight from the connection when the request is handled
+     * by a streaming handler.  It returns null if the message
+     * body was buffered, or if the request did not have one.
      */
-    public void trace()
+    public InputStream getBodyStream()
     {
-        if(! logger.isTraceEnabled())
-        {
-            logger.warn("CANNOT trace request because logger trace is DISABLED!");
-        }
-
-        HttpRequestHeader httpHeader = this.getHeader();
-        if(httpHeader == null)
-        {
-            throw new IllegalArgumentException("request [" + this + "] is missing an HTTP header");
-        }
-
-        HttpRequestLine requestLine = httpHeader.getRequestLine();
-        if(requestLine == null)
-        {
-            throw new IllegalArgumentException("request [" + this + "] is missing an HTTP request-line");
-        }
-
-        // method
-        HttpRequestMethodType method = requestLine.getMethod();
-        logger.trace("method: " + method.toString());
-
-        // Request-URI
-        String requestUri = requestLine.getRequestURI();
-        logger.trace("request-URI: " + requestUri);
-
-        // HTTP-Version
-        String version = requestLine.getHttpVersion();
-        logger.trace("HTTP-Version: " + version);
-
-        // headers
-        Map<String, String> header = httpHeader.getHeaders();
-        if(header != null && ! header.isEmpty())
-        {
-            String value = null;
+        return v_body_stream;
+    }
 
-            for(String key : header.keySet())
-            {
-                value = header.get(key);
-                logger.trace("header: " + key + "=" + value);
-            }
+    /**
+     * @return the HTTP request message body as a Flow.Publisher
+     * reading the connection on demand, for a request handled by
+     * a streaming handler.  Only one of the body stream and the
+     * body publisher may be used.  It returns null if the message
+     * body was buffered, or if the request did not have one.
+     */
+    public Flow.Publisher<ByteBuffer> getBodyPublisher()
+    {
+        return v_body_publisher;
+    }
 
-        }
+    /**
+     * @return the address of the client the request was received
+     * from; or null if it is not known.
+     */
+    public InetAddress getRemoteAddress()
+    {
+        return v_remote_address;
+    }
 
+    /**
+     * Sets the address of the client, as done by the connection the
+     * request was received on before the request is handled.
+     *
+     * @param remote_address the address of the client
+     */
+    public void setRemoteAddress(InetAddress remote_address)
+    {
+        v_remote_address = remote_address;
     }
 
     /**
@@ -132,10 +149,10 @@ public final class HttpRequest
         String version = v_header.getRequestLine().getHttpVersion();
         String msg = null;
 
-        if(version.matches("HTTP/1.1"))
+        if( "HTTP/1.1".equals(version) )
         {
-            Map<String, String> headers = v_header.getHeaders();
-            String value = headers.get(HttpHeaderType.HOST.getFieldName());
+            String value = v_header.getHeader(
+                    HttpHeaderType.HOST.getFieldName());
             if ( value == null)
             {
                 msg = "A client MUST include a Host header field in all HTTP/1.1 request messages";
@@ -148,4 +165,7 @@ public final class HttpRequest
     // ------ >>> Private <<< ------
     private final HttpRequestHeader v_header;
     private final HttpMessageBody v_message_body;
+    private final InputStream v_body_stream;
+    private final HttpBodyPublisher v_body_publisher;
+    private InetAddress v_remote_address;
 }
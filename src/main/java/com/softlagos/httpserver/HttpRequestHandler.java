@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpRequestHandler.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.io.IOException;
+
+/**
+ * An application handler producing the HTTP response of the
+ * requests routed to it by the HttpHandlerRegistry.
+ * <p>
+ * By default the server reads the whole message body into an
+ * HttpMessageBody, bounded by the maximum body size, before
+ * calling the handler.  A streaming handler is instead given
+ * the message body as an input stream or a Flow.Publisher read
+ * straight from the connection; it must consume the body, or
+ * close the stream, before returning its response.
+ *
+ * @author Rubens Gomes
+ */
+public interface HttpRequestHandler
+{
+    /**
+     * Handles the given request.
+     *
+     * @param request the HTTP request
+     * @return the HTTP response
+     * @throws HttpErrorException to answer with an HTTP client
+     * or server error.
+     * @throws IOException if an I/O error occurs reading the
+     * message body.
+     */
+    HttpResponse handle(HttpRequest request)
+        throws HttpErrorException, IOException;
+
+    /**
+     * @return true, if the handler reads the message body as a
+     * stream instead of having it buffered by the server.
+     */
+    default boolean isStreaming()
+    {
+        return false;
+    }
+
+    /**
+     * @return true, if the handler spends its time computing, as
+     * compressing, templating or hashing do, rather than waiting on
+     * I/O; it is then run on the CPU tier of the HttpCpuExecutor
+     * rather than on the I/O thread of the connection.  A streaming
+     * handler always runs on the I/O thread.
+     */
+    default boolean isCpuBound()
+    {
+        return false;
+    }
+}
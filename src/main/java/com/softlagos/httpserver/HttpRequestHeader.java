@@ -44,9 +44,35 @@ public final class HttpRequestHeader
         }
 
         v_request_line = request_line;
+        v_fields = null;
         v_headers = new HashMap<String, String>();
     }
 
+    /**
+     * Instantiates a new HTTP request header using the given
+     * request line and the header fields as received; they are
+     * only decoded as they are looked up.
+     *
+     * @param request_line a valid HTTP request line
+     * @param fields the header fields received
+     */
+    public HttpRequestHeader(final HttpRequestLine request_line,
+                             final HttpHeaderFields fields)
+    {
+        if(request_line == null )
+        {
+            throw new IllegalArgumentException("request_line cannot be null.");
+        }
+
+        if( fields == null )
+        {
+            throw new IllegalArgumentException("fields cannot be null.");
+        }
+
+        v_request_line = request_line;
+        v_fields = fields;
+    }
+
     /**
      * Adds the given header field to the HTTP headers.
      *
@@ -77,7 +103,7 @@ public final class HttpRequestHeader
             }
         }
 
-        v_headers.put(key, value);
+        headers().put(key, value);
     }
 
     /**
@@ -89,14 +115,76 @@ public final class HttpRequestHeader
     }
 
     /**
-     * @return the HTTP headers
+     * @return the HTTP headers; the header fields received are all
+     * decoded on the first call.
      */
-    public Map<String, String> getHeaders()
+    public synchronized Map<String, String> getHeaders()
     {
-        return v_headers;
+        return headers();
+    }
+
+    /**
+     * Gets the value of the given header field.  Header field
+     * names are case-insensitive.
+     *
+     * @param key the HTTP header field name
+     * @return the header field value, or null if the header
+     * field was not found on the request.
+     */
+    public synchronized String getHeader(String key)
+    {
+        if( key == null || key.trim().length() == 0)
+        {
+            throw new IllegalArgumentException("key cannot be null or blank.");
+        }
+
+        if( v_headers == null )
+        {
+            // no field decoded yet: compare the octets received
+            return v_fields.get(key);
+        }
+
+        String value = v_headers.get(key);
+        if( value != null )
+        {
+            return value;
+        }
+
+        for(Map.Entry<String, String> entry : v_headers.entrySet())
+        {
+            if( entry.getKey().equalsIgnoreCase(key) )
+            {
+                return entry.getValue();
+            }
+        }
+
+        return null;
     }
 
     // ------ >>> Private <<< ------
+
+    /**
+     * @return the header fields map, decoding the fields received
+     * into it the first time.
+     */
+    private Map<String, String> headers()
+    {
+        if( v_headers == null )
+        {
+            Map<String, String> headers =
+                    new HashMap<String, String>(v_fields.size() * 2);
+            for(int i = 0; i < v_fields.size(); i++)
+            {
+                headers.put(v_fields.getName(i), v_fields.getValue(i));
+            }
+
+            v_headers = headers;
+        }
+
+        return v_headers;
+    }
+
     private final HttpRequestLine v_request_line;
-    private final Map<String, String> v_headers;
+    private final HttpHeaderFields v_fields;
+    private Map<String, String> v_headers;
 }
@@ -48,11 +48,24 @@ public final class HttpRequestLine
                                "requestLine cannot be null or blank.");
         }
 
-        validate(requestLine);
+        // a single pass over the line: the tokens are delimited by
+        // the two SP, with no other SP allowed.
+        int first = requestLine.indexOf(' ');
+        int second = (first < 0) ? -1 : requestLine.indexOf(' ', first + 1);
+        if( first <= 0 || second <= first + 1 ||
+            second == requestLine.length() - 1 ||
+            requestLine.indexOf(' ', second + 1) >= 0 )
+        {
+            String msg = "request-line [" + requestLine +
+                    "] is invalid.";
+            throw new HttpClientErrorException(400, msg);
+        }
+
         v_request_line = requestLine;
-        v_method = parseMethod(requestLine);
-        v_requestURI = parseRequestURI(requestLine);
-        v_httpVersion = parseHttpVersion(requestLine);
+        v_method = parseMethod(requestLine, first);
+        v_requestURI = parseRequestURI(requestLine, first, second);
+        v_target = HttpRequestTarget.of(v_method, v_requestURI);
+        v_httpVersion = parseHttpVersion(requestLine, second);
     }
 
     /**
@@ -79,6 +92,15 @@ public final class HttpRequestLine
         return v_requestURI;
     }
 
+    /**
+     * @return the HTTP Request-URI, decomposed on demand into its
+     * path and query.
+     */
+    public HttpRequestTarget getRequestTarget()
+    {
+        return v_target;
+    }
+
     /**
      * @return the HTTP HTTP-Version
      */
@@ -165,29 +187,22 @@ public final class HttpRequestLine
                                "requestLine cannot be null or blank.");
         }
 
-        String tokens [] = requestLine.split(Constants.SP);
-        if(tokens == null || tokens.length == 0)
-        {
-            String msg = "request_line [" + requestLine +
-                    "] is not valid.";
-            throw new HttpClientErrorException(400, msg);
-        }
-
-        // according to the HTTP 1.1 standards the request
-        // line should look as following:
-        // request-line = method SP request-target SP HTTP-version CRLF
-        if( tokens.length != 3 )
-        {
-            String msg = "request-line [" + requestLine +
-                    "] is invalid.";
-            throw new HttpClientErrorException(400, msg);
-        }
+        new HttpRequestLine(requestLine);
+    }
 
-        // --- >>> Extract the Method from the request-line <<< ---
-        String method = tokens[0];
+    /**
+     * @param requestLine the HTTP request-line
+     * @param first the position of the first SP
+     * @return the corresponding request Method
+     * @throws HttpClientErrorException if the method is invalid.
+     */
+    private static HttpRequestMethodType parseMethod(String requestLine,
+                                                     int first)
+            throws HttpClientErrorException
+    {
+        String method = requestLine.substring(0, first);
         HttpRequestMethodType http_method =
                 HttpRequestMethodType.getEnum(method);
-
         if(http_method == null)
         {
             String msg = "request-line [" + requestLine +
@@ -195,124 +210,72 @@ public final class HttpRequestLine
             throw new HttpClientErrorException(400, msg);
         }
 
-        // --- >>> Extract the Request-URI from the request-line <<< ---
-        String request_target = tokens[1];
-        if(request_target.length() >
-            Constants.MAX_HTTP_REQUEST_TARGET_LENGTH)
+        return http_method;
+    }
+
+    /**
+     * @param requestLine the HTTP request-line
+     * @param first the position of the first SP
+     * @param second the position of the second SP
+     * @return the corresponding Request-URI
+     * @throws HttpClientErrorException if the request-target is
+     * too long.
+     */
+    private static String parseRequestURI(String requestLine, int first,
+                                          int second)
+            throws HttpClientErrorException
+    {
+        if( second - first - 1 > Constants.MAX_HTTP_REQUEST_TARGET_LENGTH )
         {
             // 414 URI Too Long
-            String msg = "414 URI [" + request_target +
+            String msg = "414 URI [" +
+                    requestLine.substring(first + 1, second) +
                     "] is too long. Maximum lenght is [" +
                     Constants.MAX_HTTP_REQUEST_TARGET_LENGTH + "]";
             throw new HttpClientErrorException(414, msg);
         }
 
-        switch(http_method)
-        {
-            case CONNECT:
-            case OPTIONS:
-                break;
-
-            default:
-                if(request_target.startsWith("/"))
-                {
-                    break;
-                }
-                else if (request_target.startsWith("http://") ||
-                         request_target.startsWith("https://") )
-                {
-                    break;
-                }
-                else
-                {
-                    String msg = "request-line [" + requestLine +
-                            "] had an invalid request-target [" +
-                            request_target + "]";
-                    throw new HttpClientErrorException(400, msg);
-                }
-        }
-
-        // --- >>> Extract the HTTP version from the request-line <<< ---
-        String version = tokens[2];
-        if( ! version.matches("HTTP/\\d\\.\\d") )
-        {
-            String msg = "request-line [" + requestLine +
-                    "] had an invalid version [" +
-                    version + "]";
-            throw new HttpClientErrorException(400, msg);
-        }
-
+        return requestLine.substring(first + 1, second);
     }
 
     /**
-     * This method assumes a valid request-line.
-     * <p>
-     * Request-Line   = Method SP Request-URI SP HTTP-Version CRLF
-     * </p>
-     * 
-     * @param requestLine the non-blank and valid HTTP request-line
-     * @return the corresponding request Method
+     * @param requestLine the HTTP request-line
+     * @param second the position of the second SP
+     * @return the corresponding HTTP-Version
+     * @throws HttpClientErrorException if the version is not of
+     * the form HTTP/DIGIT.DIGIT
      */
-    private HttpRequestMethodType parseMethod(String requestLine)
+    private static String parseHttpVersion(String requestLine, int second)
             throws HttpClientErrorException
     {
-        String tokens [] = requestLine.split(Constants.SP);
-
-        // --- >>> Extract the HTTP method from the request-line <<< ---
-        String method = tokens[0];
-        HttpRequestMethodType http_method =
-                HttpRequestMethodType.getEnum(method);
-
-        if(http_method == null)
+        String version = requestLine.substring(second + 1);
+        if( version.length() != 8 || ! version.startsWith("HTTP/") ||
+            ! isDigit(version.charAt(5)) || version.charAt(6) != '.' ||
+            ! isDigit(version.charAt(7)) )
         {
             String msg = "request-line [" + requestLine +
-                    "] had an invalid method [" + method + "]";
+                    "] had an invalid version [" +
+                    version + "]";
             throw new HttpClientErrorException(400, msg);
         }
 
-        return http_method;
-    }
-
-    /**
-     * This method assumes a valid request-line.
-     * <p>
-     * Request-Line   = Method SP Request-URI SP HTTP-Version CRLF
-     * </p>
-     * 
-     * @param requestLine the non-blank and valid HTTP request-line
-     * @return the corresponding Request-URI
-     */
-    private String parseRequestURI(String requestLine)
-    {
-        String tokens [] = requestLine.split(Constants.SP);
-
-        // --- >>> Extract the Request-URI from the request-line <<< ---
-        String request_target = tokens[1];
-        return request_target;
+        return version;
     }
 
     /**
-     * This method assumes a valid request-line.
-     * <p>
-     * Request-Line   = Method SP Request-URI SP HTTP-Version CRLF
-     * </p>
-     * 
-     * @param requestLine the non-blank and valid HTTP request-line
-     * @return the corresponding HTTP-Version
+     * @param c a character
+     * @return true, if the character is an ASCII DIGIT
      */
-    private String parseHttpVersion(String requestLine)
+    private static boolean isDigit(char c)
     {
-        String tokens [] = requestLine.split(Constants.SP);
-
-        // --- >>> Extract the HTTP version from the request-line <<< ---
-        String version = tokens[2];
-        return version;
+        return c >= '0' && c <= '9';
     }
 
     // ------ >>> Private <<< ------
     private final String v_request_line;
     private final HttpRequestMethodType v_method;
     private final String v_requestURI;
+    private final HttpRequestTarget v_target;
     private final String v_httpVersion;
 
 }
@@ -8,82 +8,165 @@
  */
 package com.softlagos.httpserver;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.softlagos.httpserver.enums.HttpMetricType;
 import com.softlagos.httpserver.enums.HttpRequestMethodType;
 import com.softlagos.httpserver.enums.HttpRequestTargetFormatType;
 
 /**
- * The HTTP Request Target.
+ * <p>
+ * The HTTP Request Target, and its path and query.
+ * </p>
+ * <p>
+ * Only the format of the target and the bounds of its path and
+ * query are found on construction.  The path, its normalized and
+ * percent-decoded forms and the query parameters are each computed
+ * the first time they are asked for, and kept.  The targets of the
+ * origin-form short enough are themselves kept in a bounded cache,
+ * so the requests for a hot resource share one target and decode
+ * it only once.
+ * </p>
  *
  * @author Rubens Gomes
  * @see "Section 5.3 of RFC7230 - Hypertext Transfer Protocol
  * (HTTP/1.1): Message Syntax and Routing"
+ * @see "Section 3 of RFC3986 - Uniform Resource Identifier (URI):
+ * Generic Syntax"
  */
 public final class HttpRequestTarget
 {
-
     /**
-     * Instantiates a new http request target.
+     * Gets the target of a request, from the cache when it holds
+     * it.
      *
-     * @param request_line the request_line
-     * @throws HttpClientErrorException if the request-line is
-     * malformed.
+     * @param method the request method
+     * @param request_target the request-target
+     * @return the request target
+     * @throws HttpClientErrorException if the request-target is of
+     * a form not allowed for the method.
      */
-    public HttpRequestTarget(String request_line)
+    public static HttpRequestTarget of(HttpRequestMethodType method,
+                                       String request_target)
             throws HttpClientErrorException
     {
-        if( request_line == null ||
-                request_line.trim().length() == 0 )
+        if( method == null )
+        {
+            throw new IllegalArgumentException("method cannot be null.");
+        }
+
+        if( request_target == null )
         {
             throw new IllegalArgumentException(
-                               "request_line cannot be null or blank.");
+                    "request_target cannot be null.");
         }
 
-        // ensure this is a valid request_line
-        HttpRequestLine.validate(request_line);
+        // the origin-form targets are of the same format for all
+        // the methods they are allowed for
+        if( CACHE_SIZE <= 0 ||
+            request_target.length() > MAX_CACHED_LENGTH ||
+            ! request_target.startsWith("/") ||
+            method == HttpRequestMethodType.CONNECT ||
+            method == HttpRequestMethodType.OPTIONS )
+        {
+            return new HttpRequestTarget(method, request_target);
+        }
 
-        String tokens [] = request_line.split(" ");
-        String method = tokens[0];
-        HttpRequestMethodType http_method =
-                HttpRequestMethodType.getEnum(method);
+        HttpRequestTarget target = CACHE.get(request_target);
+        if( target != null )
+        {
+            HttpMetrics.instance().increment(HttpMetricType.TARGETS_CACHED);
+            return target;
+        }
 
-        if(http_method == null)
+        target = new HttpRequestTarget(method, request_target);
+        if( CACHE.size() >= CACHE_SIZE )
         {
-            String msg = "request-line [" + request_line +
-                    "] had an invalid method [" + method + "]";
-            throw new HttpClientErrorException(400, msg);
+            // the targets still hot are back in the cache soon
+            CACHE.clear();
         }
 
-        v_request_target = tokens[1];
+        HttpRequestTarget cached = CACHE.putIfAbsent(request_target, target);
+        return (cached == null) ? target : cached;
+    }
 
-        switch(http_method)
+    /**
+     * Instantiates a new http request target.
+     *
+     * @param method the request method
+     * @param request_target the request-target
+     * @throws HttpClientErrorException if the request-target is of
+     * a form not allowed for the method.
+     */
+    public HttpRequestTarget(HttpRequestMethodType method,
+                             String request_target)
+            throws HttpClientErrorException
+    {
+        if( method == null )
         {
-            case CONNECT:
-                v_format = HttpRequestTargetFormatType.AUTHORITY_FORM;
-                break;
+            throw new IllegalArgumentException("method cannot be null.");
+        }
 
-            case OPTIONS:
-                v_format = HttpRequestTargetFormatType.ASTERISK_FORM;
-                break;
+        if( request_target == null ||
+                request_target.length() == 0 )
+        {
+            throw new IllegalArgumentException(
+                    "request_target cannot be null or blank.");
+        }
 
-            default:
-                if(v_request_target.startsWith("/"))
-                {
-                    v_format = HttpRequestTargetFormatType.ORIGIN_FORM;
-                }
-                else if (v_request_target.startsWith("http://") ||
-                        v_request_target.startsWith("https://") )
-                {
-                    v_format = HttpRequestTargetFormatType.ABSOLUTE_FORM;
-                }
-                else
-                {
-                    String msg = "request-line [" + request_line +
-                            "] had an invalid request-target [" +
-                            v_request_target + "]";
-                    throw new HttpClientErrorException(400, msg);
-                }
+        v_request_target = request_target;
+
+        int path_start = -1;
+        int path_end = -1;
+        if( method == HttpRequestMethodType.CONNECT )
+        {
+            v_format = HttpRequestTargetFormatType.AUTHORITY_FORM;
+        }
+        else if( method == HttpRequestMethodType.OPTIONS &&
+                 request_target.equals("*") )
+        {
+            v_format = HttpRequestTargetFormatType.ASTERISK_FORM;
+        }
+        else if( request_target.startsWith("/") )
+        {
+            v_format = HttpRequestTargetFormatType.ORIGIN_FORM;
+            path_start = 0;
+        }
+        else if( request_target.startsWith("http://") ||
+                 request_target.startsWith("https://") )
+        {
+            v_format = HttpRequestTargetFormatType.ABSOLUTE_FORM;
+
+            // the path starts after the authority, and may be empty
+            path_start = request_target.indexOf("://") + 3;
+            while( path_start < request_target.length() &&
+                   request_target.charAt(path_start) != '/' &&
+                   request_target.charAt(path_start) != '?' )
+            {
+                path_start++;
+            }
+        }
+        else
+        {
+            String msg = "request-target [" + request_target +
+                    "] is invalid for method [" + method + "]";
+            throw new HttpClientErrorException(400, msg);
         }
 
+        if( path_start >= 0 )
+        {
+            int query = request_target.indexOf('?', path_start);
+            path_end = (query < 0) ? request_target.length() : query;
+        }
+
+        v_path_start = path_start;
+        v_path_end = path_end;
     }
 
     /**
@@ -102,7 +185,425 @@ public final class HttpRequestTarget
         return v_format;
     }
 
+    /**
+     * @return the path of the target, as received; or null for the
+     * authority-form and the asterisk-form.
+     */
+    public String getPath()
+    {
+        if( v_path_start < 0 )
+        {
+            return null;
+        }
+
+        String path = v_path;
+        if( path == null )
+        {
+            if( v_path_start == v_path_end )
+            {
+                path = "/";
+            }
+            else if( v_path_start == 0 &&
+                     v_path_end == v_request_target.length() )
+            {
+                path = v_request_target;
+            }
+            else
+            {
+                path = v_request_target.substring(v_path_start, v_path_end);
+            }
+
+            v_path = path;
+        }
+
+        return path;
+    }
+
+    /**
+     * Normalizes the path so that equivalent targets are routed,
+     * cached and served alike: the percent-encoded unreserved
+     * characters are decoded and the other percent-encodings upper
+     * cased, and then the "." and ".." segments are removed, so an
+     * encoded "%2e%2e" segment is removed as well.
+     *
+     * @return the normalized path of the target; or null for the
+     * authority-form and the asterisk-form.
+     * @see "Section 5.2.4 and 6.2.2 of RFC3986"
+     */
+    public String getNormalizedPath()
+    {
+        String path = getPath();
+        if( path == null )
+        {
+            return null;
+        }
+
+        String normalized = v_normalized_path;
+        if( normalized == null )
+        {
+            normalized = (path.indexOf('%') < 0) ?
+                    path : normalizeEncodings(path);
+            if( normalized.indexOf("/.") >= 0 )
+            {
+                normalized = removeDotSegments(normalized);
+            }
+
+            v_normalized_path = normalized;
+        }
+
+        return normalized;
+    }
+
+    /**
+     * @return the normalized path of the target with its
+     * percent-encoded octets decoded as UTF-8; or null for the
+     * authority-form and the asterisk-form.
+     * @throws HttpClientErrorException if the path has a malformed
+     * percent-encoding.
+     */
+    public String getDecodedPath()
+        throws HttpClientErrorException
+    {
+        String path = getNormalizedPath();
+        if( path == null )
+        {
+            return null;
+        }
+
+        String decoded = v_decoded_path;
+        if( decoded == null )
+        {
+            decoded = decode(path, 0, path.length(), false);
+            v_decoded_path = decoded;
+        }
+
+        return decoded;
+    }
+
+    /**
+     * @return the query of the target, as received, without its
+     * "?"; or null if the target has no query.
+     */
+    public String getQuery()
+    {
+        if( v_path_end < 0 || v_path_end == v_request_target.length() )
+        {
+            return null;
+        }
+
+        return v_request_target.substring(v_path_end + 1);
+    }
+
+    /**
+     * Gets the parameters of the query, the name=value pairs
+     * separated with "&amp;", with their names and values
+     * percent-decoded as UTF-8 and "+" decoded as SP.
+     *
+     * @return the values of each parameter, in the order received;
+     * empty if the target has no query.
+     * @throws HttpClientErrorException if the query has a malformed
+     * percent-encoding.
+     */
+    public Map<String, List<String>> getParameters()
+        throws HttpClientErrorException
+    {
+        Map<String, List<String>> parameters = v_parameters;
+        if( parameters == null )
+        {
+            parameters = parseParameters();
+            v_parameters = parameters;
+        }
+
+        return parameters;
+    }
+
+    /**
+     * @param name the parameter name
+     * @return the first value of the parameter, or null if the
+     * query does not have it.
+     * @throws HttpClientErrorException if the query has a malformed
+     * percent-encoding.
+     */
+    public String getParameter(String name)
+        throws HttpClientErrorException
+    {
+        List<String> values = getParameterValues(name);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * @param name the parameter name
+     * @return the values of the parameter, empty if the query does
+     * not have it.
+     * @throws HttpClientErrorException if the query has a malformed
+     * percent-encoding.
+     */
+    public List<String> getParameterValues(String name)
+        throws HttpClientErrorException
+    {
+        if( name == null )
+        {
+            throw new IllegalArgumentException("name cannot be null.");
+        }
+
+        List<String> values = getParameters().get(name);
+        if( values == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return values;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return v_request_target;
+    }
+
     // ------ >>> Private <<< ------
+
+    /** The length of the longest target kept in the cache. */
+    private static final int MAX_CACHED_LENGTH = 128;
+
+    /** The maximum number of targets kept in the cache. */
+    private static final int CACHE_SIZE =
+            HttpProperties.getInt(HttpProperties.TARGET_CACHE_SIZE, 1024);
+
+    private static final ConcurrentHashMap<String, HttpRequestTarget> CACHE =
+            new ConcurrentHashMap<String, HttpRequestTarget>();
+
+    /**
+     * @return the parameters of the query
+     * @throws HttpClientErrorException if the query has a malformed
+     * percent-encoding.
+     */
+    private Map<String, List<String>> parseParameters()
+        throws HttpClientErrorException
+    {
+        if( v_path_end < 0 || v_path_end == v_request_target.length() )
+        {
+            return Collections.emptyMap();
+        }
+
+        Map<String, List<String>> parameters =
+                new LinkedHashMap<String, List<String>>();
+        String target = v_request_target;
+        int start = v_path_end + 1;
+        while( start <= target.length() )
+        {
+            int end = target.indexOf('&', start);
+            if( end < 0 )
+            {
+                end = target.length();
+            }
+
+            if( end > start )
+            {
+                int equals = target.indexOf('=', start);
+                if( equals < 0 || equals > end )
+                {
+                    equals = end;
+                }
+
+                String name = decode(target, start, equals, true);
+                String value = (equals == end) ? "" :
+                        decode(target, equals + 1, end, true);
+
+                List<String> values = parameters.get(name);
+                if( values == null )
+                {
+                    values = new ArrayList<String>(1);
+                    parameters.put(name, values);
+                }
+
+                values.add(value);
+            }
+
+            start = end + 1;
+        }
+
+        for(Map.Entry<String, List<String>> entry : parameters.entrySet())
+        {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    /**
+     * Decodes the percent-encoded unreserved characters and upper
+     * cases the other percent-encodings.  A malformed encoding is
+     * kept as is, and rejected when the path is decoded.
+     *
+     * @param path an absolute path
+     * @return the path with its percent-encodings normalized
+     * @see "Section 6.2.2.1 and 6.2.2.2 of RFC3986"
+     */
+    private static String normalizeEncodings(String path)
+    {
+        StringBuilder buff = new StringBuilder(path.length());
+        int length = path.length();
+        for(int i = 0; i < length; i++)
+        {
+            char ch = path.charAt(i);
+            int high = (ch == '%' && i + 2 < length) ?
+                    Character.digit(path.charAt(i + 1), 16) : -1;
+            int low = (high < 0) ? -1 :
+                    Character.digit(path.charAt(i + 2), 16);
+            if( low < 0 )
+            {
+                buff.append(ch);
+                continue;
+            }
+
+            char decoded = (char) ((high << 4) + low);
+            if( isUnreserved(decoded) )
+            {
+                buff.append(decoded);
+            }
+            else
+            {
+                buff.append('%');
+                buff.append(Character.toUpperCase(path.charAt(i + 1)));
+                buff.append(Character.toUpperCase(path.charAt(i + 2)));
+            }
+
+            i += 2;
+        }
+
+        return buff.toString();
+    }
+
+    /**
+     * @param ch a character
+     * @return true, if the character is unreserved in a URI
+     * @see "Section 2.3 of RFC3986"
+     */
+    private static boolean isUnreserved(char ch)
+    {
+        return (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') ||
+               (ch >= '0' && ch <= '9') || ch == '-' || ch == '.' ||
+               ch == '_' || ch == '~';
+    }
+
+    /**
+     * @param path an absolute path
+     * @return the path without its "." and ".." segments
+     * @see "Section 5.2.4 of RFC3986"
+     */
+    private static String removeDotSegments(String path)
+    {
+        StringBuilder buff = new StringBuilder(path.length());
+        int start = 0;
+        int length = path.length();
+        while( start < length )
+        {
+            // the segment runs from the "/" at start to the next one
+            int end = path.indexOf('/', start + 1);
+            if( end < 0 )
+            {
+                end = length;
+            }
+
+            int segment = end - start - 1;
+            if( segment == 1 && path.charAt(start + 1) == '.' )
+            {
+                if( end == length )
+                {
+                    buff.append('/');
+                }
+            }
+            else if( segment == 2 && path.charAt(start + 1) == '.' &&
+                     path.charAt(start + 2) == '.' )
+            {
+                int last = buff.lastIndexOf("/");
+                buff.setLength(Math.max(last, 0));
+                if( end == length )
+                {
+                    buff.append('/');
+                }
+            }
+            else
+            {
+                buff.append(path, start, end);
+            }
+
+            start = end;
+        }
+
+        return (buff.length() == 0) ? "/" : buff.toString();
+    }
+
+    /**
+     * @param text the text holding percent-encoded octets
+     * @param start the start of the part to decode
+     * @param end the end of the part to decode
+     * @param plus whether "+" stands for SP
+     * @return the part decoded as UTF-8
+     * @throws HttpClientErrorException if a percent-encoding is
+     * malformed.
+     */
+    private static String decode(String text, int start, int end,
+                                 boolean plus)
+        throws HttpClientErrorException
+    {
+        int pos = start;
+        while( pos < end && text.charAt(pos) != '%' &&
+               (! plus || text.charAt(pos) != '+') )
+        {
+            pos++;
+        }
+
+        if( pos == end )
+        {
+            return text.substring(start, end);
+        }
+
+        // the request-line is ISO-8859-1, one octet per char
+        byte octets [] = new byte[end - start];
+        int length = 0;
+        for(int i = start; i < end; i++)
+        {
+            char ch = text.charAt(i);
+            if( ch == '%' )
+            {
+                int high = (i + 2 < end) ?
+                        Character.digit(text.charAt(i + 1), 16) : -1;
+                int low = (high < 0) ? -1 :
+                        Character.digit(text.charAt(i + 2), 16);
+                if( low < 0 )
+                {
+                    String msg = "request-target [" + text +
+                            "] has a malformed percent-encoding";
+                    throw new HttpClientErrorException(400, msg);
+                }
+
+                octets[length++] = (byte) ((high << 4) + low);
+                i += 2;
+            }
+            else if( ch == '+' && plus )
+            {
+                octets[length++] = ' ';
+            }
+            else
+            {
+                octets[length++] = (byte) ch;
+            }
+        }
+
+        return new String(octets, 0, length, StandardCharsets.UTF_8);
+    }
+
     private final String v_request_target;
     private final HttpRequestTargetFormatType v_format;
+    private final int v_path_start;
+    private final int v_path_end;
+    private volatile String v_path;
+    private volatile String v_normalized_path;
+    private volatile String v_decoded_path;
+    private volatile Map<String, List<String>> v_parameters;
 }
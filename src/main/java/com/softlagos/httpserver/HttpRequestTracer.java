@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpRequestTracer.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.enums.HttpMetricType;
+
+/**
+ * <p>
+ * Samples requests and logs, for each request sampled, one line
+ * with its request-line, its header fields and the time it spent
+ * in each stage: queued for a worker, reading the request head,
+ * in the handler, and writing the response.
+ * </p>
+ * <p>
+ * A request is sampled if it carries the trigger header field,
+ * or if it is the Nth request seen at the configured sample rate.
+ * The tracer is disabled unless one of both is configured: the
+ * request path then tests the ENABLED constant and nothing else.
+ * The values of the header fields carrying credentials are not
+ * logged.
+ * </p>
+ * <pre>
+ * trace GET /api HTTP/1.1 status=200 queue_ms=0.1 head_ms=0.3
+ *   handle_ms=2.5 write_ms=0.2 total_ms=3.1 headers={Host=..., ...}
+ * </pre>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpRequestTracer
+{
+    private static final Logger logger =
+            LogManager.getLogger(HttpRequestTracer.class);
+
+    /** Whether requests are sampled. */
+    public static final boolean ENABLED =
+            HttpProperties.getInt(HttpProperties.TRACE_SAMPLE_EVERY, 0) > 0 ||
+            HttpProperties.getString(HttpProperties.TRACE_HEADER, null) != null;
+
+    /**
+     * @return the single instance configured from the system
+     * properties, or null if request tracing is disabled.
+     */
+    public static HttpRequestTracer instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Instantiates a new request tracer.
+     *
+     * @param sample_every the sample rate: one request out of this
+     * many is sampled, or 0 to sample none by rate.
+     * @param header the header field name whose presence samples a
+     * request, or null.
+     */
+    public HttpRequestTracer(int sample_every, String header)
+    {
+        if( sample_every < 0 )
+        {
+            throw new IllegalArgumentException("sample_every cannot be negative.");
+        }
+
+        v_sample_every = sample_every;
+        v_header = header;
+    }
+
+    /**
+     * Decides whether the given request is sampled.
+     *
+     * @param header the request header just read
+     * @param start_nanos the System.nanoTime() when the worker
+     * started serving the connection
+     * @param queue_nanos the time in nanoseconds the connection was
+     * queued for a worker
+     * @return the trace of the request, or null if it is not
+     * sampled.
+     */
+    public Trace sample(HttpRequestHeader header, long start_nanos,
+                        long queue_nanos)
+    {
+        if( header == null )
+        {
+            throw new IllegalArgumentException("header cannot be null.");
+        }
+
+        boolean sampled = (v_header != null &&
+                           header.getHeader(v_header) != null);
+        if( ! sampled && v_sample_every > 0 )
+        {
+            sampled = (v_seen.incrementAndGet() % v_sample_every == 0);
+        }
+
+        if( ! sampled )
+        {
+            return null;
+        }
+
+        HttpMetrics.instance().increment(HttpMetricType.TRACES_SAMPLED);
+        return new Trace(header, start_nanos, queue_nanos);
+    }
+
+    /**
+     * The timings of a sampled request.  A trace is used by the
+     * single thread serving the request.
+     */
+    public static final class Trace
+    {
+        /**
+         * Marks the response as returned by the handler.
+         */
+        public void handled()
+        {
+            v_handled_nanos = System.nanoTime();
+        }
+
+        /**
+         * Marks the response as written and logs the trace.
+         *
+         * @param status_code the status code of the response
+         */
+        public void finish(int status_code)
+        {
+            long now = System.nanoTime();
+            long handled = (v_handled_nanos == 0L) ? now : v_handled_nanos;
+
+            HttpRequestLine line = v_header.getRequestLine();
+            StringBuilder buff = new StringBuilder(256);
+            buff.append("trace ")
+                .append(line.getMethod()).append(' ')
+                .append(line.getRequestURI()).append(' ')
+                .append(line.getHttpVersion())
+                .append(" status=").append(status_code)
+                .append(" queue_ms=").append(millis(v_queue_nanos))
+                .append(" head_ms=").append(millis(v_sampled_nanos -
+                                                   v_start_nanos))
+                .append(" handle_ms=").append(millis(handled -
+                                                     v_sampled_nanos))
+                .append(" write_ms=").append(millis(now - handled))
+                .append(" total_ms=").append(millis(now - v_start_nanos +
+                                                    v_queue_nanos))
+                .append(" headers={");
+
+            String separator = "";
+            for(Map.Entry<String, String> entry :
+                    v_header.getHeaders().entrySet())
+            {
+                buff.append(separator).append(entry.getKey()).append('=')
+                    .append(isRedacted(entry.getKey()) ?
+                            REDACTED : entry.getValue());
+                separator = ", ";
+            }
+
+            buff.append('}');
+            logger.info(buff.toString());
+        }
+
+        // ------ >>> Private <<< ------
+        private Trace(HttpRequestHeader header, long start_nanos,
+                      long queue_nanos)
+        {
+            v_header = header;
+            v_start_nanos = start_nanos;
+            v_queue_nanos = queue_nanos;
+            v_sampled_nanos = System.nanoTime();
+        }
+
+        private final HttpRequestHeader v_header;
+        private final long v_start_nanos;
+        private final long v_queue_nanos;
+        private final long v_sampled_nanos;
+        private long v_handled_nanos;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The header fields whose values are not logged. */
+    private static final String REDACTED_HEADERS [] =
+    {
+        "Authorization", "Proxy-Authorization", "Cookie"
+    };
+
+    /** The value logged in place of a redacted one. */
+    private static final String REDACTED = "<redacted>";
+
+    private static final HttpRequestTracer INSTANCE = ENABLED ?
+            new HttpRequestTracer(
+                    HttpProperties.getInt(HttpProperties.TRACE_SAMPLE_EVERY, 0),
+                    HttpProperties.getString(HttpProperties.TRACE_HEADER, null)) :
+            null;
+
+    /**
+     * @param name the header field name
+     * @return true, if the value of the header field is not logged.
+     */
+    private static boolean isRedacted(String name)
+    {
+        for(String redacted : REDACTED_HEADERS)
+        {
+            if( redacted.equalsIgnoreCase(name) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param nanos a duration in nanoseconds
+     * @return the duration in milliseconds, with one decimal.
+     */
+    private static String millis(long nanos)
+    {
+        return String.format("%.1f", nanos / 1000000.0);
+    }
+
+    private final int v_sample_every;
+    private final String v_header;
+    private final AtomicLong v_seen = new AtomicLong();
+}
@@ -8,10 +8,24 @@
  */
 package com.softlagos.httpserver;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.Flow;
+
 import com.softlagos.Constants;
 
 /**
+ * <p>
  * The HTTP Response Message.
+ * </p>
+ * <p>
+ * The message body is either fully built in memory, or streamed
+ * from a Flow.Publisher as the client reads it; a streaming
+ * response starts going out as soon as its first buffer is
+ * published.
+ * </p>
  *
  * @author Rubens Gomes
  */
@@ -36,6 +50,34 @@ public final class HttpResponse
 
         v_header = header;
         v_message_body = message_body;
+        v_body_publisher = null;
+    }
+
+    /**
+     * Instantiates a new streaming http response.
+     *
+     * @param header the HTTP header consisting of start-line
+     * and header fields.
+     * @param body_publisher the publisher of the message body
+     * octets.  The response is written as the buffers are
+     * published, requesting one buffer at a time.
+     */
+    public HttpResponse(HttpResponseHeader header,
+                        Flow.Publisher<ByteBuffer> body_publisher)
+    {
+        if(header == null)
+        {
+            throw new IllegalArgumentException("header cannot be null.");
+        }
+
+        if(body_publisher == null)
+        {
+            throw new IllegalArgumentException("body_publisher cannot be null.");
+        }
+
+        v_header = header;
+        v_message_body = null;
+        v_body_publisher = body_publisher;
     }
 
     /**
@@ -57,6 +99,24 @@ public final class HttpResponse
         return v_message_body;
     }
 
+    /**
+     * @return the publisher of the message body of a streaming
+     * response, or null if the message body is in memory.
+     */
+    public Flow.Publisher<ByteBuffer> getBodyPublisher()
+    {
+        return v_body_publisher;
+    }
+
+    /**
+     * @return true, if the message body is streamed from a
+     * publisher.
+     */
+    public boolean isStreaming()
+    {
+        return v_body_publisher != null;
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
@@ -70,7 +130,61 @@ public final class HttpResponse
         return buff.toString();
     }
 
+    /**
+     * Writes this response to the given output stream: the
+     * header encoded as ISO-8859-1 followed by the message body
+     * octets.  The stream is not flushed.  A streaming response
+     * is written by HttpResponseBodyWriter instead.
+     *
+     * @param out the client output stream
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeTo(OutputStream out)
+        throws IOException
+    {
+        writeTo(out, true);
+    }
+
+    /**
+     * Writes this response to the given output stream, with or
+     * without its message body.  The response to a HEAD request
+     * is written without it, while its header still carries the
+     * Content-Length of the body a GET would get.
+     *
+     * @param out the client output stream
+     * @param with_body false, to write the header only
+     * @throws IOException if an I/O error occurs.
+     * @see "Section 4.3.2 of RFC7231"
+     */
+    public void writeTo(OutputStream out, boolean with_body)
+        throws IOException
+    {
+        if( out == null )
+        {
+            throw new IllegalArgumentException("out cannot be null.");
+        }
+
+        if( v_body_publisher != null )
+        {
+            throw new IllegalStateException(
+                    "a streaming response is written by HttpResponseBodyWriter");
+        }
+
+        StringBuilder buff = new StringBuilder();
+        buff.append(v_header);
+        buff.append(Constants.CRLF);
+        out.write(buff.toString().getBytes(ISO_8859_1));
+
+        if( with_body && v_message_body != null )
+        {
+            out.write(v_message_body.getBytes());
+        }
+    }
+
     // ------ >>> Private <<< ------
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
     private final HttpResponseHeader v_header;
     private final HttpMessageBody v_message_body;
+    private final Flow.Publisher<ByteBuffer> v_body_publisher;
 }
@@ -0,0 +1,600 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpResponseBodyWriter.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.Constants;
+import com.softlagos.httpserver.enums.HttpMetricType;
+import com.softlagos.httpserver.tls.TlsOutputStream;
+import com.softlagos.reactor.SocketHandle;
+
+/**
+ * <p>
+ * Writes a streaming response, whose message body is produced
+ * by a Flow.Publisher, to a blocking client connection.
+ * </p>
+ * <p>
+ * Demand follows the socket: one buffer is requested at a time,
+ * and the next one is requested only once the previous one has
+ * been handed to the socket.  The output is flushed only when
+ * the publisher has nothing ready, so a fast publisher gets its
+ * buffers coalesced while a slow one gets each buffer on the
+ * wire right away.
+ * </p>
+ * <p>
+ * The message body is framed as follows:
+ * </p>
+ * <ul>
+ * <li>a response whose handler set the Content-Length is sent
+ * as-is;</li>
+ * <li>if the publisher has completed by the time its first
+ * buffer is handed over, the response is sent with a
+ * Content-Length;</li>
+ * <li>otherwise, an HTTP/1.1 response uses the chunked transfer
+ * coding and the first octets are sent as soon as the first
+ * buffer is produced;</li>
+ * <li>an HTTP/1.0 response is delimited by closing the
+ * connection.</li>
+ * </ul>
+ *
+ * @author Rubens Gomes
+ * @see "Section 4.1 of RFC7230 - Hypertext Transfer Protocol
+ * (HTTP/1.1): Message Syntax and Routing"
+ */
+public final class HttpResponseBodyWriter
+  implements Flow.Subscriber<ByteBuffer>
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpResponseBodyWriter.class);
+
+    /**
+     * Instantiates a new response body writer.
+     *
+     * @param handle the client connection
+     * @param out the client output stream
+     * @param write_timeout_ms the time in milliseconds allowed to
+     * hand a buffer to the socket.
+     */
+    public HttpResponseBodyWriter(SocketHandle handle, OutputStream out,
+                                  long write_timeout_ms)
+    {
+        this(handle, out, write_timeout_ms, HttpDeadlineTimer.instance());
+    }
+
+    /**
+     * Instantiates a new response body writer arming its write
+     * deadlines on the given timer.
+     *
+     * @param handle the client connection
+     * @param out the client output stream
+     * @param write_timeout_ms the time in milliseconds allowed to
+     * hand a buffer to the socket.
+     * @param timer the timer of the write deadlines
+     */
+    public HttpResponseBodyWriter(SocketHandle handle, OutputStream out,
+                                  long write_timeout_ms,
+                                  HttpDeadlineTimer timer)
+    {
+        if( handle == null )
+        {
+            throw new IllegalArgumentException("handle cannot be null.");
+        }
+
+        if( out == null )
+        {
+            throw new IllegalArgumentException("out cannot be null.");
+        }
+
+        v_handle = handle;
+        v_out = out;
+        v_write_timeout_ms = write_timeout_ms;
+        v_timer = (timer == null) ? HttpDeadlineTimer.instance() : timer;
+        v_signals = new LinkedBlockingQueue<Object>();
+        v_subscribed = new CountDownLatch(1);
+        v_scratch = new byte[SCRATCH_SIZE];
+    }
+
+    /**
+     * Subscribes to the response body publisher and writes the
+     * response header followed by the message body.  It returns
+     * once the publisher completes.
+     *
+     * @param response the streaming HTTP response
+     * @param chunked true, if the client accepts the chunked
+     * transfer coding.
+     * @return true, if the message body was delimited and the
+     * connection may be reused; false if the end of the body is
+     * signaled by closing the connection.
+     * @throws IOException if an I/O error occurs, or if the
+     * publisher fails or produces nothing within the write timeout.
+     * @throws HttpServerErrorException with 500 if the publisher
+     * does not subscribe the writer within the write timeout.
+     */
+    public boolean writeResponse(HttpResponse response, boolean chunked)
+        throws IOException, HttpServerErrorException
+    {
+        if( response == null || response.getBodyPublisher() == null )
+        {
+            throw new IllegalArgumentException(
+                    "response cannot be null and must have a body publisher.");
+        }
+
+        HttpResponseHeader header = response.getHeader();
+        response.getBodyPublisher().subscribe(this);
+
+        // a handler that knows the body length, such as the size
+        // of a file, sets the Content-Length itself.
+        boolean sized = hasContentLength(header);
+
+        request();
+        Object first = await();
+        if( first == COMPLETE )
+        {
+            if(! sized )
+            {
+                header.addContentLength(0);
+            }
+
+            writeHeader(header);
+            flush();
+            return true;
+        }
+
+        // look ahead without waiting: a publisher that completes
+        // right away had the whole body in a single buffer.
+        ByteBuffer buff = (ByteBuffer) first;
+        request();
+        Object second = check(v_signals.poll());
+        if( second == COMPLETE )
+        {
+            if(! sized )
+            {
+                header.addContentLength(buff.remaining());
+            }
+
+            writeHeader(header);
+            writeData(buff, false);
+            flush();
+            return true;
+        }
+
+        chunked = chunked && ! sized;
+        if( chunked )
+        {
+            header.addHeader("Transfer-Encoding", "chunked");
+        }
+
+        writeHeader(header);
+        writeData(buff, chunked);
+
+        Object signal = (second != null) ? second : await();
+        while( signal != COMPLETE )
+        {
+            writeData((ByteBuffer) signal, chunked);
+            request();
+            signal = await();
+        }
+
+        if( chunked )
+        {
+            write(LAST_CHUNK, 0, LAST_CHUNK.length);
+        }
+
+        flush();
+        return chunked || sized;
+    }
+
+    /**
+     * Writes the header of a streaming response to a HEAD request,
+     * without subscribing to its body publisher.  A Content-Length
+     * set by the handler, such as the size of a file, is kept; the
+     * length of any other body is not known and is left out.
+     *
+     * @param response the streaming HTTP response
+     * @throws IOException if an I/O error occurs.
+     * @see "Section 4.3.2 of RFC7231"
+     */
+    public void writeHeadResponse(HttpResponse response)
+        throws IOException
+    {
+        if( response == null )
+        {
+            throw new IllegalArgumentException("response cannot be null.");
+        }
+
+        writeHeader(response.getHeader());
+        flush();
+    }
+
+    /**
+     * @return the number of message body octets written, not
+     * counting the chunk framing.
+     */
+    public long getBodyLength()
+    {
+        return v_body_length;
+    }
+
+    /**
+     * @return true, if the response header was written and an
+     * error can no longer be reported with a status code.
+     */
+    public boolean isCommitted()
+    {
+        return v_committed;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.Flow.Subscriber#onSubscribe(java.util.concurrent.Flow.Subscription)
+     */
+    @Override
+    public void onSubscribe(Flow.Subscription subscription)
+    {
+        if( v_subscription != null )
+        {
+            subscription.cancel();
+            return;
+        }
+
+        v_subscription = subscription;
+        v_subscribed.countDown();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.Flow.Subscriber#onNext(java.lang.Object)
+     */
+    @Override
+    public void onNext(ByteBuffer item)
+    {
+        v_signals.add(item);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.Flow.Subscriber#onError(java.lang.Throwable)
+     */
+    @Override
+    public void onError(Throwable throwable)
+    {
+        v_signals.add(throwable);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.Flow.Subscriber#onComplete()
+     */
+    @Override
+    public void onComplete()
+    {
+        v_signals.add(COMPLETE);
+    }
+
+    // ------ >>> Private <<< ------
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Object COMPLETE = new Object();
+    private static final int SCRATCH_SIZE = 8192;
+    private static final byte CRLF [] = Constants.CRLF.getBytes(ISO_8859_1);
+    private static final byte LAST_CHUNK [] =
+            ("0" + Constants.CRLF + Constants.CRLF).getBytes(ISO_8859_1);
+
+    /**
+     * Requests one more buffer, once subscribed.
+     *
+     * @throws IOException if the wait for the subscription was
+     * interrupted.
+     * @throws HttpServerErrorException with 500 if the publisher
+     * does not subscribe the writer within the write timeout.
+     */
+    private void request()
+        throws IOException, HttpServerErrorException
+    {
+        try
+        {
+            // a publisher that never calls onSubscribe must not
+            // hold the connection thread.
+            if(! v_subscribed.await(v_write_timeout_ms, TimeUnit.MILLISECONDS) )
+            {
+                throw new HttpServerErrorException(500,
+                        "response body publisher did not subscribe in [" +
+                        v_write_timeout_ms + "] ms");
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the " +
+                                             "response body subscription");
+        }
+
+        v_subscription.request(1);
+    }
+
+    /**
+     * Waits for the next signal of the publisher.  The output is
+     * flushed before blocking, so the octets already written
+     * reach the client while the publisher is producing.
+     *
+     * @return the next buffer, or COMPLETE.
+     * @throws IOException if the publisher failed, or produced
+     * nothing within the write timeout, or the wait was interrupted.
+     */
+    private Object await()
+        throws IOException
+    {
+        Object signal = v_signals.poll();
+        if( signal == null )
+        {
+            flush();
+
+            try
+            {
+                // a publisher that stalls must not hold the
+                // connection thread.
+                signal = v_signals.poll(v_write_timeout_ms,
+                                        TimeUnit.MILLISECONDS);
+            }
+            catch(InterruptedException ex)
+            {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for " +
+                                                 "the response body");
+            }
+
+            if( signal == null )
+            {
+                cancel();
+                HttpMetrics.instance().increment(HttpMetricType.TIMEOUT_WRITE);
+                throw new InterruptedIOException(
+                        "response body publisher produced nothing in [" +
+                        v_write_timeout_ms + "] ms");
+            }
+        }
+
+        return check(signal);
+    }
+
+    /**
+     * @param signal a signal of the publisher, or null
+     * @return the given signal
+     * @throws IOException if the signal is a publisher failure.
+     */
+    private static Object check(Object signal)
+        throws IOException
+    {
+        if( signal instanceof Throwable )
+        {
+            Throwable cause = (Throwable) signal;
+            throw new IOException("response body publisher failed: " +
+                                  cause.getMessage(), cause);
+        }
+
+        return signal;
+    }
+
+    /**
+     * @param header the response header
+     * @return true, if the handler set the Content-Length, the
+     * field name being case-insensitive.
+     */
+    private static boolean hasContentLength(HttpResponseHeader header)
+    {
+        for(String name : header.getHeaders().keySet())
+        {
+            if( "Content-Length".equalsIgnoreCase(name) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Cancels the subscription, if any.
+     */
+    private void cancel()
+    {
+        Flow.Subscription subscription = v_subscription;
+        if( subscription != null )
+        {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * @param header the response header to write
+     * @throws IOException if an I/O error occurs.
+     */
+    private void writeHeader(HttpResponseHeader header)
+        throws IOException
+    {
+        StringBuilder buff = new StringBuilder();
+        buff.append(header);
+        buff.append(Constants.CRLF);
+
+        byte octets [] = buff.toString().getBytes(ISO_8859_1);
+        v_committed = true;
+        write(octets, 0, octets.length);
+    }
+
+    /**
+     * Writes the given buffer, as a chunk if requested.
+     *
+     * @param buff the message body octets
+     * @param chunked true, to write the buffer as a chunk
+     * @throws IOException if an I/O error occurs.
+     */
+    private void writeData(ByteBuffer buff, boolean chunked)
+        throws IOException
+    {
+        int length = buff.remaining();
+        if( length == 0 )
+        {
+            return;
+        }
+
+        v_body_length += length;
+
+        if( chunked )
+        {
+            byte size [] = (Integer.toHexString(length) + Constants.CRLF)
+                    .getBytes(ISO_8859_1);
+            write(size, 0, size.length);
+        }
+
+        if( buff.hasArray() )
+        {
+            write(buff.array(), buff.arrayOffset() + buff.position(), length);
+        }
+        else if( v_out instanceof TlsOutputStream ||
+                 v_out instanceof HttpOutputBuffer )
+        {
+            // encrypted, or buffered, straight from a direct, mapped
+            // or read-only buffer
+            write(buff);
+        }
+        else
+        {
+            // direct or read-only buffers: copy through the scratch
+            // buffer without disturbing the caller's position.
+            ByteBuffer view = buff.duplicate();
+            while( view.hasRemaining() )
+            {
+                int count = Math.min(view.remaining(), v_scratch.length);
+                view.get(v_scratch, 0, count);
+                write(v_scratch, 0, count);
+            }
+        }
+
+        if( chunked )
+        {
+            write(CRLF, 0, CRLF.length);
+        }
+    }
+
+    /**
+     * Writes to the client under the write deadline.
+     *
+     * @param octets the octets to write
+     * @param off the start offset
+     * @param len the number of octets
+     * @throws IOException if an I/O error occurs.
+     */
+    private void write(byte octets [], int off, int len)
+        throws IOException
+    {
+        HttpDeadlineTimer.Deadline deadline =
+                v_timer.arm(v_handle,
+                        v_write_timeout_ms, HttpMetricType.TIMEOUT_WRITE);
+        try
+        {
+            v_out.write(octets, off, len);
+        }
+        catch(IOException ex)
+        {
+            cancel();
+            throw ex;
+        }
+        finally
+        {
+            deadline.cancel();
+        }
+    }
+
+    /**
+     * Writes a buffer to a TLS client, or to the output buffer of
+     * the connection, under the write deadline.
+     *
+     * @param buff the octets to write
+     * @throws IOException if an I/O error occurs.
+     */
+    private void write(ByteBuffer buff)
+        throws IOException
+    {
+        HttpDeadlineTimer.Deadline deadline =
+                v_timer.arm(v_handle,
+                        v_write_timeout_ms, HttpMetricType.TIMEOUT_WRITE);
+        try
+        {
+            if( v_out instanceof TlsOutputStream )
+            {
+                ((TlsOutputStream) v_out).write(buff);
+            }
+            else
+            {
+                ((HttpOutputBuffer) v_out).write(buff);
+            }
+        }
+        catch(IOException ex)
+        {
+            cancel();
+            throw ex;
+        }
+        finally
+        {
+            deadline.cancel();
+        }
+    }
+
+    /**
+     * Flushes the client output under the write deadline.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    private void flush()
+        throws IOException
+    {
+        HttpDeadlineTimer.Deadline deadline =
+                v_timer.arm(v_handle,
+                        v_write_timeout_ms, HttpMetricType.TIMEOUT_WRITE);
+        try
+        {
+            v_out.flush();
+        }
+        catch(IOException ex)
+        {
+            cancel();
+
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("error flushing response: " + ex.getMessage());
+            }
+
+            throw ex;
+        }
+        finally
+        {
+            deadline.cancel();
+        }
+    }
+
+    private final SocketHandle v_handle;
+    private final OutputStream v_out;
+    private final long v_write_timeout_ms;
+    private final HttpDeadlineTimer v_timer;
+    private final BlockingQueue<Object> v_signals;
+    private final CountDownLatch v_subscribed;
+    private final byte v_scratch [];
+    private volatile Flow.Subscription v_subscription;
+    private boolean v_committed;
+    private long v_body_length;
+}
@@ -73,6 +73,14 @@ public final class HttpResponseHeader
         return v_headers;
     }
 
+    /**
+     * @return the HTTP response status-line
+     */
+    public HttpStatusLine getStatusLine()
+    {
+        return v_status_line;
+    }
+
     /**
      * @return the HTTP response start line (status-line)
      */
@@ -176,11 +184,11 @@ public final class HttpResponseHeader
      * @param length the content length.
      * @see "Section 3.3.2 of [RFC7230]"
      */
-    public void addContentLength(int length)
+    public void addContentLength(long length)
     {
-        if( length <= 0 )
+        if( length < 0 )
         {
-            throw new IllegalArgumentException("length must be greater than 0");
+            throw new IllegalArgumentException("length cannot be negative");
         }
 
         addHeader("Content-Length", "" + length);
@@ -59,6 +59,7 @@ public final class HttpServiceHandler
         }
 
         v_handle = socket_handle;
+        v_enqueued_nanos = System.nanoTime();
     }
 
     /* (non-Javadoc)
@@ -96,10 +97,18 @@ public final class HttpServiceHandler
      * @see com.softlagos.reactor.ServiceHandler#getTask()
      */
     @Override
-    public Task getTask()
+    public synchronized Task getTask()
     {
-        HttpTask task = new HttpTask(v_handle);
-        return task;
+        // the task takes a connection context and enters the drain
+        // when built, so the connection gets one task however many
+        // times it is asked for.  It is built on first use, once the
+        // acceptor has set the shard.
+        if( v_task == null )
+        {
+            v_task = new HttpTask(v_handle, v_enqueued_nanos, v_shard);
+        }
+
+        return v_task;
     }
 
     /* (non-Javadoc)
@@ -138,7 +147,28 @@ public final class HttpServiceHandler
         return v_handle;
     }
 
+    // ------ >>> Package <<< ------
+
+    /**
+     * Sets the shard serving the connection of the handler.
+     *
+     * @param shard the shard
+     */
+    void setShard(HttpShard shard)
+    {
+        v_shard = shard;
+    }
+
     /** The v_handle. */
     // ------ >>> Private <<< ------
     private SocketHandle v_handle;
+
+    /** The System.nanoTime() when the handler was queued. */
+    private long v_enqueued_nanos;
+
+    /** The shard of the connection, or null. */
+    private HttpShard v_shard;
+
+    /** The task serving the connection, once built. */
+    private HttpTask v_task;
 }
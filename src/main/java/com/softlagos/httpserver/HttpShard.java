@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpShard.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.softlagos.reactor.ServiceHandler;
+
+/**
+ * <p>
+ * A shard of the server: a connection assigned to it on accept is
+ * served for its whole lifetime by the worker threads of the shard,
+ * with the connection buffers of the shard pool and the deadlines
+ * of the shard timer.  No lock, queue nor timer is shared with the
+ * connections of the other shards.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see HttpShards
+ */
+public final class HttpShard
+{
+    /**
+     * @return the index of the shard
+     */
+    public int getIndex()
+    {
+        return v_index;
+    }
+
+    /**
+     * @return the number of connections assigned to the shard and
+     * not yet closed.
+     */
+    public int getActive()
+    {
+        return v_active.get();
+    }
+
+    /**
+     * @return the deadline timer of the shard
+     */
+    public HttpDeadlineTimer getTimer()
+    {
+        return v_timer;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "shard-" + v_index + " [active=" + v_active.get() + "]";
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Instantiates a new shard.
+     *
+     * @param index the index of the shard
+     * @param workers the number of worker threads
+     * @param pool_size the maximum number of idle connection
+     * contexts kept
+     */
+    HttpShard(final int index, int workers, int pool_size)
+    {
+        v_index = index;
+        v_timer = new HttpDeadlineTimer("http-shard-" + index + "-timer");
+        v_contexts = new HttpConnectionContext.Pool(pool_size);
+        v_active = new AtomicInteger();
+        v_executor = new ThreadPoolExecutor(workers, workers, 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory()
+                {
+                    private final AtomicInteger v_count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable)
+                    {
+                        Thread thread = new Thread(runnable, "http-shard-" +
+                                index + "-" + v_count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Serves the given connection on a worker thread of the shard.
+     * The connection counts as active until its handler returns.
+     *
+     * @param handler the service handler of the connection
+     */
+    void execute(final ServiceHandler handler)
+    {
+        v_active.incrementAndGet();
+        v_executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    handler.run();
+                }
+                finally
+                {
+                    v_active.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the connection context pool of the shard
+     */
+    HttpConnectionContext.Pool getContexts()
+    {
+        return v_contexts;
+    }
+
+    // ------ >>> Private <<< ------
+    private final int v_index;
+    private final HttpDeadlineTimer v_timer;
+    private final HttpConnectionContext.Pool v_contexts;
+    private final AtomicInteger v_active;
+    private final ThreadPoolExecutor v_executor;
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpShards.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>
+ * The shards the accepted connections are spread over, one per
+ * processor by default.  The acceptor assigns each connection to a
+ * shard, round-robin or to the shard with the fewest active
+ * connections, and the connection stays on that shard until closed.
+ * </p>
+ * <p>
+ * The reactor itself, which only dispatches the accept events, is
+ * not sharded; nor can a shard pin its threads to a processor, as
+ * the JVM offers no thread affinity.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see HttpShard
+ */
+public final class HttpShards
+{
+    private static final Logger logger =
+            LogManager.getLogger(HttpShards.class);
+
+    /** The round-robin assignment of the connections. */
+    public static final String ROUND_ROBIN = "round-robin";
+
+    /** The assignment of a connection to the least loaded shard. */
+    public static final String LEAST_LOADED = "least-loaded";
+
+    /**
+     * @return the single instance configured from the system
+     * properties, or null if sharding is disabled.
+     */
+    public static HttpShards instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Instantiates new shards.
+     *
+     * @param count the number of shards
+     * @param workers the number of worker threads of each shard
+     * @param pool_size the maximum number of idle connection
+     * contexts kept by each shard
+     * @param assignment ROUND_ROBIN or LEAST_LOADED
+     */
+    public HttpShards(int count, int workers, int pool_size,
+                      String assignment)
+    {
+        if( count <= 0 )
+        {
+            throw new IllegalArgumentException("count must be greater than 0");
+        }
+
+        if( workers <= 0 )
+        {
+            throw new IllegalArgumentException("workers must be greater than 0");
+        }
+
+        if(! ROUND_ROBIN.equals(assignment) &&
+           ! LEAST_LOADED.equals(assignment) )
+        {
+            throw new IllegalArgumentException("assignment must be " +
+                    ROUND_ROBIN + " or " + LEAST_LOADED);
+        }
+
+        v_shards = new HttpShard[count];
+        for(int i = 0; i < count; i++)
+        {
+            v_shards[i] = new HttpShard(i, workers, pool_size);
+        }
+
+        v_least_loaded = LEAST_LOADED.equals(assignment);
+        v_next = new AtomicInteger();
+
+        if(logger.isInfoEnabled())
+        {
+            logger.info("serving connections on [" + count + "] shards of [" +
+                        workers + "] workers, assigned " + assignment);
+        }
+    }
+
+    /**
+     * Assigns a shard to a connection just accepted.
+     *
+     * @return the shard
+     */
+    public HttpShard assign()
+    {
+        int next = v_next.getAndIncrement() & Integer.MAX_VALUE;
+        HttpShard assigned = v_shards[next % v_shards.length];
+        if(! v_least_loaded )
+        {
+            return assigned;
+        }
+
+        // starting at the round-robin shard spreads the ties
+        for(int i = 1; i < v_shards.length; i++)
+        {
+            HttpShard shard = v_shards[(next + i) % v_shards.length];
+            if( shard.getActive() < assigned.getActive() )
+            {
+                assigned = shard;
+            }
+        }
+
+        return assigned;
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int size()
+    {
+        return v_shards.length;
+    }
+
+    // ------ >>> Private <<< ------
+
+    private static final HttpShards INSTANCE =
+            HttpProperties.getBoolean(HttpProperties.SHARDS_ENABLED, false) ?
+            new HttpShards(
+                    HttpProperties.getInt(HttpProperties.SHARDS,
+                            Runtime.getRuntime().availableProcessors()),
+                    HttpProperties.getInt(HttpProperties.SHARD_WORKERS, 32),
+                    HttpProperties.getInt(HttpProperties.CONTEXT_POOL_SIZE, 256),
+                    HttpProperties.getString(HttpProperties.SHARD_ASSIGNMENT,
+                            ROUND_ROBIN)) :
+            null;
+
+    private final HttpShard v_shards [];
+    private final boolean v_least_loaded;
+    private final AtomicInteger v_next;
+}
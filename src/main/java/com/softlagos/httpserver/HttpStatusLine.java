@@ -45,27 +45,32 @@ public final class HttpStatusLine
             throw new IllegalArgumentException("ex cannot be null.");
         }
 
-        HttpStatusLine status_line = null;
-
-        StringBuilder buff = new StringBuilder();
-        buff.append(Constants.HTTP_SERVER_VERSION);
-
-        buff.append(Constants.SP);
-
         int status_code = 0;
         if( ex instanceof HttpErrorException )
         {
             status_code = ((HttpErrorException) ex).getStatusCode();
-            buff.append(status_code);
         }
         else
         {
             status_code = 500;
-            buff.append(status_code);
         }
 
-        buff.append(Constants.SP);
+        return makeHttpStatusLine(status_code);
+    }
 
+    /**
+     * <p>
+     * A factory method to make HTTP status line:
+     * </p>
+     * <pre>
+     * status-line = HTTP-version SP status-code SP reason-phrase CRLF
+     * </pre>
+     *
+     * @param status_code the HTTP status code
+     * @return the HTTP status line
+     */
+    public static HttpStatusLine makeHttpStatusLine(int status_code)
+    {
         HttpStatusCodeType status_enum =
                 HttpStatusCodeType.getEnum(status_code);
         if( status_enum == null )
@@ -74,15 +79,27 @@ public final class HttpStatusLine
                     status_code + "]");
         }
 
+        StringBuilder buff = new StringBuilder();
+        buff.append(Constants.HTTP_SERVER_VERSION);
+        buff.append(Constants.SP);
+        buff.append(status_code);
+        buff.append(Constants.SP);
         buff.append(status_enum.getReasonPhrase());
-
         buff.append(Constants.CRLF);
 
-        status_line = new HttpStatusLine(buff.toString());
-
+        HttpStatusLine status_line = new HttpStatusLine(buff.toString());
+        status_line.v_status_code = status_code;
         return status_line;
     }
 
+    /**
+     * @return the HTTP status code
+     */
+    public int getStatusCode()
+    {
+        return v_status_code;
+    }
+
     /**
      * @return the HTTP status line
      */
@@ -241,6 +258,7 @@ public final class HttpStatusLine
 
     // ------ >>> Private <<< ------
     private final String v_status_line;
+    private int v_status_code;
 
     private HttpStatusLine(String status_line)
     {
@@ -8,19 +8,35 @@
  */
 package com.softlagos.httpserver;
 
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.Socket;
-import java.nio.charset.Charset;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.softlagos.Constants;
+import com.softlagos.httpserver.cache.HttpResponseCache;
+import com.softlagos.httpserver.enums.HttpMetricType;
+import com.softlagos.httpserver.enums.HttpPriorityType;
+import com.softlagos.httpserver.enums.HttpRequestMethodType;
+import com.softlagos.httpserver.http2.Http2Connection;
+import com.softlagos.httpserver.http2.Http2FrameReader;
+import com.softlagos.httpserver.jfr.HttpAcceptEvent;
+import com.softlagos.httpserver.jfr.HttpBodyReadEvent;
+import com.softlagos.httpserver.jfr.HttpCloseEvent;
+import com.softlagos.httpserver.jfr.HttpHandlerEvent;
+import com.softlagos.httpserver.jfr.HttpHeaderEvent;
+import com.softlagos.httpserver.jfr.HttpRequestLineEvent;
+import com.softlagos.httpserver.jfr.HttpResponseWriteEvent;
+import com.softlagos.httpserver.tls.TlsConnection;
+import com.softlagos.httpserver.tls.TlsContext;
+import com.softlagos.httpserver.websocket.WebSocketConnection;
+import com.softlagos.httpserver.websocket.WebSocketEndpoint;
 import com.softlagos.reactor.SocketHandle;
 import com.softlagos.threadpool.Task;
 
@@ -36,19 +52,58 @@ public final class HttpTask extends Task
     private static final Logger logger =
             LogManager.getLogger(HttpTask.class);
 
+    /** The request priority classifier. */
+    private static final HttpPriorityClassifier classifier =
+            new HttpPriorityClassifier();
+
     /**
      * Instantiates a new http task.
      *
      * @param handle the Socket IO handle
      */
     public HttpTask(SocketHandle handle)
+    {
+        this(handle, System.nanoTime());
+    }
+
+    /**
+     * Instantiates a new http task.
+     *
+     * @param handle the Socket IO handle
+     * @param enqueued_nanos the System.nanoTime() when the
+     * connection was queued waiting for a worker thread.
+     */
+    public HttpTask(SocketHandle handle, long enqueued_nanos)
+    {
+        this(handle, enqueued_nanos, null);
+    }
+
+    /**
+     * Instantiates a new http task serving a connection of the
+     * given shard, with the buffers and the timer of the shard.
+     *
+     * @param handle the Socket IO handle
+     * @param enqueued_nanos the System.nanoTime() when the
+     * connection was queued waiting for a worker thread.
+     * @param shard the shard of the connection, or null if the
+     * connection belongs to none.
+     */
+    public HttpTask(SocketHandle handle, long enqueued_nanos,
+                    HttpShard shard)
     {
         if( handle == null )
         {
             throw new IllegalArgumentException("handle cannot be null.");
         }
 
+        HttpAcceptEvent accept_event = new HttpAcceptEvent();
+        accept_event.begin();
+
         v_handle = handle;
+        v_enqueued_nanos = enqueued_nanos;
+        v_connection_id = CONNECTIONS.incrementAndGet();
+        v_timer = (shard == null) ?
+                HttpDeadlineTimer.instance() : shard.getTimer();
 
         Socket socket = v_handle.getSocket();
         try
@@ -58,17 +113,28 @@ public final class HttpTask extends Task
                 logger.trace("initializing input communication channel");
             }
 
-            InputStream in = socket.getInputStream();
-            InputStreamReader in_reader = new InputStreamReader(in);
-            v_reader = new BufferedReader(in_reader);
+            // the TLS streams buffer a whole record on their own
+            TlsContext tls = TlsContext.instance();
+            v_tls = (tls == null) ? null : tls.newConnection(handle);
+
+            InputStream in = (v_tls == null) ?
+                    socket.getInputStream() : v_tls.getInputStream();
 
             if(logger.isTraceEnabled())
             {
                 logger.trace("initializing output communication channel");
             }
 
-            OutputStream out = socket.getOutputStream();
-            v_writer = new OutputStreamWriter(out, Charset.forName("UTF-8"));
+            // the reader and output buffers of a closed connection
+            // are reused rather than allocated for each connection
+            OutputStream out = (v_tls == null) ?
+                    socket.getOutputStream() : null;
+            v_context = (shard == null) ?
+                    HttpConnectionContext.acquire(in, out) :
+                    shard.getContexts().acquire(in, out);
+            v_reader = v_context.getReader();
+            v_out = (v_tls == null) ?
+                    v_context.getOutputStream() : v_tls.getOutputStream();
         }
         catch(IOException ex)
         {
@@ -83,6 +149,9 @@ public final class HttpTask extends Task
             throw new IllegalArgumentException(msg, ex);
         }
 
+        // the connection is in flight until run() closes it
+        HttpDrain.instance().enter();
+        accept_event.record(v_connection_id, null, 0, 0L);
     }
 
     /* (non-Javadoc)
@@ -96,25 +165,266 @@ public final class HttpTask extends Task
             logger.trace("running...");
         }
 
+        long queue_delay = System.nanoTime() - v_enqueued_nanos;
         Socket socket = v_handle.getSocket();
+        HttpDeadlineTimer.Deadline deadline = null;
+        HttpResponseBodyWriter body_writer = null;
+        HttpRequestTracer.Trace trace = null;
+        HttpRequestHeader header = null;
+        int status_code = 0;
         try
         {
-            HttpRequest request = readRequest(socket);
-            // print out request
-            request.trace();
-            // TODO: retrieve Resource and respond.
+            // the whole request head must arrive before the
+            // header deadline expires.
+            deadline = v_timer.arm(v_handle,
+                    HEADER_TIMEOUT_MS, HttpMetricType.TIMEOUT_HEADERS);
+            if( v_tls != null )
+            {
+                if(! handshake(deadline) )
+                {
+                    deadline.cancel();
+                    return;
+                }
+
+                if( TlsContext.ALPN_H2.equals(v_tls.getApplicationProtocol()) )
+                {
+                    deadline.cancel();
+                    newHttp2Connection().serve(null);
+                    return;
+                }
+            }
+            else if( Http2Connection.ENABLED &&
+                     v_reader.startsWith(Http2FrameReader.PREFACE) )
+            {
+                // HTTP/2 with prior knowledge: the connection
+                // thread serves all the streams from here on.
+                deadline.cancel();
+                newHttp2Connection().serve(null);
+                return;
+            }
+
+            header = readHeader(deadline);
+            deadline.cancel();
+            long head_nanos = SERVER_TIMING ? System.nanoTime() : 0L;
+
+            if( header == null )
+            {
+                // the client closed the connection.
+                return;
+            }
+
+            if( v_tls == null && Http2Connection.isUpgrade(header) )
+            {
+                // the request is answered over h2c as stream 1
+                newHttp2Connection().serve(header);
+                return;
+            }
+
+            HttpMetrics.instance().increment(HttpMetricType.REQUESTS);
+
+            if( HttpRequestTracer.ENABLED )
+            {
+                trace = HttpRequestTracer.instance().sample(header,
+                        v_enqueued_nanos + queue_delay, queue_delay);
+            }
+
+            HttpPriorityType priority = classifier.classify(header);
+            if( ! HttpQueueController.instance().admit(queue_delay,
+                                                      priority) )
+            {
+                HttpMetrics.instance().increment(priority.getShedMetric());
+                HttpResponse cached = (HttpResponseCache.instance() == null) ?
+                        null : HttpResponseCache.instance()
+                                .lookupOnOverload(header);
+                if( cached != null )
+                {
+                    // a shed request is better answered from the cache
+                    body_writer = new HttpResponseBodyWriter(v_handle, v_out,
+                            WRITE_TIMEOUT_MS, v_timer);
+                    status_code = cached.getHeader().getStatusLine()
+                            .getStatusCode();
+                    sendResponse(cached, header, body_writer);
+                    if( trace != null )
+                    {
+                        trace.finish(status_code);
+                    }
+
+                    return;
+                }
+
+                String msg = "server overloaded: " + priority +
+                        " priority request shed after queueing for [" +
+                        (queue_delay / 1000000L) + "] ms";
+                throw new HttpServerErrorException(503, msg);
+            }
+
+            HttpBodyInputStream body_stream =
+                    HttpBodyInputStream.create(header, v_reader, socket,
+                            BODY_MIN_RATE, BODY_GRACE_MS);
+
+            HttpRequestTarget target =
+                    header.getRequestLine().getRequestTarget();
+            HttpRequestHandler handler =
+                    HttpHandlerRegistry.instance().lookup(target);
+            if( handler == null )
+            {
+                String msg = "no resource found for [" + target + "]";
+                throw new HttpClientErrorException(404, msg);
+            }
+
+            if( handler instanceof WebSocketEndpoint &&
+                WebSocketConnection.isUpgrade(header) )
+            {
+                ((WebSocketEndpoint) handler).checkOrigin(header);
+
+                // the connection thread serves the WebSocket from here on
+                WebSocketConnection connection = new WebSocketConnection(
+                        v_handle, v_reader, v_out, header,
+                        ((WebSocketEndpoint) handler).getListener(),
+                        WRITE_TIMEOUT_MS, v_timer);
+                v_upgraded = true;
+                status_code = 101;
+                connection.serve();
+                return;
+            }
+
+            HttpRequest request = null;
+            if( handler.isStreaming() || body_stream == null )
+            {
+                request = new HttpRequest(header, body_stream);
+            }
+            else
+            {
+                HttpBodyReadEvent body_event = new HttpBodyReadEvent();
+                body_event.begin();
+                HttpMessageBody message_body = readMessageBody(body_stream);
+                body_event.record(v_connection_id, header, 0,
+                                  message_body.length());
+                request = new HttpRequest(header, message_body);
+            }
+
+            request.setRemoteAddress(socket.getInetAddress());
+
+            HttpHandlerEvent handler_event = new HttpHandlerEvent();
+            handler_event.begin();
+            HttpResponse response =
+                    HttpCpuExecutor.instance().handle(handler, request);
+            if( response == null )
+            {
+                String msg = "handler for [" + target +
+                        "] did not return a response";
+                throw new HttpServerErrorException(500, msg);
+            }
+
+            status_code = response.getHeader().getStatusLine().getStatusCode();
+            handler_event.record(v_connection_id, header, status_code, 0L);
+            if( trace != null )
+            {
+                trace.handled();
+            }
+
+            if( SERVER_TIMING )
+            {
+                response.getHeader().addHeader("Server-Timing",
+                        serverTiming(queue_delay, head_nanos));
+            }
+
+            HttpResponseWriteEvent write_event = new HttpResponseWriteEvent();
+            write_event.begin();
+
+            if( response.isStreaming() )
+            {
+                // a stream may last longer than the write timeout:
+                // the writer arms the deadline for each write.
+                body_writer = new HttpResponseBodyWriter(v_handle, v_out,
+                        WRITE_TIMEOUT_MS, v_timer);
+                sendResponse(response, header, body_writer);
+                write_event.record(v_connection_id, header, status_code,
+                                   body_writer.getBodyLength());
+            }
+            else
+            {
+                deadline = v_timer.arm(v_handle,
+                        WRITE_TIMEOUT_MS, HttpMetricType.TIMEOUT_WRITE);
+                sendResponse(response, header);
+                deadline.cancel();
+
+                HttpMessageBody body = response.getMessageBody();
+                write_event.record(v_connection_id, header, status_code,
+                                   (body == null) ? 0L : body.length());
+            }
+
+            if( trace != null )
+            {
+                trace.finish(status_code);
+            }
         }
         catch(Exception ex)
         {
-            HttpErrorHandler handler =
-                    new HttpErrorHandler(ex, v_writer);
+            if( deadline != null && deadline.isExpired() )
+            {
+                // the connection is already closed.
+                return;
+            }
+
+            if( body_writer != null && body_writer.isCommitted() )
+            {
+                // the response is partly sent: closing the
+                // connection is the only error left to report.
+                if(logger.isDebugEnabled())
+                {
+                    logger.debug("error streaming response: " +
+                                 ex.getMessage());
+                }
+
+                return;
+            }
+
+            Exception error = toHttpError(ex);
+            status_code = HttpStatusLine.makeHttpStatusLine(error)
+                    .getStatusCode();
+            HttpErrorHandler handler = new HttpErrorHandler(error, v_out,
+                    header == null || ! isHead(header));
+            HttpResponseWriteEvent write_event = new HttpResponseWriteEvent();
+            write_event.begin();
+            deadline = v_timer.arm(v_handle,
+                    WRITE_TIMEOUT_MS, HttpMetricType.TIMEOUT_WRITE);
             try
             {
                 handler.sendResponse();
+                write_event.record(v_connection_id, header, status_code, 0L);
             }
             catch(Exception ioex)
             {
-                logger.error("error writing response: " + ioex.getMessage());
+                if(! deadline.isExpired() )
+                {
+                    logger.error("error writing response: " +
+                                 ioex.getMessage());
+                }
+            }
+            finally
+            {
+                deadline.cancel();
+            }
+
+            if( trace != null )
+            {
+                trace.finish(status_code);
+            }
+        }
+        finally
+        {
+            HttpCloseEvent close_event = new HttpCloseEvent();
+            close_event.begin();
+            closeConnection(socket);
+            close_event.record(v_connection_id, header, status_code, 0L);
+            HttpDrain.instance().exit();
+
+            // the HTTP/2 stream threads, or the WebSocket writer
+            // threads, may still hold the buffers
+            if(! v_upgraded )
+            {
+                v_context.release();
             }
         }
 
@@ -122,108 +432,405 @@ public final class HttpTask extends Task
 
     // ------ >>> Private <<< ------
 
+    /** The total time in milliseconds to receive the request head. */
+    private static final long HEADER_TIMEOUT_MS =
+            HttpProperties.getLong(HttpProperties.HEADER_TIMEOUT_MS, 10000L);
+
+    /** The minimum message body upload rate in bytes per second. */
+    private static final long BODY_MIN_RATE =
+            HttpProperties.getLong(HttpProperties.BODY_MIN_RATE, 1024L);
+
+    /** The time in milliseconds before the body rate is enforced. */
+    private static final int BODY_GRACE_MS =
+            HttpProperties.getInt(HttpProperties.BODY_GRACE_MS, 5000);
+
+    /** Whether responses carry a Server-Timing header field. */
+    private static final boolean SERVER_TIMING =
+            HttpProperties.getBoolean(HttpProperties.SERVER_TIMING, false);
+
+    /** The size of the buffers used to read a message body. */
+    private static final int INPUT_CHUNK_SIZE = 8192;
+
+    /** The maximum request-line length in octets. */
+    private static final int MAX_REQUEST_LINE =
+            HttpProperties.getInt(HttpProperties.MAX_REQUEST_LINE, 8192);
+
+    /** The maximum size in octets of all the header field lines. */
+    private static final int MAX_HEADER_SIZE =
+            HttpProperties.getInt(HttpProperties.MAX_HEADER_SIZE, 16384);
+
+    /** The maximum number of header fields. */
+    private static final int MAX_HEADER_COUNT =
+            HttpProperties.getInt(HttpProperties.MAX_HEADER_COUNT, 100);
+
+    /** The maximum message body size in octets. */
+    private static final int MAX_BODY_SIZE =
+            HttpProperties.getInt(HttpProperties.MAX_BODY_SIZE,
+                                  HttpMessageBody.DEFAULT_MAX_LENGTH);
+
+    /** The total time in milliseconds to write a response. */
+    private static final long WRITE_TIMEOUT_MS =
+            HttpProperties.getLong(HttpProperties.WRITE_TIMEOUT_MS, 30000L);
+
+    /**
+     * @return a new HTTP/2 connection over the client connection
+     */
+    private Http2Connection newHttp2Connection()
+    {
+        v_upgraded = true;
+        return new Http2Connection(v_handle, v_reader, v_out,
+                WRITE_TIMEOUT_MS, MAX_BODY_SIZE, MAX_HEADER_SIZE);
+    }
+
     /**
-     * Read request.
+     * Runs the TLS handshake under the request head deadline.
      *
-     * @param socket the socket to read the client requests.
-     * @return the HTTP Request
+     * @param deadline the deadline armed for the request head
+     * @return true, if the handshake succeeded; false if the
+     * connection should be closed.
+     */
+    private boolean handshake(final HttpDeadlineTimer.Deadline deadline)
+    {
+        try
+        {
+            v_tls.handshake();
+            HttpMetrics.instance().increment(HttpMetricType.TLS_HANDSHAKES);
+            if( v_tls.isResumed() )
+            {
+                HttpMetrics.instance().increment(HttpMetricType.TLS_RESUMED);
+            }
+
+            return true;
+        }
+        catch(IOException ex)
+        {
+            if(! deadline.isExpired() )
+            {
+                HttpMetrics.instance().increment(
+                        HttpMetricType.TLS_HANDSHAKE_FAILURES);
+            }
+
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("TLS handshake failed: " + ex.getMessage());
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Closes the client connection and gives its slot back to
+     * the per client rate limiter.
+     *
+     * @param socket the client connection socket
+     */
+    private void closeConnection(final Socket socket)
+    {
+        HttpRateLimiter limiter = HttpRateLimiter.instance();
+        if( limiter != null )
+        {
+            limiter.releaseConnection(socket.getInetAddress());
+        }
+
+        if( v_tls != null )
+        {
+            v_tls.close();
+        }
+
+        try
+        {
+            v_handle.close();
+        }
+        catch(IOException ex)
+        {
+            logger.error("Error closing IO handle: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads the request head: the request-line followed by the
+     * header fields up to the empty line.
+     *
+     * @param deadline the deadline armed for the request head
+     * @return the HTTP request header, or null if the client
+     * closed the connection before sending a request-line.
      * @throws HttpErrorException the http client/server
      * error exception
      */
-    private HttpRequest readRequest(final Socket socket)
+    private HttpRequestHeader readHeader(
+            final HttpDeadlineTimer.Deadline deadline)
         throws HttpErrorException
     {
-        HttpRequest request = null;
         HttpRequestHeader header = null;
 
         try
         {
-            boolean start_line_flag = true;
-            boolean message_body_flag = false;
-
+            // the request-line; empty lines received ahead of it
+            // are ignored as allowed by Section 3.5 of RFC7230.
+            HttpRequestLineEvent line_event = new HttpRequestLineEvent();
+            line_event.begin();
             String input_line = null;
-            HttpMessageBody message_body  = null;
+            do
+            {
+                input_line = v_reader.readLine(MAX_REQUEST_LINE, 414);
+            }
+            while( input_line != null && input_line.length() == 0 );
 
-            // read the HTTP request-line
-            while( (input_line = v_reader.readLine()) != null)
+            if( input_line == null )
             {
-              // the very first line: the HTTP start-line.
-              if( start_line_flag )
-              {
-                start_line_flag = false;
+                return null;
+            }
 
-                if(logger.isTraceEnabled())
-                {
-                    logger.trace("instantiating request_line object [" +
-                            input_line + "]");
-                }
+            if(logger.isTraceEnabled())
+            {
+                logger.trace("instantiating request_line object [" +
+                        input_line + "]");
+            }
 
-                HttpRequestLine req_line = new HttpRequestLine(input_line);
-                header = new HttpRequestHeader(req_line);
-                continue; // to go to the next line
-              }
+            // the header fields are kept as received, and only
+            // decoded as the handler looks them up.
+            HttpRequestLine req_line = new HttpRequestLine(input_line);
+            HttpHeaderFields fields = new HttpHeaderFields();
+            header = new HttpRequestHeader(req_line, fields);
+            line_event.record(v_connection_id, header, 0,
+                              input_line.length());
 
-              // if the line contains CRLF alone then the next
-              // lines should contain the message body.
-              if( input_line.equals(Constants.CRLF))
+            HttpHeaderEvent header_event = new HttpHeaderEvent();
+            header_event.begin();
+
+            // the header fields are bounded in total size and count
+            int remaining = MAX_HEADER_SIZE;
+            int count = 0;
+            int length = 0;
+
+            while( (length = v_reader.readLineOctets(remaining, 431)) >= 0 )
+            {
+              // the empty line ends the header fields; the next
+              // octets, if any, are the message body.
+              if( length == 0 )
               {
-                  message_body_flag = false;
-                  continue; // to go to the next line
+                  header_event.record(v_connection_id, header, 0,
+                                      MAX_HEADER_SIZE - remaining);
+                  return header;
               }
 
-              // read the header fields
-              if(! message_body_flag )
+              remaining -= length;
+              if( ++count > MAX_HEADER_COUNT )
               {
-                  String [] header_field = input_line.split(":", 2);
+                  String msg = "request exceeds the maximum of [" +
+                          MAX_HEADER_COUNT + "] header fields";
+                  throw new HttpClientErrorException(431, msg);
+              }
 
-                  if (header_field == null || header_field.length == 0)
-                  {
-                      String msg = "HTTP Header field not found: " +
-                              input_line;
-                      logger.error(msg);
-                      throw new HttpClientErrorException(400, msg);
-                  }
-                  else if ( header_field.length != 2 )
-                  {
-                      String msg = "Illegal HTTP Header field: " +
-                              input_line;
-                      if(logger.isInfoEnabled())
-                      {
-                          logger.info(msg);
-                      }
-                  }
-                  else
+              byte line [] = v_reader.getLineOctets();
+              if(! fields.add(line, 0, length) )
+              {
+                  if(logger.isInfoEnabled())
                   {
-                      header.addHeader(header_field[0].trim(),
-                                       header_field[1].trim());
+                      logger.info("Illegal HTTP Header field: " +
+                              new String(line, 0, length,
+                                         StandardCharsets.ISO_8859_1));
                   }
               }
-              else // read the message body.
-              {
-                  message_body = new HttpMessageBody();
-                  message_body.add(input_line);
-              }
 
             } // end while
 
-            request = new HttpRequest(header, message_body);
+            String msg = "connection closed before the end of " +
+                    "the request header fields";
+            throw new HttpClientErrorException(400, msg);
         }
         catch(IOException ex)
         {
+            if( deadline.isExpired() )
+            {
+                String msg = "request head not received in time";
+                throw new HttpClientErrorException(408, msg);
+            }
+
             String msg = "IO Error: " + ex.getMessage();
             logger.error(msg, ex);
             throw new HttpServerErrorException(500, msg, ex);
         }
+    }
 
-        return request;
+    /**
+     * Reads the whole message body into memory for a handler
+     * that does not stream it.  A Content-Length above the
+     * maximum body size is rejected before any of the message
+     * body is read.
+     *
+     * @param body_stream the message body stream
+     * @return the message body
+     * @throws HttpErrorException if the message body is too large
+     * @throws IOException if an I/O error occurs.
+     */
+    private HttpMessageBody readMessageBody(
+            final HttpBodyInputStream body_stream)
+        throws HttpErrorException, IOException
+    {
+        long length = body_stream.getContentLength();
+        if( length > MAX_BODY_SIZE )
+        {
+            String msg = "Content-Length [" + length +
+                    "] exceeds the maximum of [" + MAX_BODY_SIZE + "] octets";
+            throw new HttpClientErrorException(413, msg);
+        }
+
+        HttpMessageBody message_body = new HttpMessageBody(
+                (length >= 0) ? (int) length : MAX_BODY_SIZE);
+        byte buff [] = new byte[INPUT_CHUNK_SIZE];
+        int count = 0;
+
+        while( (count = body_stream.read(buff, 0, buff.length)) >= 0 )
+        {
+            if( count > MAX_BODY_SIZE - message_body.length() )
+            {
+                String msg = "message body exceeds the maximum of [" +
+                        MAX_BODY_SIZE + "] octets";
+                throw new HttpClientErrorException(413, msg);
+            }
+
+            message_body.add(buff, 0, count);
+        }
+
+        return message_body;
+    }
+
+    /**
+     * Sends the given response.  The connection is closed after
+     * the response, which is announced to the client.  The
+     * response to a HEAD request is sent without its message
+     * body, but with its Content-Length.
+     *
+     * @param response the HTTP response
+     * @param request_header the header of the request answered
+     * @throws IOException if an I/O error occurs.
+     */
+    private void sendResponse(final HttpResponse response,
+                              final HttpRequestHeader request_header)
+        throws IOException
+    {
+        HttpResponseHeader header = response.getHeader();
+        HttpMessageBody body = response.getMessageBody();
+
+        header.addContentLength((body == null) ? 0 : body.length());
+        header.addHeader("Connection", "close");
+
+        response.writeTo(v_out, ! isHead(request_header));
+        v_out.flush();
     }
 
+    /**
+     * Sends the given streaming response.  An HTTP/1.1 client
+     * gets the message body in chunks; an HTTP/1.0 client reads
+     * it up to the closing of the connection.
+     *
+     * @param response the streaming HTTP response
+     * @param request_header the header of the request answered
+     * @param body_writer the writer of the message body
+     * @throws IOException if an I/O error occurs.
+     * @throws HttpServerErrorException if the body publisher does
+     * not subscribe the writer in time.
+     */
+    private void sendResponse(final HttpResponse response,
+                              final HttpRequestHeader request_header,
+                              final HttpResponseBodyWriter body_writer)
+        throws IOException, HttpServerErrorException
+    {
+        String version = request_header.getRequestLine().getHttpVersion();
+        response.getHeader().addHeader("Connection", "close");
+        if( isHead(request_header) )
+        {
+            body_writer.writeHeadResponse(response);
+            return;
+        }
+
+        body_writer.writeResponse(response, "HTTP/1.1".equals(version));
+    }
+
+    /**
+     * @param request_header the header of the request answered
+     * @return true, if the request method is HEAD
+     */
+    private static boolean isHead(final HttpRequestHeader request_header)
+    {
+        return request_header.getRequestLine().getMethod() ==
+                HttpRequestMethodType.HEAD;
+    }
+
+    /**
+     * Maps the exceptions raised while reading a request to the
+     * HTTP error reported to the client.
+     *
+     * @param ex the exception raised
+     * @return the exception to report
+     */
+    private static Exception toHttpError(final Exception ex)
+    {
+        if( ex instanceof SocketTimeoutException )
+        {
+            return new HttpClientErrorException(408,
+                    "message body not received in time: " + ex.getMessage());
+        }
+
+        if( ex instanceof EOFException )
+        {
+            return new HttpClientErrorException(400, ex.getMessage());
+        }
+
+        return ex;
+    }
+
+    /**
+     * Formats the Server-Timing header field value of a response:
+     * the time the connection was queued, the time to read the
+     * request head, and the time from then until the handler
+     * returned, including the reading of a buffered message body.
+     *
+     * @param queue_delay the time in nanoseconds the connection
+     * was queued
+     * @param head_nanos the System.nanoTime() when the request
+     * head was read
+     * @return the header field value
+     */
+    private String serverTiming(final long queue_delay, final long head_nanos)
+    {
+        long start = v_enqueued_nanos + queue_delay;
+        return String.format("queue;dur=%.1f, head;dur=%.1f, handler;dur=%.1f",
+                             queue_delay / 1000000.0,
+                             (head_nanos - start) / 1000000.0,
+                             (System.nanoTime() - head_nanos) / 1000000.0);
+    }
+
+    /** The number of connections served, giving their ids. */
+    private static final AtomicLong CONNECTIONS = new AtomicLong();
+
     /** The v_handle. */
     private final SocketHandle v_handle;
 
+    /** The id of the connection in the Flight Recorder events. */
+    private final long v_connection_id;
+
+    /** The timer of the connection deadlines. */
+    private final HttpDeadlineTimer v_timer;
+
+    /** The System.nanoTime() when the connection was queued. */
+    private final long v_enqueued_nanos;
+
+    /** The pooled buffers of the connection. */
+    private final HttpConnectionContext v_context;
+
     /** The v_reader. */
-    private final BufferedReader v_reader;
+    private final HttpLineReader v_reader;
+
+    /** The TLS connection, or null for a cleartext connection. */
+    private final TlsConnection v_tls;
+
+    /** The v_out. */
+    private final OutputStream v_out;
+
+    /** Whether the connection was handed over to HTTP/2 or WebSocket. */
+    private boolean v_upgraded;
 
-    /** The v_writer. */
-    private final OutputStreamWriter v_writer;
 }
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpCacheControl.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.cache;
+
+import java.util.Locale;
+
+/**
+ * The directives of a Cache-Control header field understood by
+ * the response cache.  Unknown directives are ignored, and a
+ * delta-seconds argument that is not a valid number is treated
+ * as absent.
+ *
+ * @author Rubens Gomes
+ * @see "Section 5.2 of RFC7234 - Hypertext Transfer Protocol
+ * (HTTP/1.1): Caching"
+ * @see "RFC5861 - HTTP Cache-Control Extensions for Stale Content"
+ */
+public final class HttpCacheControl
+{
+    /** The value returned for an absent delta-seconds directive. */
+    public static final long ABSENT = -1L;
+
+    /**
+     * Parses the given Cache-Control header field value.
+     *
+     * @param value the header field value, or null if the field
+     * is absent.
+     * @return the directives
+     */
+    public static HttpCacheControl parse(String value)
+    {
+        HttpCacheControl control = new HttpCacheControl();
+        if( value == null )
+        {
+            return control;
+        }
+
+        for(String directive : value.split(","))
+        {
+            String name = directive;
+            String argument = null;
+            int equals = directive.indexOf('=');
+            if( equals >= 0 )
+            {
+                name = directive.substring(0, equals);
+                argument = directive.substring(equals + 1).trim();
+                if( argument.length() >= 2 && argument.startsWith("\"") &&
+                    argument.endsWith("\"") )
+                {
+                    argument = argument.substring(1, argument.length() - 1);
+                }
+            }
+
+            name = name.trim().toLowerCase(Locale.ROOT);
+            if( name.equals("no-store") )
+            {
+                control.v_no_store = true;
+            }
+            else if( name.equals("no-cache") )
+            {
+                control.v_no_cache = true;
+            }
+            else if( name.equals("private") )
+            {
+                control.v_private = true;
+            }
+            else if( name.equals("public") )
+            {
+                control.v_public = true;
+            }
+            else if( name.equals("max-age") )
+            {
+                control.v_max_age = deltaSeconds(argument);
+            }
+            else if( name.equals("s-maxage") )
+            {
+                control.v_s_maxage = deltaSeconds(argument);
+            }
+            else if( name.equals("stale-while-revalidate") )
+            {
+                control.v_stale_while_revalidate = deltaSeconds(argument);
+            }
+            else if( name.equals("stale-if-error") )
+            {
+                control.v_stale_if_error = deltaSeconds(argument);
+            }
+        }
+
+        return control;
+    }
+
+    /**
+     * @return true, if the no-store directive is present
+     */
+    public boolean isNoStore()
+    {
+        return v_no_store;
+    }
+
+    /**
+     * @return true, if the no-cache directive is present
+     */
+    public boolean isNoCache()
+    {
+        return v_no_cache;
+    }
+
+    /**
+     * @return true, if the private directive is present
+     */
+    public boolean isPrivate()
+    {
+        return v_private;
+    }
+
+    /**
+     * @return true, if the public directive is present
+     */
+    public boolean isPublic()
+    {
+        return v_public;
+    }
+
+    /**
+     * @return the max-age in seconds, or ABSENT
+     */
+    public long getMaxAge()
+    {
+        return v_max_age;
+    }
+
+    /**
+     * @return the s-maxage in seconds, or ABSENT
+     */
+    public long getSharedMaxAge()
+    {
+        return v_s_maxage;
+    }
+
+    /**
+     * @return the stale-while-revalidate window in seconds, or
+     * ABSENT
+     * @see "Section 3 of RFC5861"
+     */
+    public long getStaleWhileRevalidate()
+    {
+        return v_stale_while_revalidate;
+    }
+
+    /**
+     * @return the stale-if-error window in seconds, or ABSENT
+     * @see "Section 4 of RFC5861"
+     */
+    public long getStaleIfError()
+    {
+        return v_stale_if_error;
+    }
+
+    /**
+     * @return the freshness lifetime in seconds for a shared
+     * cache: s-maxage, or else max-age, or ABSENT.
+     * @see "Section 4.2.1 of RFC7234"
+     */
+    public long getFreshnessLifetime()
+    {
+        return (v_s_maxage != ABSENT) ? v_s_maxage : v_max_age;
+    }
+
+    // ------ >>> Private <<< ------
+    private HttpCacheControl()
+    {
+        v_max_age = ABSENT;
+        v_s_maxage = ABSENT;
+        v_stale_while_revalidate = ABSENT;
+        v_stale_if_error = ABSENT;
+    }
+
+    /**
+     * @param argument the directive argument, or null
+     * @return the delta-seconds, or ABSENT if not a valid number
+     */
+    private static long deltaSeconds(String argument)
+    {
+        if( argument == null || argument.length() == 0 )
+        {
+            return ABSENT;
+        }
+
+        try
+        {
+            long seconds = Long.parseLong(argument);
+            return (seconds < 0) ? ABSENT : seconds;
+        }
+        catch(NumberFormatException ex)
+        {
+            // a value too large for a long is taken as very long
+            return argument.matches("[0-9]+") ? Integer.MAX_VALUE : ABSENT;
+        }
+    }
+
+    private boolean v_no_store;
+    private boolean v_no_cache;
+    private boolean v_private;
+    private boolean v_public;
+    private long v_max_age;
+    private long v_s_maxage;
+    private long v_stale_while_revalidate;
+    private long v_stale_if_error;
+}
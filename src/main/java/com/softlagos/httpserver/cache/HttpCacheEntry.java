@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpCacheEntry.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.cache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.softlagos.httpserver.HttpBufferPublisher;
+import com.softlagos.httpserver.HttpRequestHeader;
+import com.softlagos.httpserver.HttpResponse;
+import com.softlagos.httpserver.HttpResponseHeader;
+import com.softlagos.httpserver.HttpStatusLine;
+
+/**
+ * <p>
+ * A response stored by the response cache.  The entry is
+ * immutable: its header fields are kept as a flat array and its
+ * message body in a read-only buffer, from which every response
+ * served is published without copying the octets.
+ * </p>
+ * <p>
+ * Past its freshness lifetime the entry may still be served
+ * while it is revalidated, within its stale-while-revalidate
+ * window, or in place of an error, within its stale-if-error
+ * window; it expires once both windows are over.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+final class HttpCacheEntry
+{
+    /**
+     * Instantiates a new cache entry.
+     *
+     * @param key the full cache key of the entry
+     * @param status_code the response status code
+     * @param fields the header field names and values, alternating
+     * @param body the message body octets
+     * @param vary the lower case names of the request header
+     * fields the response varies on.
+     * @param vary_values the values of those fields on the request
+     * the response was stored for, "" when absent.
+     * @param lifetime_ns the freshness lifetime in nanoseconds
+     * @param revalidate_ns the stale-while-revalidate window in
+     * nanoseconds
+     * @param error_ns the stale-if-error window in nanoseconds
+     */
+    HttpCacheEntry(String key, int status_code, String fields [],
+                   byte body [], String vary [], String vary_values [],
+                   long lifetime_ns, long revalidate_ns, long error_ns)
+    {
+        v_key = key;
+        v_status_code = status_code;
+        v_fields = fields;
+        v_body = ByteBuffer.wrap(body).asReadOnlyBuffer();
+        v_vary = vary;
+        v_vary_values = vary_values;
+        v_stored = System.nanoTime();
+        v_lifetime = lifetime_ns;
+        v_fresh_until = v_stored + lifetime_ns;
+        v_revalidate_until = v_fresh_until + revalidate_ns;
+        v_error_until = v_fresh_until + error_ns;
+        v_last_access = v_stored;
+        v_hits = new AtomicInteger();
+
+        long size = ENTRY_OVERHEAD + key.length() + body.length;
+        for(String field : fields)
+        {
+            size += field.length();
+        }
+
+        v_size = size;
+    }
+
+    /**
+     * @return the full cache key of the entry
+     */
+    String getKey()
+    {
+        return v_key;
+    }
+
+    /**
+     * @return the lower case names of the request header fields
+     * the response varies on.
+     */
+    String [] getVary()
+    {
+        return v_vary;
+    }
+
+    /**
+     * @return the approximate heap size of the entry in octets
+     */
+    long getSize()
+    {
+        return v_size;
+    }
+
+    /**
+     * @return the System.nanoTime the entry was last served at
+     */
+    long getLastAccess()
+    {
+        return v_last_access;
+    }
+
+    /**
+     * @param now the current System.nanoTime
+     * @return true, if the entry is still fresh
+     */
+    boolean isFresh(long now)
+    {
+        return now - v_fresh_until < 0;
+    }
+
+    /**
+     * @param now the current System.nanoTime
+     * @return true, if the entry may be served stale while it is
+     * revalidated.
+     */
+    boolean isRevalidatable(long now)
+    {
+        return now - v_revalidate_until < 0;
+    }
+
+    /**
+     * @param now the current System.nanoTime
+     * @return true, if the entry may be served stale in place of
+     * an error.
+     */
+    boolean isUsableOnError(long now)
+    {
+        return now - v_error_until < 0;
+    }
+
+    /**
+     * @param now the current System.nanoTime
+     * @return true, if the entry may no longer be served at all
+     */
+    boolean isExpired(long now)
+    {
+        return ! isFresh(now) && ! isRevalidatable(now) &&
+               ! isUsableOnError(now);
+    }
+
+    /**
+     * Checks whether a fresh entry is hot and close enough to its
+     * expiry to be refreshed ahead of time.
+     *
+     * @param now the current System.nanoTime
+     * @param percent the percentage of the freshness lifetime
+     * after which an entry is refreshed; 0 never refreshes.
+     * @param min_hits the hits making an entry hot
+     * @return true, if the entry should be refreshed
+     */
+    boolean isDueForRefresh(long now, int percent, int min_hits)
+    {
+        return percent > 0 && v_hits.get() >= min_hits &&
+               now - v_stored >= v_lifetime / 100 * percent;
+    }
+
+    /**
+     * Checks whether the entry may answer the given request: the
+     * request must carry the same values of the fields the
+     * response varies on.
+     *
+     * @param header the request header
+     * @return true, if the entry matches the request
+     */
+    boolean matches(HttpRequestHeader header)
+    {
+        for(int i = 0; i < v_vary.length; i++)
+        {
+            if(! v_vary_values[i].equals(
+                    HttpResponseCache.fieldValue(header, v_vary[i])) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Builds a response from the entry, with its Age.
+     *
+     * @param now the current System.nanoTime
+     * @return the response
+     */
+    HttpResponse toResponse(long now)
+    {
+        v_last_access = now;
+        v_hits.incrementAndGet();
+
+        HttpResponseHeader header = new HttpResponseHeader(
+                HttpStatusLine.makeHttpStatusLine(v_status_code));
+        for(int i = 0; i < v_fields.length; i += 2)
+        {
+            header.addHeader(v_fields[i], v_fields[i + 1]);
+        }
+
+        header.addHeader("Age", "" + Math.max(0L,
+                (now - v_stored) / 1000000000L));
+
+        ByteBuffer buffers [] = { v_body.duplicate() };
+        return new HttpResponse(header, new HttpBufferPublisher(buffers,
+                Math.max(v_body.capacity(), 1)));
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The approximate size of an entry without its fields and body. */
+    private static final long ENTRY_OVERHEAD = 256L;
+
+    private final String v_key;
+    private final int v_status_code;
+    private final String v_fields [];
+    private final ByteBuffer v_body;
+    private final String v_vary [];
+    private final String v_vary_values [];
+    private final long v_stored;
+    private final long v_lifetime;
+    private final long v_fresh_until;
+    private final long v_revalidate_until;
+    private final long v_error_until;
+    private final long v_size;
+    private final AtomicInteger v_hits;
+    private volatile long v_last_access;
+}
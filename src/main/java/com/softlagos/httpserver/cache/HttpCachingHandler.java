@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpCachingHandler.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.cache;
+
+import java.io.IOException;
+
+import com.softlagos.httpserver.HttpErrorException;
+import com.softlagos.httpserver.HttpRequest;
+import com.softlagos.httpserver.HttpRequestHandler;
+import com.softlagos.httpserver.HttpResponse;
+
+/**
+ * A request handler answering from the response cache in front
+ * of another handler.  The HttpHandlerRegistry puts one in front
+ * of every handler buffering its request bodies when the response
+ * cache is enabled.
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpCachingHandler
+  implements HttpRequestHandler
+{
+    /**
+     * Instantiates a new caching handler.
+     *
+     * @param handler the handler answering the cache misses
+     * @param cache the response cache
+     */
+    public HttpCachingHandler(HttpRequestHandler handler,
+                              HttpResponseCache cache)
+    {
+        if( handler == null )
+        {
+            throw new IllegalArgumentException("handler cannot be null.");
+        }
+
+        if( cache == null )
+        {
+            throw new IllegalArgumentException("cache cannot be null.");
+        }
+
+        v_handler = handler;
+        v_cache = cache;
+    }
+
+    /* (non-Javadoc)
+     * @see com.softlagos.httpserver.HttpRequestHandler#handle(com.softlagos.httpserver.HttpRequest)
+     */
+    @Override
+    public HttpResponse handle(HttpRequest request)
+        throws HttpErrorException, IOException
+    {
+        return v_cache.handle(request, v_handler);
+    }
+
+    /* (non-Javadoc)
+     * @see com.softlagos.httpserver.HttpRequestHandler#isStreaming()
+     */
+    @Override
+    public boolean isStreaming()
+    {
+        return v_handler.isStreaming();
+    }
+
+    /**
+     * The cache itself runs on the I/O thread: a cache hit does not
+     * wait for the CPU tier, and the cache runs the handler of a miss
+     * on the tier the handler declares.
+     *
+     * @return false
+     */
+    @Override
+    public boolean isCpuBound()
+    {
+        return false;
+    }
+
+    /**
+     * @return the handler answering the cache misses
+     */
+    public HttpRequestHandler getHandler()
+    {
+        return v_handler;
+    }
+
+    // ------ >>> Private <<< ------
+    private final HttpRequestHandler v_handler;
+    private final HttpResponseCache v_cache;
+}
@@ -0,0 +1,1016 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpResponseCache.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.HttpClientErrorException;
+import com.softlagos.httpserver.HttpCpuExecutor;
+import com.softlagos.httpserver.HttpErrorException;
+import com.softlagos.httpserver.HttpMessageBody;
+import com.softlagos.httpserver.HttpMetrics;
+import com.softlagos.httpserver.HttpProperties;
+import com.softlagos.httpserver.HttpRequest;
+import com.softlagos.httpserver.HttpRequestHandler;
+import com.softlagos.httpserver.HttpRequestHeader;
+import com.softlagos.httpserver.HttpRequestTarget;
+import com.softlagos.httpserver.HttpResponse;
+import com.softlagos.httpserver.HttpServerErrorException;
+import com.softlagos.httpserver.enums.HttpMetricType;
+import com.softlagos.httpserver.enums.HttpRequestMethodType;
+
+/**
+ * <p>
+ * A shared in-process cache of complete responses, in front of
+ * the request handlers that buffer their responses.
+ * </p>
+ * <p>
+ * Responses are stored only when they say how long they stay
+ * fresh, with Cache-Control s-maxage or max-age, and are neither
+ * private, no-store nor no-cache; nothing else is cached, so a
+ * handler opts in by setting Cache-Control.  The cache key is
+ * the method, the Host and the request-target, its path
+ * normalized by HttpRequestTarget as it is routed, and
+ * the values of the request header fields named in Vary select
+ * among the variants stored under that key.
+ * </p>
+ * <p>
+ * Concurrent misses on the same key are collapsed: the first
+ * request runs the handler in a FutureTask, and the requests
+ * arriving meanwhile wait on that task and are answered from its
+ * response, instead of all running the handler at once.
+ * </p>
+ * <p>
+ * The total size of the entries is bounded.  Once it is
+ * exceeded, the expired entries are dropped first, and then the
+ * least recently used ones until the cache is back below nine
+ * tenths of its size.
+ * </p>
+ * <p>
+ * Past its freshness lifetime, an entry within its
+ * stale-while-revalidate window is still served while a single
+ * background run of the handler replaces it, and one within its
+ * stale-if-error window answers the requests whose handler fails
+ * or the server sheds.  Hot entries may also be refreshed in the
+ * background before they expire.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "RFC7234 - Hypertext Transfer Protocol (HTTP/1.1): Caching"
+ * @see "RFC5861 - HTTP Cache-Control Extensions for Stale Content"
+ */
+public final class HttpResponseCache
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpResponseCache.class);
+
+    /** The default maximum total size of the entries. */
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    /** The default maximum message body size of an entry. */
+    public static final int DEFAULT_MAX_ENTRY_SIZE = 1024 * 1024;
+
+    /**
+     * @return the single instance configured from the system
+     * properties, or null if the response cache is disabled.
+     */
+    public static HttpResponseCache instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Instantiates a new response cache.
+     *
+     * @param max_size the maximum total size of the entries
+     * @param max_entry_size the maximum message body size of an
+     * entry
+     */
+    public HttpResponseCache(long max_size, int max_entry_size)
+    {
+        if( max_size <= 0 || max_entry_size <= 0 )
+        {
+            throw new IllegalArgumentException(
+                    "response cache sizes must be greater than 0");
+        }
+
+        v_max_size = max_size;
+        v_max_entry_size = max_entry_size;
+        v_variants = new ConcurrentHashMap<String, Variants>();
+        v_inflight = new ConcurrentHashMap<String, FutureTask<Outcome>>();
+        v_size = new AtomicLong();
+        v_evicting = new AtomicBoolean();
+    }
+
+    /**
+     * Answers the given request from the cache, or else from the
+     * handler, storing the handler response if it may be cached.
+     *
+     * @param request the HTTP request
+     * @param handler the handler of the request
+     * @return the HTTP response
+     * @throws HttpErrorException if the handler raises one.
+     * @throws IOException if the handler raises one.
+     */
+    public HttpResponse handle(HttpRequest request,
+                               HttpRequestHandler handler)
+        throws HttpErrorException, IOException
+    {
+        HttpRequestHeader header = request.getHeader();
+        HttpCacheControl control = HttpCacheControl.parse(
+                header.getHeader("Cache-Control"));
+        HttpMessageBody body = request.getMessageBody();
+        boolean has_body = (body != null && body.length() > 0) ||
+                           request.getBodyStream() != null;
+        String primary = primaryKey(header, has_body);
+        if( primary == null || control.isNoStore() )
+        {
+            return HttpCpuExecutor.instance().handle(handler, request);
+        }
+
+        long now = System.nanoTime();
+        Variants variants = v_variants.get(primary);
+        String vary [] = (variants == null) ? NO_VARY : variants.v_vary;
+        String key = fullKey(primary, vary, header);
+
+        HttpCacheEntry stale = null;
+        if(! control.isNoCache() && variants != null )
+        {
+            HttpCacheEntry entry = variants.v_entries.get(key);
+            if( entry != null && entry.isFresh(now) )
+            {
+                HttpMetrics.instance().increment(HttpMetricType.CACHE_HITS);
+                if( entry.isDueForRefresh(now, REFRESH_AHEAD_PERCENT,
+                                          HOT_HITS) )
+                {
+                    refresh(primary, key, request, handler);
+                }
+
+                return entry.toResponse(now);
+            }
+
+            if( entry != null && entry.isRevalidatable(now) )
+            {
+                HttpMetrics.instance().increment(HttpMetricType.CACHE_STALE);
+                refresh(primary, key, request, handler);
+                return entry.toResponse(now);
+            }
+
+            stale = entry;
+        }
+
+        HttpMetrics.instance().increment(HttpMetricType.CACHE_MISSES);
+
+        HttpResponse response = null;
+        try
+        {
+            response = load(primary, key, request, handler);
+        }
+        catch(HttpErrorException | IOException | RuntimeException ex)
+        {
+            if( stale != null && ! (ex instanceof HttpClientErrorException) &&
+                stale.isUsableOnError(System.nanoTime()) )
+            {
+                return serveOnError(stale, ex.getMessage());
+            }
+
+            throw ex;
+        }
+
+        if( stale != null && response != null &&
+            SERVER_ERROR_STATUS.contains(
+                    response.getHeader().getStatusLine().getStatusCode()) &&
+            stale.isUsableOnError(System.nanoTime()) )
+        {
+            return serveOnError(stale, "handler returned " +
+                    response.getHeader().getStatusLine().getStatusCode());
+        }
+
+        return response;
+    }
+
+    /**
+     * Answers a request the server is about to shed under overload
+     * from the cache: with the fresh entry of the request, or with
+     * its stale entry within the stale-if-error window.
+     *
+     * @param header the request header
+     * @return the cached response, or null if the request cannot
+     * be answered from the cache.
+     * @see "Section 4 of RFC5861"
+     */
+    public HttpResponse lookupOnOverload(HttpRequestHeader header)
+    {
+        if( header.getHeader("Transfer-Encoding") != null )
+        {
+            return null;
+        }
+
+        String length = header.getHeader("Content-Length");
+        boolean has_body = length != null && ! length.trim().equals("0");
+        String primary = primaryKey(header, has_body);
+        HttpCacheControl control = HttpCacheControl.parse(
+                header.getHeader("Cache-Control"));
+        if( primary == null || control.isNoStore() || control.isNoCache() )
+        {
+            return null;
+        }
+
+        Variants variants = v_variants.get(primary);
+        if( variants == null )
+        {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        HttpCacheEntry entry = variants.v_entries.get(
+                fullKey(primary, variants.v_vary, header));
+        if( entry == null )
+        {
+            return null;
+        }
+
+        if( entry.isFresh(now) )
+        {
+            HttpMetrics.instance().increment(HttpMetricType.CACHE_HITS);
+            return entry.toResponse(now);
+        }
+
+        if( entry.isUsableOnError(now) )
+        {
+            return serveOnError(entry, "server overloaded");
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the total size of the entries
+     */
+    public long getSize()
+    {
+        return v_size.get();
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Gets the value of a request header field as compared by
+     * Vary: trimmed, or "" when absent.
+     *
+     * @param header the request header
+     * @param name the header field name
+     * @return the header field value
+     */
+    static String fieldValue(HttpRequestHeader header, String name)
+    {
+        String value = header.getHeader(name);
+        return (value == null) ? "" : value.trim();
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The key of the responses that do not vary. */
+    private static final String NO_VARY [] = new String[0];
+
+    /** The refreshes queued for a busy refresh thread at most. */
+    private static final int REFRESH_QUEUE_SIZE = 256;
+
+    /** The fraction of the maximum size eviction goes down to. */
+    private static final double LOW_WATER = 0.9;
+
+    /** The hits making an entry hot enough to be refreshed ahead. */
+    private static final int HOT_HITS = 2;
+
+    /** The status codes replaced by a stale entry, if any. */
+    private static final Set<Integer> SERVER_ERROR_STATUS =
+            new HashSet<Integer>(Arrays.asList(500, 502, 503, 504));
+
+    /** The status codes cacheable by default. */
+    private static final Set<Integer> CACHEABLE_STATUS = new HashSet<Integer>(
+            Arrays.asList(200, 203, 204, 300, 301, 404, 405, 410, 414, 501));
+
+    /** The response header fields not stored with an entry. */
+    private static final Set<String> UNSTORED_FIELDS = new HashSet<String>(
+            Arrays.asList("age", "connection", "content-length", "date",
+                          "keep-alive", "transfer-encoding"));
+
+    /**
+     * The entries stored under a primary key, and the names of
+     * the request header fields selecting among them.
+     */
+    private static final class Variants
+    {
+        private Variants(String vary [])
+        {
+            v_vary = vary;
+            v_entries = new ConcurrentHashMap<String, HttpCacheEntry>();
+        }
+
+        private final String v_vary [];
+        private final ConcurrentMap<String, HttpCacheEntry> v_entries;
+    }
+
+    /**
+     * The response of a handler run on a miss, and the entry
+     * stored from it, if any.
+     */
+    private static final class Outcome
+    {
+        private Outcome(HttpResponse response, HttpCacheEntry entry)
+        {
+            v_response = response;
+            v_entry = entry;
+        }
+
+        private final HttpResponse v_response;
+        private final HttpCacheEntry v_entry;
+    }
+
+    /**
+     * @param header the request header
+     * @param has_body whether the request carries a message body
+     * @return the primary cache key of the request, or null if
+     * the request cannot be answered from the cache.
+     */
+    private static String primaryKey(HttpRequestHeader header,
+                                     boolean has_body)
+    {
+        HttpRequestMethodType method = header.getRequestLine().getMethod();
+        if( method != HttpRequestMethodType.GET &&
+            method != HttpRequestMethodType.HEAD )
+        {
+            return null;
+        }
+
+        if( has_body )
+        {
+            return null;
+        }
+
+        // the path normalized as it is routed, so a target cannot be
+        // stored under one route while being served by another
+        HttpRequestTarget target = header.getRequestLine().getRequestTarget();
+        String path = target.getNormalizedPath();
+        if( path == null )
+        {
+            return null;
+        }
+
+        String host = fieldValue(header, "Host").toLowerCase(Locale.ROOT);
+        String query = target.getQuery();
+        return method.getMethod() + " " + host + " " + path +
+               ((query == null) ? "" : "?" + query);
+    }
+
+    /**
+     * @param primary the primary cache key
+     * @param vary the names of the fields the responses vary on
+     * @param header the request header
+     * @return the key of the variant selected by the request
+     */
+    private static String fullKey(String primary, String vary [],
+                                  HttpRequestHeader header)
+    {
+        if( vary.length == 0 )
+        {
+            return primary;
+        }
+
+        StringBuilder buff = new StringBuilder(primary);
+        for(String name : vary)
+        {
+            buff.append('\n');
+            buff.append(fieldValue(header, name));
+        }
+
+        return buff.toString();
+    }
+
+    /**
+     * Runs the handler on a miss, collapsing the concurrent misses
+     * on the same key into a single run.
+     *
+     * @param primary the primary cache key
+     * @param key the full cache key
+     * @param request the HTTP request
+     * @param handler the handler of the request
+     * @return the HTTP response
+     * @throws HttpErrorException if the handler raises one.
+     * @throws IOException if the handler raises one.
+     */
+    private HttpResponse load(String primary, String key,
+                              HttpRequest request, HttpRequestHandler handler)
+        throws HttpErrorException, IOException
+    {
+        FutureTask<Outcome> task = newFetch(primary, request, handler);
+        FutureTask<Outcome> running = v_inflight.putIfAbsent(key, task);
+        if( running == null )
+        {
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                v_inflight.remove(key, task);
+            }
+
+            Outcome outcome = await(task);
+            return (outcome.v_entry != null) ?
+                    outcome.v_entry.toResponse(System.nanoTime()) :
+                    outcome.v_response;
+        }
+
+        HttpMetrics.instance().increment(HttpMetricType.CACHE_COLLAPSED);
+        Outcome outcome = await(running);
+        if( outcome.v_entry != null &&
+            outcome.v_entry.matches(request.getHeader()) )
+        {
+            return outcome.v_entry.toResponse(System.nanoTime());
+        }
+
+        // the response could not be shared: run the handler
+        return HttpCpuExecutor.instance().handle(handler, request);
+    }
+
+    /**
+     * Runs the handler in the background to replace a stale or
+     * soon stale entry, unless it already runs for that key.  The
+     * misses arriving meanwhile wait on that run.
+     *
+     * @param primary the primary cache key
+     * @param key the full cache key
+     * @param request the HTTP request
+     * @param handler the handler of the request
+     */
+    private void refresh(String primary, final String key,
+                         HttpRequest request, HttpRequestHandler handler)
+    {
+        if( v_inflight.containsKey(key) )
+        {
+            return;
+        }
+
+        final FutureTask<Outcome> task = newFetch(primary, request, handler);
+        if( v_inflight.putIfAbsent(key, task) != null )
+        {
+            return;
+        }
+
+        try
+        {
+            REFRESH_EXECUTOR.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    finally
+                    {
+                        v_inflight.remove(key, task);
+                    }
+
+                    if(logger.isDebugEnabled())
+                    {
+                        try
+                        {
+                            task.get();
+                        }
+                        catch(Exception ex)
+                        {
+                            logger.debug("error refreshing cached response ["
+                                         + key + "]: " + ex.getMessage());
+                        }
+                    }
+                }
+            });
+
+            HttpMetrics.instance().increment(HttpMetricType.CACHE_REFRESHES);
+        }
+        catch(RejectedExecutionException ex)
+        {
+            // the refresh threads are all busy: a later request
+            // tries again, and the requests waiting give up.
+            v_inflight.remove(key, task);
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * @param primary the primary cache key
+     * @param request the HTTP request
+     * @param handler the handler of the request
+     * @return a task fetching the response of the request
+     */
+    private FutureTask<Outcome> newFetch(final String primary,
+                                         final HttpRequest request,
+                                         final HttpRequestHandler handler)
+    {
+        return new FutureTask<Outcome>(new Callable<Outcome>()
+        {
+            @Override
+            public Outcome call()
+                throws Exception
+            {
+                return fetch(primary, request, handler);
+            }
+        });
+    }
+
+    /**
+     * Serves a stale entry in place of an error.
+     *
+     * @param entry the stale entry
+     * @param error the error replaced
+     * @return the response of the entry
+     */
+    private static HttpResponse serveOnError(HttpCacheEntry entry,
+                                             String error)
+    {
+        HttpMetrics.instance().increment(HttpMetricType.CACHE_STALE_IF_ERROR);
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("serving stale [" + entry.getKey() +
+                         "] in place of error: " + error);
+        }
+
+        return entry.toResponse(System.nanoTime());
+    }
+
+    /**
+     * Runs the handler on a miss, and stores its response if it
+     * may be cached.
+     *
+     * @param primary the primary cache key
+     * @param request the HTTP request
+     * @param handler the handler of the request
+     * @return the handler response and its entry
+     * @throws HttpErrorException if the handler raises one.
+     * @throws IOException if the handler raises one.
+     */
+    private Outcome fetch(String primary, HttpRequest request,
+                          HttpRequestHandler handler)
+        throws HttpErrorException, IOException
+    {
+        HttpResponse response =
+                HttpCpuExecutor.instance().handle(handler, request);
+        HttpCacheEntry entry = (response == null) ? null :
+                makeEntry(primary, request, response);
+        if( entry != null )
+        {
+            store(primary, entry);
+        }
+
+        return new Outcome(response, entry);
+    }
+
+    /**
+     * Builds the entry of a response, if it may be stored.
+     *
+     * @param primary the primary cache key
+     * @param request the HTTP request
+     * @param response the handler response
+     * @return the entry, or null if the response may not be
+     * stored.
+     */
+    private HttpCacheEntry makeEntry(String primary, HttpRequest request,
+                                     HttpResponse response)
+    {
+        if( response.isStreaming() )
+        {
+            return null;
+        }
+
+        int status_code = response.getHeader().getStatusLine().getStatusCode();
+        if(! CACHEABLE_STATUS.contains(status_code) )
+        {
+            return null;
+        }
+
+        Map<String, String> headers = response.getHeader().getHeaders();
+        HttpCacheControl control = HttpCacheControl.parse(
+                findField(headers, "cache-control"));
+        long lifetime = control.getFreshnessLifetime();
+        long revalidate = Math.max(control.getStaleWhileRevalidate(), 0L);
+        long on_error = (control.getStaleIfError() != HttpCacheControl.ABSENT) ?
+                control.getStaleIfError() : STALE_IF_ERROR_S;
+        if( control.isNoStore() || control.isNoCache() ||
+            control.isPrivate() || lifetime <= 0 )
+        {
+            return null;
+        }
+
+        // a shared cache must not reuse a response to an
+        // authenticated request unless told so
+        HttpRequestHeader request_header = request.getHeader();
+        if( request_header.getHeader("Authorization") != null &&
+            ! control.isPublic() &&
+            control.getSharedMaxAge() == HttpCacheControl.ABSENT )
+        {
+            return null;
+        }
+
+        if( findField(headers, "set-cookie") != null )
+        {
+            return null;
+        }
+
+        String vary [] = NO_VARY;
+        String vary_field = findField(headers, "vary");
+        if( vary_field != null )
+        {
+            List<String> names = new ArrayList<String>();
+            for(String token : vary_field.split(","))
+            {
+                String name = token.trim().toLowerCase(Locale.ROOT);
+                if( name.equals("*") )
+                {
+                    return null;
+                }
+
+                if( name.length() > 0 && ! names.contains(name) )
+                {
+                    names.add(name);
+                }
+            }
+
+            Collections.sort(names);
+            vary = names.toArray(new String[names.size()]);
+        }
+
+        HttpMessageBody message_body = response.getMessageBody();
+        byte body [] = (message_body == null) ?
+                new byte[0] : message_body.getBytes();
+        if( body.length > v_max_entry_size )
+        {
+            return null;
+        }
+
+        List<String> fields = new ArrayList<String>();
+        for(Map.Entry<String, String> field : headers.entrySet())
+        {
+            if(! UNSTORED_FIELDS.contains(
+                    field.getKey().toLowerCase(Locale.ROOT)) )
+            {
+                fields.add(field.getKey());
+                fields.add(field.getValue());
+            }
+        }
+
+        String vary_values [] = new String[vary.length];
+        for(int i = 0; i < vary.length; i++)
+        {
+            vary_values[i] = fieldValue(request_header, vary[i]);
+        }
+
+        return new HttpCacheEntry(fullKey(primary, vary, request_header),
+                status_code, fields.toArray(new String[fields.size()]),
+                body, vary, vary_values,
+                Math.min(lifetime, Integer.MAX_VALUE) * 1000000000L,
+                Math.min(revalidate, Integer.MAX_VALUE) * 1000000000L,
+                Math.min(on_error, Integer.MAX_VALUE) * 1000000000L);
+    }
+
+    /**
+     * @param headers the response header fields
+     * @param name the lower case field name
+     * @return the field value, or null if absent
+     */
+    private static String findField(Map<String, String> headers, String name)
+    {
+        for(Map.Entry<String, String> field : headers.entrySet())
+        {
+            if( field.getKey().equalsIgnoreCase(name) )
+            {
+                return field.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Stores an entry, evicting others if the cache is full.
+     *
+     * @param primary the primary cache key
+     * @param entry the entry
+     */
+    private void store(String primary, HttpCacheEntry entry)
+    {
+        Variants variants = v_variants.get(primary);
+        if( variants == null ||
+            ! Arrays.equals(variants.v_vary, entry.getVary()) )
+        {
+            Variants created = new Variants(entry.getVary());
+            if( variants == null )
+            {
+                Variants existing = v_variants.putIfAbsent(primary, created);
+                variants = (existing == null) ? created : existing;
+            }
+            else if( v_variants.replace(primary, variants, created) )
+            {
+                // the response now varies on other fields: the
+                // variants stored under the old ones are dropped
+                release(variants);
+                variants = created;
+            }
+            else
+            {
+                variants = v_variants.get(primary);
+            }
+
+            if( variants == null ||
+                ! Arrays.equals(variants.v_vary, entry.getVary()) )
+            {
+                // lost a race with another store
+                return;
+            }
+        }
+
+        HttpCacheEntry replaced = variants.v_entries.put(entry.getKey(), entry);
+        v_size.addAndGet(entry.getSize());
+        if( replaced != null )
+        {
+            v_size.addAndGet(-replaced.getSize());
+        }
+
+        if( v_variants.get(primary) != variants )
+        {
+            // the variants were evicted or replaced meanwhile
+            remove(variants, entry);
+            return;
+        }
+
+        if( v_size.get() > v_max_size )
+        {
+            evict();
+        }
+    }
+
+    /**
+     * Accounts for the removal of all the entries of a variants.
+     *
+     * @param variants the variants removed
+     */
+    private void release(Variants variants)
+    {
+        Iterator<HttpCacheEntry> it = variants.v_entries.values().iterator();
+        while( it.hasNext() )
+        {
+            HttpCacheEntry entry = it.next();
+            it.remove();
+            v_size.addAndGet(-entry.getSize());
+        }
+    }
+
+    /**
+     * Drops the expired entries, then the least recently used
+     * ones until the cache is below its low water mark.  Only
+     * one thread evicts at a time.
+     */
+    private void evict()
+    {
+        if(! v_evicting.compareAndSet(false, true) )
+        {
+            return;
+        }
+
+        try
+        {
+            long now = System.nanoTime();
+            long low_water = (long) (v_max_size * LOW_WATER);
+            int removed = 0;
+            List<HttpCacheEntry> live = new ArrayList<HttpCacheEntry>();
+
+            for(Map.Entry<String, Variants> item : v_variants.entrySet())
+            {
+                Variants variants = item.getValue();
+                for(HttpCacheEntry entry : variants.v_entries.values())
+                {
+                    if( entry.isExpired(now) )
+                    {
+                        removed += remove(variants, entry) ? 1 : 0;
+                    }
+                    else
+                    {
+                        live.add(entry);
+                    }
+                }
+
+                if( variants.v_entries.isEmpty() )
+                {
+                    v_variants.remove(item.getKey(), variants);
+                }
+            }
+
+            if( v_size.get() > low_water )
+            {
+                Collections.sort(live, new Comparator<HttpCacheEntry>()
+                {
+                    @Override
+                    public int compare(HttpCacheEntry e1, HttpCacheEntry e2)
+                    {
+                        return Long.compare(e1.getLastAccess(),
+                                            e2.getLastAccess());
+                    }
+                });
+
+                for(HttpCacheEntry entry : live)
+                {
+                    if( v_size.get() <= low_water )
+                    {
+                        break;
+                    }
+
+                    String primary = primaryOf(entry);
+                    Variants variants = v_variants.get(primary);
+                    if( variants != null && remove(variants, entry) )
+                    {
+                        removed++;
+                    }
+                }
+            }
+
+            HttpMetrics.instance().add(HttpMetricType.CACHE_EVICTIONS, removed);
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("evicted [" + removed + "] cache entries; [" +
+                             v_size.get() + "] octets cached");
+            }
+        }
+        finally
+        {
+            v_evicting.set(false);
+        }
+    }
+
+    /**
+     * @param entry a cache entry
+     * @return the primary key the entry is stored under
+     */
+    private static String primaryOf(HttpCacheEntry entry)
+    {
+        String key = entry.getKey();
+        int newline = key.indexOf('\n');
+        return (newline < 0) ? key : key.substring(0, newline);
+    }
+
+    /**
+     * Removes an entry, unless it was replaced meanwhile.
+     *
+     * @param variants the variants holding the entry
+     * @param entry the entry
+     * @return true, if the entry was removed.
+     */
+    private boolean remove(Variants variants, HttpCacheEntry entry)
+    {
+        if( variants.v_entries.remove(entry.getKey(), entry) )
+        {
+            v_size.addAndGet(-entry.getSize());
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Waits for the outcome of a handler run.
+     *
+     * @param task the handler run
+     * @return the outcome
+     * @throws HttpErrorException if the handler raised one, or if
+     * the wait is interrupted.
+     * @throws IOException if the handler raised one.
+     */
+    private static Outcome await(FutureTask<Outcome> task)
+        throws HttpErrorException, IOException
+    {
+        try
+        {
+            return task.get();
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new HttpServerErrorException(503,
+                    "interrupted waiting for a cached response");
+        }
+        catch(CancellationException ex)
+        {
+            throw new HttpServerErrorException(503,
+                    "cached response refresh was rejected");
+        }
+        catch(ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if( cause instanceof HttpErrorException )
+            {
+                throw (HttpErrorException) cause;
+            }
+
+            if( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+
+            if( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+
+            if( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /** The default stale-if-error window in seconds. */
+    private static final long STALE_IF_ERROR_S =
+            HttpProperties.getLong(HttpProperties.CACHE_STALE_IF_ERROR_S, 0L);
+
+    /** The share of the lifetime after which hot entries refresh. */
+    private static final int REFRESH_AHEAD_PERCENT =
+            HttpProperties.getInt(HttpProperties.CACHE_REFRESH_AHEAD_PERCENT,
+                                  0);
+
+    /** The number of refresh threads created. */
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /** The threads refreshing the entries in the background. */
+    private static final ThreadPoolExecutor REFRESH_EXECUTOR =
+            new ThreadPoolExecutor(
+                    HttpProperties.getInt(HttpProperties.CACHE_REFRESH_THREADS,
+                                          4),
+                    HttpProperties.getInt(HttpProperties.CACHE_REFRESH_THREADS,
+                                          4),
+                    60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(REFRESH_QUEUE_SIZE),
+                    new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable,
+                    "http-cache-refresh-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final HttpResponseCache INSTANCE =
+            HttpProperties.getBoolean(HttpProperties.CACHE_ENABLED, true) ?
+            new HttpResponseCache(
+                    HttpProperties.getLong(HttpProperties.CACHE_MAX_SIZE,
+                                           DEFAULT_MAX_SIZE),
+                    HttpProperties.getInt(HttpProperties.CACHE_MAX_ENTRY_SIZE,
+                                          DEFAULT_MAX_ENTRY_SIZE)) :
+            null;
+
+    private final long v_max_size;
+    private final int v_max_entry_size;
+    private final ConcurrentMap<String, Variants> v_variants;
+    private final ConcurrentMap<String, FutureTask<Outcome>> v_inflight;
+    private final AtomicLong v_size;
+    private final AtomicBoolean v_evicting;
+}
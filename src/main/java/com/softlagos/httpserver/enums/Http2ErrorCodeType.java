@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Http2ErrorCodeType.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.enums;
+
+/**
+ * The HTTP/2 error codes carried by RST_STREAM and GOAWAY
+ * frames.
+ *
+ * @author Rubens Gomes
+ * @see "Section 7 of RFC7540 - Hypertext Transfer Protocol
+ * Version 2 (HTTP/2)"
+ */
+public enum Http2ErrorCodeType
+{
+    NO_ERROR (0x0),
+    PROTOCOL_ERROR (0x1),
+    INTERNAL_ERROR (0x2),
+    FLOW_CONTROL_ERROR (0x3),
+    SETTINGS_TIMEOUT (0x4),
+    STREAM_CLOSED (0x5),
+    FRAME_SIZE_ERROR (0x6),
+    REFUSED_STREAM (0x7),
+    CANCEL (0x8),
+    COMPRESSION_ERROR (0x9),
+    CONNECT_ERROR (0xa),
+    ENHANCE_YOUR_CALM (0xb),
+    INADEQUATE_SECURITY (0xc),
+    HTTP_1_1_REQUIRED (0xd);
+
+    /**
+     * Compares the given error code with this enum constant
+     * variable instance code.
+     *
+     * @param code the error code
+     * @return true, if successful.
+     */
+    public boolean codeCompare(long code)
+    {
+        return v_code == code;
+    }
+
+    /**
+     * @return the error code sent on the wire.
+     */
+    public int getCode()
+    {
+        return v_code;
+    }
+
+    /**
+     * Gets the enum constant variable instance corresponding
+     * to the given error code.
+     *
+     * @param code the error code to compare
+     * @return the enum constant corresponding to the given code.
+     * Unknown error codes return null.
+     */
+    public static final Http2ErrorCodeType getEnum(long code)
+    {
+        if (null == TYPES)
+        {
+            TYPES = Http2ErrorCodeType.class.getEnumConstants();
+        }
+
+        for (Http2ErrorCodeType enum_type : TYPES)
+        {
+            if (enum_type.codeCompare(code))
+            {
+                return enum_type;
+            }
+        }
+
+        return null;
+    }
+
+    // ------ >>> Private <<< ------
+    private Http2ErrorCodeType(int code)
+    {
+        v_code = code;
+    }
+
+    private final int v_code;
+    private static Http2ErrorCodeType TYPES [] = null;
+}
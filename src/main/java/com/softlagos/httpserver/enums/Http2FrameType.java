@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Http2FrameType.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.enums;
+
+/**
+ * The HTTP/2 frame types.
+ *
+ * @author Rubens Gomes
+ * @see "Section 6 of RFC7540 - Hypertext Transfer Protocol
+ * Version 2 (HTTP/2)"
+ */
+public enum Http2FrameType
+{
+    DATA (0x0),
+    HEADERS (0x1),
+    PRIORITY (0x2),
+    RST_STREAM (0x3),
+    SETTINGS (0x4),
+    PUSH_PROMISE (0x5),
+    PING (0x6),
+    GOAWAY (0x7),
+    WINDOW_UPDATE (0x8),
+    CONTINUATION (0x9);
+
+    /**
+     * Compares the given frame type code with this enum constant
+     * variable instance code.
+     *
+     * @param code the frame type code
+     * @return true, if successful.
+     */
+    public boolean codeCompare(int code)
+    {
+        return v_code == code;
+    }
+
+    /**
+     * @return the frame type code sent on the wire.
+     */
+    public int getCode()
+    {
+        return v_code;
+    }
+
+    /**
+     * Gets the enum constant variable instance corresponding
+     * to the given frame type code.
+     *
+     * @param code the frame type code to compare
+     * @return the enum constant corresponding to the given code.
+     * Frame types that are not defined, which must be ignored,
+     * return null.
+     */
+    public static final Http2FrameType getEnum(int code)
+    {
+        if (null == TYPES)
+        {
+            TYPES = Http2FrameType.class.getEnumConstants();
+        }
+
+        // the codes are the ordinals
+        if( code >= 0 && code < TYPES.length )
+        {
+            return TYPES[code];
+        }
+
+        return null;
+    }
+
+    // ------ >>> Private <<< ------
+    private Http2FrameType(int code)
+    {
+        v_code = code;
+    }
+
+    private final int v_code;
+    private static Http2FrameType TYPES [] = null;
+}
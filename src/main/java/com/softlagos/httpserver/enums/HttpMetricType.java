@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpMetricType.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.enums;
+
+/**
+ * The different counters kept by the HTTP server.
+ *
+ * @author Rubens Gomes
+ */
+public enum HttpMetricType
+{
+    /** Requests read from a client connection. */
+    REQUESTS ("requests"),
+
+    /** HIGH priority requests shed by the request queue. */
+    SHED_HIGH ("shed.high"),
+
+    /** NORMAL priority requests shed by the request queue. */
+    SHED_NORMAL ("shed.normal"),
+
+    /** LOW priority requests shed by the request queue. */
+    SHED_LOW ("shed.low"),
+
+    /** Connections refused by the per client rate limiter. */
+    RATE_LIMITED ("rate.limited"),
+
+    /** Connections refused by the per client connection cap. */
+    CONNECTION_LIMITED ("connection.limited"),
+
+    /** Clients counted in the overflow bucket, all clients being tracked. */
+    RATE_LIMIT_OVERFLOW ("rate.limit.overflow"),
+
+    /** Connections closed for not sending the request head in time. */
+    TIMEOUT_HEADERS ("timeout.headers"),
+
+    /** Requests refused for uploading the message body too slowly. */
+    TIMEOUT_BODY ("timeout.body"),
+
+    /** Connections closed for not reading the response in time. */
+    TIMEOUT_WRITE ("timeout.write"),
+
+    /** Connections switched to HTTP/2. */
+    HTTP2_CONNECTIONS ("http2.connections"),
+
+    /** HTTP/2 streams refused or reset by the server. */
+    HTTP2_STREAMS_RESET ("http2.streams.reset"),
+
+    /** TLS handshakes completed. */
+    TLS_HANDSHAKES ("tls.handshakes"),
+
+    /** TLS handshakes that resumed a previous session. */
+    TLS_RESUMED ("tls.resumed"),
+
+    /** TLS handshakes failed. */
+    TLS_HANDSHAKE_FAILURES ("tls.handshake.failures"),
+
+    /** Connections opened to the proxy upstreams. */
+    PROXY_CONNECTIONS_OPENED ("proxy.connections.opened"),
+
+    /** Proxied requests sent over a pooled upstream connection. */
+    PROXY_CONNECTIONS_REUSED ("proxy.connections.reused"),
+
+    /** Proxied requests answered with 502 or 504. */
+    PROXY_ERRORS ("proxy.errors"),
+
+    /** Requests answered from the response cache. */
+    CACHE_HITS ("cache.hits"),
+
+    /** Cacheable requests not found fresh in the response cache. */
+    CACHE_MISSES ("cache.misses"),
+
+    /** Cache misses answered by the handler run of another request. */
+    CACHE_COLLAPSED ("cache.collapsed"),
+
+    /** Responses evicted from the response cache. */
+    CACHE_EVICTIONS ("cache.evictions"),
+
+    /** Stale cached responses served while being revalidated. */
+    CACHE_STALE ("cache.stale"),
+
+    /** Stale cached responses served in place of an error. */
+    CACHE_STALE_IF_ERROR ("cache.stale.if.error"),
+
+    /** Cached responses refreshed in the background. */
+    CACHE_REFRESHES ("cache.refreshes"),
+
+    /** Connections served with the pooled buffers of a closed one. */
+    CONTEXTS_REUSED ("contexts.reused"),
+
+    /** Requests sampled and traced. */
+    TRACES_SAMPLED ("traces.sampled"),
+
+    /** Requests handed over to the CPU tier. */
+    CPU_TASKS ("cpu.tasks"),
+
+    /** Request targets found in the target cache. */
+    TARGETS_CACHED ("targets.cached"),
+
+    /** Multipart parts spooled to a file. */
+    PARTS_SPOOLED ("parts.spooled"),
+
+    /** Connections upgraded to WebSocket. */
+    WEBSOCKET_CONNECTIONS ("websocket.connections"),
+
+    /** WebSocket messages refused above the high-water mark. */
+    WEBSOCKET_REFUSED ("websocket.refused"),
+
+    /** Server-Sent Events streams opened. */
+    SSE_STREAMS ("sse.streams"),
+
+    /** Server-Sent Events subscribers dropped for being slow. */
+    SSE_DROPPED ("sse.dropped"),
+
+    /** Server-Sent Events backlogs coalesced for being slow. */
+    SSE_COALESCED ("sse.coalesced"),
+
+    /** Server-Sent Events subscribers refused with 503 over the cap. */
+    SSE_REFUSED ("sse.refused");
+
+    /**
+     * Gets the corresponding name for this enum constant
+     * variable instance.
+     *
+     * @return the metric name
+     */
+    public String getName()
+    {
+        return v_name;
+    }
+
+    /**
+     * Gets the enum constant variable instance corresponding
+     * to the given metric name.
+     *
+     * @param name the metric name to compare
+     * @return the enum constant corresponding to the given
+     * name.  If an enum constant is not found for the given
+     * name, null is returned.
+     */
+    public static final HttpMetricType getEnum(String name)
+    {
+        if( name == null || name.trim().length() == 0 )
+        {
+            return null;
+        }
+
+        if (null == TYPES)
+        {
+            TYPES = HttpMetricType.class.getEnumConstants();
+        }
+
+        for (HttpMetricType enum_type : TYPES)
+        {
+            if (enum_type.v_name.equalsIgnoreCase(name.trim()))
+            {
+                return enum_type;
+            }
+        }
+
+        return null;
+    }
+
+    // ------ >>> Private <<< ------
+    private HttpMetricType(String name)
+    {
+        v_name = name;
+    }
+
+    private final String v_name;
+    private static HttpMetricType TYPES [] = null;
+}
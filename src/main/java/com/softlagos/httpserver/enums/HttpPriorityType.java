@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpPriorityType.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.enums;
+
+/**
+ * The priority classes used by the request queue to decide
+ * which requests are shed first when the server is overloaded.
+ * The lower the priority, the sooner its requests are shed.
+ *
+ * @author Rubens Gomes
+ */
+public enum HttpPriorityType
+{
+    /*
+     * Health checks and other routes that must keep
+     * answering while the server is overloaded.
+     */
+    HIGH ("HIGH", HttpMetricType.SHED_HIGH),
+    /*
+     * Regular requests such as small GETs.
+     */
+    NORMAL ("NORMAL", HttpMetricType.SHED_NORMAL),
+    /*
+     * Bulk requests such as large uploads.
+     */
+    LOW ("LOW", HttpMetricType.SHED_LOW);
+
+    /**
+     * Compares the given priority with this enum constant
+     * variable instance.
+     *
+     * @param priority the priority name to compare
+     * @return true, if successful.
+     */
+    public boolean priorityCompare(String priority)
+    {
+        if( priority == null || priority.trim().length() == 0 )
+        {
+            return false;
+        }
+
+        return v_priority.equalsIgnoreCase(priority.trim());
+    }
+
+    /**
+     * @return the priority name
+     */
+    public String getPriority()
+    {
+        return v_priority;
+    }
+
+    /**
+     * @return the counter incremented when a request of this
+     * priority is shed.
+     */
+    public HttpMetricType getShedMetric()
+    {
+        return v_shed_metric;
+    }
+
+    /**
+     * Gets the enum constant variable instance corresponding
+     * to the given priority name.
+     *
+     * @param priority the priority name to compare
+     * @return the enum constant corresponding to the given
+     * name.  If an enum constant is not found for the given
+     * name, null is returned.
+     */
+    public static final HttpPriorityType getEnum(String priority)
+    {
+        if( priority == null || priority.trim().length() == 0 )
+        {
+            return null;
+        }
+
+        if (null == TYPES)
+        {
+            TYPES = HttpPriorityType.class.getEnumConstants();
+        }
+
+        for (HttpPriorityType enum_type : TYPES)
+        {
+            if (enum_type.priorityCompare(priority))
+            {
+                return enum_type;
+            }
+        }
+
+        return null;
+    }
+
+    // ------ >>> Private <<< ------
+    private HttpPriorityType(String priority, HttpMetricType shed_metric)
+    {
+        v_priority = priority;
+        v_shed_metric = shed_metric;
+    }
+
+    private final String v_priority;
+    private final HttpMetricType v_shed_metric;
+    private static HttpPriorityType TYPES [] = null;
+}
@@ -110,6 +110,13 @@ public enum HttpStatusCodeType
     /** The STATU s_426. */
     STATUS_426 (426, "Upgrade Required", Constants.HTTP_CLIENT_ERROR),
 
+    /** The STATU s_429. */
+    STATUS_429 (429, "Too Many Requests", Constants.HTTP_CLIENT_ERROR),
+
+    /** The STATU s_431. */
+    STATUS_431 (431, "Request Header Fields Too Large",
+                Constants.HTTP_CLIENT_ERROR),
+
     /** The STATU s_500. */
     STATUS_500 (500, "Internal Server Error", Constants.HTTP_SERVER_ERROR),
 
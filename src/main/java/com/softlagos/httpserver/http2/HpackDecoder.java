@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HpackDecoder.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.softlagos.httpserver.enums.Http2ErrorCodeType;
+
+/**
+ * Decodes the header blocks sent by the client.  There is one
+ * decoder per connection, and the header blocks must be decoded
+ * in the order they were received since each one may update
+ * the dynamic table used by the next.
+ *
+ * @author Rubens Gomes
+ * @see "Section 3 and 6 of RFC7541 - HPACK: Header Compression
+ * for HTTP/2"
+ */
+public final class HpackDecoder
+{
+    /**
+     * Instantiates a new decoder.
+     *
+     * @param max_table_size the SETTINGS_HEADER_TABLE_SIZE
+     * announced to the client.
+     */
+    public HpackDecoder(int max_table_size)
+    {
+        v_max_table_size = max_table_size;
+        v_table = new HpackTable(max_table_size);
+    }
+
+    /**
+     * Decodes a whole header block.
+     *
+     * @param block the header block octets
+     * @param off the offset of the first octet
+     * @param len the header block length
+     * @return the header fields in the order they were sent
+     * @throws Http2Exception if the header block is not valid,
+     * which is a connection error.
+     */
+    public List<HpackHeaderField> decode(byte block [], int off, int len)
+        throws Http2Exception
+    {
+        List<HpackHeaderField> fields = new ArrayList<HpackHeaderField>();
+        v_block = block;
+        v_pos = off;
+        v_limit = off + len;
+        boolean first = true;
+
+        try
+        {
+            while( v_pos < v_limit )
+            {
+                int octet = v_block[v_pos] & 0xff;
+
+                if( (octet & 0x80) != 0 )
+                {
+                    // indexed header field
+                    int index = readInt(7);
+                    if( index == 0 )
+                    {
+                        throw error("header table index 0");
+                    }
+
+                    fields.add(v_table.get(index));
+                }
+                else if( (octet & 0x40) != 0 )
+                {
+                    // literal with incremental indexing
+                    HpackHeaderField field = readLiteral(6);
+                    v_table.add(field);
+                    fields.add(field);
+                }
+                else if( (octet & 0x20) != 0 )
+                {
+                    // dynamic table size update
+                    if(! first )
+                    {
+                        throw error("table size update after a header field");
+                    }
+
+                    int size = readInt(5);
+                    if( size > v_max_table_size )
+                    {
+                        throw error("table size update [" + size +
+                                "] exceeds the maximum of [" +
+                                v_max_table_size + "]");
+                    }
+
+                    v_table.setMaxSize(size);
+                    continue;
+                }
+                else
+                {
+                    // literal without indexing, or never indexed
+                    fields.add(readLiteral(4));
+                }
+
+                first = false;
+            }
+        }
+        finally
+        {
+            v_block = null;
+        }
+
+        return fields;
+    }
+
+    // ------ >>> Private <<< ------
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * Reads a literal header field whose name index has the
+     * given prefix length.
+     */
+    private HpackHeaderField readLiteral(int prefix)
+        throws Http2Exception
+    {
+        int index = readInt(prefix);
+        String name = (index == 0) ? readString() : v_table.get(index).getName();
+        String value = readString();
+        return new HpackHeaderField(name, value);
+    }
+
+    /**
+     * Reads an integer with an N-bit prefix.
+     *
+     * @see "Section 5.1 of RFC7541"
+     */
+    private int readInt(int prefix)
+        throws Http2Exception
+    {
+        int mask = (1 << prefix) - 1;
+        int value = v_block[v_pos++] & mask;
+        if( value < mask )
+        {
+            return value;
+        }
+
+        int shift = 0;
+        while( true )
+        {
+            if( v_pos >= v_limit )
+            {
+                throw error("truncated integer");
+            }
+
+            int octet = v_block[v_pos++] & 0xff;
+            if( shift > 21 )
+            {
+                throw error("integer overflow");
+            }
+
+            value += (octet & 0x7f) << shift;
+            shift += 7;
+
+            if( (octet & 0x80) == 0 )
+            {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Reads a string literal, Huffman encoded or not.
+     *
+     * @see "Section 5.2 of RFC7541"
+     */
+    private String readString()
+        throws Http2Exception
+    {
+        if( v_pos >= v_limit )
+        {
+            throw error("truncated string literal");
+        }
+
+        boolean huffman = (v_block[v_pos] & 0x80) != 0;
+        int length = readInt(7);
+        if( length > v_limit - v_pos )
+        {
+            throw error("string literal length [" + length +
+                        "] exceeds the header block");
+        }
+
+        String value = null;
+        if( huffman )
+        {
+            byte octets [] = HpackHuffman.decode(v_block, v_pos, length);
+            value = new String(octets, ISO_8859_1);
+        }
+        else
+        {
+            value = new String(v_block, v_pos, length, ISO_8859_1);
+        }
+
+        v_pos += length;
+        return value;
+    }
+
+    private static Http2Exception error(String message)
+    {
+        return new Http2Exception(Http2ErrorCodeType.COMPRESSION_ERROR,
+                                  message);
+    }
+
+    private final int v_max_table_size;
+    private final HpackTable v_table;
+    private byte v_block [];
+    private int v_pos;
+    private int v_limit;
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HpackEncoder.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encodes the header blocks sent to the client.  There is one
+ * encoder per connection, and the header blocks must be sent
+ * in the order they were encoded since each one may update the
+ * dynamic table used by the next.
+ * <p>
+ * Fields found in the tables are sent as an index.  Other
+ * fields are added to the dynamic table, except the ones whose
+ * value changes with every response, which would only churn the
+ * table, and the sensitive ones, which are never indexed.
+ * Strings are Huffman encoded when that makes them shorter.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "Section 6 and 7 of RFC7541 - HPACK: Header Compression
+ * for HTTP/2"
+ */
+public final class HpackEncoder
+{
+    /** The default maximum size of the dynamic table. */
+    public static final int DEFAULT_TABLE_SIZE = 4096;
+
+    /**
+     * Instantiates a new encoder.
+     */
+    public HpackEncoder()
+    {
+        v_table = new HpackTable(DEFAULT_TABLE_SIZE);
+        v_pending_size = -1;
+        v_pending_min = -1;
+    }
+
+    /**
+     * Applies the SETTINGS_HEADER_TABLE_SIZE of the client.  The
+     * table never grows past its default size; a smaller size is
+     * signaled at the start of the next header block, along with
+     * the smallest size used in between.
+     *
+     * @param max_size the maximum size allowed by the client
+     */
+    public void setMaxTableSize(int max_size)
+    {
+        int size = Math.min(max_size, DEFAULT_TABLE_SIZE);
+        if( size != v_table.getMaxSize() )
+        {
+            v_table.setMaxSize(size);
+            v_pending_size = size;
+            if( v_pending_min < 0 || size < v_pending_min )
+            {
+                v_pending_min = size;
+            }
+        }
+    }
+
+    /**
+     * Encodes a header block.
+     *
+     * @param fields the header fields, pseudo-header fields first
+     * @return the header block octets
+     */
+    public byte [] encode(List<HpackHeaderField> fields)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+        if( v_pending_size >= 0 )
+        {
+            if( v_pending_min < v_pending_size )
+            {
+                writeInt(out, 0x20, 5, v_pending_min);
+            }
+
+            writeInt(out, 0x20, 5, v_pending_size);
+            v_pending_size = -1;
+            v_pending_min = -1;
+        }
+
+        for(HpackHeaderField field : fields)
+        {
+            String name = field.getName();
+            String value = field.getValue();
+            int index = v_table.find(name, value);
+
+            if( index > 0 )
+            {
+                writeInt(out, 0x80, 7, index);
+                continue;
+            }
+
+            int name_index = -index;
+            if( NEVER_INDEXED.contains(name) )
+            {
+                writeInt(out, 0x10, 4, name_index);
+            }
+            else if( NOT_INDEXED.contains(name) )
+            {
+                writeInt(out, 0x00, 4, name_index);
+            }
+            else
+            {
+                writeInt(out, 0x40, 6, name_index);
+                v_table.add(field);
+            }
+
+            if( name_index == 0 )
+            {
+                writeString(out, name);
+            }
+
+            writeString(out, value);
+        }
+
+        return out.toByteArray();
+    }
+
+    // ------ >>> Private <<< ------
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /** Fields whose value changes too often to be worth indexing. */
+    private static final Set<String> NOT_INDEXED = new HashSet<String>(
+            Arrays.asList(":path", "content-length", "date", "etag",
+                          "last-modified", "expires", "age", "location",
+                          "content-range"));
+
+    /** Sensitive fields that intermediaries must not index either. */
+    private static final Set<String> NEVER_INDEXED = new HashSet<String>(
+            Arrays.asList("authorization", "proxy-authorization",
+                          "cookie", "set-cookie"));
+
+    /**
+     * Writes an integer with an N-bit prefix.
+     *
+     * @see "Section 5.1 of RFC7541"
+     */
+    private static void writeInt(ByteArrayOutputStream out, int pattern,
+                                 int prefix, int value)
+    {
+        int mask = (1 << prefix) - 1;
+        if( value < mask )
+        {
+            out.write(pattern | value);
+            return;
+        }
+
+        out.write(pattern | mask);
+        value -= mask;
+        while( value >= 0x80 )
+        {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        out.write(value);
+    }
+
+    /**
+     * Writes a string literal, Huffman encoded if shorter.
+     *
+     * @see "Section 5.2 of RFC7541"
+     */
+    private static void writeString(ByteArrayOutputStream out, String value)
+    {
+        byte octets [] = value.getBytes(ISO_8859_1);
+        int huffman_length = HpackHuffman.encodedLength(octets);
+
+        if( huffman_length < octets.length )
+        {
+            writeInt(out, 0x80, 7, huffman_length);
+            HpackHuffman.encode(octets, out);
+        }
+        else
+        {
+            writeInt(out, 0x00, 7, octets.length);
+            out.write(octets, 0, octets.length);
+        }
+    }
+
+    private final HpackTable v_table;
+    private int v_pending_size;
+    private int v_pending_min;
+}
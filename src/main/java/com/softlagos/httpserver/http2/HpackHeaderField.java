@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HpackHeaderField.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+/**
+ * A header field name-value pair of an HTTP/2 header block.
+ *
+ * @author Rubens Gomes
+ * @see "Section 1.3 of RFC7541 - HPACK: Header Compression
+ * for HTTP/2"
+ */
+public final class HpackHeaderField
+{
+    /** The overhead added to the size of each table entry. */
+    public static final int ENTRY_OVERHEAD = 32;
+
+    /**
+     * Instantiates a new header field.
+     *
+     * @param name the header field name
+     * @param value the header field value
+     */
+    public HpackHeaderField(String name, String value)
+    {
+        if( name == null )
+        {
+            throw new IllegalArgumentException("name cannot be null.");
+        }
+
+        if( value == null )
+        {
+            throw new IllegalArgumentException("value cannot be null.");
+        }
+
+        v_name = name;
+        v_value = value;
+    }
+
+    /**
+     * @return the header field name
+     */
+    public String getName()
+    {
+        return v_name;
+    }
+
+    /**
+     * @return the header field value
+     */
+    public String getValue()
+    {
+        return v_value;
+    }
+
+    /**
+     * @return the size of this field in a header table: the
+     * length of its name and value plus 32.
+     */
+    public int size()
+    {
+        return v_name.length() + v_value.length() + ENTRY_OVERHEAD;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return v_name + ": " + v_value;
+    }
+
+    // ------ >>> Private <<< ------
+    private final String v_name;
+    private final String v_value;
+}
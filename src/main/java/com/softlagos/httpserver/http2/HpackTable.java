@@ -0,0 +1,283 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HpackTable.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import com.softlagos.httpserver.enums.Http2ErrorCodeType;
+
+/**
+ * The HPACK index address space: the static table followed by
+ * the dynamic table.  The dynamic table is a ring of entries,
+ * the newest having the lowest index, evicted oldest first to
+ * keep the table within its maximum size.
+ *
+ * @author Rubens Gomes
+ * @see "Section 2.3 and 4 of RFC7541 - HPACK: Header Compression
+ * for HTTP/2"
+ */
+public final class HpackTable
+{
+    /** The number of entries of the static table. */
+    public static final int STATIC_LENGTH = 61;
+
+    /**
+     * Instantiates a new table.
+     *
+     * @param max_size the maximum size of the dynamic table
+     */
+    public HpackTable(int max_size)
+    {
+        v_max_size = max_size;
+        v_entries = new HpackHeaderField[16];
+    }
+
+    /**
+     * @return the number of entries of the dynamic table.
+     */
+    public int length()
+    {
+        return v_count;
+    }
+
+    /**
+     * @return the current size of the dynamic table.
+     */
+    public int size()
+    {
+        return v_size;
+    }
+
+    /**
+     * @return the maximum size of the dynamic table.
+     */
+    public int getMaxSize()
+    {
+        return v_max_size;
+    }
+
+    /**
+     * Gets the entry at the given index of the whole address
+     * space.
+     *
+     * @param index the index, starting at 1
+     * @return the entry at the given index
+     * @throws Http2Exception if the index is not valid.
+     */
+    public HpackHeaderField get(int index)
+        throws Http2Exception
+    {
+        if( index >= 1 && index <= STATIC_LENGTH )
+        {
+            return STATIC[index - 1];
+        }
+
+        int dynamic = index - STATIC_LENGTH - 1;
+        if( dynamic < 0 || dynamic >= v_count )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.COMPRESSION_ERROR,
+                    "header table index [" + index + "] is not valid");
+        }
+
+        return v_entries[(v_head - 1 - dynamic + v_entries.length * 2) %
+                         v_entries.length];
+    }
+
+    /**
+     * Finds the given header field.
+     *
+     * @param name the header field name
+     * @param value the header field value
+     * @return the index of an entry with the same name and value;
+     * otherwise the negated index of an entry with the same name;
+     * otherwise 0.
+     */
+    public int find(String name, String value)
+    {
+        int name_index = 0;
+
+        for(int idx = 0; idx < STATIC_LENGTH; idx++)
+        {
+            HpackHeaderField entry = STATIC[idx];
+            if( entry.getName().equals(name) )
+            {
+                if( entry.getValue().equals(value) )
+                {
+                    return idx + 1;
+                }
+
+                if( name_index == 0 )
+                {
+                    name_index = -(idx + 1);
+                }
+            }
+        }
+
+        for(int idx = 0; idx < v_count; idx++)
+        {
+            HpackHeaderField entry = v_entries[(v_head - 1 - idx +
+                    v_entries.length) % v_entries.length];
+            if( entry.getName().equals(name) )
+            {
+                if( entry.getValue().equals(value) )
+                {
+                    return STATIC_LENGTH + idx + 1;
+                }
+
+                if( name_index == 0 )
+                {
+                    name_index = -(STATIC_LENGTH + idx + 1);
+                }
+            }
+        }
+
+        return name_index;
+    }
+
+    /**
+     * Adds an entry to the dynamic table, evicting the oldest
+     * entries as needed.  An entry larger than the maximum size
+     * empties the table and is not added.
+     *
+     * @param field the header field to add
+     */
+    public void add(HpackHeaderField field)
+    {
+        int field_size = field.size();
+        evict(v_max_size - field_size);
+
+        if( field_size > v_max_size )
+        {
+            return;
+        }
+
+        if( v_count == v_entries.length )
+        {
+            HpackHeaderField entries [] =
+                    new HpackHeaderField[v_entries.length * 2];
+            for(int idx = 0; idx < v_count; idx++)
+            {
+                entries[idx] = v_entries[(v_head - v_count + idx +
+                        v_entries.length) % v_entries.length];
+            }
+
+            v_entries = entries;
+            v_head = v_count;
+        }
+
+        v_entries[v_head] = field;
+        v_head = (v_head + 1) % v_entries.length;
+        v_count++;
+        v_size += field_size;
+    }
+
+    /**
+     * Changes the maximum size of the dynamic table, evicting
+     * entries as needed.
+     *
+     * @param max_size the new maximum size
+     */
+    public void setMaxSize(int max_size)
+    {
+        v_max_size = max_size;
+        evict(max_size);
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * Evicts the oldest entries until the table size is at most
+     * the given size.
+     */
+    private void evict(int target)
+    {
+        while( v_count > 0 && v_size > target )
+        {
+            int tail = (v_head - v_count + v_entries.length) % v_entries.length;
+            v_size -= v_entries[tail].size();
+            v_entries[tail] = null;
+            v_count--;
+        }
+    }
+
+    private static HpackHeaderField field(String name, String value)
+    {
+        return new HpackHeaderField(name, value);
+    }
+
+    /** The static table. */
+    private static final HpackHeaderField STATIC [] =
+        {
+            field(":authority", ""),
+            field(":method", "GET"),
+            field(":method", "POST"),
+            field(":path", "/"),
+            field(":path", "/index.html"),
+            field(":scheme", "http"),
+            field(":scheme", "https"),
+            field(":status", "200"),
+            field(":status", "204"),
+            field(":status", "206"),
+            field(":status", "304"),
+            field(":status", "400"),
+            field(":status", "404"),
+            field(":status", "500"),
+            field("accept-charset", ""),
+            field("accept-encoding", "gzip, deflate"),
+            field("accept-language", ""),
+            field("accept-ranges", ""),
+            field("accept", ""),
+            field("access-control-allow-origin", ""),
+            field("age", ""),
+            field("allow", ""),
+            field("authorization", ""),
+            field("cache-control", ""),
+            field("content-disposition", ""),
+            field("content-encoding", ""),
+            field("content-language", ""),
+            field("content-length", ""),
+            field("content-location", ""),
+            field("content-range", ""),
+            field("content-type", ""),
+            field("cookie", ""),
+            field("date", ""),
+            field("etag", ""),
+            field("expect", ""),
+            field("expires", ""),
+            field("from", ""),
+            field("host", ""),
+            field("if-match", ""),
+            field("if-modified-since", ""),
+            field("if-none-match", ""),
+            field("if-range", ""),
+            field("if-unmodified-since", ""),
+            field("last-modified", ""),
+            field("link", ""),
+            field("location", ""),
+            field("max-forwards", ""),
+            field("proxy-authenticate", ""),
+            field("proxy-authorization", ""),
+            field("range", ""),
+            field("referer", ""),
+            field("refresh", ""),
+            field("retry-after", ""),
+            field("server", ""),
+            field("set-cookie", ""),
+            field("strict-transport-security", ""),
+            field("transfer-encoding", ""),
+            field("user-agent", ""),
+            field("vary", ""),
+            field("via", ""),
+            field("www-authenticate", "")
+        };
+
+    private HpackHeaderField v_entries [];
+    private int v_head;
+    private int v_count;
+    private int v_size;
+    private int v_max_size;
+}
@@ -0,0 +1,318 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Http2BodyInputStream.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+
+import com.softlagos.httpserver.HttpMetrics;
+import com.softlagos.httpserver.enums.HttpMetricType;
+
+/**
+ * <p>
+ * An input stream over the message body of an HTTP/2 request.
+ * The connection thread queues the payload of the DATA frames
+ * of the stream, and the thread handling the request reads it.
+ * </p>
+ * <p>
+ * The octets are only credited back to the client's stream flow
+ * control window as they are read, and the connection fails a
+ * stream whose client sends past that window, so the queue holds
+ * at most one window of octets, and a handler that falls behind
+ * stops the client from sending on this stream without stalling
+ * the other streams of the connection.
+ * </p>
+ * <p>
+ * As for an HTTP/1.x body, each read waits at most the grace
+ * period, and once the reads have waited longer than the grace
+ * period in all, the client must keep up the minimum upload rate
+ * over that waiting time.  A client falling short has its stream
+ * reset, and the read raises a SocketTimeoutException, so a
+ * stalled upload does not hold a stream worker thread.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "Section 5.2 of RFC7540 - Hypertext Transfer Protocol
+ * Version 2 (HTTP/2)"
+ */
+public final class Http2BodyInputStream extends InputStream
+{
+    /**
+     * Instantiates a new body stream.
+     *
+     * @param stream the HTTP/2 stream carrying the message body
+     * @param min_rate the minimum upload rate in bytes per second
+     * @param grace_ms the time in milliseconds before the minimum
+     * rate is enforced, also the longest wait for a single read.
+     */
+    public Http2BodyInputStream(Http2Stream stream, long min_rate,
+                                int grace_ms)
+    {
+        if( stream == null )
+        {
+            throw new IllegalArgumentException("stream cannot be null.");
+        }
+
+        if( grace_ms <= 0 )
+        {
+            throw new IllegalArgumentException("grace_ms must be greater than 0");
+        }
+
+        v_stream = stream;
+        v_chunks = new ArrayDeque<byte []>();
+        v_min_rate = min_rate;
+        v_grace_ms = grace_ms;
+    }
+
+    /**
+     * Queues the payload of a DATA frame.
+     *
+     * @param data the message body octets
+     * @return false, if the octets were dropped because the stream
+     * failed.
+     */
+    public synchronized boolean receive(byte data [])
+    {
+        if( v_error != null )
+        {
+            return false;
+        }
+
+        if( data.length > 0 )
+        {
+            v_chunks.addLast(data);
+            notifyAll();
+        }
+
+        return true;
+    }
+
+    /**
+     * Signals the end of the message body.
+     */
+    public synchronized void finish()
+    {
+        v_finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Fails the pending and next reads, when the stream is reset
+     * or the connection is lost.
+     *
+     * @param error the error raised to the reader
+     * @return the number of queued octets dropped
+     */
+    public synchronized int fail(IOException error)
+    {
+        int dropped = 0;
+        if(! v_finished )
+        {
+            v_error = error;
+            dropped = clear();
+        }
+
+        notifyAll();
+        return dropped;
+    }
+
+    /**
+     * Drops the queued octets nobody reads any longer, once the
+     * response is sent, and fails the next reads.
+     *
+     * @return the number of queued octets dropped
+     */
+    public synchronized int discard()
+    {
+        if( v_error == null )
+        {
+            v_error = new IOException("message body discarded");
+        }
+
+        notifyAll();
+        return clear();
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read()
+        throws IOException
+    {
+        byte one [] = new byte[1];
+        int count = read(one, 0, 1);
+        return (count < 0) ? -1 : (one[0] & 0xff);
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte buff [], int off, int len)
+        throws IOException
+    {
+        if( buff == null )
+        {
+            throw new IllegalArgumentException("buff cannot be null.");
+        }
+
+        if( len == 0 )
+        {
+            return 0;
+        }
+
+        int count = 0;
+        String stalled = null;
+        synchronized(this)
+        {
+            long waited = 0;
+            while( v_chunks.isEmpty() )
+            {
+                if( v_error != null )
+                {
+                    throw v_error;
+                }
+
+                if( v_finished )
+                {
+                    return -1;
+                }
+
+                if( waited >= v_grace_ms * 1000000L )
+                {
+                    stalled = "no message body octet received in [" +
+                            v_grace_ms + "] ms";
+                    break;
+                }
+
+                long begin = System.nanoTime();
+                try
+                {
+                    wait(Math.max(1L, v_grace_ms - waited / 1000000L));
+                }
+                catch(InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted reading " +
+                                                     "the message body");
+                }
+                finally
+                {
+                    long elapsed = System.nanoTime() - begin;
+                    waited += elapsed;
+                    v_blocked += elapsed;
+                }
+            }
+
+            if( stalled == null )
+            {
+                count = take(buff, off, len);
+                stalled = checkRate();
+            }
+        }
+
+        if( stalled != null )
+        {
+            // outside the lock: it writes a RST_STREAM frame
+            HttpMetrics.instance().increment(HttpMetricType.TIMEOUT_BODY);
+            v_stream.stalled(stalled);
+            throw new SocketTimeoutException(stalled);
+        }
+
+        // outside the lock: it may write a WINDOW_UPDATE frame
+        v_stream.consumed(count);
+        return count;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public synchronized int available()
+    {
+        byte chunk [] = v_chunks.peekFirst();
+        return (chunk == null) ? 0 : chunk.length - v_offset;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * Drops the queued octets.  Called holding the lock.
+     *
+     * @return the number of octets dropped
+     */
+    private int clear()
+    {
+        int dropped = -v_offset;
+        for(byte chunk [] : v_chunks)
+        {
+            dropped += chunk.length;
+        }
+
+        v_chunks.clear();
+        v_offset = 0;
+        return dropped;
+    }
+
+    /**
+     * Takes queued octets.  Called holding the lock, with at least
+     * one chunk queued.
+     *
+     * @return the number of octets taken
+     */
+    private int take(byte buff [], int off, int len)
+    {
+        byte chunk [] = v_chunks.peekFirst();
+        int count = Math.min(len, chunk.length - v_offset);
+        System.arraycopy(chunk, v_offset, buff, off, count);
+        v_offset += count;
+        v_received += count;
+
+        if( v_offset == chunk.length )
+        {
+            v_chunks.removeFirst();
+            v_offset = 0;
+        }
+
+        return count;
+    }
+
+    /**
+     * Checks the minimum upload rate over the time the reads
+     * waited, once it is longer than the grace period.
+     *
+     * @return the reason the client is too slow, or null.
+     */
+    private String checkRate()
+    {
+        long elapsed_ms = v_blocked / 1000000L;
+        if( elapsed_ms > v_grace_ms &&
+            v_received * 1000L / elapsed_ms < v_min_rate )
+        {
+            return "upload rate [" + (v_received * 1000L / elapsed_ms) +
+                    "] bytes/s below minimum [" + v_min_rate + "]";
+        }
+
+        return null;
+    }
+
+    private final Http2Stream v_stream;
+    private final ArrayDeque<byte []> v_chunks;
+    private final long v_min_rate;
+    private final int v_grace_ms;
+    private int v_offset;
+    private long v_received;
+    private long v_blocked;
+    private boolean v_finished;
+    private IOException v_error;
+}
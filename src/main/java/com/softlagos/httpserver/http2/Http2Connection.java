@@ -0,0 +1,1521 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Http2Connection.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.Constants;
+import com.softlagos.httpserver.HttpClientErrorException;
+import com.softlagos.httpserver.HttpDrain;
+import com.softlagos.httpserver.HttpErrorException;
+import com.softlagos.httpserver.HttpLineReader;
+import com.softlagos.httpserver.HttpMessageBody;
+import com.softlagos.httpserver.HttpMetrics;
+import com.softlagos.httpserver.HttpProperties;
+import com.softlagos.httpserver.HttpRequestHeader;
+import com.softlagos.httpserver.HttpRequestLine;
+import com.softlagos.httpserver.enums.Http2ErrorCodeType;
+import com.softlagos.httpserver.enums.Http2FrameType;
+import com.softlagos.httpserver.enums.HttpMetricType;
+import com.softlagos.reactor.SocketHandle;
+
+/**
+ * <p>
+ * An HTTP/2 cleartext (h2c) connection.  The worker thread that
+ * read the connection preface, or the HTTP/1.1 request asking
+ * to upgrade to h2c, becomes the connection thread: it reads
+ * every frame, keeps the header compression state and the flow
+ * control windows, and hands each new stream to a stream worker
+ * thread.  Many requests are therefore served concurrently over
+ * a single connection, and a slow response does not hold back
+ * the ones behind it.
+ * </p>
+ * <p>
+ * The requests and responses of the streams are mapped onto
+ * HttpRequest and HttpResponse, so the request handlers do not
+ * know which protocol version the client speaks.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "RFC7540 - Hypertext Transfer Protocol Version 2 (HTTP/2)"
+ */
+public final class Http2Connection
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(Http2Connection.class);
+
+    /** The protocol version of the requests received over HTTP/2. */
+    public static final String HTTP_VERSION = "HTTP/2.0";
+
+    /** Whether h2c connections and upgrades are accepted. */
+    public static final boolean ENABLED =
+            HttpProperties.getBoolean(HttpProperties.HTTP2_ENABLED, true);
+
+    /**
+     * Checks whether the given HTTP/1.1 request asks to upgrade
+     * the connection to h2c with valid HTTP2-Settings.  Only a
+     * request without a message body is upgraded, so no octet
+     * is left between the request and the connection preface.
+     *
+     * @param header the HTTP/1.1 request header
+     * @return true, if the connection can be upgraded.
+     * @see "Section 3.2 of RFC7540"
+     */
+    public static boolean isUpgrade(HttpRequestHeader header)
+    {
+        if( ! ENABLED || header == null ||
+            ! "HTTP/1.1".equals(header.getRequestLine().getHttpVersion()) )
+        {
+            return false;
+        }
+
+        String upgrade = header.getHeader("Upgrade");
+        if( upgrade == null || ! hasToken(upgrade, "h2c") )
+        {
+            return false;
+        }
+
+        String connection = header.getHeader("Connection");
+        if( connection == null || ! hasToken(connection, "HTTP2-Settings") )
+        {
+            return false;
+        }
+
+        String length = header.getHeader("Content-Length");
+        if( header.getHeader("Transfer-Encoding") != null ||
+            (length != null && ! length.trim().equals("0")) )
+        {
+            return false;
+        }
+
+        return decodeSettings(header.getHeader("HTTP2-Settings")) != null;
+    }
+
+    /**
+     * Instantiates a new HTTP/2 connection.
+     *
+     * @param handle the client connection
+     * @param reader the client connection reader
+     * @param out the client output stream
+     * @param write_timeout_ms the time in milliseconds allowed
+     * for each write.
+     * @param max_body_size the maximum message body size of a
+     * request read into memory.
+     * @param max_header_size the maximum size of a request header
+     * list.
+     */
+    public Http2Connection(SocketHandle handle, HttpLineReader reader,
+                           OutputStream out, long write_timeout_ms,
+                           int max_body_size, int max_header_size)
+    {
+        if( handle == null )
+        {
+            throw new IllegalArgumentException("handle cannot be null.");
+        }
+
+        if( reader == null )
+        {
+            throw new IllegalArgumentException("reader cannot be null.");
+        }
+
+        v_handle = handle;
+        v_writer = new Http2FrameWriter(handle, out, write_timeout_ms);
+        v_frames = new Http2FrameReader(reader,
+                Http2Settings.DEFAULT_MAX_FRAME_SIZE);
+        v_write_timeout_ms = write_timeout_ms;
+        v_max_body_size = max_body_size;
+        v_max_header_size = max_header_size;
+
+        v_local = new Http2Settings();
+        v_remote = new Http2Settings();
+        try
+        {
+            v_local.set(Http2Settings.MAX_CONCURRENT_STREAMS, MAX_STREAMS);
+            v_local.set(Http2Settings.INITIAL_WINDOW_SIZE, WINDOW_SIZE);
+            v_local.set(Http2Settings.MAX_HEADER_LIST_SIZE, max_header_size);
+        }
+        catch(Http2Exception ex)
+        {
+            throw new IllegalArgumentException(ex.getMessage(), ex);
+        }
+
+        v_decoder = new HpackDecoder(v_local.getHeaderTableSize());
+        v_encoder = new HpackEncoder();
+        v_streams = new ConcurrentHashMap<Integer, Http2Stream>();
+        v_flow = new Object();
+        v_send_window = Http2Settings.DEFAULT_WINDOW_SIZE;
+        // as opened by the WINDOW_UPDATE sent with the SETTINGS
+        v_recv_window = new Http2ReceiveWindow(WINDOW_SIZE);
+    }
+
+    /**
+     * Serves the connection until the client closes it, goes
+     * away, or stays idle with no stream open.  The caller closes
+     * the connection afterwards.
+     *
+     * @param upgrade the HTTP/1.1 request that asked to upgrade
+     * to h2c, which becomes stream 1; or null if the client sent
+     * the connection preface right away.
+     */
+    public void serve(HttpRequestHeader upgrade)
+    {
+        HttpMetrics.instance().increment(HttpMetricType.HTTP2_CONNECTIONS);
+        HttpDrain.instance().register(this);
+        Socket socket = v_handle.getSocket();
+
+        try
+        {
+            if( upgrade != null )
+            {
+                v_writer.sendRaw(SWITCHING_PROTOCOLS);
+                v_remote.apply(decodeSettings(
+                        upgrade.getHeader("HTTP2-Settings")));
+            }
+
+            v_writer.sendSettings(v_local);
+            if( WINDOW_SIZE > Http2Settings.DEFAULT_WINDOW_SIZE )
+            {
+                v_writer.sendWindowUpdate(0,
+                        WINDOW_SIZE - Http2Settings.DEFAULT_WINDOW_SIZE);
+            }
+
+            if( upgrade != null )
+            {
+                // the upgraded request is the half closed stream 1
+                Http2Stream stream = new Http2Stream(this, 1,
+                        v_remote.getInitialWindowSize(), WINDOW_SIZE);
+                stream.setRequest(upgrade, -1L, true);
+                v_last_stream_id = 1;
+                v_streams.put(1, stream);
+                dispatch(stream);
+            }
+
+            socket.setSoTimeout(IDLE_TIMEOUT_MS);
+            v_frames.readPreface();
+
+            Http2Frame frame = v_frames.readFrame();
+            if( frame == null || frame.getType() != Http2FrameType.SETTINGS ||
+                frame.hasFlag(Http2Frame.FLAG_ACK) )
+            {
+                throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                        "connection preface not followed by SETTINGS");
+            }
+
+            while( frame != null )
+            {
+                if(logger.isTraceEnabled())
+                {
+                    logger.trace("received frame [" + frame + "]");
+                }
+
+                try
+                {
+                    handleFrame(frame);
+                }
+                catch(Http2Exception ex)
+                {
+                    if( ex.isConnectionError() )
+                    {
+                        throw ex;
+                    }
+
+                    refuseStream(ex.getStreamId(), ex.getErrorCode(),
+                                 ex.getMessage());
+                }
+
+                // after a GOAWAY, frames are read only as long as
+                // the open streams may need a WINDOW_UPDATE.
+                frame = (v_goaway && v_streams.isEmpty()) ? null : readFrame();
+            }
+
+            awaitStreams();
+        }
+        catch(Http2Exception ex)
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("HTTP/2 connection error: " + ex.getMessage());
+            }
+
+            goAway(ex.getErrorCode(), ex.getMessage());
+        }
+        catch(IOException ex)
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("HTTP/2 connection closed: " + ex.getMessage());
+            }
+        }
+        finally
+        {
+            HttpDrain.instance().unregister(this);
+            close();
+        }
+    }
+
+    /**
+     * Shuts the connection down gracefully: a GOAWAY tells the
+     * client that no new stream is served, and the connection is
+     * closed once its open streams are answered.
+     *
+     * @see "Section 6.8 of RFC7540"
+     */
+    public void shutdown()
+    {
+        if( v_closed || v_shutdown )
+        {
+            return;
+        }
+
+        v_shutdown = true;
+        v_goaway = true;
+        goAway(Http2ErrorCodeType.NO_ERROR, "server shutting down");
+        if( v_streams.isEmpty() )
+        {
+            stopReading();
+        }
+    }
+
+    /**
+     * @return the client address
+     */
+    public InetAddress getRemoteAddress()
+    {
+        return v_handle.getSocket().getInetAddress();
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * @return the maximum message body size of a request read
+     * into memory.
+     */
+    int getMaxBodySize()
+    {
+        return v_max_body_size;
+    }
+
+    /**
+     * Sends a header block in a HEADERS frame followed by as
+     * many CONTINUATION frames as needed.  The header block is
+     * encoded and sent while holding the writer lock, so the
+     * header blocks reach the client in the order they updated
+     * the compression state.
+     *
+     * @param stream the stream
+     * @param fields the header fields
+     * @param end_stream true, if there is no message body
+     * @throws IOException if an I/O error occurs, or if the
+     * stream was reset.
+     */
+    void writeHeaders(Http2Stream stream, List<HpackHeaderField> fields,
+                      boolean end_stream)
+        throws IOException
+    {
+        checkStream(stream);
+
+        synchronized(v_writer)
+        {
+            byte block [] = v_encoder.encode(fields);
+            int max_frame_size = v_remote.getMaxFrameSize();
+            int off = 0;
+            boolean first = true;
+
+            do
+            {
+                int len = Math.min(max_frame_size, block.length - off);
+                boolean last = (off + len == block.length);
+                int flags = last ? Http2Frame.FLAG_END_HEADERS : 0;
+
+                if( first )
+                {
+                    if( end_stream )
+                    {
+                        flags |= Http2Frame.FLAG_END_STREAM;
+                    }
+
+                    v_writer.writeFrame(Http2FrameType.HEADERS, flags,
+                            stream.getId(), block, off, len);
+                }
+                else
+                {
+                    v_writer.writeFrame(Http2FrameType.CONTINUATION, flags,
+                            stream.getId(), block, off, len);
+                }
+
+                first = false;
+                off += len;
+            }
+            while( off < block.length );
+
+            v_writer.flush();
+        }
+    }
+
+    /**
+     * Sends message body octets in DATA frames, each one waiting
+     * for room in the stream and connection send windows.
+     *
+     * @param stream the stream
+     * @param data the message body octets
+     * @param off the offset of the first octet
+     * @param len the number of octets
+     * @param end_stream true, if these are the last octets
+     * @throws IOException if an I/O error occurs, if the stream
+     * was reset, or if the client does not open the window in
+     * time.
+     */
+    void writeData(Http2Stream stream, byte data [], int off, int len,
+                   boolean end_stream)
+        throws IOException
+    {
+        do
+        {
+            int count = (len == 0) ? 0 : acquireWindow(stream, len);
+            boolean last = end_stream && count == len;
+
+            checkStream(stream);
+            v_writer.sendFrame(Http2FrameType.DATA,
+                    last ? Http2Frame.FLAG_END_STREAM : 0,
+                    stream.getId(), data, off, count);
+
+            off += count;
+            len -= count;
+        }
+        while( len > 0 );
+    }
+
+    /**
+     * Resets a stream.
+     *
+     * @param stream the stream to reset
+     * @param error_code the reason of the reset
+     */
+    void resetStream(Http2Stream stream, Http2ErrorCodeType error_code)
+    {
+        stream.reset(error_code.toString());
+        HttpMetrics.instance().increment(HttpMetricType.HTTP2_STREAMS_RESET);
+
+        try
+        {
+            v_writer.sendRstStream(stream.getId(), error_code);
+        }
+        catch(IOException ex)
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("error resetting stream [" + stream.getId() +
+                             "]: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Called by a stream worker thread once the response is sent.
+     * If the client is still sending the request, the stream is
+     * reset so it stops.
+     *
+     * @param stream the stream
+     */
+    void streamClosed(Http2Stream stream)
+    {
+        if( ! stream.isRemoteClosed() && ! stream.isReset() && ! v_closed )
+        {
+            stream.reset("response complete");
+
+            try
+            {
+                v_writer.sendRstStream(stream.getId(),
+                                       Http2ErrorCodeType.NO_ERROR);
+            }
+            catch(IOException ex)
+            {
+                if(logger.isDebugEnabled())
+                {
+                    logger.debug("error closing stream [" + stream.getId() +
+                                 "]: " + ex.getMessage());
+                }
+            }
+        }
+
+        // credit back what the handler left unread
+        stream.release();
+
+        synchronized(v_flow)
+        {
+            v_streams.remove(stream.getId());
+            v_flow.notifyAll();
+        }
+
+        if( v_shutdown && v_streams.isEmpty() )
+        {
+            stopReading();
+        }
+    }
+
+    /**
+     * Hands the rest of a stream sending a Server-Sent Events
+     * stream to a thread of its own, so that it does not hold one
+     * of the stream worker threads for as long as its client
+     * stays.  SseHub caps the number of these streams.
+     *
+     * @param task the sending of the response
+     */
+    void detach(Runnable task)
+    {
+        EVENT_EXECUTOR.execute(task);
+    }
+
+    /**
+     * Credits octets read or dropped from a request message body
+     * back to the stream and connection flow control windows, once
+     * enough of them add up.
+     *
+     * @param stream the stream
+     * @param count the number of octets read
+     */
+    void streamConsumed(Http2Stream stream, int count)
+    {
+        int increment = stream.getRecvWindow().consumed(count);
+        if( increment > 0 && ! stream.isRemoteClosed() && ! stream.isReset() )
+        {
+            try
+            {
+                v_writer.sendWindowUpdate(stream.getId(), increment);
+            }
+            catch(IOException ex)
+            {
+                if(logger.isDebugEnabled())
+                {
+                    logger.debug("error sending WINDOW_UPDATE: " +
+                                 ex.getMessage());
+                }
+            }
+        }
+
+        connectionConsumed(count);
+    }
+
+    /**
+     * @param frame a DATA or HEADERS frame
+     * @return the payload of the frame without its padding.
+     * @throws Http2Exception if the padding is not valid.
+     * @see "Section 6.1 and 6.2 of RFC7540"
+     */
+    static byte [] unpad(Http2Frame frame)
+        throws Http2Exception
+    {
+        byte payload [] = frame.getPayload();
+        if(! frame.hasFlag(Http2Frame.FLAG_PADDED) )
+        {
+            return payload;
+        }
+
+        if( payload.length == 0 ||
+            (payload[0] & 0xff) >= payload.length )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                    "invalid padding");
+        }
+
+        int length = payload.length - 1 - (payload[0] & 0xff);
+        byte data [] = new byte[length];
+        System.arraycopy(payload, 1, data, 0, length);
+        return data;
+    }
+
+    /**
+     * Reads the CONTINUATION frames completing a header block.
+     *
+     * @param frames the frame reader
+     * @param stream_id the stream of the header block
+     * @param block the header block read so far, to which the
+     * fragments are appended.
+     * @param max_size the largest header block accepted
+     * @throws Http2Exception if the header block is not followed by
+     * a CONTINUATION frame of its stream, or grows larger than
+     * max_size.
+     * @see "Section 6.10 of RFC7540"
+     */
+    static void readContinuations(Http2FrameReader frames, int stream_id,
+                                  ByteArrayOutputStream block,
+                                  long max_size)
+        throws Http2Exception, IOException
+    {
+        boolean end_headers = false;
+        while(! end_headers )
+        {
+            Http2Frame next = frames.readFrame();
+            if( next == null ||
+                next.getType() != Http2FrameType.CONTINUATION ||
+                next.getStreamId() != stream_id )
+            {
+                throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                        "header block not followed by CONTINUATION");
+            }
+
+            if( block.size() + next.getLength() > max_size )
+            {
+                throw new Http2Exception(
+                        Http2ErrorCodeType.ENHANCE_YOUR_CALM,
+                        "header block too large");
+            }
+
+            block.write(next.getPayload(), 0, next.getLength());
+            end_headers = next.hasFlag(Http2Frame.FLAG_END_HEADERS);
+        }
+    }
+
+    // ------ >>> Private <<< ------
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /** The maximum number of concurrent streams per connection. */
+    private static final int MAX_STREAMS =
+            HttpProperties.getInt(HttpProperties.HTTP2_MAX_STREAMS, 100);
+
+    /**
+     * The receive window of each stream and of the connection,
+     * which bounds the request body octets held per connection.
+     */
+    private static final int WINDOW_SIZE = Math.max(
+            Http2Settings.DEFAULT_WINDOW_SIZE,
+            HttpProperties.getInt(HttpProperties.HTTP2_WINDOW_SIZE,
+                                  Http2Settings.DEFAULT_WINDOW_SIZE));
+
+    /** The time in milliseconds an idle connection is kept. */
+    private static final int IDLE_TIMEOUT_MS =
+            HttpProperties.getInt(HttpProperties.HTTP2_IDLE_TIMEOUT_MS, 60000);
+
+    /** The number of stream worker threads. */
+    private static final int WORKERS =
+            HttpProperties.getInt(HttpProperties.HTTP2_WORKERS, 64);
+
+    /** The response switching an HTTP/1.1 connection to h2c. */
+    private static final byte SWITCHING_PROTOCOLS [] =
+            ("HTTP/1.1 101 Switching Protocols" + Constants.CRLF +
+             "Connection: Upgrade" + Constants.CRLF +
+             "Upgrade: h2c" + Constants.CRLF +
+             Constants.CRLF).getBytes(ISO_8859_1);
+
+    /** The stream worker threads shared by all the connections. */
+    private static final ExecutorService STREAM_EXECUTOR =
+            Executors.newFixedThreadPool(WORKERS, new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "http2-stream-" +
+                                               THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** The threads sending the event streams of all the connections. */
+    private static final ExecutorService EVENT_EXECUTOR =
+            Executors.newCachedThreadPool(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "http2-events-" +
+                                               THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * @return true, if the comma separated list contains the
+     * given token, ignoring case.
+     */
+    private static boolean hasToken(String list, String token)
+    {
+        for(String item : list.split(","))
+        {
+            if( item.trim().equalsIgnoreCase(token) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the SETTINGS payload carried by an HTTP2-Settings
+     * header field, or null if it is not valid.
+     */
+    private static byte [] decodeSettings(String value)
+    {
+        if( value == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            byte payload [] = Base64.getUrlDecoder().decode(value.trim());
+            return (payload.length % 6 == 0) ? payload : null;
+        }
+        catch(IllegalArgumentException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Credits octets read or dropped back to the connection flow
+     * control window, once enough of them add up.
+     *
+     * @param count the number of octets
+     */
+    private void connectionConsumed(int count)
+    {
+        int increment = v_recv_window.consumed(count);
+        if( increment > 0 && ! v_closed )
+        {
+            try
+            {
+                v_writer.sendWindowUpdate(0, increment);
+            }
+            catch(IOException ex)
+            {
+                if(logger.isDebugEnabled())
+                {
+                    logger.debug("error sending WINDOW_UPDATE: " +
+                                 ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the next frame, waiting while the connection is idle
+     * as long as one of its streams is still sending a response.
+     * A stream whose request the client has not finished sending
+     * by then is stalled, and is reset rather than left holding
+     * its worker thread.
+     *
+     * @return the next frame, or null if the connection was
+     * closed by the client or is idle.
+     */
+    private Http2Frame readFrame()
+        throws Http2Exception, IOException
+    {
+        while( true )
+        {
+            try
+            {
+                return v_frames.readFrame();
+            }
+            catch(SocketTimeoutException ex)
+            {
+                if( v_streams.isEmpty() )
+                {
+                    goAway(Http2ErrorCodeType.NO_ERROR, "idle timeout");
+                    return null;
+                }
+
+                for(Http2Stream stream : v_streams.values())
+                {
+                    if( ! stream.isRemoteClosed() && ! stream.isReset() )
+                    {
+                        HttpMetrics.instance().increment(
+                                HttpMetricType.TIMEOUT_BODY);
+                        resetStream(stream, Http2ErrorCodeType.CANCEL);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles one frame received from the client.
+     *
+     * @throws Http2Exception if the frame is a protocol error.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void handleFrame(Http2Frame frame)
+        throws Http2Exception, IOException
+    {
+        Http2FrameType type = frame.getType();
+        if( type == null )
+        {
+            // unknown frame types are ignored
+            return;
+        }
+
+        switch(type)
+        {
+            case DATA:
+                handleData(frame);
+                break;
+
+            case HEADERS:
+                handleHeaders(frame);
+                break;
+
+            case PRIORITY:
+                if( frame.getStreamId() == 0 || frame.getLength() != 5 )
+                {
+                    throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                            "invalid PRIORITY frame");
+                }
+                break;
+
+            case RST_STREAM:
+                handleRstStream(frame);
+                break;
+
+            case SETTINGS:
+                handleSettings(frame);
+                break;
+
+            case PING:
+                if( frame.getStreamId() != 0 || frame.getLength() != 8 )
+                {
+                    throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                            "invalid PING frame");
+                }
+
+                if(! frame.hasFlag(Http2Frame.FLAG_ACK) )
+                {
+                    v_writer.sendPingAck(frame.getPayload());
+                }
+                break;
+
+            case GOAWAY:
+                if( frame.getStreamId() != 0 )
+                {
+                    throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                            "GOAWAY frame on a stream");
+                }
+
+                // no new stream will follow; the open ones are
+                // answered before the connection is closed.
+                v_goaway = true;
+                break;
+
+            case WINDOW_UPDATE:
+                handleWindowUpdate(frame);
+                break;
+
+            case PUSH_PROMISE:
+                throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                        "PUSH_PROMISE frame sent by a client");
+
+            case CONTINUATION:
+                throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                        "CONTINUATION frame without a header block");
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @see "Section 6.5 of RFC7540"
+     */
+    private void handleSettings(Http2Frame frame)
+        throws Http2Exception, IOException
+    {
+        if( frame.getStreamId() != 0 )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                    "SETTINGS frame on a stream");
+        }
+
+        if( frame.hasFlag(Http2Frame.FLAG_ACK) )
+        {
+            if( frame.getLength() != 0 )
+            {
+                throw new Http2Exception(Http2ErrorCodeType.FRAME_SIZE_ERROR,
+                        "SETTINGS acknowledgement with a payload");
+            }
+
+            return;
+        }
+
+        int old_window = v_remote.getInitialWindowSize();
+        v_remote.apply(frame.getPayload());
+
+        synchronized(v_writer)
+        {
+            v_encoder.setMaxTableSize(v_remote.getHeaderTableSize());
+        }
+
+        int delta = v_remote.getInitialWindowSize() - old_window;
+        if( delta != 0 )
+        {
+            synchronized(v_flow)
+            {
+                for(Http2Stream stream : v_streams.values())
+                {
+                    long window = stream.getSendWindow() + delta;
+                    if( window > Http2Settings.MAX_WINDOW_SIZE )
+                    {
+                        throw new Http2Exception(
+                                Http2ErrorCodeType.FLOW_CONTROL_ERROR,
+                                "stream window overflow");
+                    }
+
+                    stream.setSendWindow(window);
+                }
+
+                v_flow.notifyAll();
+            }
+        }
+
+        v_writer.sendSettingsAck();
+    }
+
+    /**
+     * @see "Section 6.9 of RFC7540"
+     */
+    private void handleWindowUpdate(Http2Frame frame)
+        throws Http2Exception
+    {
+        if( frame.getLength() != 4 )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.FRAME_SIZE_ERROR,
+                    "WINDOW_UPDATE length [" + frame.getLength() + "]");
+        }
+
+        byte payload [] = frame.getPayload();
+        int increment = ((payload[0] & 0x7f) << 24) |
+                        ((payload[1] & 0xff) << 16) |
+                        ((payload[2] & 0xff) << 8) |
+                        (payload[3] & 0xff);
+        int stream_id = frame.getStreamId();
+
+        if( increment == 0 )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                    stream_id, "WINDOW_UPDATE increment of 0");
+        }
+
+        synchronized(v_flow)
+        {
+            if( stream_id == 0 )
+            {
+                v_send_window += increment;
+                if( v_send_window > Http2Settings.MAX_WINDOW_SIZE )
+                {
+                    throw new Http2Exception(
+                            Http2ErrorCodeType.FLOW_CONTROL_ERROR,
+                            "connection window overflow");
+                }
+            }
+            else
+            {
+                Http2Stream stream = v_streams.get(stream_id);
+                if( stream == null )
+                {
+                    // the stream may have just been closed
+                    return;
+                }
+
+                long window = stream.getSendWindow() + increment;
+                if( window > Http2Settings.MAX_WINDOW_SIZE )
+                {
+                    throw new Http2Exception(
+                            Http2ErrorCodeType.FLOW_CONTROL_ERROR,
+                            stream_id, "stream window overflow");
+                }
+
+                stream.setSendWindow(window);
+            }
+
+            v_flow.notifyAll();
+        }
+    }
+
+    /**
+     * @see "Section 6.4 of RFC7540"
+     */
+    private void handleRstStream(Http2Frame frame)
+        throws Http2Exception
+    {
+        if( frame.getStreamId() == 0 || frame.getLength() != 4 )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                    "invalid RST_STREAM frame");
+        }
+
+        if( frame.getStreamId() > v_last_stream_id )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                    "RST_STREAM frame on an idle stream");
+        }
+
+        Http2Stream stream = v_streams.get(frame.getStreamId());
+        if( stream != null )
+        {
+            stream.reset("reset by the client");
+            synchronized(v_flow)
+            {
+                v_flow.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @see "Section 6.1 of RFC7540"
+     */
+    private void handleData(Http2Frame frame)
+        throws Http2Exception, IOException
+    {
+        int stream_id = frame.getStreamId();
+        if( stream_id == 0 )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                    "DATA frame on the connection");
+        }
+
+        if( stream_id > v_last_stream_id )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                    "DATA frame on an idle stream");
+        }
+
+        // the whole frame, padding included, counts against the
+        // connection window, which is credited back only as the
+        // octets are read or dropped: it bounds what the streams
+        // of this connection hold in memory.
+        int length = frame.getLength();
+        if(! v_recv_window.receive(length) )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.FLOW_CONTROL_ERROR,
+                    "connection receive window exceeded");
+        }
+
+        byte data [] = unpad(frame);
+        Http2Stream stream = v_streams.get(stream_id);
+        if( stream == null || stream.isReset() )
+        {
+            // a stream closed by the server: drop the data
+            connectionConsumed(length);
+            return;
+        }
+
+        if( stream.isRemoteClosed() )
+        {
+            connectionConsumed(length);
+            throw new Http2Exception(Http2ErrorCodeType.STREAM_CLOSED,
+                    stream_id, "DATA frame after END_STREAM");
+        }
+
+        if(! stream.getRecvWindow().receive(length) )
+        {
+            connectionConsumed(length);
+            throw new Http2Exception(Http2ErrorCodeType.FLOW_CONTROL_ERROR,
+                    stream_id, "stream receive window exceeded");
+        }
+
+        // the padding also counts against the stream window
+        int padding = length - data.length;
+        if( padding > 0 )
+        {
+            stream.consumed(padding);
+        }
+
+        try
+        {
+            stream.receiveData(data,
+                    frame.hasFlag(Http2Frame.FLAG_END_STREAM));
+        }
+        catch(Http2Exception ex)
+        {
+            // the octets refused with the stream still count
+            connectionConsumed(data.length);
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads a whole header block, from a HEADERS frame and the
+     * CONTINUATION frames following it, and opens a stream.
+     *
+     * @see "Section 6.2 and 8.1 of RFC7540"
+     */
+    private void handleHeaders(Http2Frame frame)
+        throws Http2Exception, IOException
+    {
+        int stream_id = frame.getStreamId();
+        if( stream_id == 0 || (stream_id & 1) == 0 )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                    "HEADERS frame on invalid stream [" + stream_id + "]");
+        }
+
+        byte fragment [] = unpad(frame);
+        int off = 0;
+        if( frame.hasFlag(Http2Frame.FLAG_PRIORITY) )
+        {
+            // the priority fields are not used
+            off = 5;
+            if( fragment.length < off )
+            {
+                throw new Http2Exception(Http2ErrorCodeType.FRAME_SIZE_ERROR,
+                        "HEADERS frame too short for its priority");
+            }
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(
+                Math.max(fragment.length - off, 64));
+        block.write(fragment, off, fragment.length - off);
+
+        // the header block must be read whole even if the stream
+        // is refused, since it updates the decoder table.
+        if(! frame.hasFlag(Http2Frame.FLAG_END_HEADERS) )
+        {
+            readContinuations(v_frames, stream_id, block,
+                    MAX_HEADER_BLOCK_FACTOR * (long) v_max_header_size);
+        }
+
+        byte octets [] = block.toByteArray();
+        List<HpackHeaderField> fields =
+                v_decoder.decode(octets, 0, octets.length);
+        boolean end_stream = frame.hasFlag(Http2Frame.FLAG_END_STREAM);
+
+        if( stream_id <= v_last_stream_id )
+        {
+            // trailer fields of an open stream, which are ignored
+            Http2Stream stream = v_streams.get(stream_id);
+            if( stream == null || stream.isReset() )
+            {
+                return;
+            }
+
+            if( stream.isRemoteClosed() )
+            {
+                throw new Http2Exception(Http2ErrorCodeType.STREAM_CLOSED,
+                        stream_id, "HEADERS frame after END_STREAM");
+            }
+
+            if(! end_stream )
+            {
+                throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                        stream_id, "trailer fields without END_STREAM");
+            }
+
+            stream.endRemote();
+            return;
+        }
+
+        v_last_stream_id = stream_id;
+
+        if( v_goaway || v_streams.size() >= MAX_STREAMS )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.REFUSED_STREAM,
+                    stream_id, "too many concurrent streams");
+        }
+
+        Http2Stream stream = new Http2Stream(this, stream_id,
+                v_remote.getInitialWindowSize(), WINDOW_SIZE);
+
+        try
+        {
+            HttpRequestHeader header = toRequestHeader(stream_id, fields);
+            String length = header.getHeader("Content-Length");
+            long content_length = -1L;
+            if( length != null )
+            {
+                try
+                {
+                    content_length = Long.parseLong(length.trim());
+                }
+                catch(NumberFormatException ex)
+                {
+                    content_length = -1L;
+                }
+
+                if( content_length < 0 )
+                {
+                    throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                            stream_id, "invalid content-length");
+                }
+            }
+
+            stream.setRequest(header, content_length, end_stream);
+        }
+        catch(HttpErrorException ex)
+        {
+            // answered with an HTTP error status
+            stream.setRequest(null, -1L, end_stream);
+            stream.setError(ex);
+        }
+
+        v_streams.put(stream_id, stream);
+        dispatch(stream);
+    }
+
+    /**
+     * Maps the header fields of a request to an HTTP request
+     * header: the pseudo-header fields become the request-line
+     * and the Host header field.
+     *
+     * @throws Http2Exception if the request is malformed.
+     * @throws HttpErrorException if the request is too large or
+     * its request-line is not valid.
+     * @see "Section 8.1.2 of RFC7540"
+     */
+    private HttpRequestHeader toRequestHeader(int stream_id,
+                                              List<HpackHeaderField> fields)
+        throws Http2Exception, HttpErrorException
+    {
+        String method = null;
+        String path = null;
+        String scheme = null;
+        String authority = null;
+        boolean regular = false;
+        long list_size = 0;
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+
+        for(HpackHeaderField field : fields)
+        {
+            String name = field.getName();
+            String value = field.getValue();
+            list_size += field.size();
+
+            if( name.startsWith(":") )
+            {
+                if( regular )
+                {
+                    throw malformed(stream_id, "pseudo-header field [" +
+                                    name + "] after a regular field");
+                }
+
+                if( name.equals(":method") && method == null )
+                {
+                    method = value;
+                }
+                else if( name.equals(":path") && path == null )
+                {
+                    path = value;
+                }
+                else if( name.equals(":scheme") && scheme == null )
+                {
+                    scheme = value;
+                }
+                else if( name.equals(":authority") && authority == null )
+                {
+                    authority = value;
+                }
+                else
+                {
+                    throw malformed(stream_id, "invalid pseudo-header field [" +
+                                    name + "]");
+                }
+
+                continue;
+            }
+
+            regular = true;
+            if(! name.equals(name.toLowerCase(Locale.ROOT)) )
+            {
+                throw malformed(stream_id, "upper case header field name [" +
+                                name + "]");
+            }
+
+            if( Http2Stream.isConnectionField(name) ||
+                (name.equals("te") && ! value.equals("trailers")) )
+            {
+                throw malformed(stream_id, "connection specific header " +
+                                "field [" + name + "]");
+            }
+
+            if( value.length() == 0 )
+            {
+                continue;
+            }
+
+            // repeated fields are combined as in HTTP/1.x, but
+            // the cookie crumbs are joined as a single cookie.
+            String previous = headers.get(name);
+            if( previous != null )
+            {
+                value = previous + (name.equals("cookie") ? "; " : ", ") +
+                        value;
+            }
+
+            headers.put(name, value);
+        }
+
+        if( list_size > v_max_header_size ||
+            headers.size() > MAX_HEADER_FIELDS )
+        {
+            throw new HttpClientErrorException(431,
+                    "request header fields too large");
+        }
+
+        if( method == null || path == null || scheme == null ||
+            path.length() == 0 )
+        {
+            throw malformed(stream_id, "missing request pseudo-header fields");
+        }
+
+        HttpRequestLine request_line = new HttpRequestLine(
+                method + Constants.SP + path + Constants.SP + HTTP_VERSION);
+        HttpRequestHeader header = new HttpRequestHeader(request_line);
+
+        if( authority != null && authority.length() > 0 &&
+            ! headers.containsKey("host") )
+        {
+            header.addHeader("Host", authority);
+        }
+
+        for(Map.Entry<String, String> entry : headers.entrySet())
+        {
+            header.addHeader(entry.getKey(), entry.getValue());
+        }
+
+        return header;
+    }
+
+    private static Http2Exception malformed(int stream_id, String message)
+    {
+        return new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                                  stream_id, message);
+    }
+
+    /**
+     * Hands a stream to a stream worker thread.
+     */
+    private void dispatch(Http2Stream stream)
+    {
+        stream.dispatched();
+        STREAM_EXECUTOR.execute(stream);
+    }
+
+    /**
+     * Refuses or resets a stream after a stream error.
+     */
+    private void refuseStream(int stream_id, Http2ErrorCodeType error_code,
+                              String message)
+        throws IOException
+    {
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("resetting stream [" + stream_id + "]: " + message);
+        }
+
+        Http2Stream stream = v_streams.get(stream_id);
+        if( stream != null )
+        {
+            stream.reset(message);
+        }
+
+        HttpMetrics.instance().increment(HttpMetricType.HTTP2_STREAMS_RESET);
+        v_writer.sendRstStream(stream_id, error_code);
+    }
+
+    /**
+     * Waits for room in both send windows.
+     *
+     * @return the number of octets that may be sent, at most len
+     * and at most the client maximum frame size.
+     */
+    private int acquireWindow(Http2Stream stream, int len)
+        throws IOException
+    {
+        long deadline = System.currentTimeMillis() + v_write_timeout_ms;
+
+        synchronized(v_flow)
+        {
+            while( true )
+            {
+                checkStream(stream);
+
+                long available = Math.min(stream.getSendWindow(),
+                                          v_send_window);
+                if( available > 0 )
+                {
+                    int count = (int) Math.min(Math.min(available, len),
+                                               v_remote.getMaxFrameSize());
+                    stream.setSendWindow(stream.getSendWindow() - count);
+                    v_send_window -= count;
+                    return count;
+                }
+
+                long wait_ms = deadline - System.currentTimeMillis();
+                if( wait_ms <= 0 )
+                {
+                    throw new SocketTimeoutException("flow control window " +
+                            "not opened in time on stream [" +
+                            stream.getId() + "]");
+                }
+
+                try
+                {
+                    v_flow.wait(wait_ms);
+                }
+                catch(InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting for the " +
+                                          "flow control window");
+                }
+            }
+        }
+    }
+
+    /**
+     * @throws IOException if the stream was reset or the
+     * connection closed.
+     */
+    private void checkStream(Http2Stream stream)
+        throws IOException
+    {
+        if( v_closed )
+        {
+            throw new IOException("connection closed");
+        }
+
+        if( stream.isReset() )
+        {
+            throw new IOException("stream [" + stream.getId() + "] reset");
+        }
+    }
+
+    /**
+     * Waits, at most the write timeout, for the open streams to
+     * send their responses.
+     */
+    private void awaitStreams()
+    {
+        long deadline = System.currentTimeMillis() + v_write_timeout_ms;
+
+        synchronized(v_flow)
+        {
+            while( ! v_streams.isEmpty() )
+            {
+                long wait_ms = deadline - System.currentTimeMillis();
+                if( wait_ms <= 0 )
+                {
+                    return;
+                }
+
+                try
+                {
+                    v_flow.wait(wait_ms);
+                }
+                catch(InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a GOAWAY frame, ignoring any error.
+     */
+    private void goAway(Http2ErrorCodeType error_code, String message)
+    {
+        try
+        {
+            v_writer.sendGoAway(v_last_stream_id, error_code, message);
+        }
+        catch(IOException ex)
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("error sending GOAWAY: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Ends the reading of frames once the connection is shut down
+     * and its last stream answered.
+     */
+    private void stopReading()
+    {
+        try
+        {
+            v_handle.getSocket().shutdownInput();
+        }
+        catch(IOException ex)
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("error shutting down input: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Fails all the open streams.
+     */
+    private void close()
+    {
+        v_closed = true;
+
+        for(Http2Stream stream : v_streams.values())
+        {
+            stream.reset("connection closed");
+        }
+
+        synchronized(v_flow)
+        {
+            v_flow.notifyAll();
+        }
+    }
+
+    /** The header block may be this many times the header list size. */
+    private static final int MAX_HEADER_BLOCK_FACTOR = 2;
+
+    /** The maximum number of request header fields. */
+    private static final int MAX_HEADER_FIELDS =
+            HttpProperties.getInt(HttpProperties.MAX_HEADER_COUNT, 100);
+
+    private final SocketHandle v_handle;
+    private final Http2FrameWriter v_writer;
+    private final Http2FrameReader v_frames;
+    private final long v_write_timeout_ms;
+    private final int v_max_body_size;
+    private final int v_max_header_size;
+    private final Http2Settings v_local;
+    private final Http2Settings v_remote;
+    private final HpackDecoder v_decoder;
+    private final HpackEncoder v_encoder;
+    private final Map<Integer, Http2Stream> v_streams;
+    private final Object v_flow;
+    private long v_send_window;
+    private final Http2ReceiveWindow v_recv_window;
+    private volatile int v_last_stream_id;
+    private volatile boolean v_goaway;
+    private volatile boolean v_shutdown;
+    private volatile boolean v_closed;
+}
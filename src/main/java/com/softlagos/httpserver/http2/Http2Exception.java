@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Http2Exception.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import com.softlagos.httpserver.enums.Http2ErrorCodeType;
+
+/**
+ * An HTTP/2 protocol error.  A connection error ends the whole
+ * connection with a GOAWAY frame; a stream error only resets
+ * the stream with a RST_STREAM frame.
+ *
+ * @author Rubens Gomes
+ * @see "Section 5.4 of RFC7540 - Hypertext Transfer Protocol
+ * Version 2 (HTTP/2)"
+ */
+@SuppressWarnings("serial")
+public class Http2Exception extends Exception
+{
+
+    /**
+     * Instantiates a connection error.
+     *
+     * @param error_code the HTTP/2 error code
+     * @param message the error description
+     */
+    public Http2Exception(Http2ErrorCodeType error_code, String message)
+    {
+        this(error_code, 0, message);
+    }
+
+    /**
+     * Instantiates a stream error, or a connection error if the
+     * stream identifier is 0.
+     *
+     * @param error_code the HTTP/2 error code
+     * @param stream_id the stream in error, or 0 for the
+     * connection.
+     * @param message the error description
+     */
+    public Http2Exception(Http2ErrorCodeType error_code, int stream_id,
+                          String message)
+    {
+        super(message);
+
+        if( error_code == null )
+        {
+            throw new IllegalArgumentException("error_code cannot be null.");
+        }
+
+        v_error_code = error_code;
+        v_stream_id = stream_id;
+    }
+
+    /**
+     * @return the HTTP/2 error code
+     */
+    public Http2ErrorCodeType getErrorCode()
+    {
+        return v_error_code;
+    }
+
+    /**
+     * @return the stream in error, or 0 for a connection error.
+     */
+    public int getStreamId()
+    {
+        return v_stream_id;
+    }
+
+    /**
+     * @return true, if the error ends the whole connection.
+     */
+    public boolean isConnectionError()
+    {
+        return v_stream_id == 0;
+    }
+
+    // ------ >>> Private <<< ------
+    private final Http2ErrorCodeType v_error_code;
+    private final int v_stream_id;
+}
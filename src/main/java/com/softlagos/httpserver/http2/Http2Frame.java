@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Http2Frame.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import com.softlagos.httpserver.enums.Http2FrameType;
+
+/**
+ * An HTTP/2 frame as read from the connection: the fields of
+ * the 9 octet frame header followed by the frame payload.
+ *
+ * @author Rubens Gomes
+ * @see "Section 4.1 of RFC7540 - Hypertext Transfer Protocol
+ * Version 2 (HTTP/2)"
+ */
+public final class Http2Frame
+{
+    /** The length of the frame header in octets. */
+    public static final int HEADER_LENGTH = 9;
+
+    /** The END_STREAM flag of DATA and HEADERS frames. */
+    public static final int FLAG_END_STREAM = 0x1;
+
+    /** The ACK flag of SETTINGS and PING frames. */
+    public static final int FLAG_ACK = 0x1;
+
+    /** The END_HEADERS flag of HEADERS and CONTINUATION frames. */
+    public static final int FLAG_END_HEADERS = 0x4;
+
+    /** The PADDED flag of DATA and HEADERS frames. */
+    public static final int FLAG_PADDED = 0x8;
+
+    /** The PRIORITY flag of HEADERS frames. */
+    public static final int FLAG_PRIORITY = 0x20;
+
+    /**
+     * Instantiates a new frame.
+     *
+     * @param type_code the frame type code
+     * @param flags the frame flags
+     * @param stream_id the stream identifier
+     * @param payload the frame payload
+     */
+    public Http2Frame(int type_code, int flags, int stream_id,
+                      byte payload [])
+    {
+        if( payload == null )
+        {
+            throw new IllegalArgumentException("payload cannot be null.");
+        }
+
+        v_type_code = type_code;
+        v_type = Http2FrameType.getEnum(type_code);
+        v_flags = flags;
+        v_stream_id = stream_id;
+        v_payload = payload;
+    }
+
+    /**
+     * @return the frame type, or null for a frame type that is
+     * not defined and must be ignored.
+     */
+    public Http2FrameType getType()
+    {
+        return v_type;
+    }
+
+    /**
+     * @return the frame type code
+     */
+    public int getTypeCode()
+    {
+        return v_type_code;
+    }
+
+    /**
+     * @return the frame flags
+     */
+    public int getFlags()
+    {
+        return v_flags;
+    }
+
+    /**
+     * @param flag the flag to test
+     * @return true, if the given flag is set.
+     */
+    public boolean hasFlag(int flag)
+    {
+        return (v_flags & flag) != 0;
+    }
+
+    /**
+     * @return the stream identifier, 0 for the connection.
+     */
+    public int getStreamId()
+    {
+        return v_stream_id;
+    }
+
+    /**
+     * @return the frame payload
+     */
+    public byte [] getPayload()
+    {
+        return v_payload;
+    }
+
+    /**
+     * @return the frame payload length
+     */
+    public int getLength()
+    {
+        return v_payload.length;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder buff = new StringBuilder();
+        buff.append((v_type == null) ? ("0x" + Integer.toHexString(v_type_code))
+                                     : v_type.toString());
+        buff.append(" stream=").append(v_stream_id);
+        buff.append(" flags=0x").append(Integer.toHexString(v_flags));
+        buff.append(" length=").append(v_payload.length);
+        return buff.toString();
+    }
+
+    // ------ >>> Private <<< ------
+    private final int v_type_code;
+    private final Http2FrameType v_type;
+    private final int v_flags;
+    private final int v_stream_id;
+    private final byte v_payload [];
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Http2FrameReader.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import com.softlagos.httpserver.HttpLineReader;
+import com.softlagos.httpserver.enums.Http2ErrorCodeType;
+
+/**
+ * Reads the HTTP/2 frames sent by the client, through the same
+ * buffered reader used for the HTTP/1.x request head, so the
+ * octets already buffered when the connection switches to
+ * HTTP/2 are not lost.
+ *
+ * @author Rubens Gomes
+ * @see "Section 4 of RFC7540 - Hypertext Transfer Protocol
+ * Version 2 (HTTP/2)"
+ */
+public final class Http2FrameReader
+{
+    /**
+     * The client connection preface, starting with a request-line
+     * that an HTTP/1.x server rejects.
+     */
+    public static final byte [] PREFACE =
+            {
+                'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/', '2',
+                '.', '0', '\r', '\n', '\r', '\n', 'S', 'M', '\r', '\n',
+                '\r', '\n'
+            };
+
+    /**
+     * Instantiates a new frame reader.
+     *
+     * @param reader the client connection reader
+     * @param max_frame_size the largest frame payload accepted
+     */
+    public Http2FrameReader(HttpLineReader reader, int max_frame_size)
+    {
+        if( reader == null )
+        {
+            throw new IllegalArgumentException("reader cannot be null.");
+        }
+
+        v_reader = reader;
+        v_max_frame_size = max_frame_size;
+        v_header = new byte[Http2Frame.HEADER_LENGTH];
+    }
+
+    /**
+     * Reads and checks the client connection preface.
+     *
+     * @throws Http2Exception if the preface is not valid.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void readPreface()
+        throws Http2Exception, IOException
+    {
+        byte buff [] = new byte[PREFACE.length];
+        if(! readFully(buff, 0, buff.length, false) )
+        {
+            throw new EOFException("connection closed before the preface");
+        }
+
+        for(int idx = 0; idx < PREFACE.length; idx++)
+        {
+            if( buff[idx] != PREFACE[idx] )
+            {
+                throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                        "invalid connection preface");
+            }
+        }
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @return the next frame, or null if the client closed the
+     * connection between two frames.
+     * @throws SocketTimeoutException if no frame started within
+     * the socket timeout; the reader is left at the frame boundary
+     * and may be called again.
+     * @throws Http2Exception if the frame is larger than the
+     * maximum frame size.
+     * @throws IOException if an I/O error occurs, or if the
+     * connection was closed in the middle of a frame.
+     */
+    public Http2Frame readFrame()
+        throws Http2Exception, IOException
+    {
+        if(! readFully(v_header, 0, Http2Frame.HEADER_LENGTH, true) )
+        {
+            return null;
+        }
+
+        int length = ((v_header[0] & 0xff) << 16) |
+                     ((v_header[1] & 0xff) << 8) |
+                     (v_header[2] & 0xff);
+        int type = v_header[3] & 0xff;
+        int flags = v_header[4] & 0xff;
+        int stream_id = ((v_header[5] & 0x7f) << 24) |
+                        ((v_header[6] & 0xff) << 16) |
+                        ((v_header[7] & 0xff) << 8) |
+                        (v_header[8] & 0xff);
+
+        if( length > v_max_frame_size )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.FRAME_SIZE_ERROR,
+                    "frame length [" + length + "] exceeds the maximum of [" +
+                    v_max_frame_size + "]");
+        }
+
+        byte payload [] = new byte[length];
+        if(! readFully(payload, 0, length, false) )
+        {
+            throw new EOFException("connection closed in the middle of a frame");
+        }
+
+        return new Http2Frame(type, flags, stream_id, payload);
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * @param boundary true, if the read starts at a frame boundary
+     * where the socket timeout may be retried.
+     * @return false if the connection was closed before the first
+     * octet.
+     * @throws EOFException if the connection was closed after the
+     * first octet.
+     */
+    private boolean readFully(byte buff [], int off, int len,
+                              boolean boundary)
+        throws IOException
+    {
+        int done = 0;
+        while( done < len )
+        {
+            int count;
+            try
+            {
+                count = v_reader.read(buff, off + done, len - done);
+            }
+            catch(SocketTimeoutException ex)
+            {
+                if( boundary && done == 0 )
+                {
+                    throw ex;
+                }
+
+                // the octets already read would be lost
+                throw new IOException("timed out in the middle of a frame");
+            }
+
+            if( count < 0 )
+            {
+                if( done == 0 )
+                {
+                    return false;
+                }
+
+                throw new EOFException("connection closed after [" + done +
+                                       "] of [" + len + "] octets");
+            }
+
+            done += count;
+        }
+
+        return true;
+    }
+
+    private final HttpLineReader v_reader;
+    private final int v_max_frame_size;
+    private final byte v_header [];
+}
@@ -0,0 +1,291 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Http2FrameWriter.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.softlagos.httpserver.HttpDeadlineTimer;
+import com.softlagos.httpserver.enums.Http2ErrorCodeType;
+import com.softlagos.httpserver.enums.Http2FrameType;
+import com.softlagos.httpserver.enums.HttpMetricType;
+import com.softlagos.reactor.SocketHandle;
+
+/**
+ * Writes HTTP/2 frames to the client.  The streams of a
+ * connection are answered by several threads, so each frame,
+ * or each sequence of frames that must not be interleaved, is
+ * written while holding the lock of this writer.  Every write
+ * is flushed under the connection write deadline.
+ *
+ * @author Rubens Gomes
+ * @see "Section 4 and 6 of RFC7540 - Hypertext Transfer Protocol
+ * Version 2 (HTTP/2)"
+ */
+public final class Http2FrameWriter
+{
+    /**
+     * Instantiates a new frame writer.
+     *
+     * @param handle the client connection
+     * @param out the client output stream
+     * @param write_timeout_ms the time in milliseconds allowed
+     * for each write.
+     */
+    public Http2FrameWriter(SocketHandle handle, OutputStream out,
+                            long write_timeout_ms)
+    {
+        if( handle == null )
+        {
+            throw new IllegalArgumentException("handle cannot be null.");
+        }
+
+        if( out == null )
+        {
+            throw new IllegalArgumentException("out cannot be null.");
+        }
+
+        v_handle = handle;
+        v_out = out;
+        v_write_timeout_ms = write_timeout_ms;
+        v_header = new byte[Http2Frame.HEADER_LENGTH];
+    }
+
+    /**
+     * Writes a frame header without flushing.  The caller must
+     * hold the lock of this writer and write the payload next.
+     *
+     * @param type the frame type
+     * @param flags the frame flags
+     * @param stream_id the stream identifier
+     * @param length the payload length
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void writeFrameHeader(Http2FrameType type, int flags,
+                                              int stream_id, int length)
+        throws IOException
+    {
+        v_header[0] = (byte) (length >>> 16);
+        v_header[1] = (byte) (length >>> 8);
+        v_header[2] = (byte) length;
+        v_header[3] = (byte) type.getCode();
+        v_header[4] = (byte) flags;
+        v_header[5] = (byte) ((stream_id >>> 24) & 0x7f);
+        v_header[6] = (byte) (stream_id >>> 16);
+        v_header[7] = (byte) (stream_id >>> 8);
+        v_header[8] = (byte) stream_id;
+        v_out.write(v_header, 0, v_header.length);
+    }
+
+    /**
+     * Writes one frame without flushing.
+     *
+     * @param type the frame type
+     * @param flags the frame flags
+     * @param stream_id the stream identifier
+     * @param payload the payload octets
+     * @param off the payload offset
+     * @param len the payload length
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void writeFrame(Http2FrameType type, int flags,
+                                        int stream_id, byte payload [],
+                                        int off, int len)
+        throws IOException
+    {
+        writeFrameHeader(type, flags, stream_id, len);
+        if( len > 0 )
+        {
+            v_out.write(payload, off, len);
+        }
+    }
+
+    /**
+     * Flushes the frames written so far under the write
+     * deadline.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void flush()
+        throws IOException
+    {
+        HttpDeadlineTimer.Deadline deadline =
+                HttpDeadlineTimer.instance().arm(v_handle,
+                        v_write_timeout_ms, HttpMetricType.TIMEOUT_WRITE);
+        try
+        {
+            v_out.flush();
+        }
+        finally
+        {
+            deadline.cancel();
+        }
+    }
+
+    /**
+     * Writes and flushes one frame.
+     *
+     * @param type the frame type
+     * @param flags the frame flags
+     * @param stream_id the stream identifier
+     * @param payload the payload octets
+     * @param off the payload offset
+     * @param len the payload length
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void sendFrame(Http2FrameType type, int flags,
+                                       int stream_id, byte payload [],
+                                       int off, int len)
+        throws IOException
+    {
+        HttpDeadlineTimer.Deadline deadline =
+                HttpDeadlineTimer.instance().arm(v_handle,
+                        v_write_timeout_ms, HttpMetricType.TIMEOUT_WRITE);
+        try
+        {
+            writeFrame(type, flags, stream_id, payload, off, len);
+            v_out.flush();
+        }
+        finally
+        {
+            deadline.cancel();
+        }
+    }
+
+    /**
+     * Sends a SETTINGS frame.
+     *
+     * @param settings the settings to announce
+     * @throws IOException if an I/O error occurs.
+     */
+    public void sendSettings(Http2Settings settings)
+        throws IOException
+    {
+        byte payload [] = settings.encode();
+        sendFrame(Http2FrameType.SETTINGS, 0, 0, payload, 0, payload.length);
+    }
+
+    /**
+     * Acknowledges the SETTINGS frame received.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void sendSettingsAck()
+        throws IOException
+    {
+        sendFrame(Http2FrameType.SETTINGS, Http2Frame.FLAG_ACK, 0,
+                  EMPTY, 0, 0);
+    }
+
+    /**
+     * Answers a PING frame.
+     *
+     * @param payload the 8 octets of the PING received
+     * @throws IOException if an I/O error occurs.
+     */
+    public void sendPingAck(byte payload [])
+        throws IOException
+    {
+        sendFrame(Http2FrameType.PING, Http2Frame.FLAG_ACK, 0,
+                  payload, 0, payload.length);
+    }
+
+    /**
+     * Sends a WINDOW_UPDATE frame.
+     *
+     * @param stream_id the stream, or 0 for the connection
+     * @param increment the window size increment
+     * @throws IOException if an I/O error occurs.
+     */
+    public void sendWindowUpdate(int stream_id, int increment)
+        throws IOException
+    {
+        byte payload [] = new byte[4];
+        putInt(payload, 0, increment & 0x7fffffff);
+        sendFrame(Http2FrameType.WINDOW_UPDATE, 0, stream_id,
+                  payload, 0, payload.length);
+    }
+
+    /**
+     * Sends a RST_STREAM frame.
+     *
+     * @param stream_id the stream to reset
+     * @param error_code the reason of the reset
+     * @throws IOException if an I/O error occurs.
+     */
+    public void sendRstStream(int stream_id, Http2ErrorCodeType error_code)
+        throws IOException
+    {
+        byte payload [] = new byte[4];
+        putInt(payload, 0, error_code.getCode());
+        sendFrame(Http2FrameType.RST_STREAM, 0, stream_id,
+                  payload, 0, payload.length);
+    }
+
+    /**
+     * Sends a GOAWAY frame.
+     *
+     * @param last_stream_id the last stream processed
+     * @param error_code the reason the connection is closed
+     * @param debug_data the additional debug data, or null
+     * @throws IOException if an I/O error occurs.
+     */
+    public void sendGoAway(int last_stream_id, Http2ErrorCodeType error_code,
+                           String debug_data)
+        throws IOException
+    {
+        byte debug [] = (debug_data == null) ? EMPTY :
+                debug_data.getBytes("UTF-8");
+        byte payload [] = new byte[8 + debug.length];
+        putInt(payload, 0, last_stream_id & 0x7fffffff);
+        putInt(payload, 4, error_code.getCode());
+        System.arraycopy(debug, 0, payload, 8, debug.length);
+        sendFrame(Http2FrameType.GOAWAY, 0, 0, payload, 0, payload.length);
+    }
+
+    /**
+     * Writes raw octets, such as an HTTP/1.1 response, and
+     * flushes them.
+     *
+     * @param octets the octets to write
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void sendRaw(byte octets [])
+        throws IOException
+    {
+        HttpDeadlineTimer.Deadline deadline =
+                HttpDeadlineTimer.instance().arm(v_handle,
+                        v_write_timeout_ms, HttpMetricType.TIMEOUT_WRITE);
+        try
+        {
+            v_out.write(octets);
+            v_out.flush();
+        }
+        finally
+        {
+            deadline.cancel();
+        }
+    }
+
+    // ------ >>> Private <<< ------
+    private static final byte EMPTY [] = new byte[0];
+
+    private static void putInt(byte buff [], int pos, int value)
+    {
+        buff[pos] = (byte) (value >>> 24);
+        buff[pos + 1] = (byte) (value >>> 16);
+        buff[pos + 2] = (byte) (value >>> 8);
+        buff[pos + 3] = (byte) value;
+    }
+
+    private final SocketHandle v_handle;
+    private final OutputStream v_out;
+    private final long v_write_timeout_ms;
+    private final byte v_header [];
+}
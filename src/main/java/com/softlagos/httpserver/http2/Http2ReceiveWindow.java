@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Http2ReceiveWindow.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+/**
+ * The receive flow control window of a stream or of the
+ * connection: the number of octets the client may still send.
+ * Each DATA frame is taken out of the window as it is received,
+ * and the octets read or dropped are credited back in a
+ * WINDOW_UPDATE once half of the window is due, so the client
+ * never has more than the window in flight.
+ *
+ * @author Rubens Gomes
+ * @see "Section 6.9 of RFC7540 - Hypertext Transfer Protocol
+ * Version 2 (HTTP/2)"
+ */
+public final class Http2ReceiveWindow
+{
+    /**
+     * Instantiates a new window.
+     *
+     * @param size the size of the window, as announced to the
+     * client.
+     */
+    public Http2ReceiveWindow(int size)
+    {
+        if( size <= 0 )
+        {
+            throw new IllegalArgumentException("size must be greater than 0");
+        }
+
+        v_size = size;
+        v_window = size;
+    }
+
+    /**
+     * Takes the payload of a DATA frame, padding included, out of
+     * the window.
+     *
+     * @param length the length of the frame payload
+     * @return false, if the frame does not fit in the window, which
+     * is then left unchanged.
+     */
+    public synchronized boolean receive(int length)
+    {
+        if( length > v_window )
+        {
+            return false;
+        }
+
+        v_window -= length;
+        return true;
+    }
+
+    /**
+     * Credits octets read or dropped back to the window.
+     *
+     * @param count the number of octets
+     * @return the increment to send to the client in a
+     * WINDOW_UPDATE; or 0 while less than half of the window is due.
+     */
+    public synchronized int consumed(int count)
+    {
+        v_unacked += count;
+        if( v_unacked < v_size / 2 )
+        {
+            return 0;
+        }
+
+        int increment = v_unacked;
+        v_unacked = 0;
+        v_window += increment;
+        return increment;
+    }
+
+    /**
+     * @return the number of octets the client may still send
+     */
+    public synchronized long getWindow()
+    {
+        return v_window;
+    }
+
+    // ------ >>> Private <<< ------
+    private final int v_size;
+    private long v_window;
+    private int v_unacked;
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Http2Settings.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import com.softlagos.httpserver.enums.Http2ErrorCodeType;
+
+/**
+ * The settings of one endpoint of an HTTP/2 connection.  It
+ * starts with the initial values defined by the protocol and
+ * is updated by each SETTINGS frame.
+ *
+ * @author Rubens Gomes
+ * @see "Section 6.5 of RFC7540 - Hypertext Transfer Protocol
+ * Version 2 (HTTP/2)"
+ */
+public final class Http2Settings
+{
+    /** SETTINGS_HEADER_TABLE_SIZE */
+    public static final int HEADER_TABLE_SIZE = 0x1;
+
+    /** SETTINGS_ENABLE_PUSH */
+    public static final int ENABLE_PUSH = 0x2;
+
+    /** SETTINGS_MAX_CONCURRENT_STREAMS */
+    public static final int MAX_CONCURRENT_STREAMS = 0x3;
+
+    /** SETTINGS_INITIAL_WINDOW_SIZE */
+    public static final int INITIAL_WINDOW_SIZE = 0x4;
+
+    /** SETTINGS_MAX_FRAME_SIZE */
+    public static final int MAX_FRAME_SIZE = 0x5;
+
+    /** SETTINGS_MAX_HEADER_LIST_SIZE */
+    public static final int MAX_HEADER_LIST_SIZE = 0x6;
+
+    /** The initial flow control window size. */
+    public static final int DEFAULT_WINDOW_SIZE = 65535;
+
+    /** The initial and smallest maximum frame size. */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+    /** The largest maximum frame size. */
+    public static final int MAX_MAX_FRAME_SIZE = 16777215;
+
+    /** The largest flow control window size. */
+    public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Instantiates the settings with their initial values.
+     */
+    public Http2Settings()
+    {
+        v_header_table_size = 4096;
+        v_enable_push = true;
+        v_max_concurrent_streams = Integer.MAX_VALUE;
+        v_initial_window_size = DEFAULT_WINDOW_SIZE;
+        v_max_frame_size = DEFAULT_MAX_FRAME_SIZE;
+        v_max_header_list_size = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Applies the parameters of a SETTINGS frame payload.
+     *
+     * @param payload the SETTINGS frame payload
+     * @throws Http2Exception if the payload or one of the values
+     * is not valid.
+     */
+    public void apply(byte payload [])
+        throws Http2Exception
+    {
+        if( payload.length % 6 != 0 )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.FRAME_SIZE_ERROR,
+                    "SETTINGS payload length [" + payload.length +
+                    "] is not a multiple of 6");
+        }
+
+        for(int pos = 0; pos < payload.length; pos += 6)
+        {
+            int id = ((payload[pos] & 0xff) << 8) | (payload[pos + 1] & 0xff);
+            long value = ((payload[pos + 2] & 0xffL) << 24) |
+                         ((payload[pos + 3] & 0xffL) << 16) |
+                         ((payload[pos + 4] & 0xffL) << 8) |
+                         (payload[pos + 5] & 0xffL);
+            set(id, value);
+        }
+    }
+
+    /**
+     * Sets one parameter.  Unknown parameters are ignored.
+     *
+     * @param id the parameter identifier
+     * @param value the parameter value
+     * @throws Http2Exception if the value is not valid.
+     */
+    public void set(int id, long value)
+        throws Http2Exception
+    {
+        switch(id)
+        {
+            case HEADER_TABLE_SIZE:
+                v_header_table_size = (int) Math.min(value, Integer.MAX_VALUE);
+                break;
+
+            case ENABLE_PUSH:
+                if( value > 1 )
+                {
+                    throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                            "SETTINGS_ENABLE_PUSH [" + value + "] is not valid");
+                }
+                v_enable_push = (value == 1);
+                break;
+
+            case MAX_CONCURRENT_STREAMS:
+                v_max_concurrent_streams =
+                        (int) Math.min(value, Integer.MAX_VALUE);
+                break;
+
+            case INITIAL_WINDOW_SIZE:
+                if( value > MAX_WINDOW_SIZE )
+                {
+                    throw new Http2Exception(
+                            Http2ErrorCodeType.FLOW_CONTROL_ERROR,
+                            "SETTINGS_INITIAL_WINDOW_SIZE [" + value +
+                            "] is too large");
+                }
+                v_initial_window_size = (int) value;
+                break;
+
+            case MAX_FRAME_SIZE:
+                if( value < DEFAULT_MAX_FRAME_SIZE ||
+                    value > MAX_MAX_FRAME_SIZE )
+                {
+                    throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR,
+                            "SETTINGS_MAX_FRAME_SIZE [" + value +
+                            "] is not valid");
+                }
+                v_max_frame_size = (int) value;
+                break;
+
+            case MAX_HEADER_LIST_SIZE:
+                v_max_header_list_size =
+                        (int) Math.min(value, Integer.MAX_VALUE);
+                break;
+
+            default:
+                // unknown settings must be ignored
+                break;
+        }
+    }
+
+    /**
+     * Encodes the parameters that differ from their initial
+     * values as a SETTINGS frame payload.
+     *
+     * @return the SETTINGS frame payload
+     */
+    public byte [] encode()
+    {
+        Http2Settings initial = new Http2Settings();
+        byte buff [] = new byte[6 * 6];
+        int pos = 0;
+
+        if( v_header_table_size != initial.v_header_table_size )
+        {
+            pos = put(buff, pos, HEADER_TABLE_SIZE, v_header_table_size);
+        }
+
+        if( v_max_concurrent_streams != initial.v_max_concurrent_streams )
+        {
+            pos = put(buff, pos, MAX_CONCURRENT_STREAMS,
+                      v_max_concurrent_streams);
+        }
+
+        if( v_initial_window_size != initial.v_initial_window_size )
+        {
+            pos = put(buff, pos, INITIAL_WINDOW_SIZE, v_initial_window_size);
+        }
+
+        if( v_max_frame_size != initial.v_max_frame_size )
+        {
+            pos = put(buff, pos, MAX_FRAME_SIZE, v_max_frame_size);
+        }
+
+        if( v_max_header_list_size != initial.v_max_header_list_size )
+        {
+            pos = put(buff, pos, MAX_HEADER_LIST_SIZE, v_max_header_list_size);
+        }
+
+        byte payload [] = new byte[pos];
+        System.arraycopy(buff, 0, payload, 0, pos);
+        return payload;
+    }
+
+    /**
+     * @return the maximum size of the header compression table
+     * used to decode the header blocks sent to this endpoint.
+     */
+    public int getHeaderTableSize()
+    {
+        return v_header_table_size;
+    }
+
+    /**
+     * @return true, if server push is enabled.
+     */
+    public boolean isEnablePush()
+    {
+        return v_enable_push;
+    }
+
+    /**
+     * @return the maximum number of concurrent streams.
+     */
+    public int getMaxConcurrentStreams()
+    {
+        return v_max_concurrent_streams;
+    }
+
+    /**
+     * @return the initial stream flow control window size.
+     */
+    public int getInitialWindowSize()
+    {
+        return v_initial_window_size;
+    }
+
+    /**
+     * @return the largest frame payload this endpoint accepts.
+     */
+    public int getMaxFrameSize()
+    {
+        return v_max_frame_size;
+    }
+
+    /**
+     * @return the largest header list this endpoint accepts.
+     */
+    public int getMaxHeaderListSize()
+    {
+        return v_max_header_list_size;
+    }
+
+    // ------ >>> Private <<< ------
+    private static int put(byte buff [], int pos, int id, int value)
+    {
+        buff[pos++] = (byte) (id >>> 8);
+        buff[pos++] = (byte) id;
+        buff[pos++] = (byte) (value >>> 24);
+        buff[pos++] = (byte) (value >>> 16);
+        buff[pos++] = (byte) (value >>> 8);
+        buff[pos++] = (byte) value;
+        return pos;
+    }
+
+    private volatile int v_header_table_size;
+    private volatile boolean v_enable_push;
+    private volatile int v_max_concurrent_streams;
+    private volatile int v_initial_window_size;
+    private volatile int v_max_frame_size;
+    private volatile int v_max_header_list_size;
+}
@@ -0,0 +1,816 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Http2Stream.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.HttpCannedResponse;
+import com.softlagos.httpserver.HttpClientErrorException;
+import com.softlagos.httpserver.HttpCpuExecutor;
+import com.softlagos.httpserver.HttpErrorException;
+import com.softlagos.httpserver.HttpHandlerRegistry;
+import com.softlagos.httpserver.HttpMessageBody;
+import com.softlagos.httpserver.HttpMetrics;
+import com.softlagos.httpserver.HttpPriorityClassifier;
+import com.softlagos.httpserver.HttpProperties;
+import com.softlagos.httpserver.HttpQueueController;
+import com.softlagos.httpserver.HttpRateLimiter;
+import com.softlagos.httpserver.HttpRequest;
+import com.softlagos.httpserver.HttpRequestHandler;
+import com.softlagos.httpserver.HttpRequestHeader;
+import com.softlagos.httpserver.HttpRequestTarget;
+import com.softlagos.httpserver.HttpResponse;
+import com.softlagos.httpserver.HttpServerErrorException;
+import com.softlagos.httpserver.cache.HttpResponseCache;
+import com.softlagos.httpserver.enums.Http2ErrorCodeType;
+import com.softlagos.httpserver.enums.HttpMetricType;
+import com.softlagos.httpserver.enums.HttpPriorityType;
+import com.softlagos.httpserver.enums.HttpRequestMethodType;
+
+/**
+ * <p>
+ * An HTTP/2 stream carrying one request and its response.  It
+ * is created by the connection thread when the request header
+ * block is received, and then runs on a stream worker thread
+ * which calls the request handler, exactly as HttpTask does for
+ * an HTTP/1.x connection, while the connection thread keeps
+ * reading the frames of the other streams.
+ * </p>
+ * <p>
+ * The response header fields are sent in a HEADERS frame and
+ * the message body in DATA frames, each frame waiting for room
+ * in both the stream and the connection flow control windows.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "Section 5 and 8.1 of RFC7540 - Hypertext Transfer Protocol
+ * Version 2 (HTTP/2)"
+ */
+public final class Http2Stream implements Runnable
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(Http2Stream.class);
+
+    /** The request priority classifier. */
+    private static final HttpPriorityClassifier classifier =
+            new HttpPriorityClassifier();
+
+    /**
+     * @return the stream identifier
+     */
+    public int getId()
+    {
+        return v_id;
+    }
+
+    /**
+     * @return the request header, or null if the request header
+     * block was refused.
+     */
+    public HttpRequestHeader getRequestHeader()
+    {
+        return v_header;
+    }
+
+    /**
+     * @return true, if the client sent the whole request.
+     */
+    public boolean isRemoteClosed()
+    {
+        return v_remote_closed;
+    }
+
+    /**
+     * @return true, if the stream was reset by either endpoint.
+     */
+    public boolean isReset()
+    {
+        return v_reset;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run()
+    {
+        long queue_delay = System.nanoTime() - v_dispatched_nanos;
+        boolean detached = false;
+
+        try
+        {
+            if( v_error != null )
+            {
+                throw v_error;
+            }
+
+            HttpMetrics.instance().increment(HttpMetricType.REQUESTS);
+
+            HttpRateLimiter limiter = HttpRateLimiter.instance();
+            if( limiter != null &&
+                ! limiter.tryAcquireRequest(v_connection.getRemoteAddress()) )
+            {
+                throw new HttpClientErrorException(429, "too many requests");
+            }
+
+            HttpPriorityType priority = classifier.classify(v_header);
+            if( ! HttpQueueController.instance().admit(queue_delay,
+                                                      priority) )
+            {
+                HttpMetrics.instance().increment(priority.getShedMetric());
+                HttpResponse cached = (HttpResponseCache.instance() == null) ?
+                        null : HttpResponseCache.instance()
+                                .lookupOnOverload(v_header);
+                if( cached != null )
+                {
+                    // a shed request is better answered from the cache
+                    sendResponse(cached);
+                    return;
+                }
+
+                String msg = "server overloaded: " + priority +
+                        " priority request shed after queueing for [" +
+                        (queue_delay / 1000000L) + "] ms";
+                throw new HttpServerErrorException(503, msg);
+            }
+
+            HttpRequestTarget target =
+                    v_header.getRequestLine().getRequestTarget();
+            HttpRequestHandler handler =
+                    HttpHandlerRegistry.instance().lookup(target);
+            if( handler == null )
+            {
+                String msg = "no resource found for [" + target + "]";
+                throw new HttpClientErrorException(404, msg);
+            }
+
+            HttpRequest request = null;
+            if( handler.isStreaming() || v_body == null )
+            {
+                request = new HttpRequest(v_header, v_body);
+            }
+            else
+            {
+                request = new HttpRequest(v_header, readMessageBody());
+            }
+
+            request.setRemoteAddress(v_connection.getRemoteAddress());
+
+            final HttpResponse response =
+                    HttpCpuExecutor.instance().handle(handler, request);
+            if( response == null )
+            {
+                String msg = "handler for [" + target +
+                        "] did not return a response";
+                throw new HttpServerErrorException(500, msg);
+            }
+
+            if( isEventStream(response) )
+            {
+                // an event stream lasts as long as its client stays:
+                // it must not hold one of the stream workers shared
+                // by all the connections.
+                v_connection.detach(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            sendResponse(response);
+                        }
+                        catch(Exception ex)
+                        {
+                            sendError(ex);
+                        }
+                        finally
+                        {
+                            v_connection.streamClosed(Http2Stream.this);
+                        }
+                    }
+                });
+
+                detached = true;
+                return;
+            }
+
+            sendResponse(response);
+        }
+        catch(Exception ex)
+        {
+            sendError(ex);
+        }
+        finally
+        {
+            if(! detached )
+            {
+                v_connection.streamClosed(this);
+            }
+        }
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Instantiates a new stream.
+     *
+     * @param connection the connection of the stream
+     * @param id the stream identifier
+     * @param send_window the initial send window of the stream
+     * @param recv_window the initial receive window of the stream
+     */
+    Http2Stream(Http2Connection connection, int id, int send_window,
+                int recv_window)
+    {
+        v_connection = connection;
+        v_id = id;
+        v_send_window = send_window;
+        v_recv_window = new Http2ReceiveWindow(recv_window);
+        v_content_length = -1;
+    }
+
+    /**
+     * Sets the request received on this stream.
+     *
+     * @param header the request header
+     * @param content_length the announced Content-Length, or -1
+     * @param end_stream true, if the request has no message body
+     */
+    void setRequest(HttpRequestHeader header, long content_length,
+                    boolean end_stream)
+    {
+        v_header = header;
+        v_content_length = content_length;
+        if( end_stream )
+        {
+            v_remote_closed = true;
+        }
+        else
+        {
+            v_body = new Http2BodyInputStream(this, BODY_MIN_RATE,
+                                              BODY_GRACE_MS);
+        }
+    }
+
+    /**
+     * Sets the error answered on this stream instead of calling
+     * a request handler.
+     *
+     * @param error the HTTP error to answer
+     */
+    void setError(HttpErrorException error)
+    {
+        v_error = error;
+        v_body = null;
+    }
+
+    /**
+     * Stamps the time the stream was queued for a worker thread.
+     */
+    void dispatched()
+    {
+        v_dispatched_nanos = System.nanoTime();
+    }
+
+    /**
+     * Receives the payload of a DATA frame.  Called by the
+     * connection thread.
+     *
+     * @param data the message body octets
+     * @param end_stream true, if this is the last DATA frame
+     * @throws Http2Exception if the message body does not match
+     * the announced Content-Length.
+     */
+    void receiveData(byte data [], boolean end_stream)
+        throws Http2Exception
+    {
+        v_received += data.length;
+
+        if( v_content_length >= 0 &&
+            (v_received > v_content_length ||
+             (end_stream && v_received != v_content_length)) )
+        {
+            throw new Http2Exception(Http2ErrorCodeType.PROTOCOL_ERROR, v_id,
+                    "message body length [" + v_received +
+                    "] does not match Content-Length [" +
+                    v_content_length + "]");
+        }
+
+        Http2BodyInputStream body = v_body;
+        if( body == null || ! body.receive(data) )
+        {
+            // nobody reads this body: credit the window right away
+            consumed(data.length);
+        }
+
+        if( end_stream )
+        {
+            endRemote();
+        }
+    }
+
+    /**
+     * Marks the end of the request.  Called by the connection
+     * thread.
+     */
+    void endRemote()
+    {
+        v_remote_closed = true;
+
+        Http2BodyInputStream body = v_body;
+        if( body != null )
+        {
+            body.finish();
+        }
+    }
+
+    /**
+     * Marks the stream as reset, failing any pending read.
+     *
+     * @param reason the reason of the reset
+     */
+    void reset(String reason)
+    {
+        v_reset = true;
+
+        Http2BodyInputStream body = v_body;
+        if( body != null )
+        {
+            consumed(body.fail(new IOException("stream [" + v_id +
+                                               "] reset: " + reason)));
+        }
+    }
+
+    /**
+     * Drops the message body octets the request handler left
+     * unread, once the response is sent.
+     */
+    void release()
+    {
+        Http2BodyInputStream body = v_body;
+        if( body != null )
+        {
+            consumed(body.discard());
+        }
+    }
+
+    /**
+     * Resets the stream of a client too slow sending the message
+     * body.  Called by the stream worker thread reading it.
+     *
+     * @param reason the reason of the reset
+     */
+    void stalled(String reason)
+    {
+        if( logger.isDebugEnabled() )
+        {
+            logger.debug("stream [" + v_id + "] stalled: " + reason);
+        }
+
+        v_connection.resetStream(this, Http2ErrorCodeType.CANCEL);
+    }
+
+    /**
+     * Credits octets read from the message body back to the
+     * stream flow control window.
+     *
+     * @param count the number of octets read
+     */
+    void consumed(int count)
+    {
+        v_connection.streamConsumed(this, count);
+    }
+
+    /**
+     * @return the send window.  Guarded by the connection flow
+     * control lock.
+     */
+    long getSendWindow()
+    {
+        return v_send_window;
+    }
+
+    /**
+     * @param send_window the send window
+     */
+    void setSendWindow(long send_window)
+    {
+        v_send_window = send_window;
+    }
+
+    /**
+     * @return the receive window of the stream
+     */
+    Http2ReceiveWindow getRecvWindow()
+    {
+        return v_recv_window;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The minimum message body upload rate in bytes per second. */
+    private static final long BODY_MIN_RATE =
+            HttpProperties.getLong(HttpProperties.BODY_MIN_RATE, 1024L);
+
+    /** The time in milliseconds before the body rate is enforced. */
+    private static final int BODY_GRACE_MS =
+            HttpProperties.getInt(HttpProperties.BODY_GRACE_MS, 5000);
+
+    /** The media type of a Server-Sent Events stream. */
+    private static final String EVENT_STREAM = "text/event-stream";
+
+    /**
+     * Header fields that are specific to an HTTP/1.x connection
+     * and must not be sent on HTTP/2.
+     */
+    private static final String CONNECTION_FIELDS [] =
+        {
+            "connection", "keep-alive", "proxy-connection",
+            "transfer-encoding", "upgrade"
+        };
+
+    /**
+     * Reads the whole message body into memory for a handler
+     * that does not stream it.
+     *
+     * @return the message body
+     * @throws HttpErrorException if the message body is too large
+     * @throws IOException if the stream is reset.
+     */
+    private HttpMessageBody readMessageBody()
+        throws HttpErrorException, IOException
+    {
+        int max_body_size = v_connection.getMaxBodySize();
+        if( v_content_length > max_body_size )
+        {
+            String msg = "Content-Length [" + v_content_length +
+                    "] exceeds the maximum of [" + max_body_size + "] octets";
+            throw new HttpClientErrorException(413, msg);
+        }
+
+        HttpMessageBody message_body = new HttpMessageBody(
+                (v_content_length >= 0) ? (int) v_content_length
+                                        : max_body_size);
+        byte buff [] = new byte[8192];
+        int count = 0;
+
+        while( (count = v_body.read(buff, 0, buff.length)) >= 0 )
+        {
+            if( count > max_body_size - message_body.length() )
+            {
+                String msg = "message body exceeds the maximum of [" +
+                        max_body_size + "] octets";
+                throw new HttpClientErrorException(413, msg);
+            }
+
+            message_body.add(buff, 0, count);
+        }
+
+        return message_body;
+    }
+
+    /**
+     * Sends the given response on this stream.  The response to
+     * a HEAD request ends with its HEADERS frame, which keeps the
+     * content-length of the body.
+     *
+     * @param response the HTTP response
+     * @throws IOException if an I/O error occurs, or if the
+     * stream is reset.
+     */
+    private void sendResponse(HttpResponse response)
+        throws IOException
+    {
+        int status_code =
+                response.getHeader().getStatusLine().getStatusCode();
+        List<HpackHeaderField> fields = toFields(status_code,
+                response.getHeader().getHeaders());
+        boolean head = isHead();
+
+        if( response.isStreaming() )
+        {
+            v_headers_sent = true;
+            if( head )
+            {
+                // the body publisher is not subscribed; a length set
+                // by the handler, such as the size of a file, is kept
+                for(Map.Entry<String, String> entry :
+                        response.getHeader().getHeaders().entrySet())
+                {
+                    if( entry.getKey().equalsIgnoreCase("Content-Length") )
+                    {
+                        fields.add(new HpackHeaderField("content-length",
+                                                        entry.getValue()));
+                    }
+                }
+
+                v_connection.writeHeaders(this, fields, true);
+                return;
+            }
+
+            v_connection.writeHeaders(this, fields, false);
+            streamBody(response.getBodyPublisher());
+            return;
+        }
+
+        HttpMessageBody body = response.getMessageBody();
+        int length = (body == null) ? 0 : body.length();
+        fields.add(new HpackHeaderField("content-length",
+                                        Integer.toString(length)));
+
+        v_headers_sent = true;
+        v_connection.writeHeaders(this, fields, length == 0 || head);
+
+        if( length > 0 && ! head )
+        {
+            byte octets [] = body.getBytes();
+            v_connection.writeData(this, octets, 0, octets.length, true);
+        }
+    }
+
+    /**
+     * Answers the given error, or resets the stream if the
+     * response has already started.
+     *
+     * @param ex the exception raised
+     */
+    private void sendError(Exception ex)
+    {
+        if( v_reset )
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("stream [" + v_id + "] reset: " +
+                             ex.getMessage());
+            }
+
+            return;
+        }
+
+        try
+        {
+            if( v_headers_sent )
+            {
+                logger.error("error sending response on stream [" + v_id +
+                             "]: " + ex.getMessage());
+                v_connection.resetStream(this,
+                                         Http2ErrorCodeType.INTERNAL_ERROR);
+                return;
+            }
+
+            int status_code = (ex instanceof HttpErrorException) ?
+                    ((HttpErrorException) ex).getStatusCode() : 500;
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("stream [" + v_id + "] error response [" +
+                             status_code + "]: " + ex.getMessage());
+            }
+
+            ByteBuffer body = HttpCannedResponse.getBody(status_code);
+            byte octets [] = new byte[body.remaining()];
+            body.get(octets);
+
+            List<HpackHeaderField> fields = new ArrayList<HpackHeaderField>();
+            fields.add(new HpackHeaderField(":status",
+                    Integer.toString(status_code)));
+            fields.add(new HpackHeaderField("content-type", "text/plain"));
+            fields.add(new HpackHeaderField("content-length",
+                    Integer.toString(octets.length)));
+
+            v_headers_sent = true;
+            if( isHead() )
+            {
+                v_connection.writeHeaders(this, fields, true);
+                return;
+            }
+
+            v_connection.writeHeaders(this, fields, false);
+            v_connection.writeData(this, octets, 0, octets.length, true);
+        }
+        catch(IOException ioex)
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("error sending error response on stream [" +
+                             v_id + "]: " + ioex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Maps the response header fields to HTTP/2 header fields:
+     * the status pseudo-header field first, lower case names,
+     * and no connection specific fields.
+     */
+    /**
+     * @return true, if the request method is HEAD
+     */
+    private boolean isHead()
+    {
+        HttpRequestHeader header = v_header;
+        return header != null && header.getRequestLine().getMethod() ==
+                HttpRequestMethodType.HEAD;
+    }
+
+    /**
+     * @return true, if the response is a Server-Sent Events stream.
+     */
+    private static boolean isEventStream(HttpResponse response)
+    {
+        if(! response.isStreaming() )
+        {
+            return false;
+        }
+
+        for(Map.Entry<String, String> entry :
+                response.getHeader().getHeaders().entrySet())
+        {
+            if( entry.getKey().equalsIgnoreCase("Content-Type") )
+            {
+                return entry.getValue().trim().toLowerCase(Locale.ROOT)
+                        .startsWith(EVENT_STREAM);
+            }
+        }
+
+        return false;
+    }
+
+    private static List<HpackHeaderField> toFields(int status_code,
+                                                   Map<String, String> headers)
+    {
+        List<HpackHeaderField> fields = new ArrayList<HpackHeaderField>();
+        fields.add(new HpackHeaderField(":status",
+                                        Integer.toString(status_code)));
+
+        for(Map.Entry<String, String> entry : headers.entrySet())
+        {
+            String name = entry.getKey().toLowerCase(Locale.ROOT);
+            if( isConnectionField(name) || name.equals("content-length") )
+            {
+                continue;
+            }
+
+            fields.add(new HpackHeaderField(name, entry.getValue()));
+        }
+
+        return fields;
+    }
+
+    /**
+     * @param name a lower case header field name
+     * @return true, if the field is specific to HTTP/1.x
+     */
+    static boolean isConnectionField(String name)
+    {
+        for(String field : CONNECTION_FIELDS)
+        {
+            if( field.equals(name) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Sends the buffers of a streaming response body in DATA
+     * frames, requesting the next buffer only once the previous
+     * one has been sent.
+     *
+     * @param publisher the response body publisher
+     * @throws IOException if an I/O error occurs, if the stream is
+     * reset, or if the publisher fails.
+     */
+    private void streamBody(Flow.Publisher<ByteBuffer> publisher)
+        throws IOException
+    {
+        final BlockingQueue<Object> signals = new LinkedBlockingQueue<Object>();
+        final Flow.Subscription subscriptions [] = new Flow.Subscription[1];
+        final Object complete = new Object();
+
+        publisher.subscribe(new Flow.Subscriber<ByteBuffer>()
+        {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription)
+            {
+                signals.add(subscription);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item)
+            {
+                signals.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable)
+            {
+                signals.add(throwable);
+            }
+
+            @Override
+            public void onComplete()
+            {
+                signals.add(complete);
+            }
+        });
+
+        try
+        {
+            byte scratch [] = null;
+            while( true )
+            {
+                Object signal = signals.take();
+
+                if( signal instanceof Flow.Subscription )
+                {
+                    subscriptions[0] = (Flow.Subscription) signal;
+                    subscriptions[0].request(1);
+                    continue;
+                }
+
+                if( signal == complete )
+                {
+                    v_connection.writeData(this, new byte[0], 0, 0, true);
+                    return;
+                }
+
+                if( signal instanceof Throwable )
+                {
+                    Throwable cause = (Throwable) signal;
+                    throw new IOException("response body publisher failed: " +
+                                          cause.getMessage(), cause);
+                }
+
+                ByteBuffer buff = (ByteBuffer) signal;
+                int length = buff.remaining();
+                if( buff.hasArray() )
+                {
+                    v_connection.writeData(this, buff.array(),
+                            buff.arrayOffset() + buff.position(), length, false);
+                }
+                else
+                {
+                    if( scratch == null || scratch.length < length )
+                    {
+                        scratch = new byte[length];
+                    }
+
+                    buff.duplicate().get(scratch, 0, length);
+                    v_connection.writeData(this, scratch, 0, length, false);
+                }
+
+                subscriptions[0].request(1);
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the " +
+                                             "response body");
+        }
+        catch(IOException ex)
+        {
+            if( subscriptions[0] != null )
+            {
+                subscriptions[0].cancel();
+            }
+
+            throw ex;
+        }
+    }
+
+    private final Http2Connection v_connection;
+    private final int v_id;
+    private volatile HttpRequestHeader v_header;
+    private volatile HttpErrorException v_error;
+    private volatile Http2BodyInputStream v_body;
+    private volatile long v_content_length;
+    private volatile boolean v_remote_closed;
+    private volatile boolean v_reset;
+    private volatile long v_dispatched_nanos;
+    private long v_received;
+    private long v_send_window;
+    private final Http2ReceiveWindow v_recv_window;
+    private boolean v_headers_sent;
+}
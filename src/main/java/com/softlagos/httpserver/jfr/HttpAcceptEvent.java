@@ -0,0 +1,26 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpAcceptEvent.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The setting up of an accepted connection for a worker thread.
+ *
+ * @author Rubens Gomes
+ */
+@Name("com.softlagos.httpserver.Accept")
+@Label("HTTP Connection Accept")
+@Description("An accepted connection set up for a worker thread")
+public final class HttpAcceptEvent
+  extends HttpEvent
+{
+}
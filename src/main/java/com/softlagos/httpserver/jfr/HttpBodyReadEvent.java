@@ -0,0 +1,27 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpBodyReadEvent.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The reading of a whole request message body for a buffering
+ * handler; the bytes are the octets of the message body.
+ *
+ * @author Rubens Gomes
+ */
+@Name("com.softlagos.httpserver.BodyRead")
+@Label("HTTP Request Body Read")
+@Description("A request message body read for a buffering handler")
+public final class HttpBodyReadEvent
+  extends HttpEvent
+{
+}
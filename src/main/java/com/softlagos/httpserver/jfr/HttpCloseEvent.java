@@ -0,0 +1,26 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpCloseEvent.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The closing of a connection once served.
+ *
+ * @author Rubens Gomes
+ */
+@Name("com.softlagos.httpserver.Close")
+@Label("HTTP Connection Close")
+@Description("A connection closed")
+public final class HttpCloseEvent
+  extends HttpEvent
+{
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpEvent.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+import com.softlagos.httpserver.HttpRequestHeader;
+import com.softlagos.httpserver.HttpRequestLine;
+
+/**
+ * <p>
+ * The base of the Flight Recorder events emitted for each phase of
+ * serving a connection.  An event is begun before the phase and
+ * recorded after it; its fields are only filled in if the event is
+ * enabled in a running recording, so an event not recorded costs
+ * the reading of the clock.
+ * </p>
+ * <p>
+ * The fields are named after the event attributes they define,
+ * and are protected: the Flight Recorder ignores the private fields
+ * of a superclass.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+@Category({"HTTP Server"})
+@StackTrace(false)
+public abstract class HttpEvent
+  extends Event
+{
+    /**
+     * Ends the event and commits it if it is recorded.
+     *
+     * @param connection_id the id of the connection served
+     * @param header the request header, or null if not yet read
+     * @param status_code the status code of the response, or 0 if
+     * not yet known
+     * @param octets the octets read or written in the phase
+     */
+    public void record(long connection_id, HttpRequestHeader header,
+                       int status_code, long octets)
+    {
+        end();
+        if(! shouldCommit() )
+        {
+            return;
+        }
+
+        connectionId = connection_id;
+        if( header != null )
+        {
+            HttpRequestLine line = header.getRequestLine();
+            method = line.getMethod().toString();
+            target = line.getRequestURI();
+        }
+
+        status = status_code;
+        bytes = octets;
+        commit();
+    }
+
+    @Label("Connection Id")
+    protected long connectionId;
+
+    @Label("Method")
+    protected String method;
+
+    @Label("Target")
+    protected String target;
+
+    @Label("Status")
+    protected int status;
+
+    @Label("Bytes")
+    @DataAmount
+    protected long bytes;
+}
@@ -0,0 +1,26 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpHandlerEvent.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The run of a request handler up to the response it returns.
+ *
+ * @author Rubens Gomes
+ */
+@Name("com.softlagos.httpserver.Handler")
+@Label("HTTP Request Handler")
+@Description("A request handler run")
+public final class HttpHandlerEvent
+  extends HttpEvent
+{
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpHeaderEvent.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The reading and parsing of the request header fields; the bytes
+ * are the octets of the header fields.
+ *
+ * @author Rubens Gomes
+ */
+@Name("com.softlagos.httpserver.Header")
+@Label("HTTP Request Header")
+@Description("The request header fields read and parsed")
+public final class HttpHeaderEvent
+  extends HttpEvent
+{
+}
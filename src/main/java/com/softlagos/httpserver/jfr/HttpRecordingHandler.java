@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpRecordingHandler.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.jfr;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.HttpClientErrorException;
+import com.softlagos.httpserver.HttpErrorException;
+import com.softlagos.httpserver.HttpMessageBody;
+import com.softlagos.httpserver.HttpRequest;
+import com.softlagos.httpserver.HttpRequestHandler;
+import com.softlagos.httpserver.HttpResponse;
+import com.softlagos.httpserver.HttpResponseHeader;
+import com.softlagos.httpserver.HttpServerErrorException;
+import com.softlagos.httpserver.HttpStatusLine;
+import com.softlagos.httpserver.enums.HttpRequestMethodType;
+
+/**
+ * <p>
+ * Starts, dumps and stops a Flight Recorder recording on demand,
+ * one at a time, with the "profile" settings, which also record the
+ * HTTP server events.  A POST to the route followed by:
+ * </p>
+ * <ul>
+ * <li>/start starts a recording;</li>
+ * <li>/dump writes what was recorded so far to a new file in the
+ * dump directory, and answers with its path;</li>
+ * <li>/stop stops the recording and discards it.</li>
+ * </ul>
+ * <p>
+ * Only clients on the loopback interface may control the
+ * recordings; the others are answered with 403.  Behind a reverse
+ * proxy on the same host every client looks local, so the proxy
+ * must not forward the route.  Only the most recent dumps are kept
+ * in the dump directory; the older ones are deleted.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpRecordingHandler
+  implements HttpRequestHandler
+{
+    private static final Logger logger =
+            LogManager.getLogger(HttpRecordingHandler.class);
+
+    /**
+     * Instantiates a new recording handler.
+     *
+     * @param route the path prefix the handler is registered on
+     * @param directory the directory the recordings are dumped to
+     * @param max_dumps the number of dump files kept in the directory
+     */
+    public HttpRecordingHandler(String route, Path directory, int max_dumps)
+    {
+        if( route == null )
+        {
+            throw new IllegalArgumentException("route cannot be null.");
+        }
+
+        if( directory == null )
+        {
+            throw new IllegalArgumentException("directory cannot be null.");
+        }
+
+        if( max_dumps <= 0 )
+        {
+            throw new IllegalArgumentException(
+                    "max_dumps must be greater than 0");
+        }
+
+        v_route = route;
+        v_directory = directory;
+        v_max_dumps = max_dumps;
+    }
+
+    /* (non-Javadoc)
+     * @see com.softlagos.httpserver.HttpRequestHandler#handle(com.softlagos.httpserver.HttpRequest)
+     */
+    @Override
+    public HttpResponse handle(HttpRequest request)
+        throws HttpErrorException, IOException
+    {
+        InetAddress client = request.getRemoteAddress();
+        if( client == null || ! client.isLoopbackAddress() )
+        {
+            logger.warn("recording command refused to [" + client + "]");
+            throw new HttpClientErrorException(403,
+                    "recordings are only controlled from the loopback " +
+                    "interface");
+        }
+
+        if( request.getHeader().getRequestLine().getMethod() !=
+                HttpRequestMethodType.POST )
+        {
+            throw new HttpClientErrorException(405,
+                    "recordings are only controlled with POST");
+        }
+
+        String path = request.getHeader().getRequestLine()
+                .getRequestTarget().getNormalizedPath();
+        String command = path.substring(
+                Math.min(path.indexOf(v_route) + v_route.length(),
+                         path.length()));
+
+        String result = null;
+        synchronized(this)
+        {
+            if( "/start".equals(command) )
+            {
+                result = start();
+            }
+            else if( "/dump".equals(command) )
+            {
+                result = dump();
+            }
+            else if( "/stop".equals(command) )
+            {
+                result = stop();
+            }
+            else
+            {
+                throw new HttpClientErrorException(404,
+                        "unknown recording command [" + command + "]");
+            }
+        }
+
+        HttpResponseHeader header = new HttpResponseHeader(
+                HttpStatusLine.makeHttpStatusLine(200));
+        header.addHeader("Content-Type", "text/plain");
+        header.addHeader("Cache-Control", "no-store");
+
+        HttpMessageBody body = new HttpMessageBody();
+        body.add(result + "\n");
+
+        return new HttpResponse(header, body);
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The settings of the recordings. */
+    private static final String SETTINGS = "profile";
+
+    /** The prefix of the dump file names. */
+    private static final String PREFIX = "httpserver-";
+
+    /**
+     * @return the result of the command
+     * @throws HttpErrorException if a recording is already running,
+     * or cannot be started.
+     */
+    private String start()
+        throws HttpErrorException
+    {
+        if( v_recording != null )
+        {
+            throw new HttpClientErrorException(409,
+                    "a recording is already running");
+        }
+
+        try
+        {
+            Recording recording = new Recording(
+                    Configuration.getConfiguration(SETTINGS));
+            recording.setName("httpserver");
+            recording.setToDisk(true);
+            recording.start();
+            v_recording = recording;
+        }
+        catch(IOException | ParseException | IllegalStateException ex)
+        {
+            String msg = "error starting recording: " + ex.getMessage();
+            logger.error(msg);
+            throw new HttpServerErrorException(500, msg, ex);
+        }
+
+        logger.info("recording started");
+        return "recording started";
+    }
+
+    /**
+     * @return the path of the recording file
+     * @throws HttpErrorException if no recording is running.
+     * @throws IOException if an I/O error occurs writing the file.
+     */
+    private String dump()
+        throws HttpErrorException, IOException
+    {
+        if( v_recording == null )
+        {
+            throw new HttpClientErrorException(409, "no recording is running");
+        }
+
+        Path file = v_directory.resolve(PREFIX +
+                new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) +
+                ".jfr");
+        v_recording.dump(file);
+
+        logger.info("recording dumped to [" + file + "]");
+        deleteOldDumps();
+        return file.toString();
+    }
+
+    /**
+     * Deletes the oldest dump files past the number kept.  The file
+     * names carry the time of the dump, so they sort oldest first.
+     *
+     * @throws IOException if an I/O error occurs listing the directory.
+     */
+    private void deleteOldDumps()
+        throws IOException
+    {
+        List<Path> dumps = new ArrayList<Path>();
+        try(DirectoryStream<Path> stream =
+                Files.newDirectoryStream(v_directory, PREFIX + "*.jfr"))
+        {
+            for(Path dump : stream)
+            {
+                dumps.add(dump);
+            }
+        }
+
+        Collections.sort(dumps);
+        for(int idx = 0; idx < dumps.size() - v_max_dumps; idx++)
+        {
+            try
+            {
+                Files.deleteIfExists(dumps.get(idx));
+                if( logger.isDebugEnabled() )
+                {
+                    logger.debug("old recording [" + dumps.get(idx) +
+                                 "] deleted");
+                }
+            }
+            catch(IOException ex)
+            {
+                logger.warn("error deleting old recording [" +
+                            dumps.get(idx) + "]: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the result of the command
+     * @throws HttpErrorException if no recording is running.
+     */
+    private String stop()
+        throws HttpErrorException
+    {
+        if( v_recording == null )
+        {
+            throw new HttpClientErrorException(409, "no recording is running");
+        }
+
+        v_recording.stop();
+        v_recording.close();
+        v_recording = null;
+
+        logger.info("recording stopped");
+        return "recording stopped";
+    }
+
+    private final String v_route;
+    private final Path v_directory;
+    private final int v_max_dumps;
+    private Recording v_recording;
+}
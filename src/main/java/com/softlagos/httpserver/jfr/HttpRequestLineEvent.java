@@ -0,0 +1,27 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpRequestLineEvent.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The reading and parsing of a request-line; the bytes are the
+ * octets of the request-line.
+ *
+ * @author Rubens Gomes
+ */
+@Name("com.softlagos.httpserver.RequestLine")
+@Label("HTTP Request Line")
+@Description("A request-line read and parsed")
+public final class HttpRequestLineEvent
+  extends HttpEvent
+{
+}
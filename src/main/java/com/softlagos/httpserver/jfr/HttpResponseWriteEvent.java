@@ -0,0 +1,27 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpResponseWriteEvent.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The writing of a response; the bytes are the octets of the
+ * message body.
+ *
+ * @author Rubens Gomes
+ */
+@Name("com.softlagos.httpserver.ResponseWrite")
+@Label("HTTP Response Write")
+@Description("A response written to the client")
+public final class HttpResponseWriteEvent
+  extends HttpEvent
+{
+}
@@ -0,0 +1,483 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpMultipartParser.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.multipart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.HttpClientErrorException;
+import com.softlagos.httpserver.HttpErrorException;
+import com.softlagos.httpserver.HttpHeaderFields;
+import com.softlagos.httpserver.HttpProperties;
+import com.softlagos.httpserver.HttpRequestHeader;
+
+/**
+ * <p>
+ * Parses a multipart/form-data message body incrementally, as it is
+ * read from its stream, and hands each part to a listener as soon as
+ * the delimiter ending it is read.
+ * </p>
+ * <p>
+ * The delimiters are found with a Boyer-Moore-Horspool search over
+ * a fixed buffer, which skips most of the octets of the content
+ * without comparing them.  The content of a part is copied out of
+ * the buffer as it goes, so that only the octets that may be the
+ * start of a delimiter are kept in the buffer: a part is kept in
+ * memory up to the memory threshold, and spooled to a file past it,
+ * so an upload of any size only takes a buffer of the heap.
+ * </p>
+ * <pre>
+ * multipart-body = [preamble CRLF] dash-boundary transport-padding
+ *                  CRLF body-part *encapsulation close-delimiter
+ *                  transport-padding [CRLF epilogue]
+ * </pre>
+ *
+ * @author Rubens Gomes
+ * @see "RFC7578 - Returning Values from Forms: multipart/form-data"
+ * @see "Section 5.1.1 of RFC2046 - Multipurpose Internet Mail
+ * Extensions (MIME) Part Two: Media Types"
+ */
+public final class HttpMultipartParser
+{
+    private static final Logger logger =
+            LogManager.getLogger(HttpMultipartParser.class);
+
+    /**
+     * Creates the parser of the message body of the given request,
+     * configured from the system properties.
+     *
+     * @param header the request header
+     * @return the parser
+     * @throws HttpClientErrorException if the request body is not
+     * multipart/form-data, or has no valid boundary.
+     */
+    public static HttpMultipartParser create(HttpRequestHeader header)
+        throws HttpClientErrorException
+    {
+        if( header == null )
+        {
+            throw new IllegalArgumentException("header cannot be null.");
+        }
+
+        String type = header.getHeader("Content-Type");
+        if( type == null ||
+            ! type.regionMatches(true, 0, MEDIA_TYPE, 0, MEDIA_TYPE.length()) )
+        {
+            String msg = "message body of type [" + type +
+                    "] is not " + MEDIA_TYPE;
+            throw new HttpClientErrorException(415, msg);
+        }
+
+        String boundary = HttpPart.parameter(type, "boundary");
+        if( boundary == null || boundary.length() == 0 ||
+            boundary.length() > MAX_BOUNDARY_LENGTH )
+        {
+            String msg = "Content-Type [" + type +
+                    "] has no valid boundary";
+            throw new HttpClientErrorException(400, msg);
+        }
+
+        return new HttpMultipartParser(boundary,
+                HttpProperties.getInt(HttpProperties.MULTIPART_THRESHOLD,
+                        64 * 1024),
+                HttpProperties.getLong(HttpProperties.MULTIPART_MAX_PART_SIZE,
+                        100L * 1024 * 1024),
+                Paths.get(HttpProperties.getString(HttpProperties.MULTIPART_DIR,
+                        System.getProperty("java.io.tmpdir"))));
+    }
+
+    /**
+     * Instantiates a new multipart parser.
+     *
+     * @param boundary the boundary of the parts
+     * @param threshold the size above which a part is spooled to a
+     * file
+     * @param max_part_size the maximum size of a part
+     * @param directory the directory of the spooled files
+     */
+    public HttpMultipartParser(String boundary, int threshold,
+                               long max_part_size, Path directory)
+    {
+        if( boundary == null || boundary.length() == 0 ||
+            boundary.length() > MAX_BOUNDARY_LENGTH )
+        {
+            throw new IllegalArgumentException("boundary cannot be null " +
+                    "and must be 1 to " + MAX_BOUNDARY_LENGTH + " long.");
+        }
+
+        if( directory == null )
+        {
+            throw new IllegalArgumentException("directory cannot be null.");
+        }
+
+        // the delimiter of a part is the boundary on a line of its own
+        v_delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        v_shifts = new int[256];
+        for(int i = 0; i < v_shifts.length; i++)
+        {
+            v_shifts[i] = v_delimiter.length;
+        }
+
+        for(int i = 0; i < v_delimiter.length - 1; i++)
+        {
+            v_shifts[v_delimiter[i] & 0xFF] = v_delimiter.length - 1 - i;
+        }
+
+        v_threshold = Math.max(threshold, 0);
+        v_max_part_size = max_part_size;
+        v_directory = directory;
+    }
+
+    /**
+     * Parses the given message body, handing each part to the given
+     * listener once read.  The body is read to its end.
+     *
+     * @param body the message body stream
+     * @param listener the listener of the parts
+     * @return the number of parts read
+     * @throws HttpErrorException if the body is malformed or a part
+     * too large, or the listener raises one.
+     * @throws IOException if an I/O error occurs reading the body or
+     * spooling a part, or the listener raises one.
+     */
+    public int parse(InputStream body, HttpPartListener listener)
+        throws HttpErrorException, IOException
+    {
+        if( body == null )
+        {
+            throw new IllegalArgumentException("body cannot be null.");
+        }
+
+        if( listener == null )
+        {
+            throw new IllegalArgumentException("listener cannot be null.");
+        }
+
+        v_body = body;
+        v_buff = new byte[BUFFER_SIZE];
+
+        // the first delimiter may start the body, without the CRLF
+        // ending the preamble
+        v_buff[0] = '\r';
+        v_buff[1] = '\n';
+        v_start = 0;
+        v_end = 2;
+
+        // the preamble is discarded
+        skipTo(null);
+
+        int count = 0;
+        while( true )
+        {
+            require(2);
+            if( v_buff[v_start] == '-' && v_buff[v_start + 1] == '-' )
+            {
+                break;
+            }
+
+            // the transport padding of the delimiter line
+            int len = readLine();
+            for(int i = 0; i < len; i++)
+            {
+                if( v_buff[v_start + i] != ' ' && v_buff[v_start + i] != '\t' )
+                {
+                    throw new HttpClientErrorException(400,
+                            "multipart delimiter followed by [" +
+                            new String(v_buff, v_start, len,
+                                       StandardCharsets.ISO_8859_1) + "]");
+                }
+            }
+
+            v_start += len + 2;
+
+            HttpPart part = new HttpPart(readFields(), v_threshold,
+                                         v_directory);
+            try
+            {
+                skipTo(part);
+                part.finish();
+                count++;
+
+                if(logger.isDebugEnabled())
+                {
+                    logger.debug("read multipart " + part);
+                }
+
+                listener.part(part);
+            }
+            finally
+            {
+                part.delete();
+            }
+        }
+
+        // the epilogue is discarded
+        while( v_body.read(v_buff, 0, v_buff.length) >= 0 )
+        {
+            continue;
+        }
+
+        v_buff = null;
+        v_body = null;
+        return count;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The media type of the message bodies parsed. */
+    private static final String MEDIA_TYPE = "multipart/form-data";
+
+    /** The longest boundary allowed. */
+    private static final int MAX_BOUNDARY_LENGTH = 70;
+
+    /** The size of the buffer, which also bounds a part header line. */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** The maximum number of header fields of a part. */
+    private static final int MAX_PART_FIELDS = 32;
+
+    /**
+     * Reads up to and past the next delimiter, writing the octets
+     * before it to the given part.
+     *
+     * @param part the part, or null to discard the octets
+     * @throws HttpErrorException if the body ends before the
+     * delimiter, or the part grows too large.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void skipTo(HttpPart part)
+        throws HttpErrorException, IOException
+    {
+        while( true )
+        {
+            int match = search();
+            if( match >= 0 )
+            {
+                write(part, match);
+                v_start = match + v_delimiter.length;
+                return;
+            }
+
+            // the octets past these might start the delimiter
+            int safe = v_end - v_delimiter.length + 1;
+            if( safe > v_start )
+            {
+                write(part, safe);
+            }
+
+            if(! fill() )
+            {
+                throw truncated();
+            }
+        }
+    }
+
+    /**
+     * @param part the part, or null to discard the octets
+     * @param end the end of the octets of the part in the buffer
+     * @throws HttpErrorException if the part grows too large.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void write(HttpPart part, int end)
+        throws HttpErrorException, IOException
+    {
+        if( part != null )
+        {
+            if( v_max_part_size > 0 &&
+                part.getSize() + (end - v_start) > v_max_part_size )
+            {
+                String msg = "multipart " + part +
+                        " larger than [" + v_max_part_size + "]";
+                throw new HttpClientErrorException(413, msg);
+            }
+
+            part.write(v_buff, v_start, end - v_start);
+        }
+
+        v_start = end;
+    }
+
+    /**
+     * Searches the buffer for the delimiter.
+     *
+     * @return the position of the delimiter, or -1 if not found.
+     * @see "Horspool, R. N. (1980). Practical fast searching in
+     * strings."
+     */
+    private int search()
+    {
+        int last = v_delimiter.length - 1;
+        int pos = v_start;
+        while( pos + last < v_end )
+        {
+            int i = last;
+            while( i >= 0 && v_buff[pos + i] == v_delimiter[i] )
+            {
+                i--;
+            }
+
+            if( i < 0 )
+            {
+                return pos;
+            }
+
+            pos += v_shifts[v_buff[pos + last] & 0xFF];
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reads the header fields of a part, up to the empty line
+     * ending them.
+     *
+     * @return the header fields
+     * @throws HttpErrorException if a field is malformed, or there
+     * are too many.
+     * @throws IOException if an I/O error occurs.
+     */
+    private HttpHeaderFields readFields()
+        throws HttpErrorException, IOException
+    {
+        HttpHeaderFields fields = new HttpHeaderFields();
+        while( true )
+        {
+            int len = readLine();
+            if( len == 0 )
+            {
+                v_start += 2;
+                return fields;
+            }
+
+            if(! fields.add(v_buff, v_start, len) ||
+               fields.size() > MAX_PART_FIELDS )
+            {
+                String msg = "malformed multipart header field [" +
+                        new String(v_buff, v_start, len,
+                                   StandardCharsets.ISO_8859_1) + "]";
+                throw new HttpClientErrorException(400, msg);
+            }
+
+            v_start += len + 2;
+        }
+    }
+
+    /**
+     * Buffers a whole line.
+     *
+     * @return the length of the line at the start of the buffer,
+     * without its CRLF
+     * @throws HttpErrorException if the body ends first, or the line
+     * is longer than the buffer.
+     * @throws IOException if an I/O error occurs.
+     */
+    private int readLine()
+        throws HttpErrorException, IOException
+    {
+        int pos = v_start;
+        while( true )
+        {
+            while( pos + 1 < v_end )
+            {
+                if( v_buff[pos] == '\r' && v_buff[pos + 1] == '\n' )
+                {
+                    return pos - v_start;
+                }
+
+                pos++;
+            }
+
+            if( v_end - v_start == v_buff.length )
+            {
+                throw new HttpClientErrorException(400,
+                        "multipart header line longer than [" +
+                        v_buff.length + "]");
+            }
+
+            pos -= v_start;
+            if(! fill() )
+            {
+                throw truncated();
+            }
+
+            pos += v_start;
+        }
+    }
+
+    /**
+     * Buffers at least the given number of octets.
+     *
+     * @param count the number of octets
+     * @throws HttpErrorException if the body ends first.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void require(int count)
+        throws HttpErrorException, IOException
+    {
+        while( v_end - v_start < count )
+        {
+            if(! fill() )
+            {
+                throw truncated();
+            }
+        }
+    }
+
+    /**
+     * Moves the octets not yet parsed to the start of the buffer,
+     * and reads more after them.
+     *
+     * @return false, if the body has ended.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean fill()
+        throws IOException
+    {
+        if( v_start > 0 )
+        {
+            System.arraycopy(v_buff, v_start, v_buff, 0, v_end - v_start);
+            v_end -= v_start;
+            v_start = 0;
+        }
+
+        int count = v_body.read(v_buff, v_end, v_buff.length - v_end);
+        if( count < 0 )
+        {
+            return false;
+        }
+
+        v_end += count;
+        return true;
+    }
+
+    /**
+     * @return the error of a body ending before its close-delimiter
+     */
+    private static HttpClientErrorException truncated()
+    {
+        return new HttpClientErrorException(400,
+                "multipart body ended before its close-delimiter");
+    }
+
+    private final byte v_delimiter [];
+    private final int v_shifts [];
+    private final int v_threshold;
+    private final long v_max_part_size;
+    private final Path v_directory;
+    private InputStream v_body;
+    private byte v_buff [];
+    private int v_start;
+    private int v_end;
+}
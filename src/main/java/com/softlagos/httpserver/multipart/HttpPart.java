@@ -0,0 +1,382 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpPart.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.multipart;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.softlagos.httpserver.HttpHeaderFields;
+import com.softlagos.httpserver.HttpMetrics;
+import com.softlagos.httpserver.enums.HttpMetricType;
+
+/**
+ * <p>
+ * A part of a multipart/form-data message body: its header
+ * fields, and its content, kept in memory when small and spooled to
+ * a file otherwise.
+ * </p>
+ * <p>
+ * The file of a spooled part is deleted once the listener it was
+ * given to returns; a listener keeping an upload moves the file
+ * elsewhere.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "RFC7578 - Returning Values from Forms: multipart/form-data"
+ */
+public final class HttpPart
+{
+    /**
+     * @return the field name of the part, from its
+     * Content-Disposition; or null if it has none.
+     */
+    public String getName()
+    {
+        return v_name;
+    }
+
+    /**
+     * @return the name of the file uploaded in the part, from its
+     * Content-Disposition; or null if the part is not a file.
+     */
+    public String getFileName()
+    {
+        return v_file_name;
+    }
+
+    /**
+     * @return the media type of the part content
+     */
+    public String getContentType()
+    {
+        String type = v_fields.get("Content-Type");
+        return (type == null) ? DEFAULT_CONTENT_TYPE : type;
+    }
+
+    /**
+     * @param name the field name
+     * @return the value of the given header field of the part, or
+     * null if the part does not have it.
+     */
+    public String getHeader(String name)
+    {
+        return v_fields.get(name);
+    }
+
+    /**
+     * @return the header fields of the part
+     */
+    public HttpHeaderFields getHeaderFields()
+    {
+        return v_fields;
+    }
+
+    /**
+     * @return the number of octets of the part content
+     */
+    public long getSize()
+    {
+        return v_size;
+    }
+
+    /**
+     * @return true, if the part content is kept in memory rather
+     * than spooled to a file.
+     */
+    public boolean isInMemory()
+    {
+        return v_file == null;
+    }
+
+    /**
+     * @return the file the part content is spooled to, or null if
+     * it is kept in memory.
+     */
+    public Path getFile()
+    {
+        return v_file;
+    }
+
+    /**
+     * @return the part content
+     * @throws IOException if an I/O error occurs reading the
+     * spooled file.
+     */
+    public byte [] getBytes()
+        throws IOException
+    {
+        if( v_file != null )
+        {
+            return Files.readAllBytes(v_file);
+        }
+
+        byte octets [] = new byte[v_length];
+        System.arraycopy(v_octets, 0, octets, 0, v_length);
+        return octets;
+    }
+
+    /**
+     * @return the part content decoded as UTF-8
+     * @throws IOException if an I/O error occurs reading the
+     * spooled file.
+     */
+    public String getString()
+        throws IOException
+    {
+        if( v_file != null )
+        {
+            return new String(getBytes(), StandardCharsets.UTF_8);
+        }
+
+        return new String(v_octets, 0, v_length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a stream reading the part content
+     * @throws IOException if an I/O error occurs opening the
+     * spooled file.
+     */
+    public InputStream getInputStream()
+        throws IOException
+    {
+        if( v_file != null )
+        {
+            return Files.newInputStream(v_file);
+        }
+
+        return new ByteArrayInputStream(v_octets, 0, v_length);
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "part [name=" + v_name + ", filename=" + v_file_name +
+               ", size=" + v_size + ((v_file == null) ? "]" :
+               ", file=" + v_file + "]");
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Instantiates a new part, empty until its content is written.
+     *
+     * @param fields the header fields of the part
+     * @param threshold the size above which the content is spooled
+     * @param directory the directory of the spooled files
+     */
+    HttpPart(HttpHeaderFields fields, int threshold, Path directory)
+    {
+        v_fields = fields;
+        v_threshold = threshold;
+        v_directory = directory;
+        v_octets = new byte[Math.min(threshold, INITIAL_SIZE)];
+
+        String disposition = fields.get("Content-Disposition");
+        v_name = (disposition == null) ? null :
+                parameter(disposition, "name");
+        v_file_name = (disposition == null) ? null :
+                parameter(disposition, "filename");
+    }
+
+    /**
+     * Appends octets to the part content, spooling it to a file once
+     * it grows above the threshold.
+     *
+     * @param octets the octets
+     * @param off the offset of the first octet
+     * @param len the number of octets
+     * @throws IOException if an I/O error occurs writing the file.
+     */
+    void write(byte octets [], int off, int len)
+        throws IOException
+    {
+        if( len == 0 )
+        {
+            return;
+        }
+
+        v_size += len;
+        if( v_channel == null && v_length + len <= v_threshold )
+        {
+            if( v_length + len > v_octets.length )
+            {
+                byte grown [] = new byte[Math.min(v_threshold,
+                        Math.max(v_length + len, v_octets.length * 2))];
+                System.arraycopy(v_octets, 0, grown, 0, v_length);
+                v_octets = grown;
+            }
+
+            System.arraycopy(octets, off, v_octets, v_length, len);
+            v_length += len;
+            return;
+        }
+
+        if( v_channel == null )
+        {
+            v_file = Files.createTempFile(v_directory, "httpserver-", ".part");
+            v_channel = FileChannel.open(v_file, StandardOpenOption.WRITE);
+            HttpMetrics.instance().increment(HttpMetricType.PARTS_SPOOLED);
+            drain(ByteBuffer.wrap(v_octets, 0, v_length));
+            v_octets = null;
+            v_length = 0;
+        }
+
+        drain(ByteBuffer.wrap(octets, off, len));
+    }
+
+    /**
+     * Ends the part content.
+     *
+     * @throws IOException if an I/O error occurs closing the file.
+     */
+    void finish()
+        throws IOException
+    {
+        if( v_channel != null )
+        {
+            v_channel.close();
+            v_channel = null;
+        }
+    }
+
+    /**
+     * Deletes the file of a spooled part, if still there.
+     */
+    void delete()
+    {
+        try
+        {
+            finish();
+        }
+        catch(IOException ex)
+        {
+            // the file is deleted anyway
+        }
+
+        if( v_file != null )
+        {
+            try
+            {
+                Files.deleteIfExists(v_file);
+            }
+            catch(IOException ex)
+            {
+                v_file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Gets a parameter of a header field value such as
+     * form-data; name="field"; filename="file.txt".
+     *
+     * @param value the header field value
+     * @param name the parameter name
+     * @return the parameter value, unquoted; or null if the value
+     * does not have the parameter.
+     */
+    static String parameter(String value, String name)
+    {
+        int pos = value.indexOf(';');
+        while( pos >= 0 && pos < value.length() )
+        {
+            int start = pos + 1;
+            while( start < value.length() &&
+                   (value.charAt(start) == ' ' || value.charAt(start) == '\t') )
+            {
+                start++;
+            }
+
+            int equals = value.indexOf('=', start);
+            if( equals < 0 )
+            {
+                return null;
+            }
+
+            boolean found =
+                    value.substring(start, equals).trim().equalsIgnoreCase(name);
+            StringBuilder buff = new StringBuilder();
+            int end = equals + 1;
+            if( end < value.length() && value.charAt(end) == '"' )
+            {
+                end++;
+                while( end < value.length() && value.charAt(end) != '"' )
+                {
+                    char ch = value.charAt(end);
+                    if( ch == '\\' && end + 1 < value.length() )
+                    {
+                        ch = value.charAt(++end);
+                    }
+
+                    buff.append(ch);
+                    end++;
+                }
+
+                end = value.indexOf(';', end);
+            }
+            else
+            {
+                end = value.indexOf(';', end);
+                buff.append(value.substring(equals + 1,
+                            (end < 0) ? value.length() : end).trim());
+            }
+
+            if( found )
+            {
+                return buff.toString();
+            }
+
+            pos = end;
+        }
+
+        return null;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The media type of a part without Content-Type. */
+    private static final String DEFAULT_CONTENT_TYPE = "text/plain";
+
+    /** The initial size of the in-memory content. */
+    private static final int INITIAL_SIZE = 1024;
+
+    /**
+     * @param buff the octets to write to the file
+     * @throws IOException if an I/O error occurs writing the file.
+     */
+    private void drain(ByteBuffer buff)
+        throws IOException
+    {
+        while( buff.hasRemaining() )
+        {
+            v_channel.write(buff);
+        }
+    }
+
+    private final HttpHeaderFields v_fields;
+    private final int v_threshold;
+    private final Path v_directory;
+    private final String v_name;
+    private final String v_file_name;
+    private byte v_octets [];
+    private int v_length;
+    private long v_size;
+    private Path v_file;
+    private FileChannel v_channel;
+}
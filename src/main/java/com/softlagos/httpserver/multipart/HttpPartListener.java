@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpPartListener.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.multipart;
+
+import java.io.IOException;
+
+import com.softlagos.httpserver.HttpErrorException;
+
+/**
+ * Receives the parts of a multipart/form-data message body, each
+ * as soon as it has been read, while the parts after it are still
+ * coming.
+ *
+ * @author Rubens Gomes
+ * @see HttpMultipartParser
+ */
+public interface HttpPartListener
+{
+    /**
+     * Receives a part.  The file of a spooled part is deleted once
+     * this method returns.
+     *
+     * @param part the part read
+     * @throws HttpErrorException to stop the parsing and answer
+     * with an HTTP client or server error.
+     * @throws IOException if an I/O error occurs handling the part.
+     */
+    void part(HttpPart part)
+        throws HttpErrorException, IOException;
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpBalancer.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.proxy;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>
+ * Picks the upstream of each proxied request by the power of two
+ * choices: two upstreams are drawn at random and the one with
+ * the lower load is taken.
+ * </p>
+ * <p>
+ * Comparing two random upstreams, rather than all of them, keeps
+ * the choice cheap and keeps the requests of many proxies from
+ * all rushing to the same least loaded upstream, while still
+ * steering clear of the slow and the busy ones.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see HttpUpstream#getScore()
+ */
+public final class HttpBalancer
+{
+    /**
+     * Instantiates a new balancer.
+     *
+     * @param upstreams the upstreams to balance across
+     */
+    public HttpBalancer(HttpUpstream upstreams [])
+    {
+        if( upstreams == null || upstreams.length == 0 )
+        {
+            throw new IllegalArgumentException(
+                    "upstreams cannot be null or empty.");
+        }
+
+        v_upstreams = upstreams.clone();
+    }
+
+    /**
+     * @return the upstream the next request is sent to
+     */
+    public HttpUpstream choose()
+    {
+        int count = v_upstreams.length;
+        if( count == 1 )
+        {
+            return v_upstreams[0];
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(count);
+        int second = random.nextInt(count - 1);
+        if( second >= first )
+        {
+            second++;
+        }
+
+        HttpUpstream one = v_upstreams[first];
+        HttpUpstream two = v_upstreams[second];
+        return (two.getScore() < one.getScore()) ? two : one;
+    }
+
+    /**
+     * @return the upstreams balanced across
+     */
+    public HttpUpstream [] getUpstreams()
+    {
+        return v_upstreams.clone();
+    }
+
+    // ------ >>> Private <<< ------
+    private final HttpUpstream v_upstreams [];
+}
@@ -0,0 +1,704 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpProxyHandler.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.Constants;
+import com.softlagos.httpserver.HttpBodyInputStream;
+import com.softlagos.httpserver.HttpBodyPublisher;
+import com.softlagos.httpserver.HttpClientErrorException;
+import com.softlagos.httpserver.HttpErrorException;
+import com.softlagos.httpserver.HttpLineReader;
+import com.softlagos.httpserver.HttpMetrics;
+import com.softlagos.httpserver.HttpRequest;
+import com.softlagos.httpserver.HttpRequestHandler;
+import com.softlagos.httpserver.HttpRequestHeader;
+import com.softlagos.httpserver.HttpResponse;
+import com.softlagos.httpserver.HttpResponseHeader;
+import com.softlagos.httpserver.HttpServerErrorException;
+import com.softlagos.httpserver.HttpStatusLine;
+import com.softlagos.httpserver.enums.HttpMetricType;
+import com.softlagos.httpserver.enums.HttpRequestMethodType;
+
+/**
+ * <p>
+ * A reverse proxy handler forwarding the requests to a set of
+ * upstream servers over pooled HTTP/1.1 keep-alive connections.
+ * The upstream of each request is picked by an HttpBalancer.
+ * </p>
+ * <p>
+ * Both message bodies are streamed: the request body is copied
+ * from the client connection to the upstream as it arrives, and
+ * the response body is published to the client as it is read
+ * from the upstream, so neither is held in memory.  The framing
+ * of the request body is never the one announced by the client:
+ * a body delimited by a Content-Length is forwarded with its own,
+ * and any other body is sent chunked.
+ * </p>
+ * <p>
+ * The hop-by-hop header fields, and those named in the
+ * Connection header field, are dropped in both directions, and
+ * a Via header field is added.  A request failing on a pooled
+ * connection before any response octet, which happens when the
+ * upstream closed the idle connection just as it was taken, is
+ * retried once on a new connection when it has no body to
+ * replay.  A failed upstream is answered with 502 (Bad Gateway),
+ * or 504 (Gateway Timeout) if it did not answer in time.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "Section 5.7 of RFC7230 - Hypertext Transfer Protocol
+ * (HTTP/1.1): Message Syntax and Routing"
+ * @see "Section 6.1 of RFC7230 - Hypertext Transfer Protocol
+ * (HTTP/1.1): Message Syntax and Routing"
+ */
+public final class HttpProxyHandler
+  implements HttpRequestHandler
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpProxyHandler.class);
+
+    /**
+     * Instantiates a new proxy handler.
+     *
+     * @param balancer the balancer picking the upstream of each
+     * request
+     */
+    public HttpProxyHandler(HttpBalancer balancer)
+    {
+        if( balancer == null )
+        {
+            throw new IllegalArgumentException("balancer cannot be null.");
+        }
+
+        v_balancer = balancer;
+    }
+
+    /* (non-Javadoc)
+     * @see com.softlagos.httpserver.HttpRequestHandler#isStreaming()
+     */
+    @Override
+    public boolean isStreaming()
+    {
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see com.softlagos.httpserver.HttpRequestHandler#handle(com.softlagos.httpserver.HttpRequest)
+     */
+    @Override
+    public HttpResponse handle(HttpRequest request)
+        throws HttpErrorException, IOException
+    {
+        HttpRequestHeader request_header = request.getHeader();
+        InputStream body = request.getBodyStream();
+
+        // the framing sent upstream is the one of the octets
+        // actually read, never the one announced by the client
+        long length = (body instanceof HttpBodyInputStream) ?
+                ((HttpBodyInputStream) body).getContentLength() : -1L;
+        boolean chunked = (body != null && length < 0);
+        byte head [] = makeRequestHead(request_header, chunked,
+                                       (body == null) ? -1L : length);
+        boolean head_method = (request_header.getRequestLine().getMethod() ==
+                HttpRequestMethodType.HEAD);
+
+        HttpUpstream upstream = v_balancer.choose();
+        HttpUpstreamConnection conn;
+        try
+        {
+            conn = upstream.acquire();
+        }
+        catch(IOException ex)
+        {
+            upstream.recordFailure();
+            throw proxyError(upstream, ex);
+        }
+
+        long start = System.nanoTime();
+        try
+        {
+            UpstreamHead response_head;
+            try
+            {
+                response_head = exchange(conn, head, body, chunked);
+            }
+            catch(IOException ex)
+            {
+                if(! conn.isReused() || body != null ||
+                   ex instanceof ClientBodyException ||
+                   ex instanceof SocketTimeoutException )
+                {
+                    throw ex;
+                }
+
+                if(logger.isDebugEnabled())
+                {
+                    logger.debug("pooled connection to upstream [" +
+                                 upstream + "] failed, retrying: " +
+                                 ex.getMessage());
+                }
+
+                conn.close();
+                conn = upstream.open();
+                response_head = exchange(conn, head, null, false);
+            }
+
+            upstream.recordLatency(System.nanoTime() - start);
+            return makeResponse(upstream, conn, response_head, head_method);
+        }
+        catch(ClientBodyException ex)
+        {
+            // the client failed, not the upstream
+            upstream.release(conn, false);
+            throw (IOException) ex.getCause();
+        }
+        catch(IOException ex)
+        {
+            upstream.release(conn, false);
+            upstream.recordFailure();
+            throw proxyError(upstream, ex);
+        }
+    }
+
+    // ------ >>> Private <<< ------
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /** The Via header field value added by the proxy. */
+    private static final String VIA = "1.1 httpserver";
+
+    /** The longest status-line and header field line accepted. */
+    private static final int MAX_LINE = 8192;
+
+    /** The maximum size in octets of the response header fields. */
+    private static final int MAX_HEADER_SIZE = 65536;
+
+    /** The size of the buffers the message bodies are copied by. */
+    private static final int COPY_SIZE = 8192;
+
+    /** The last chunk of a chunked message body. */
+    private static final byte LAST_CHUNK [] =
+            "0\r\n\r\n".getBytes(ISO_8859_1);
+
+    /** The header fields meaningful for a single connection only. */
+    private static final Set<String> HOP_BY_HOP = new HashSet<String>();
+    static
+    {
+        HOP_BY_HOP.add("connection");
+        HOP_BY_HOP.add("keep-alive");
+        HOP_BY_HOP.add("proxy-connection");
+        HOP_BY_HOP.add("proxy-authenticate");
+        HOP_BY_HOP.add("proxy-authorization");
+        HOP_BY_HOP.add("te");
+        HOP_BY_HOP.add("trailer");
+        HOP_BY_HOP.add("transfer-encoding");
+        HOP_BY_HOP.add("upgrade");
+        HOP_BY_HOP.add("expect");
+        HOP_BY_HOP.add("http2-settings");
+    }
+
+    /**
+     * The status code, version and header fields of an upstream
+     * response.  The field names are kept in lower case, and the
+     * values of repeated fields are joined with commas.
+     */
+    private static final class UpstreamHead
+    {
+        private int v_status_code;
+        private String v_version;
+        private final Map<String, String> v_names =
+                new LinkedHashMap<String, String>();
+        private final Map<String, String> v_values =
+                new LinkedHashMap<String, String>();
+    }
+
+    /**
+     * An error reading the message body from the client, kept
+     * apart from the errors of the upstream connection.
+     */
+    @SuppressWarnings("serial")
+    private static final class ClientBodyException extends IOException
+    {
+        private ClientBodyException(IOException cause)
+        {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Builds the request-line and header fields forwarded to the
+     * upstream.
+     *
+     * The Content-Length and Transfer-Encoding of the client are
+     * dropped, and the framing of the body forwarded is set from
+     * the body stream.
+     *
+     * @param header the client request header
+     * @param chunked true, if the body is sent chunked
+     * @param length the length of the body, or -1 if the body is
+     * sent chunked or there is none.
+     * @return the octets of the request head
+     */
+    private static byte [] makeRequestHead(HttpRequestHeader header,
+                                           boolean chunked, long length)
+    {
+        StringBuilder buff = new StringBuilder(512);
+        buff.append(header.getRequestLine().getMethod().getMethod());
+        buff.append(Constants.SP);
+        buff.append(header.getRequestLine().getRequestURI());
+        buff.append(Constants.SP);
+        buff.append("HTTP/1.1");
+        buff.append(Constants.CRLF);
+
+        Set<String> dropped = connectionTokens(
+                header.getHeader("Connection"));
+        String via = null;
+        for(Map.Entry<String, String> entry : header.getHeaders().entrySet())
+        {
+            String name = entry.getKey().toLowerCase(Locale.ROOT);
+            if( dropped.contains(name) || name.equals("content-length") )
+            {
+                continue;
+            }
+
+            if( name.equals("via") )
+            {
+                via = entry.getValue();
+                continue;
+            }
+
+            appendField(buff, entry.getKey(), entry.getValue());
+        }
+
+        appendField(buff, "Via", (via == null) ? VIA : via + ", " + VIA);
+        if( length >= 0 )
+        {
+            appendField(buff, "Content-Length", Long.toString(length));
+        }
+        else if( chunked )
+        {
+            appendField(buff, "Transfer-Encoding", "chunked");
+        }
+
+        buff.append(Constants.CRLF);
+        return buff.toString().getBytes(ISO_8859_1);
+    }
+
+    /**
+     * @param connection the Connection header field value, or null
+     * @return the lower case names of the fields not forwarded:
+     * the hop-by-hop fields and those listed in Connection.
+     */
+    private static Set<String> connectionTokens(String connection)
+    {
+        Set<String> names = new HashSet<String>(HOP_BY_HOP);
+        if( connection != null )
+        {
+            for(String token : connection.split(","))
+            {
+                String name = token.trim().toLowerCase(Locale.ROOT);
+                if( name.length() > 0 )
+                {
+                    names.add(name);
+                }
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Appends a header field line.
+     *
+     * @param buff the buffer appended to
+     * @param name the field name
+     * @param value the field value
+     */
+    private static void appendField(StringBuilder buff, String name,
+                                    String value)
+    {
+        buff.append(name);
+        buff.append(": ");
+        buff.append(value);
+        buff.append(Constants.CRLF);
+    }
+
+    /**
+     * Sends the request to the upstream and reads the response
+     * head, skipping the interim 1xx responses.
+     *
+     * @param conn the upstream connection
+     * @param head the request head
+     * @param body the request body, or null
+     * @param chunked true, to send the body chunked
+     * @return the response head
+     * @throws IOException if the exchange fails, or the response
+     * is malformed.
+     */
+    private static UpstreamHead exchange(HttpUpstreamConnection conn,
+                                         byte head [], InputStream body,
+                                         boolean chunked)
+        throws IOException
+    {
+        OutputStream out = conn.getOutputStream();
+        out.write(head);
+        if( body != null )
+        {
+            copyBody(body, out, chunked);
+        }
+
+        out.flush();
+
+        UpstreamHead response_head;
+        do
+        {
+            response_head = readHead(conn.getReader());
+        }
+        while( response_head.v_status_code < 200 );
+
+        return response_head;
+    }
+
+    /**
+     * Copies the request body to the upstream.
+     *
+     * @param body the request body
+     * @param out the upstream output stream
+     * @param chunked true, to send the body chunked
+     * @throws IOException if the upstream cannot be written, or a
+     * ClientBodyException if the body cannot be read.
+     */
+    private static void copyBody(InputStream body, OutputStream out,
+                                 boolean chunked)
+        throws IOException
+    {
+        byte buff [] = new byte[COPY_SIZE];
+        while( true )
+        {
+            int count;
+            try
+            {
+                count = body.read(buff, 0, buff.length);
+            }
+            catch(IOException ex)
+            {
+                throw new ClientBodyException(ex);
+            }
+
+            if( count < 0 )
+            {
+                break;
+            }
+
+            if( count == 0 )
+            {
+                continue;
+            }
+
+            if( chunked )
+            {
+                out.write((Integer.toHexString(count) + Constants.CRLF)
+                        .getBytes(ISO_8859_1));
+            }
+
+            out.write(buff, 0, count);
+
+            if( chunked )
+            {
+                out.write('\r');
+                out.write('\n');
+            }
+        }
+
+        if( chunked )
+        {
+            out.write(LAST_CHUNK);
+        }
+    }
+
+    /**
+     * Reads a status-line and its header fields.
+     *
+     * @param reader the upstream reader
+     * @return the response head
+     * @throws IOException if the head is malformed or cannot be
+     * read.
+     */
+    private static UpstreamHead readHead(HttpLineReader reader)
+        throws IOException
+    {
+        UpstreamHead head = new UpstreamHead();
+        try
+        {
+            String status_line = reader.readLine(MAX_LINE, 400);
+            if( status_line == null )
+            {
+                throw new EOFException("upstream closed the connection " +
+                                       "before the response");
+            }
+
+            // HTTP-version SP status-code SP reason-phrase
+            if( status_line.length() < 12 ||
+                ! status_line.startsWith("HTTP/1.") ||
+                status_line.charAt(8) != ' ' )
+            {
+                throw new IOException("invalid upstream status-line [" +
+                                      status_line + "]");
+            }
+
+            head.v_version = status_line.substring(0, 8);
+            try
+            {
+                head.v_status_code =
+                        Integer.parseInt(status_line.substring(9, 12));
+            }
+            catch(NumberFormatException ex)
+            {
+                throw new IOException("invalid upstream status-line [" +
+                                      status_line + "]");
+            }
+
+            int remaining = MAX_HEADER_SIZE;
+            String line;
+            while( (line = reader.readLine(MAX_LINE, 400)) != null &&
+                   line.length() > 0 )
+            {
+                remaining -= line.length();
+                int colon = line.indexOf(':');
+                if( remaining < 0 || colon <= 0 )
+                {
+                    throw new IOException("invalid upstream header " +
+                                          "field [" + line + "]");
+                }
+
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                String key = name.toLowerCase(Locale.ROOT);
+                String previous = head.v_values.get(key);
+                if( previous == null )
+                {
+                    head.v_names.put(key, name);
+                    head.v_values.put(key, value);
+                }
+                else
+                {
+                    head.v_values.put(key, previous + ", " + value);
+                }
+            }
+
+            if( line == null )
+            {
+                throw new EOFException("upstream closed the connection " +
+                                       "in the response header");
+            }
+        }
+        catch(HttpClientErrorException ex)
+        {
+            throw new IOException(ex.getMessage(), ex);
+        }
+
+        return head;
+    }
+
+    /**
+     * Builds the response returned to the client, publishing the
+     * upstream body as it is read.
+     *
+     * @param upstream the upstream answering
+     * @param conn the upstream connection
+     * @param head the upstream response head
+     * @param head_method true, if the request method was HEAD
+     * @return the response
+     * @throws IOException if the response cannot be forwarded.
+     */
+    private static HttpResponse makeResponse(HttpUpstream upstream,
+                                             HttpUpstreamConnection conn,
+                                             UpstreamHead head,
+                                             boolean head_method)
+        throws IOException
+    {
+        HttpStatusLine status_line;
+        try
+        {
+            status_line = HttpStatusLine.makeHttpStatusLine(
+                    head.v_status_code);
+        }
+        catch(IllegalArgumentException ex)
+        {
+            throw new IOException("unsupported upstream status code [" +
+                                  head.v_status_code + "]");
+        }
+
+        String connection = head.v_values.get("connection");
+        Set<String> dropped = connectionTokens(connection);
+        dropped.add("content-length");
+        boolean keep_alive = hasToken(connection, "close") ? false :
+                ("HTTP/1.1".equals(head.v_version) ||
+                 hasToken(connection, "keep-alive"));
+
+        // the message body length, as of Section 3.3.3 of RFC7230
+        long declared = -1;
+        String transfer_encoding = head.v_values.get("transfer-encoding");
+        String content_length = head.v_values.get("content-length");
+        if( transfer_encoding == null && content_length != null )
+        {
+            try
+            {
+                declared = Long.parseLong(content_length);
+            }
+            catch(NumberFormatException ex)
+            {
+                throw new IOException("invalid upstream Content-Length [" +
+                                      content_length + "]");
+            }
+
+            if( declared < 0 )
+            {
+                throw new IOException("invalid upstream Content-Length [" +
+                                      content_length + "]");
+            }
+        }
+
+        long length;
+        if( head_method || head.v_status_code == 204 ||
+            head.v_status_code == 304 )
+        {
+            length = 0;
+        }
+        else if( transfer_encoding != null )
+        {
+            length = transfer_encoding.trim().toLowerCase(Locale.ROOT)
+                    .endsWith("chunked") ? HttpUpstreamBodyStream.CHUNKED :
+                            HttpUpstreamBodyStream.UNTIL_CLOSE;
+        }
+        else if( declared >= 0 )
+        {
+            length = declared;
+        }
+        else
+        {
+            length = HttpUpstreamBodyStream.UNTIL_CLOSE;
+        }
+
+        HttpResponseHeader header = new HttpResponseHeader(status_line);
+        String via = null;
+        for(Map.Entry<String, String> entry : head.v_values.entrySet())
+        {
+            String key = entry.getKey();
+            if( dropped.contains(key) )
+            {
+                continue;
+            }
+
+            if( key.equals("via") )
+            {
+                via = entry.getValue();
+                continue;
+            }
+
+            header.addHeader(head.v_names.get(key), entry.getValue());
+        }
+
+        header.addHeader("Via", (via == null) ? VIA : via + ", " + VIA);
+
+        // set through addContentLength, whatever the spelling of
+        // the upstream field, so the response writers honor it; a
+        // HEAD or 304 response keeps the length it stands for.
+        if( declared >= 0 && head.v_status_code != 204 )
+        {
+            header.addContentLength(declared);
+        }
+
+        InputStream body;
+        if( length == 0 )
+        {
+            // nothing left on the connection: hand it back now
+            upstream.release(conn, keep_alive);
+            body = new ByteArrayInputStream(new byte[0]);
+        }
+        else
+        {
+            body = new HttpUpstreamBodyStream(upstream, conn, length,
+                                              keep_alive);
+        }
+
+        return new HttpResponse(header,
+                new HttpBodyPublisher(body, HttpBodyPublisher.DEFAULT_CHUNK_SIZE));
+    }
+
+    /**
+     * @param value a comma separated header field value, or null
+     * @param token the token looked for
+     * @return true, if the value lists the token
+     */
+    private static boolean hasToken(String value, String token)
+    {
+        if( value == null )
+        {
+            return false;
+        }
+
+        for(String item : value.split(","))
+        {
+            if( item.trim().equalsIgnoreCase(token) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Maps an upstream failure to the error reported to the
+     * client.
+     *
+     * @param upstream the upstream failing
+     * @param ex the failure
+     * @return a 504 error if the upstream timed out, a 502 error
+     * otherwise.
+     */
+    private static HttpServerErrorException proxyError(HttpUpstream upstream,
+                                                       IOException ex)
+    {
+        HttpMetrics.instance().increment(HttpMetricType.PROXY_ERRORS);
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("upstream [" + upstream + "] failed: " +
+                         ex.getMessage());
+        }
+
+        if( ex instanceof SocketTimeoutException )
+        {
+            return new HttpServerErrorException(504, "upstream [" +
+                    upstream + "] did not answer in time");
+        }
+
+        return new HttpServerErrorException(502, "upstream [" +
+                upstream + "] failed: " + ex.getMessage());
+    }
+
+    private final HttpBalancer v_balancer;
+}
@@ -0,0 +1,327 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpUpstream.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.proxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.HttpMetrics;
+import com.softlagos.httpserver.enums.HttpMetricType;
+
+/**
+ * <p>
+ * An upstream server of the reverse proxy, with its pool of idle
+ * keep-alive connections and the load figures its balancer
+ * picks it by.
+ * </p>
+ * <p>
+ * Idle connections are taken last in, first out, so the most
+ * recently used, and least likely to have been closed by the
+ * upstream, go first, while those left at the bottom of the pool
+ * age out after the idle timeout.
+ * </p>
+ * <p>
+ * The load of the upstream is the number of requests it is
+ * serving, weighted by an exponentially weighted moving average
+ * of the time it takes to answer them.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpUpstream
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpUpstream.class);
+
+    /**
+     * Instantiates a new upstream.
+     *
+     * @param host the upstream host name or address
+     * @param port the upstream port
+     * @param connect_timeout_ms the time to open a connection
+     * @param read_timeout_ms the longest wait for response octets
+     * @param max_idle the maximum number of idle connections kept
+     * @param idle_timeout_ms the idle time before a pooled
+     * connection is dropped
+     */
+    public HttpUpstream(String host, int port, int connect_timeout_ms,
+                        int read_timeout_ms, int max_idle,
+                        long idle_timeout_ms)
+    {
+        if( host == null || host.trim().length() == 0 )
+        {
+            throw new IllegalArgumentException("host cannot be null or blank.");
+        }
+
+        if( port <= 0 || port > 65535 )
+        {
+            throw new IllegalArgumentException("port [" + port +
+                                               "] is not valid");
+        }
+
+        v_host = host;
+        v_port = port;
+        v_connect_timeout_ms = connect_timeout_ms;
+        v_read_timeout_ms = read_timeout_ms;
+        v_max_idle = max_idle;
+        v_idle_timeout_ns = idle_timeout_ms * 1000000L;
+        v_idle = new ConcurrentLinkedDeque<HttpUpstreamConnection>();
+        v_idle_count = new AtomicInteger();
+        v_outstanding = new AtomicInteger();
+        v_latency = new AtomicLong(Double.doubleToLongBits(0.0));
+    }
+
+    /**
+     * Parses an upstream given as host:port.
+     *
+     * @param address the host:port of the upstream
+     * @param connect_timeout_ms the time to open a connection
+     * @param read_timeout_ms the longest wait for response octets
+     * @param max_idle the maximum number of idle connections kept
+     * @param idle_timeout_ms the idle time before a pooled
+     * connection is dropped
+     * @return the upstream
+     */
+    public static HttpUpstream parse(String address, int connect_timeout_ms,
+                                     int read_timeout_ms, int max_idle,
+                                     long idle_timeout_ms)
+    {
+        int colon = (address == null) ? -1 : address.lastIndexOf(':');
+        if( colon <= 0 )
+        {
+            throw new IllegalArgumentException("upstream [" + address +
+                                               "] is not host:port");
+        }
+
+        int port;
+        try
+        {
+            port = Integer.parseInt(address.substring(colon + 1).trim());
+        }
+        catch(NumberFormatException ex)
+        {
+            throw new IllegalArgumentException("upstream [" + address +
+                                               "] is not host:port");
+        }
+
+        return new HttpUpstream(address.substring(0, colon).trim(), port,
+                                connect_timeout_ms, read_timeout_ms,
+                                max_idle, idle_timeout_ms);
+    }
+
+    /**
+     * @return the upstream host
+     */
+    public String getHost()
+    {
+        return v_host;
+    }
+
+    /**
+     * @return the upstream port
+     */
+    public int getPort()
+    {
+        return v_port;
+    }
+
+    /**
+     * @return the number of requests being served by the upstream
+     */
+    public int getOutstanding()
+    {
+        return v_outstanding.get();
+    }
+
+    /**
+     * @return the moving average of the upstream response time,
+     * in nanoseconds.
+     */
+    public double getLatency()
+    {
+        return Double.longBitsToDouble(v_latency.get());
+    }
+
+    /**
+     * @return the load of the upstream: lower is better.
+     */
+    public double getScore()
+    {
+        return (v_outstanding.get() + 1) * Math.max(getLatency(), 1.0);
+    }
+
+    /**
+     * Records the time the upstream took to answer a request in
+     * the moving average.
+     *
+     * @param nanos the time to the response head, in nanoseconds
+     */
+    public void recordLatency(long nanos)
+    {
+        long current;
+        long next;
+        do
+        {
+            current = v_latency.get();
+            double average = Double.longBitsToDouble(current);
+            double sample = Math.max(nanos, 0L);
+            double updated = (average == 0.0) ? sample :
+                    average + EWMA_ALPHA * (sample - average);
+            next = Double.doubleToLongBits(updated);
+        }
+        while(! v_latency.compareAndSet(current, next) );
+    }
+
+    /**
+     * Records a failed request as a slow response, so the
+     * balancer steers away from the upstream for a while.
+     */
+    public void recordFailure()
+    {
+        recordLatency(Math.max((long) (getLatency() * 2), FAILURE_PENALTY_NS));
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return v_host + ":" + v_port;
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Takes an idle connection from the pool, or opens a new one,
+     * and counts the request as outstanding.
+     *
+     * @return the connection
+     * @throws IOException if a new connection cannot be opened.
+     */
+    HttpUpstreamConnection acquire()
+        throws IOException
+    {
+        v_outstanding.incrementAndGet();
+
+        HttpUpstreamConnection conn;
+        while( (conn = v_idle.pollFirst()) != null )
+        {
+            v_idle_count.decrementAndGet();
+            if(! conn.isClosed() &&
+               System.nanoTime() - conn.getIdleSince() < v_idle_timeout_ns )
+            {
+                conn.reuse();
+                HttpMetrics.instance().increment(
+                        HttpMetricType.PROXY_CONNECTIONS_REUSED);
+                return conn;
+            }
+
+            conn.close();
+        }
+
+        try
+        {
+            return open();
+        }
+        catch(IOException ex)
+        {
+            v_outstanding.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * Opens a new connection, bypassing the pool and leaving the
+     * count of outstanding requests as it is.
+     *
+     * @return the connection
+     * @throws IOException if the connection cannot be opened.
+     */
+    HttpUpstreamConnection open()
+        throws IOException
+    {
+        Socket socket = new Socket();
+        try
+        {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(v_host, v_port),
+                           v_connect_timeout_ms);
+            socket.setSoTimeout(v_read_timeout_ms);
+            HttpUpstreamConnection conn = new HttpUpstreamConnection(socket);
+            HttpMetrics.instance().increment(
+                    HttpMetricType.PROXY_CONNECTIONS_OPENED);
+            return conn;
+        }
+        catch(IOException ex)
+        {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Ends an outstanding request, giving its connection back to
+     * the pool if it may carry another request.
+     *
+     * @param conn the connection used by the request
+     * @param reusable true, if the response was read in full and
+     * the upstream keeps the connection open.
+     */
+    void release(HttpUpstreamConnection conn, boolean reusable)
+    {
+        v_outstanding.decrementAndGet();
+
+        if( reusable && v_idle_count.incrementAndGet() <= v_max_idle )
+        {
+            conn.idle();
+            v_idle.offerFirst(conn);
+            return;
+        }
+
+        if( reusable )
+        {
+            v_idle_count.decrementAndGet();
+        }
+
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("closing connection to upstream [" + this + "]");
+        }
+
+        conn.close();
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The weight of a new sample in the moving average. */
+    private static final double EWMA_ALPHA = 0.2;
+
+    /** The least response time recorded for a failed request. */
+    private static final long FAILURE_PENALTY_NS = 1000000000L;
+
+    private final String v_host;
+    private final int v_port;
+    private final int v_connect_timeout_ms;
+    private final int v_read_timeout_ms;
+    private final int v_max_idle;
+    private final long v_idle_timeout_ns;
+    private final ConcurrentLinkedDeque<HttpUpstreamConnection> v_idle;
+    private final AtomicInteger v_idle_count;
+    private final AtomicInteger v_outstanding;
+    private final AtomicLong v_latency;
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpUpstreamBodyStream.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.proxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.softlagos.httpserver.HttpClientErrorException;
+import com.softlagos.httpserver.HttpLineReader;
+
+/**
+ * <p>
+ * An input stream of the message body of an upstream response,
+ * delimited by its Content-Length, by the chunked transfer coding,
+ * or by the upstream closing the connection.  A chunked body is
+ * decoded, and its trailer fields are dropped.
+ * </p>
+ * <p>
+ * The stream holds the upstream connection until the body ends:
+ * once the body has been read in full the connection goes back
+ * to the pool, unless the upstream asked for it to be closed.  A
+ * stream closed early, or failing, closes the connection instead,
+ * since the rest of the body is still on it.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "Section 3.3.3 of RFC7230 - Hypertext Transfer Protocol
+ * (HTTP/1.1): Message Syntax and Routing"
+ */
+final class HttpUpstreamBodyStream extends InputStream
+{
+    /** The length of a chunked body. */
+    static final long CHUNKED = -1L;
+
+    /** The length of a body ending with the connection. */
+    static final long UNTIL_CLOSE = -2L;
+
+    /**
+     * Instantiates a new upstream body stream.
+     *
+     * @param upstream the upstream the connection belongs to
+     * @param conn the connection the body is read from
+     * @param length the Content-Length, CHUNKED or UNTIL_CLOSE
+     * @param keep_alive true, if the upstream keeps the connection
+     * open after the response.
+     */
+    HttpUpstreamBodyStream(HttpUpstream upstream, HttpUpstreamConnection conn,
+                           long length, boolean keep_alive)
+    {
+        v_upstream = upstream;
+        v_conn = conn;
+        v_reader = conn.getReader();
+        v_length = length;
+        v_remaining = (length < 0) ? 0 : length;
+        v_keep_alive = keep_alive && length != UNTIL_CLOSE;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read()
+        throws IOException
+    {
+        byte buff [] = new byte[1];
+        int count = read(buff, 0, 1);
+        return (count < 0) ? -1 : (buff[0] & 0xff);
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte buff [], int off, int len)
+        throws IOException
+    {
+        if( buff == null )
+        {
+            throw new IllegalArgumentException("buff cannot be null.");
+        }
+
+        if( len == 0 )
+        {
+            return 0;
+        }
+
+        if( v_finished )
+        {
+            return -1;
+        }
+
+        try
+        {
+            if( v_length == UNTIL_CLOSE )
+            {
+                int count = v_reader.read(buff, off, len);
+                if( count < 0 )
+                {
+                    finish(false);
+                }
+
+                return count;
+            }
+
+            if( v_remaining == 0 )
+            {
+                if( v_length >= 0 || ! nextChunk() )
+                {
+                    finish(v_keep_alive);
+                    return -1;
+                }
+            }
+
+            int count = v_reader.read(buff, off,
+                                      (int) Math.min((long) len, v_remaining));
+            if( count < 0 )
+            {
+                throw new EOFException("upstream closed the connection " +
+                                       "in the middle of the body");
+            }
+
+            v_remaining -= count;
+            if( v_remaining == 0 && v_length >= 0 )
+            {
+                // a sized body hands the connection back as soon
+                // as its last octet is read.
+                finish(v_keep_alive);
+            }
+
+            return count;
+        }
+        catch(IOException ex)
+        {
+            finish(false);
+            throw ex;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available()
+    {
+        return 0;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#close()
+     */
+    @Override
+    public void close()
+    {
+        finish(false);
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The longest chunk-size line accepted. */
+    private static final int MAX_CHUNK_LINE = 1024;
+
+    /**
+     * Ends the body, releasing the connection once.
+     *
+     * @param reusable true, if the connection may carry another
+     * request.
+     */
+    private synchronized void finish(boolean reusable)
+    {
+        if( v_finished )
+        {
+            return;
+        }
+
+        v_finished = true;
+        v_upstream.release(v_conn, reusable);
+    }
+
+    /**
+     * Reads the next chunk-size line of a chunked body.
+     *
+     * @return false after the last chunk and its trailer.
+     * @throws IOException if the chunk is malformed or an I/O
+     * error occurs.
+     */
+    private boolean nextChunk()
+        throws IOException
+    {
+        try
+        {
+            // the CRLF ending the previous chunk data
+            if( v_chunks > 0 && readChunkLine().length() != 0 )
+            {
+                throw new IOException("chunk data not followed by CRLF");
+            }
+
+            String line = readChunkLine();
+            int semi = line.indexOf(';');
+            String size = (semi < 0 ? line : line.substring(0, semi)).trim();
+
+            long chunk_size;
+            try
+            {
+                chunk_size = Long.parseLong(size, 16);
+            }
+            catch(NumberFormatException ex)
+            {
+                throw new IOException("invalid chunk-size [" + size + "]");
+            }
+
+            if( chunk_size < 0 )
+            {
+                throw new IOException("invalid chunk-size [" + size + "]");
+            }
+
+            v_chunks++;
+
+            if( chunk_size == 0 )
+            {
+                // skip the trailer fields up to the empty line
+                while( readChunkLine().length() != 0 )
+                {
+                    // ignored
+                }
+
+                return false;
+            }
+
+            v_remaining = chunk_size;
+            return true;
+        }
+        catch(HttpClientErrorException ex)
+        {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return the next line of the chunked framing
+     * @throws IOException if the connection is closed or an
+     * I/O error occurs.
+     * @throws HttpClientErrorException if the line is too long
+     */
+    private String readChunkLine()
+        throws IOException, HttpClientErrorException
+    {
+        String line = v_reader.readLine(MAX_CHUNK_LINE, 400);
+        if( line == null )
+        {
+            throw new EOFException("upstream closed the connection " +
+                                   "in the chunked body");
+        }
+
+        return line;
+    }
+
+    private final HttpUpstream v_upstream;
+    private final HttpUpstreamConnection v_conn;
+    private final HttpLineReader v_reader;
+    private final long v_length;
+    private final boolean v_keep_alive;
+    private long v_remaining;
+    private long v_chunks;
+    private boolean v_finished;
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpUpstreamConnection.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.proxy;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import com.softlagos.httpserver.HttpLineReader;
+
+/**
+ * A persistent HTTP/1.1 connection to an upstream server.  It is
+ * used by one proxied request at a time, and goes back to the
+ * pool of its upstream once the response has been read in full.
+ *
+ * @author Rubens Gomes
+ */
+final class HttpUpstreamConnection
+{
+    /**
+     * Instantiates a new upstream connection over a connected
+     * socket.
+     *
+     * @param socket the connected socket
+     * @throws IOException if the socket streams cannot be opened.
+     */
+    HttpUpstreamConnection(Socket socket)
+        throws IOException
+    {
+        v_socket = socket;
+        v_reader = new HttpLineReader(socket.getInputStream(),
+                                      HttpLineReader.DEFAULT_BUFFER_SIZE);
+        v_out = new BufferedOutputStream(socket.getOutputStream(),
+                                         HttpLineReader.DEFAULT_BUFFER_SIZE);
+        v_idle_since = System.nanoTime();
+    }
+
+    /**
+     * @return the reader of the upstream responses
+     */
+    HttpLineReader getReader()
+    {
+        return v_reader;
+    }
+
+    /**
+     * @return the buffered stream the requests are written to
+     */
+    OutputStream getOutputStream()
+    {
+        return v_out;
+    }
+
+    /**
+     * @return true, if the connection was taken from the pool
+     * rather than freshly opened.
+     */
+    boolean isReused()
+    {
+        return v_reused;
+    }
+
+    /**
+     * Marks the connection as taken from the pool.
+     */
+    void reuse()
+    {
+        v_reused = true;
+    }
+
+    /**
+     * @return the System.nanoTime at which the connection was
+     * last given back to the pool.
+     */
+    long getIdleSince()
+    {
+        return v_idle_since;
+    }
+
+    /**
+     * Records the connection as idle from now on.
+     */
+    void idle()
+    {
+        v_idle_since = System.nanoTime();
+    }
+
+    /**
+     * @return true, if the socket is closed.
+     */
+    boolean isClosed()
+    {
+        return v_socket.isClosed();
+    }
+
+    /**
+     * Closes the socket, ignoring the errors.
+     */
+    void close()
+    {
+        try
+        {
+            v_socket.close();
+        }
+        catch(IOException ex)
+        {
+            // nothing more to release
+        }
+    }
+
+    // ------ >>> Private <<< ------
+    private final Socket v_socket;
+    private final HttpLineReader v_reader;
+    private final OutputStream v_out;
+    private volatile long v_idle_since;
+    private boolean v_reused;
+}
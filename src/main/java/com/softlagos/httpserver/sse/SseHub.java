@@ -0,0 +1,725 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: SseHub.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.sse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.HttpClientErrorException;
+import com.softlagos.httpserver.HttpErrorException;
+import com.softlagos.httpserver.HttpMetrics;
+import com.softlagos.httpserver.HttpProperties;
+import com.softlagos.httpserver.HttpRequest;
+import com.softlagos.httpserver.HttpRequestHandler;
+import com.softlagos.httpserver.HttpRequestLine;
+import com.softlagos.httpserver.HttpResponse;
+import com.softlagos.httpserver.HttpResponseHeader;
+import com.softlagos.httpserver.HttpServerErrorException;
+import com.softlagos.httpserver.HttpStatusLine;
+import com.softlagos.httpserver.enums.HttpMetricType;
+import com.softlagos.httpserver.enums.HttpRequestMethodType;
+
+/**
+ * <p>
+ * A Server-Sent Events endpoint, registered with the
+ * HttpHandlerRegistry on the path its clients subscribe to, fanning
+ * out each event published to every subscriber.
+ * </p>
+ * <p>
+ * An event is encoded once, into a read-only buffer shared by all
+ * the subscribers: each one is handed a duplicate of it, and the
+ * octets are only copied into the output buffer of each connection.
+ * The stream of a subscriber is a streaming response, sent chunked
+ * to an HTTP/1.1 client, and its worker thread requests the next
+ * event only once the previous one is written.  The events published
+ * meanwhile queue up as the backlog of the subscriber; one whose
+ * backlog grows past the maximum is slow, and is either dropped,
+ * its stream ended for the client to reconnect, or coalesced, its
+ * backlog discarded but for the newest event.
+ * </p>
+ * <p>
+ * The last events are kept in a ring, so a client reconnecting with
+ * the Last-Event-ID header field gets the events it missed that are
+ * still in the ring before the live ones.  Each stream opens with
+ * the reconnection time advised to the client, and the idle ones
+ * get a comment every heartbeat interval, so the connections of
+ * gone clients are found and closed.
+ * </p>
+ * <p>
+ * The stream of each subscriber holds a thread for as long as the
+ * client stays: the worker thread of its HTTP/1.1 connection, or an
+ * event stream thread for an HTTP/2 stream.  The subscribers of all
+ * the hubs are therefore capped, and a client subscribing beyond the
+ * cap is answered 503, for it to retry later.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "Section 9.2 of the HTML Living Standard - Server-sent events"
+ */
+public final class SseHub
+  implements HttpRequestHandler
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(SseHub.class);
+
+    /** The media type of an event stream. */
+    public static final String CONTENT_TYPE = "text/event-stream";
+
+    /**
+     * Instantiates a new hub configured by the server properties.
+     */
+    public SseHub()
+    {
+        this(REPLAY_SIZE, MAX_BACKLOG,
+             "coalesce".equalsIgnoreCase(SLOW_POLICY.trim()),
+             HEARTBEAT_MS);
+    }
+
+    /**
+     * Instantiates a new hub.
+     *
+     * @param replay_size the number of recent events kept to replay
+     * from Last-Event-ID; 0 replays none.
+     * @param max_backlog the number of events queued to a subscriber
+     * above which it is slow
+     * @param coalesce true, to discard the backlog of a slow
+     * subscriber but for the newest event; false, to drop it.
+     * @param heartbeat_ms the time in milliseconds between the
+     * comments sent to the idle subscribers; 0 sends none.
+     */
+    public SseHub(int replay_size, int max_backlog, boolean coalesce,
+                  long heartbeat_ms)
+    {
+        if( replay_size < 0 )
+        {
+            throw new IllegalArgumentException("replay_size cannot be negative.");
+        }
+
+        if( max_backlog <= 0 )
+        {
+            throw new IllegalArgumentException("max_backlog must be greater than 0");
+        }
+
+        v_ring = new ByteBuffer[replay_size];
+        v_max_backlog = max_backlog;
+        v_coalesce = coalesce;
+        v_subscribers = ConcurrentHashMap.newKeySet();
+        v_lock = new Object();
+        v_opening = ByteBuffer.wrap(("retry: " + RETRY_MS + "\n\n")
+                .getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+
+        if( heartbeat_ms > 0 )
+        {
+            v_heartbeat = HEARTBEATS.scheduleAtFixedRate(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for(SseSubscription subscription : v_subscribers)
+                    {
+                        subscription.heartbeat();
+                    }
+                }
+            }, heartbeat_ms, heartbeat_ms, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            v_heartbeat = null;
+        }
+    }
+
+    /**
+     * Publishes an event to every subscriber.
+     *
+     * @param event the event type, or null for a message event
+     * @param data the event data; each of its lines is sent as a
+     * data field.
+     * @return the id of the event
+     * @throws IllegalStateException if the hub is closed.
+     */
+    public long publish(String event, String data)
+    {
+        if( data == null )
+        {
+            throw new IllegalArgumentException("data cannot be null.");
+        }
+
+        if( event != null &&
+            (event.indexOf('\r') >= 0 || event.indexOf('\n') >= 0) )
+        {
+            throw new IllegalArgumentException(
+                    "event cannot hold a line break.");
+        }
+
+        synchronized( v_lock )
+        {
+            if( v_closed )
+            {
+                throw new IllegalStateException("hub is closed");
+            }
+
+            long id = ++v_last_id;
+            ByteBuffer frame = encode(id, event, data);
+            if( v_ring.length > 0 )
+            {
+                v_ring[(int) (id % v_ring.length)] = frame;
+            }
+
+            for(SseSubscription subscription : v_subscribers)
+            {
+                subscription.offer(frame);
+            }
+
+            return id;
+        }
+    }
+
+    /**
+     * Publishes a message event to every subscriber.
+     *
+     * @param data the event data
+     * @return the id of the event
+     * @throws IllegalStateException if the hub is closed.
+     */
+    public long publish(String data)
+    {
+        return publish(null, data);
+    }
+
+    /**
+     * @return the number of subscribers streaming
+     */
+    public int getSubscriberCount()
+    {
+        return v_subscribers.size();
+    }
+
+    /**
+     * Ends the stream of every subscriber, and refuses the new ones
+     * with 503.  The hub can no longer publish.
+     */
+    public void close()
+    {
+        synchronized( v_lock )
+        {
+            v_closed = true;
+            if( v_heartbeat != null )
+            {
+                v_heartbeat.cancel(false);
+            }
+
+            for(SseSubscription subscription : v_subscribers)
+            {
+                subscription.end();
+            }
+
+            v_subscribers.clear();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.softlagos.httpserver.HttpRequestHandler#handle(com.softlagos.httpserver.HttpRequest)
+     */
+    @Override
+    public HttpResponse handle(HttpRequest request)
+        throws HttpErrorException
+    {
+        HttpRequestLine request_line = request.getHeader().getRequestLine();
+        if( request_line.getMethod() != HttpRequestMethodType.GET )
+        {
+            String msg = "method [" + request_line.getMethod() +
+                    "] not allowed on an event stream";
+            throw new HttpClientErrorException(405, msg);
+        }
+
+        if( v_closed )
+        {
+            String msg = "event stream [" + request_line.getRequestTarget() +
+                    "] is closed";
+            throw new HttpServerErrorException(503, msg);
+        }
+
+        // checked as each client arrives, the cap may be passed by
+        // the few subscribing at the same time.
+        if( STREAMS.get() >= MAX_STREAMS )
+        {
+            HttpMetrics.instance().increment(HttpMetricType.SSE_REFUSED);
+            String msg = "event streams at their maximum of [" +
+                    MAX_STREAMS + "]";
+            throw new HttpServerErrorException(503, msg);
+        }
+
+        long last_id = -1L;
+        String value = request.getHeader().getHeader("Last-Event-ID");
+        if( value != null )
+        {
+            try
+            {
+                last_id = Long.parseLong(value.trim());
+            }
+            catch(NumberFormatException ex)
+            {
+                // an id from elsewhere: nothing to replay
+                last_id = -1L;
+            }
+        }
+
+        HttpResponseHeader header = new HttpResponseHeader(
+                HttpStatusLine.makeHttpStatusLine(200));
+        header.addHeader("Content-Type", CONTENT_TYPE);
+        header.addHeader("Cache-Control", "no-cache");
+
+        return new HttpResponse(header, new SsePublisher(last_id));
+    }
+
+    /* (non-Javadoc)
+     * @see com.softlagos.httpserver.HttpRequestHandler#isStreaming()
+     */
+    @Override
+    public boolean isStreaming()
+    {
+        // a subscription never reads a message body
+        return true;
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The number of recent events kept to replay. */
+    private static final int REPLAY_SIZE =
+            HttpProperties.getInt(HttpProperties.SSE_REPLAY_SIZE, 1024);
+
+    /** The number of events queued to a slow subscriber. */
+    private static final int MAX_BACKLOG =
+            HttpProperties.getInt(HttpProperties.SSE_MAX_BACKLOG, 256);
+
+    /** What is done with a slow subscriber. */
+    private static final String SLOW_POLICY =
+            HttpProperties.getString(HttpProperties.SSE_SLOW_POLICY, "drop");
+
+    /** The time in milliseconds between two heartbeats. */
+    private static final long HEARTBEAT_MS =
+            HttpProperties.getLong(HttpProperties.SSE_HEARTBEAT_MS, 15000L);
+
+    /** The reconnection time in milliseconds advised to the clients. */
+    private static final long RETRY_MS =
+            HttpProperties.getLong(HttpProperties.SSE_RETRY_MS, 3000L);
+
+    /** The number of subscribers streaming from all the hubs. */
+    private static final int MAX_STREAMS =
+            HttpProperties.getInt(HttpProperties.SSE_MAX_STREAMS, 256);
+
+    /** The subscribers streaming from all the hubs. */
+    private static final AtomicInteger STREAMS = new AtomicInteger();
+
+    /** The states of a stream counted against the cap. */
+    private static final int UNTRACKED = 0;
+    private static final int TRACKED = 1;
+    private static final int RELEASED = 2;
+
+    /** The comment sent to an idle subscriber. */
+    private static final ByteBuffer HEARTBEAT =
+            ByteBuffer.wrap(":\n\n".getBytes(StandardCharsets.UTF_8))
+                    .asReadOnlyBuffer();
+
+    private static final ByteBuffer NO_FRAMES [] = new ByteBuffer[0];
+
+    /** The thread sending the heartbeats of all the hubs. */
+    private static final ScheduledExecutorService HEARTBEATS =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "sse-heartbeat");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Encodes an event as the fields of an event stream.
+     *
+     * @param id the id of the event
+     * @param event the event type, or null
+     * @param data the event data
+     * @return the read-only buffer of the encoded event
+     */
+    private static ByteBuffer encode(long id, String event, String data)
+    {
+        StringBuilder buff = new StringBuilder(data.length() + 32);
+        buff.append("id: ").append(id).append('\n');
+        if( event != null )
+        {
+            buff.append("event: ").append(event).append('\n');
+        }
+
+        for(String line : data.split("\r\n|\r|\n", -1))
+        {
+            buff.append("data: ").append(line).append('\n');
+        }
+
+        buff.append('\n');
+        return ByteBuffer.wrap(buff.toString().getBytes(StandardCharsets.UTF_8))
+                .asReadOnlyBuffer();
+    }
+
+    /**
+     * Registers a subscriber, handing it the opening frame followed
+     * by the events in the ring after the one it last received.
+     *
+     * @param subscription the subscription
+     * @param last_id the Last-Event-ID of the client, or -1
+     */
+    private void register(SseSubscription subscription, long last_id)
+    {
+        synchronized( v_lock )
+        {
+            if( v_closed )
+            {
+                subscription.start(NO_FRAMES);
+                subscription.end();
+                return;
+            }
+
+            ByteBuffer frames [] = NO_FRAMES;
+            if( last_id >= 0 && last_id < v_last_id && v_ring.length > 0 )
+            {
+                long first = Math.max(last_id + 1,
+                                      v_last_id - v_ring.length + 1);
+                frames = new ByteBuffer[(int) (v_last_id - first + 1)];
+                for(int i = 0; i < frames.length; i++)
+                {
+                    frames[i] = v_ring[(int) ((first + i) % v_ring.length)];
+                }
+            }
+
+            ByteBuffer replay [] = new ByteBuffer[frames.length + 1];
+            replay[0] = v_opening;
+            System.arraycopy(frames, 0, replay, 1, frames.length);
+
+            // the events published from now on go to the backlog
+            subscription.track();
+            subscription.start(replay);
+            v_subscribers.add(subscription);
+            if( subscription.v_done )
+            {
+                // cancelled while registering
+                v_subscribers.remove(subscription);
+            }
+        }
+
+        HttpMetrics.instance().increment(HttpMetricType.SSE_STREAMS);
+    }
+
+    /**
+     * The publisher of the event stream of one subscriber.
+     */
+    private final class SsePublisher implements Flow.Publisher<ByteBuffer>
+    {
+        private SsePublisher(long last_id)
+        {
+            v_last_event_id = last_id;
+            v_subscribed = new AtomicBoolean();
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber)
+        {
+            if( subscriber == null )
+            {
+                throw new NullPointerException("subscriber cannot be null.");
+            }
+
+            if(! v_subscribed.compareAndSet(false, true) )
+            {
+                throw new IllegalStateException(
+                        "event stream publisher allows a single subscriber");
+            }
+
+            SseSubscription subscription = new SseSubscription(subscriber);
+            subscriber.onSubscribe(subscription);
+            register(subscription, v_last_event_id);
+        }
+
+        private final long v_last_event_id;
+        private final AtomicBoolean v_subscribed;
+    }
+
+    /**
+     * The subscription of one subscriber: the frames to replay, then
+     * the backlog of the events published since it registered, handed
+     * out one per unit of demand.
+     */
+    private final class SseSubscription implements Flow.Subscription
+    {
+        private SseSubscription(Flow.Subscriber<? super ByteBuffer> subscriber)
+        {
+            v_subscriber = subscriber;
+            v_backlog = new ConcurrentLinkedQueue<ByteBuffer>();
+            v_queued = new AtomicInteger();
+            v_demand = new AtomicLong();
+            v_wip = new AtomicLong();
+            v_tracked = new AtomicInteger(UNTRACKED);
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if( v_done )
+            {
+                return;
+            }
+
+            if( n <= 0 )
+            {
+                v_error = new IllegalArgumentException(
+                        "demand must be greater than 0");
+                v_done = true;
+                v_subscribers.remove(this);
+            }
+            else
+            {
+                // add the demand without overflowing
+                long current;
+                do
+                {
+                    current = v_demand.get();
+                }
+                while(! v_demand.compareAndSet(current,
+                          (Long.MAX_VALUE - current < n) ?
+                                  Long.MAX_VALUE : current + n) );
+            }
+
+            serialize();
+        }
+
+        @Override
+        public void cancel()
+        {
+            v_cancelled = true;
+            v_done = true;
+            v_subscribers.remove(this);
+            serialize();
+        }
+
+        /**
+         * Counts the stream against the cap, unless it has ended.
+         */
+        private void track()
+        {
+            if( v_tracked.compareAndSet(UNTRACKED, TRACKED) )
+            {
+                STREAMS.incrementAndGet();
+            }
+        }
+
+        /**
+         * Releases the place of the stream under the cap, once.
+         */
+        private void untrack()
+        {
+            if( v_tracked.getAndSet(RELEASED) == TRACKED )
+            {
+                STREAMS.decrementAndGet();
+            }
+        }
+
+        /**
+         * Starts handing out the frames, once registered.
+         *
+         * @param replay the frames handed out ahead of the backlog
+         */
+        private void start(ByteBuffer replay [])
+        {
+            v_replay = replay;
+            serialize();
+        }
+
+        /**
+         * Queues an event, published under the lock of the hub.
+         *
+         * @param frame the encoded event
+         */
+        private void offer(ByteBuffer frame)
+        {
+            if( v_done )
+            {
+                return;
+            }
+
+            if( v_queued.get() >= v_max_backlog )
+            {
+                if(! v_coalesce )
+                {
+                    if(logger.isDebugEnabled())
+                    {
+                        logger.debug("dropping event stream subscriber [" +
+                                     v_queued.get() + "] events behind");
+                    }
+
+                    HttpMetrics.instance().increment(HttpMetricType.SSE_DROPPED);
+                    v_subscribers.remove(this);
+                    end();
+                    return;
+                }
+
+                HttpMetrics.instance().increment(HttpMetricType.SSE_COALESCED);
+                while( v_backlog.poll() != null )
+                {
+                    v_queued.decrementAndGet();
+                }
+            }
+
+            v_backlog.add(frame);
+            v_queued.incrementAndGet();
+            serialize();
+        }
+
+        /**
+         * Queues a comment, unless events are queued already.
+         */
+        private void heartbeat()
+        {
+            if( ! v_done && v_queued.get() == 0 )
+            {
+                v_backlog.add(HEARTBEAT);
+                v_queued.incrementAndGet();
+                serialize();
+            }
+        }
+
+        /**
+         * Ends the stream, discarding the backlog.
+         */
+        private void end()
+        {
+            v_done = true;
+            serialize();
+        }
+
+        /**
+         * Runs the drain loop unless another thread is running
+         * it; that thread then goes through the loop once more.
+         */
+        private void serialize()
+        {
+            // only one thread drains at a time
+            if( v_wip.getAndIncrement() != 0 )
+            {
+                return;
+            }
+
+            do
+            {
+                drain();
+            }
+            while( v_wip.decrementAndGet() != 0 );
+        }
+
+        /**
+         * Hands out a frame for each unit of demand, and signals the
+         * end of the stream once it has ended.
+         */
+        private void drain()
+        {
+            if( v_done )
+            {
+                if( ! v_ended )
+                {
+                    v_ended = true;
+                    v_backlog.clear();
+                    untrack();
+                    if( v_cancelled )
+                    {
+                        return;
+                    }
+
+                    if( v_error != null )
+                    {
+                        v_subscriber.onError(v_error);
+                    }
+                    else
+                    {
+                        v_subscriber.onComplete();
+                    }
+                }
+
+                return;
+            }
+
+            ByteBuffer replay [] = v_replay;
+            if( replay == null )
+            {
+                // not registered with the hub yet
+                return;
+            }
+
+            while( ! v_done && v_demand.get() > 0 )
+            {
+                ByteBuffer frame;
+                if( v_index < replay.length )
+                {
+                    frame = replay[v_index++];
+                }
+                else
+                {
+                    frame = v_backlog.poll();
+                    if( frame == null )
+                    {
+                        return;
+                    }
+
+                    v_queued.decrementAndGet();
+                }
+
+                v_demand.decrementAndGet();
+                v_subscriber.onNext(frame.duplicate());
+            }
+        }
+
+        private final Flow.Subscriber<? super ByteBuffer> v_subscriber;
+        private final ConcurrentLinkedQueue<ByteBuffer> v_backlog;
+        private final AtomicInteger v_queued;
+        private final AtomicLong v_demand;
+        private final AtomicLong v_wip;
+        private final AtomicInteger v_tracked;
+        private volatile ByteBuffer v_replay [];
+        private volatile boolean v_done;
+        private volatile boolean v_cancelled;
+        private volatile Throwable v_error;
+        private boolean v_ended;
+        private int v_index;
+    }
+
+    private final ByteBuffer v_ring [];
+    private final int v_max_backlog;
+    private final boolean v_coalesce;
+    private final Set<SseSubscription> v_subscribers;
+    private final Object v_lock;
+    private final ByteBuffer v_opening;
+    private final ScheduledFuture<?> v_heartbeat;
+    private long v_last_id;
+    private volatile boolean v_closed;
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpSmokeCheck.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.startup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.softlagos.Constants;
+
+/**
+ * <p>
+ * Checks that a server executable, such as the native image of
+ * HttpMain, serves requests: the executable is launched on a free
+ * loopback port and must answer /health with 200, a HEAD of it
+ * with 200 and no message body, and an unknown resource with 404.
+ * </p>
+ * <p>
+ * Usage: HttpSmokeCheck executable [arguments...]
+ * </p>
+ * <p>
+ * The process exits with 0 if every check passed, and 1 otherwise.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpSmokeCheck
+{
+    public static void main(String args[])
+        throws IOException, InterruptedException
+    {
+        if( args.length == 0 )
+        {
+            System.err.println("usage: HttpSmokeCheck executable [arguments...]");
+            System.exit(1);
+        }
+
+        int port_nr;
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            port_nr = socket.getLocalPort();
+        }
+
+        List<String> command = new ArrayList<String>(Arrays.asList(args));
+        command.add(1, "-D" + Constants.HTTPSERVER_PORT + "=" + port_nr);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+
+        long start = System.nanoTime();
+        Process server = builder.start();
+        boolean passed = false;
+        try
+        {
+            if(! HttpStartupProbe.awaitHealthy(port_nr, STARTUP_TIMEOUT_MS) )
+            {
+                System.err.println("server did not answer on port [" +
+                                   port_nr + "]");
+            }
+            else
+            {
+                System.out.println(String.format(
+                        "first response after %.1fms",
+                        (System.nanoTime() - start) / 1000000.0));
+
+                passed = check(port_nr, "HEAD", "/health", 200) &
+                         checkNoBody(port_nr, "HEAD", "/health") &
+                         check(port_nr, "GET", "/smoke/not-found", 404);
+            }
+        }
+        finally
+        {
+            server.destroy();
+            if(! server.waitFor(STARTUP_TIMEOUT_MS, TimeUnit.MILLISECONDS) )
+            {
+                server.destroyForcibly();
+            }
+        }
+
+        System.out.println(passed ? "smoke check passed" :
+                                    "smoke check failed");
+        System.exit(passed ? 0 : 1);
+    }
+
+    // ------ >>> Private <<< ------
+    private HttpSmokeCheck()
+    {
+    }
+
+    /** The time in milliseconds the server has to answer. */
+    private static final long STARTUP_TIMEOUT_MS = 30000L;
+
+    /**
+     * @param port_nr the server port
+     * @param method the request method
+     * @param target the request-target
+     * @param expected the status code expected
+     * @return true, if the server answered with the status code
+     * expected.
+     */
+    private static boolean check(int port_nr, String method, String target,
+                                 int expected)
+    {
+        int status_code = HttpStartupProbe.request(port_nr, method, target);
+        if( status_code != expected )
+        {
+            System.err.println(method + " " + target + ": expected [" +
+                               expected + "], got [" + status_code + "]");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @param port_nr the server port
+     * @param method the request method
+     * @param target the request-target
+     * @return true, if the response ended with its header, as the
+     * response to a HEAD request must.
+     * @see "Section 4.3.2 of RFC7231"
+     */
+    private static boolean checkNoBody(int port_nr, String method,
+                                       String target)
+    {
+        String response = HttpStartupProbe.exchange(port_nr, method, target);
+        String end_of_header = Constants.CRLF + Constants.CRLF;
+        int end = (response == null) ? -1 : response.indexOf(end_of_header);
+        if( end < 0 )
+        {
+            System.err.println(method + " " + target + ": no response header");
+            return false;
+        }
+
+        int body_length = response.length() - end - end_of_header.length();
+        if( body_length != 0 )
+        {
+            System.err.println(method + " " + target + ": expected no " +
+                               "message body, got [" + body_length +
+                               "] octets");
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpStartupBenchmark.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.startup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.softlagos.Constants;
+import com.softlagos.httpserver.HttpMain;
+
+/**
+ * <p>
+ * Measures the time to first response of the server: from the
+ * launch of a JVM running HttpMain until a GET of /health on the
+ * loopback interface is answered with 200.
+ * </p>
+ * <p>
+ * Each run launches a new JVM on a free port, with the class path
+ * of the benchmark itself.  The runs are made without a class data
+ * sharing archive and, if one is given, with it, and the minimum,
+ * median, 90th percentile and maximum times are printed for each.
+ * </p>
+ * <p>
+ * Usage: HttpStartupBenchmark [runs] [archive]
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpStartupBenchmark
+{
+    public static void main(String args[])
+        throws IOException, InterruptedException
+    {
+        int runs = (args.length > 0) ? Integer.parseInt(args[0]) :
+                DEFAULT_RUNS;
+        String archive = (args.length > 1) ? args[1] : null;
+
+        report("default CDS", measure(runs, null));
+
+        if( archive != null && new File(archive).isFile() )
+        {
+            report("AppCDS " + archive, measure(runs, archive));
+        }
+        else if( archive != null )
+        {
+            System.out.println("archive [" + archive + "] not found");
+        }
+    }
+
+    // ------ >>> Private <<< ------
+    private HttpStartupBenchmark()
+    {
+    }
+
+    /** The default number of runs. */
+    private static final int DEFAULT_RUNS = 10;
+
+    /** The time in milliseconds a server has to answer. */
+    private static final long STARTUP_TIMEOUT_MS = 30000L;
+
+    /**
+     * @param runs the number of runs
+     * @param archive the archive mapped by the server, or null
+     * @return the time to first response of each run, in
+     * milliseconds
+     */
+    private static double [] measure(int runs, String archive)
+        throws IOException, InterruptedException
+    {
+        String java = System.getProperty("java.home") + File.separator +
+                "bin" + File.separator + "java";
+        double times [] = new double[runs];
+
+        for(int i = 0; i < runs; i++)
+        {
+            int port_nr = freePort();
+            List<String> command = new ArrayList<String>();
+            command.add(java);
+            if( archive != null )
+            {
+                command.add("-XX:SharedArchiveFile=" + archive);
+            }
+
+            command.add("-D" + Constants.HTTPSERVER_PORT + "=" + port_nr);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(HttpMain.class.getName());
+
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+
+            long start = System.nanoTime();
+            Process server = builder.start();
+            try
+            {
+                if(! HttpStartupProbe.awaitHealthy(port_nr,
+                                                   STARTUP_TIMEOUT_MS) )
+                {
+                    throw new IOException("server did not answer on port [" +
+                                          port_nr + "]");
+                }
+
+                times[i] = (System.nanoTime() - start) / 1000000.0;
+            }
+            finally
+            {
+                server.destroy();
+                if(! server.waitFor(STARTUP_TIMEOUT_MS,
+                                    TimeUnit.MILLISECONDS) )
+                {
+                    server.destroyForcibly();
+                }
+            }
+        }
+
+        return times;
+    }
+
+    /**
+     * @return a port free on the loopback interface
+     */
+    private static int freePort()
+        throws IOException
+    {
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Prints the statistics of a series of runs.
+     *
+     * @param name the name of the series
+     * @param times the time of each run in milliseconds
+     */
+    private static void report(String name, double times [])
+    {
+        double sorted [] = times.clone();
+        Arrays.sort(sorted);
+
+        System.out.println(String.format(
+                "%s: runs=%d min=%.1fms median=%.1fms p90=%.1fms max=%.1fms",
+                name, sorted.length, sorted[0],
+                sorted[sorted.length / 2],
+                sorted[(int) Math.ceil(sorted.length * 0.9) - 1],
+                sorted[sorted.length - 1]));
+    }
+}
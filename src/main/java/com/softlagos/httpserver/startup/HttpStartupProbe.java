@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpStartupProbe.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.startup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import com.softlagos.Constants;
+
+/**
+ * A minimal HTTP/1.1 client for the loopback interface, used to
+ * find out when a server starting up answers its first request.
+ *
+ * @author Rubens Gomes
+ */
+final class HttpStartupProbe
+{
+    /** The status returned when no response was received. */
+    static final int NO_RESPONSE = -1;
+
+    /**
+     * Sends one request to the server on the given loopback port
+     * and reads the status code of its response.
+     *
+     * @param port_nr the server port
+     * @param method the request method
+     * @param target the request-target
+     * @return the response status code, or NO_RESPONSE if the
+     * server is not answering.
+     */
+    static int request(int port_nr, String method, String target)
+    {
+        String response = exchange(port_nr, method, target);
+        if( response == null || response.length() < 12 )
+        {
+            return NO_RESPONSE;
+        }
+
+        // the status code follows "HTTP/1.1 "
+        try
+        {
+            return Integer.parseInt(response.substring(9, 12));
+        }
+        catch(NumberFormatException ex)
+        {
+            return NO_RESPONSE;
+        }
+    }
+
+    /**
+     * Sends one request to the server on the given loopback port
+     * and reads its whole response, up to the closing of the
+     * connection.
+     *
+     * @param port_nr the server port
+     * @param method the request method
+     * @param target the request-target
+     * @return the response decoded as ISO-8859-1, or null if the
+     * server is not answering.
+     */
+    static String exchange(int port_nr, String method, String target)
+    {
+        try (Socket socket = new Socket())
+        {
+            socket.connect(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), port_nr),
+                    CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+
+            OutputStream out = socket.getOutputStream();
+            out.write((method + Constants.SP + target + Constants.SP +
+                       "HTTP/1.1" + Constants.CRLF +
+                       "Host: localhost" + Constants.CRLF +
+                       "Connection: close" + Constants.CRLF +
+                       Constants.CRLF).getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte buff [] = new byte[4096];
+            int count;
+            while( (count = in.read(buff)) >= 0 )
+            {
+                response.write(buff, 0, count);
+            }
+
+            return (response.size() == 0) ? null :
+                new String(response.toByteArray(),
+                           StandardCharsets.ISO_8859_1);
+        }
+        catch(IOException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Waits for the server on the given loopback port to answer a
+     * GET of /health with 200.
+     *
+     * @param port_nr the server port
+     * @param timeout_ms the maximum time in milliseconds to wait
+     * @return true, if the server answered in time.
+     */
+    static boolean awaitHealthy(int port_nr, long timeout_ms)
+    {
+        long deadline = System.nanoTime() + timeout_ms * 1000000L;
+        while( System.nanoTime() - deadline < 0 )
+        {
+            if( request(port_nr, "GET", "/health") == 200 )
+            {
+                return true;
+            }
+
+            try
+            {
+                Thread.sleep(POLL_INTERVAL_MS);
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    // ------ >>> Private <<< ------
+    private HttpStartupProbe()
+    {
+    }
+
+    /** The time in milliseconds to connect to the server. */
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+
+    /** The time in milliseconds to wait for a response. */
+    private static final int READ_TIMEOUT_MS = 5000;
+
+    /** The time in milliseconds between two probes. */
+    private static final long POLL_INTERVAL_MS = 1L;
+}
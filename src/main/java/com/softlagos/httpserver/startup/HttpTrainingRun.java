@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpTrainingRun.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.startup;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.Constants;
+import com.softlagos.httpserver.HttpMain;
+import com.softlagos.util.SystemProperties;
+
+/**
+ * <p>
+ * The training run of the class data sharing archive of the
+ * server.  It starts the server as HttpMain does, sends it
+ * requests along the usual paths through the request pipeline,
+ * and exits.
+ * </p>
+ * <p>
+ * Run with -XX:ArchiveClassesAtExit, the JVM archives on exit
+ * every class loaded on the way: log4j, the reflective acceptor
+ * strategy factory, the enums and the request pipeline, which a
+ * server started with -XX:SharedArchiveFile then maps instead of
+ * loading and verifying them again.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class HttpTrainingRun
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(HttpTrainingRun.class);
+
+    public static void main(String args[])
+    {
+        int port_nr = SystemProperties.instance()
+                .getPropertyAsInt(Constants.HTTPSERVER_PORT);
+
+        Thread server = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                HttpMain.main(new String[0]);
+            }
+        }, "http-main");
+
+        server.setDaemon(true);
+        server.start();
+
+        if(! HttpStartupProbe.awaitHealthy(port_nr, STARTUP_TIMEOUT_MS) )
+        {
+            logger.error("server did not start on port [" + port_nr + "]");
+            System.exit(1);
+        }
+
+        for(int i = 0; i < REQUESTS; i++)
+        {
+            HttpStartupProbe.request(port_nr, "GET", "/health");
+            HttpStartupProbe.request(port_nr, "HEAD", "/health");
+            HttpStartupProbe.request(port_nr, "GET", "/training/not-found");
+        }
+
+        logger.info("training run completed");
+        System.exit(0);
+    }
+
+    // ------ >>> Private <<< ------
+    private HttpTrainingRun()
+    {
+    }
+
+    /** The time in milliseconds the server has to start. */
+    private static final long STARTUP_TIMEOUT_MS = 30000L;
+
+    /** The requests sent along each path. */
+    private static final int REQUESTS = 200;
+}
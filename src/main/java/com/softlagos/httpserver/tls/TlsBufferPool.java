@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TlsBufferPool.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.tls;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>
+ * A bounded pool of the same size buffers used by the TLS
+ * connections for their records.  Each connection takes four
+ * buffers of a little over 16 KB for its lifetime, so reusing
+ * them keeps the short lived connections from churning the
+ * young generation.
+ * </p>
+ * <p>
+ * Taking and returning a buffer never blocks: an empty pool
+ * allocates a new buffer, and a full pool drops the buffer
+ * returned.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class TlsBufferPool
+{
+    /**
+     * Instantiates a new buffer pool.
+     *
+     * @param buffer_size the size of each buffer
+     * @param max_buffers the maximum number of idle buffers kept
+     */
+    public TlsBufferPool(int buffer_size, int max_buffers)
+    {
+        if( buffer_size <= 0 || max_buffers <= 0 )
+        {
+            throw new IllegalArgumentException(
+                    "buffer_size and max_buffers must be greater than 0");
+        }
+
+        v_buffer_size = buffer_size;
+        v_buffers = new ArrayBlockingQueue<ByteBuffer>(max_buffers);
+    }
+
+    /**
+     * @return a cleared buffer from the pool, or a new one if the
+     * pool is empty.
+     */
+    public ByteBuffer acquire()
+    {
+        ByteBuffer buff = v_buffers.poll();
+        if( buff == null )
+        {
+            buff = ByteBuffer.allocate(v_buffer_size);
+        }
+
+        return buff;
+    }
+
+    /**
+     * Returns a buffer to the pool.  The caller must not use the
+     * buffer afterwards.
+     *
+     * @param buff the buffer taken from this pool, or null
+     */
+    public void release(ByteBuffer buff)
+    {
+        if( buff != null && buff.capacity() == v_buffer_size )
+        {
+            buff.clear();
+            v_buffers.offer(buff);
+        }
+    }
+
+    /**
+     * @return the size of each buffer
+     */
+    public int getBufferSize()
+    {
+        return v_buffer_size;
+    }
+
+    // ------ >>> Private <<< ------
+    private final int v_buffer_size;
+    private final BlockingQueue<ByteBuffer> v_buffers;
+}
@@ -0,0 +1,593 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TlsConnection.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.tls;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.reactor.SocketHandle;
+
+/**
+ * <p>
+ * A server side TLS connection driving an SSLEngine over the
+ * blocking streams of an accepted socket.  It is read by a single
+ * thread, while writes may come from several threads, as with
+ * HTTP/2 streams, and are serialized.
+ * </p>
+ * <p>
+ * The records are read into and written from buffers taken from
+ * a TlsBufferPool, which are given back when the connection is
+ * closed.  A socket read timeout leaves the octets already read
+ * in the buffer, so the read can be retried.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "RFC8446 - The Transport Layer Security (TLS) Protocol
+ * Version 1.3"
+ */
+public final class TlsConnection
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(TlsConnection.class);
+
+    /**
+     * Instantiates a new TLS connection.
+     *
+     * @param handle the accepted client connection
+     * @param engine the server mode engine of the connection
+     * @param pool the pool of the record buffers
+     * @throws IOException if the socket streams cannot be opened.
+     */
+    public TlsConnection(SocketHandle handle, SSLEngine engine,
+                         TlsBufferPool pool)
+        throws IOException
+    {
+        if( handle == null )
+        {
+            throw new IllegalArgumentException("handle cannot be null.");
+        }
+
+        if( engine == null )
+        {
+            throw new IllegalArgumentException("engine cannot be null.");
+        }
+
+        if( pool == null )
+        {
+            throw new IllegalArgumentException("pool cannot be null.");
+        }
+
+        SSLSession session = engine.getSession();
+        if( pool.getBufferSize() < session.getPacketBufferSize() ||
+            pool.getBufferSize() < session.getApplicationBufferSize() )
+        {
+            throw new IllegalArgumentException(
+                    "pool buffers are smaller than a TLS record.");
+        }
+
+        Socket socket = handle.getSocket();
+        v_in = socket.getInputStream();
+        v_out = socket.getOutputStream();
+        v_engine = engine;
+        v_pool = pool;
+        v_write_lock = new Object();
+
+        v_net_in = pool.acquire();
+        v_app_in = pool.acquire();
+        v_net_out = pool.acquire();
+        v_app_out = pool.acquire();
+
+        // the plaintext read buffer starts empty
+        v_app_in.flip();
+        v_input = new TlsInputStream();
+        v_output = new TlsOutputStream(this);
+    }
+
+    /**
+     * Runs the TLS handshake.
+     *
+     * @throws SSLException if the handshake fails.
+     * @throws IOException if an I/O error occurs, or if the client
+     * closed the connection during the handshake.
+     */
+    public void handshake()
+        throws IOException
+    {
+        long start = System.currentTimeMillis();
+        v_engine.beginHandshake();
+
+        SSLEngineResult.HandshakeStatus status =
+                v_engine.getHandshakeStatus();
+        while( status != SSLEngineResult.HandshakeStatus.FINISHED &&
+               status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING )
+        {
+            switch(status)
+            {
+                case NEED_WRAP:
+                    synchronized(v_write_lock)
+                    {
+                        status = wrap(EMPTY).getHandshakeStatus();
+                        sendRecords();
+                        v_out.flush();
+                    }
+                    break;
+
+                case NEED_TASK:
+                    status = runTasks();
+                    break;
+
+                default:
+                    // NEED_UNWRAP
+                    SSLEngineResult result = unwrap();
+                    if( result == null )
+                    {
+                        throw new EOFException(
+                                "connection closed during the TLS handshake");
+                    }
+
+                    status = result.getHandshakeStatus();
+                    break;
+            }
+        }
+
+        // a resumed session was created by an earlier handshake
+        SSLSession session = v_engine.getSession();
+        v_resumed = session.getCreationTime() < start;
+
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("TLS handshake done: " + session.getProtocol() +
+                         " " + session.getCipherSuite() + " alpn [" +
+                         getApplicationProtocol() + "] resumed [" +
+                         v_resumed + "]");
+        }
+    }
+
+    /**
+     * @return true, if the handshake resumed an earlier session
+     */
+    public boolean isResumed()
+    {
+        return v_resumed;
+    }
+
+    /**
+     * @return the protocol chosen by ALPN during the handshake,
+     * or null if the client did not offer any.
+     */
+    public String getApplicationProtocol()
+    {
+        String protocol = v_engine.getApplicationProtocol();
+        return (protocol == null || protocol.length() == 0) ?
+                null : protocol;
+    }
+
+    /**
+     * @return the TLS session of the connection
+     */
+    public SSLSession getSession()
+    {
+        return v_engine.getSession();
+    }
+
+    /**
+     * @return the stream of the decrypted octets sent by the
+     * client.
+     */
+    public InputStream getInputStream()
+    {
+        return v_input;
+    }
+
+    /**
+     * @return the stream encrypting the octets sent to the client
+     */
+    public TlsOutputStream getOutputStream()
+    {
+        return v_output;
+    }
+
+    /**
+     * Sends the buffered octets followed by a close_notify alert,
+     * and gives the buffers back to the pool.  The socket itself
+     * is left for the caller to close.
+     */
+    public void close()
+    {
+        synchronized(v_write_lock)
+        {
+            if( v_closed )
+            {
+                return;
+            }
+
+            try
+            {
+                flushLocked();
+                v_engine.closeOutbound();
+                while(! v_engine.isOutboundDone() )
+                {
+                    wrap(EMPTY);
+                    sendRecords();
+                }
+
+                v_out.flush();
+            }
+            catch(IOException ex)
+            {
+                if(logger.isDebugEnabled())
+                {
+                    logger.debug("error sending close_notify: " +
+                                 ex.getMessage());
+                }
+            }
+            finally
+            {
+                v_closed = true;
+                v_pool.release(v_net_out);
+                v_pool.release(v_app_out);
+            }
+        }
+
+        // the input buffers belong to the reading thread, which
+        // is the one closing the connection.
+        v_pool.release(v_net_in);
+        v_pool.release(v_app_in);
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Buffers octets to send, encrypting a full record at a time.
+     */
+    void write(byte buff [], int off, int len)
+        throws IOException
+    {
+        synchronized(v_write_lock)
+        {
+            checkOpen();
+
+            while( len > 0 )
+            {
+                if(! v_app_out.hasRemaining() )
+                {
+                    wrapBuffered();
+                }
+
+                int count = Math.min(len, v_app_out.remaining());
+                v_app_out.put(buff, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+    }
+
+    /**
+     * Encrypts and sends the remaining octets of the buffer,
+     * after the octets already buffered.
+     */
+    void write(ByteBuffer buff)
+        throws IOException
+    {
+        synchronized(v_write_lock)
+        {
+            checkOpen();
+            wrapBuffered();
+
+            while( buff.hasRemaining() )
+            {
+                wrap(buff);
+                sendRecords();
+            }
+        }
+    }
+
+    /**
+     * Encrypts and sends the buffered octets.
+     */
+    void flush()
+        throws IOException
+    {
+        synchronized(v_write_lock)
+        {
+            checkOpen();
+            flushLocked();
+        }
+    }
+
+    // ------ >>> Private <<< ------
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * The decrypted octets sent by the client.
+     */
+    private final class TlsInputStream extends InputStream
+    {
+        @Override
+        public int read()
+            throws IOException
+        {
+            byte buff [] = new byte[1];
+            int count = read(buff, 0, 1);
+            return (count < 0) ? -1 : (buff[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte buff [], int off, int len)
+            throws IOException
+        {
+            if( len == 0 )
+            {
+                return 0;
+            }
+
+            while(! v_app_in.hasRemaining() )
+            {
+                SSLEngineResult result = unwrap();
+                if( result == null ||
+                    result.getStatus() == SSLEngineResult.Status.CLOSED )
+                {
+                    return -1;
+                }
+
+                handlePostHandshake(result.getHandshakeStatus());
+            }
+
+            int count = Math.min(len, v_app_in.remaining());
+            v_app_in.get(buff, off, count);
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return v_app_in.remaining();
+        }
+    }
+
+    /**
+     * Unwraps one record into the plaintext read buffer, reading
+     * from the socket as needed.  Called with the read buffer
+     * empty.
+     *
+     * @return the result of the unwrap, or null if the client
+     * closed the connection.
+     */
+    private SSLEngineResult unwrap()
+        throws IOException
+    {
+        v_app_in.clear();
+        try
+        {
+            while( true )
+            {
+                v_net_in.flip();
+                SSLEngineResult result;
+                try
+                {
+                    result = v_engine.unwrap(v_net_in, v_app_in);
+                }
+                finally
+                {
+                    v_net_in.compact();
+                }
+
+                if( result.getStatus() ==
+                        SSLEngineResult.Status.BUFFER_OVERFLOW )
+                {
+                    throw new SSLException("TLS record larger than the " +
+                                           "read buffer");
+                }
+
+                if( result.getStatus() !=
+                        SSLEngineResult.Status.BUFFER_UNDERFLOW )
+                {
+                    return result;
+                }
+
+                if(! fill() )
+                {
+                    return null;
+                }
+            }
+        }
+        finally
+        {
+            v_app_in.flip();
+        }
+    }
+
+    /**
+     * Reads more encrypted octets from the socket.
+     *
+     * @return false if the client closed the connection.
+     */
+    private boolean fill()
+        throws IOException
+    {
+        if(! v_net_in.hasRemaining() )
+        {
+            throw new SSLException("TLS record larger than the read buffer");
+        }
+
+        int count = v_in.read(v_net_in.array(),
+                v_net_in.arrayOffset() + v_net_in.position(),
+                v_net_in.remaining());
+        if( count < 0 )
+        {
+            return false;
+        }
+
+        v_net_in.position(v_net_in.position() + count);
+        return true;
+    }
+
+    /**
+     * Answers the handshake messages received after the
+     * handshake, such as a TLS 1.3 KeyUpdate.
+     */
+    private void handlePostHandshake(SSLEngineResult.HandshakeStatus status)
+        throws IOException
+    {
+        while( true )
+        {
+            if( status == SSLEngineResult.HandshakeStatus.NEED_TASK )
+            {
+                status = runTasks();
+            }
+            else if( status == SSLEngineResult.HandshakeStatus.NEED_WRAP )
+            {
+                synchronized(v_write_lock)
+                {
+                    checkOpen();
+                    status = wrap(EMPTY).getHandshakeStatus();
+                    sendRecords();
+                    v_out.flush();
+                }
+            }
+            else
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Runs the delegated tasks of the engine on the calling
+     * thread.
+     */
+    private SSLEngineResult.HandshakeStatus runTasks()
+    {
+        Runnable task;
+        while( (task = v_engine.getDelegatedTask()) != null )
+        {
+            task.run();
+        }
+
+        return v_engine.getHandshakeStatus();
+    }
+
+    /**
+     * Wraps octets of the given buffer into the record write
+     * buffer.  Called with the write lock held.
+     */
+    private SSLEngineResult wrap(ByteBuffer src)
+        throws IOException
+    {
+        SSLEngineResult result = v_engine.wrap(src, v_net_out);
+        if( result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW )
+        {
+            // send the records already wrapped to make room
+            sendRecords();
+            result = v_engine.wrap(src, v_net_out);
+        }
+
+        if( result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW )
+        {
+            throw new SSLException("TLS record larger than the write buffer");
+        }
+
+        return result;
+    }
+
+    /**
+     * Encrypts the buffered plaintext.  Called with the write lock
+     * held.
+     */
+    private void wrapBuffered()
+        throws IOException
+    {
+        v_app_out.flip();
+        try
+        {
+            while( v_app_out.hasRemaining() )
+            {
+                wrap(v_app_out);
+            }
+        }
+        finally
+        {
+            v_app_out.compact();
+        }
+    }
+
+    /**
+     * Encrypts the buffered plaintext and sends every record.
+     * Called with the write lock held.
+     */
+    private void flushLocked()
+        throws IOException
+    {
+        wrapBuffered();
+        sendRecords();
+        v_out.flush();
+    }
+
+    /**
+     * Writes the wrapped records to the socket.  Called with the
+     * write lock held.
+     */
+    private void sendRecords()
+        throws IOException
+    {
+        v_net_out.flip();
+        try
+        {
+            if( v_net_out.hasRemaining() )
+            {
+                v_out.write(v_net_out.array(),
+                        v_net_out.arrayOffset() + v_net_out.position(),
+                        v_net_out.remaining());
+            }
+        }
+        finally
+        {
+            v_net_out.clear();
+        }
+    }
+
+    /**
+     * @throws IOException if the connection was closed.
+     */
+    private void checkOpen()
+        throws IOException
+    {
+        if( v_closed )
+        {
+            throw new IOException("TLS connection closed");
+        }
+    }
+
+    private final InputStream v_in;
+    private final OutputStream v_out;
+    private final SSLEngine v_engine;
+    private final TlsBufferPool v_pool;
+    private final Object v_write_lock;
+    private final ByteBuffer v_net_in;
+    private final ByteBuffer v_app_in;
+    private final ByteBuffer v_net_out;
+    private final ByteBuffer v_app_out;
+    private final TlsInputStream v_input;
+    private final TlsOutputStream v_output;
+    private boolean v_closed;
+    private boolean v_resumed;
+}
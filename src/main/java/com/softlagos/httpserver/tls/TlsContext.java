@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TlsContext.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.tls;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.httpserver.HttpProperties;
+import com.softlagos.httpserver.http2.Http2Connection;
+import com.softlagos.reactor.SocketHandle;
+
+/**
+ * <p>
+ * The server TLS configuration: the SSLContext built from the
+ * configured key store, the session cache shared by all the
+ * connections, and the protocols offered through ALPN.
+ * </p>
+ * <p>
+ * Returning clients resume their sessions without a full
+ * handshake, either from the server session cache or, when
+ * session tickets are enabled, from the encrypted ticket the
+ * client presents.  ALPN selects "h2" for clients supporting
+ * HTTP/2 and "http/1.1" otherwise.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "RFC7301 - Transport Layer Security (TLS) Application-Layer
+ * Protocol Negotiation Extension"
+ * @see "RFC5077 - Transport Layer Security (TLS) Session Resumption
+ * without Server-Side State"
+ */
+public final class TlsContext
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(TlsContext.class);
+
+    /** The ALPN protocol identifier of HTTP/2 over TLS. */
+    public static final String ALPN_H2 = "h2";
+
+    /** The ALPN protocol identifier of HTTP/1.1. */
+    public static final String ALPN_HTTP_1_1 = "http/1.1";
+
+    /**
+     * @return the single instance configured from the system
+     * properties, or null if TLS is disabled.
+     */
+    public static TlsContext instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Instantiates a new TLS context.
+     *
+     * @param keystore_path the path of the key store holding the
+     * server private key and certificate chain.
+     * @param keystore_type the key store type, such as PKCS12
+     * @param password the key store and private key password
+     * @param protocols the TLS protocol versions enabled, or an
+     * empty array for the JDK defaults.
+     * @param cache_size the maximum number of sessions cached
+     * @param session_timeout_s the lifetime in seconds of a
+     * cached session.
+     * @throws GeneralSecurityException if the key store or the
+     * SSLContext cannot be loaded.
+     * @throws IOException if the key store cannot be read.
+     */
+    public TlsContext(String keystore_path, String keystore_type,
+                      char password [], String protocols [],
+                      int cache_size, int session_timeout_s)
+        throws GeneralSecurityException, IOException
+    {
+        if( keystore_path == null || keystore_path.trim().length() == 0 )
+        {
+            throw new IllegalArgumentException(
+                    "keystore_path cannot be null or blank.");
+        }
+
+        if( password == null )
+        {
+            throw new IllegalArgumentException("password cannot be null.");
+        }
+
+        KeyStore keystore = KeyStore.getInstance(keystore_type);
+        InputStream in = new FileInputStream(keystore_path);
+        try
+        {
+            keystore.load(in, password);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        KeyManagerFactory factory = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        factory.init(keystore, password);
+
+        v_context = SSLContext.getInstance("TLS");
+        v_context.init(factory.getKeyManagers(), null, null);
+
+        SSLSessionContext sessions = v_context.getServerSessionContext();
+        sessions.setSessionCacheSize(cache_size);
+        sessions.setSessionTimeout(session_timeout_s);
+
+        v_protocols = protocols;
+        v_alpn = Http2Connection.ENABLED ?
+                new String [] { ALPN_H2, ALPN_HTTP_1_1 } :
+                new String [] { ALPN_HTTP_1_1 };
+
+        // every buffer of the pool must hold a whole record
+        SSLEngine engine = createEngine(null, -1);
+        int size = Math.max(engine.getSession().getPacketBufferSize(),
+                            engine.getSession().getApplicationBufferSize());
+        v_pool = new TlsBufferPool(size, BUFFER_POOL_SIZE);
+    }
+
+    /**
+     * Creates a server mode engine for a client connection.
+     *
+     * @param peer_address the client address, or null
+     * @param peer_port the client port, or -1
+     * @return the SSLEngine
+     */
+    public SSLEngine createEngine(InetAddress peer_address, int peer_port)
+    {
+        SSLEngine engine = (peer_address == null) ?
+                v_context.createSSLEngine() :
+                v_context.createSSLEngine(peer_address.getHostAddress(),
+                                          peer_port);
+        engine.setUseClientMode(false);
+
+        SSLParameters params = engine.getSSLParameters();
+        if( v_protocols != null && v_protocols.length > 0 )
+        {
+            params.setProtocols(v_protocols);
+        }
+
+        // the server order wins, so h2 is preferred when offered
+        params.setApplicationProtocols(v_alpn);
+        params.setUseCipherSuitesOrder(true);
+        engine.setSSLParameters(params);
+        return engine;
+    }
+
+    /**
+     * Creates the TLS connection of an accepted client connection.
+     * The handshake is run by TlsConnection.handshake.
+     *
+     * @param handle the accepted client connection
+     * @return the TLS connection
+     * @throws IOException if the socket streams cannot be opened.
+     */
+    public TlsConnection newConnection(SocketHandle handle)
+        throws IOException
+    {
+        if( handle == null )
+        {
+            throw new IllegalArgumentException("handle cannot be null.");
+        }
+
+        InetAddress address = handle.getSocket().getInetAddress();
+        int port = handle.getSocket().getPort();
+        return new TlsConnection(handle, createEngine(address, port), v_pool);
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The maximum number of idle record buffers kept. */
+    private static final int BUFFER_POOL_SIZE =
+            HttpProperties.getInt(HttpProperties.TLS_BUFFER_POOL_SIZE, 1024);
+
+    private static final TlsContext INSTANCE = create();
+
+    /**
+     * @return the TLS context configured from the system
+     * properties, or null if TLS is disabled.
+     * @throws IllegalStateException if TLS is enabled but the key
+     * store cannot be loaded.
+     */
+    private static TlsContext create()
+    {
+        if(! HttpProperties.getBoolean(HttpProperties.TLS_ENABLED, false) )
+        {
+            return null;
+        }
+
+        // read by the JDK when its TLS classes are first loaded,
+        // so it is set ahead of any SSLContext.
+        if( System.getProperty(SESSION_TICKETS_PROPERTY) == null )
+        {
+            System.setProperty(SESSION_TICKETS_PROPERTY, "" +
+                    HttpProperties.getBoolean(
+                            HttpProperties.TLS_SESSION_TICKETS, true));
+        }
+
+        String keystore = HttpProperties.getString(
+                HttpProperties.TLS_KEYSTORE, null);
+        String password = HttpProperties.getString(
+                HttpProperties.TLS_KEYSTORE_PASSWORD, "");
+
+        try
+        {
+            TlsContext context = new TlsContext(keystore,
+                    HttpProperties.getString(HttpProperties.TLS_KEYSTORE_TYPE,
+                                             "PKCS12"),
+                    password.toCharArray(),
+                    HttpProperties.getList(HttpProperties.TLS_PROTOCOLS),
+                    HttpProperties.getInt(HttpProperties.TLS_SESSION_CACHE_SIZE,
+                                          20480),
+                    HttpProperties.getInt(HttpProperties.TLS_SESSION_TIMEOUT_S,
+                                          86400));
+
+            if(logger.isInfoEnabled())
+            {
+                logger.info("TLS enabled with key store [" + keystore + "]");
+            }
+
+            return context;
+        }
+        catch(GeneralSecurityException | IOException ex)
+        {
+            String msg = "error loading TLS key store [" + keystore +
+                    "]: " + ex.getMessage();
+            logger.error(msg);
+            throw new IllegalStateException(msg, ex);
+        }
+    }
+
+    /** The JDK property enabling stateless session tickets. */
+    private static final String SESSION_TICKETS_PROPERTY =
+            "jdk.tls.server.enableSessionTicketExtension";
+
+    private final SSLContext v_context;
+    private final String v_protocols [];
+    private final String v_alpn [];
+    private final TlsBufferPool v_pool;
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: TlsOutputStream.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.tls;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * The output stream of a TLS connection.  The octets written
+ * are buffered up to a full TLS record, and encrypted and sent
+ * when the buffer fills up or the stream is flushed.
+ * </p>
+ * <p>
+ * A ByteBuffer, such as a memory mapped region of a file, may
+ * also be written as-is: it is encrypted straight from the
+ * buffer without first being copied to the heap.
+ * </p>
+ *
+ * @author Rubens Gomes
+ */
+public final class TlsOutputStream extends OutputStream
+{
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#write(int)
+     */
+    @Override
+    public void write(int octet)
+        throws IOException
+    {
+        byte buff [] = { (byte) octet };
+        v_connection.write(buff, 0, 1);
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte buff [], int off, int len)
+        throws IOException
+    {
+        if( buff == null )
+        {
+            throw new IllegalArgumentException("buff cannot be null.");
+        }
+
+        if( off < 0 || len < 0 || off + len > buff.length )
+        {
+            throw new IndexOutOfBoundsException();
+        }
+
+        v_connection.write(buff, off, len);
+    }
+
+    /**
+     * Writes the remaining octets of the given buffer.  The
+     * buffer position is left unchanged.
+     *
+     * @param buff the octets to write
+     * @throws IOException if an I/O error occurs.
+     */
+    public void write(ByteBuffer buff)
+        throws IOException
+    {
+        if( buff == null )
+        {
+            throw new IllegalArgumentException("buff cannot be null.");
+        }
+
+        v_connection.write(buff.duplicate());
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#flush()
+     */
+    @Override
+    public void flush()
+        throws IOException
+    {
+        v_connection.flush();
+    }
+
+    /**
+     * Closing the stream leaves the connection open; the
+     * connection is closed by TlsConnection.close.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        flush();
+    }
+
+    // ------ >>> Package <<< ------
+
+    /**
+     * Instantiates a new TLS output stream.
+     *
+     * @param connection the TLS connection
+     */
+    TlsOutputStream(TlsConnection connection)
+    {
+        v_connection = connection;
+    }
+
+    // ------ >>> Private <<< ------
+    private final TlsConnection v_connection;
+}
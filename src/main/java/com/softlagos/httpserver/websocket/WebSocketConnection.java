@@ -0,0 +1,965 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: WebSocketConnection.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.softlagos.Constants;
+import com.softlagos.httpserver.HttpClientErrorException;
+import com.softlagos.httpserver.HttpDeadlineTimer;
+import com.softlagos.httpserver.HttpLineReader;
+import com.softlagos.httpserver.HttpMetrics;
+import com.softlagos.httpserver.HttpProperties;
+import com.softlagos.httpserver.HttpRequestHeader;
+import com.softlagos.httpserver.enums.HttpMetricType;
+import com.softlagos.httpserver.enums.HttpRequestMethodType;
+import com.softlagos.reactor.SocketHandle;
+
+/**
+ * <p>
+ * A WebSocket connection, upgraded from an HTTP/1.1 request routed
+ * to a WebSocketEndpoint.  The worker thread that read the request
+ * becomes the connection thread: it reads every frame, reassembles
+ * the fragmented messages, answers the pings and hands each message
+ * to the listener of the endpoint.  A connection quiet for the ping
+ * interval is sent a ping, and closed if it stays quiet for another.
+ * </p>
+ * <p>
+ * The messages sent, from any thread, are framed and queued; the
+ * queue of a connection is written out by one of the writer
+ * threads shared by all the connections, so a broadcast never waits
+ * on a slow client.  Once the queue of a connection holds the
+ * high-water mark, the messages sent to it are refused until the
+ * client catches up.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "RFC6455 - The WebSocket Protocol"
+ */
+public final class WebSocketConnection
+{
+    /** The logger. */
+    private static final Logger logger =
+            LogManager.getLogger(WebSocketConnection.class);
+
+    /** The status code of a normal closure. */
+    public static final int NORMAL_CLOSURE = 1000;
+
+    /** The status code of an endpoint going away. */
+    public static final int GOING_AWAY = 1001;
+
+    /** The status code of a connection ended without a Close frame. */
+    public static final int ABNORMAL_CLOSURE = 1006;
+
+    /** The status code of an unexpected condition in the server. */
+    public static final int INTERNAL_ERROR = 1011;
+
+    /**
+     * Checks whether the given request asks to upgrade the
+     * connection to WebSocket.
+     *
+     * @param header the HTTP/1.1 request header
+     * @return true, if the request carries "Upgrade: websocket".
+     * @see "Section 4.2.1 of RFC6455"
+     */
+    public static boolean isUpgrade(HttpRequestHeader header)
+    {
+        if( header == null )
+        {
+            return false;
+        }
+
+        String upgrade = header.getHeader("Upgrade");
+        return upgrade != null && hasToken(upgrade, "websocket");
+    }
+
+    /**
+     * Instantiates a new WebSocket connection from the opening
+     * handshake of the client.
+     *
+     * @param handle the client connection
+     * @param reader the client connection reader
+     * @param out the client output stream
+     * @param header the request asking to upgrade to WebSocket
+     * @param listener the listener of the endpoint
+     * @param write_timeout_ms the time in milliseconds allowed for
+     * each write.
+     * @param timer the deadline timer of the writes
+     * @throws HttpClientErrorException if the request is not a valid
+     * opening handshake.
+     * @see "Section 4.2.1 of RFC6455"
+     */
+    public WebSocketConnection(SocketHandle handle, HttpLineReader reader,
+                               OutputStream out, HttpRequestHeader header,
+                               WebSocketListener listener,
+                               long write_timeout_ms, HttpDeadlineTimer timer)
+        throws HttpClientErrorException
+    {
+        if( handle == null )
+        {
+            throw new IllegalArgumentException("handle cannot be null.");
+        }
+
+        if( reader == null )
+        {
+            throw new IllegalArgumentException("reader cannot be null.");
+        }
+
+        if( out == null )
+        {
+            throw new IllegalArgumentException("out cannot be null.");
+        }
+
+        if( header == null )
+        {
+            throw new IllegalArgumentException("header cannot be null.");
+        }
+
+        if( listener == null )
+        {
+            throw new IllegalArgumentException("listener cannot be null.");
+        }
+
+        v_accept = validate(header);
+        v_handle = handle;
+        v_out = out;
+        v_header = header;
+        v_listener = listener;
+        v_write_timeout_ms = write_timeout_ms;
+        v_timer = (timer == null) ? HttpDeadlineTimer.instance() : timer;
+        v_deflate = DEFLATE ? WebSocketDeflate.negotiate(
+                header.getHeader("Sec-WebSocket-Extensions")) : null;
+
+        v_frames = new WebSocketFrameReader(reader, MAX_MESSAGE_SIZE);
+        v_decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        v_message = new byte[0];
+        v_message_opcode = -1;
+        v_queue = new ConcurrentLinkedQueue<byte[]>();
+        v_queued = new AtomicLong();
+        v_draining = new AtomicBoolean();
+        v_send_lock = new Object();
+        v_close_code = ABNORMAL_CLOSURE;
+        v_close_reason = "";
+        v_drain = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        };
+    }
+
+    /**
+     * Sends the opening handshake response and serves the
+     * connection until it is closed.  The caller closes the
+     * connection afterwards.
+     */
+    public void serve()
+    {
+        HttpMetrics.instance().increment(HttpMetricType.WEBSOCKET_CONNECTIONS);
+        boolean open = false;
+        try
+        {
+            handshake();
+            open = true;
+            v_listener.onOpen(this);
+
+            v_handle.getSocket().setSoTimeout(PING_INTERVAL_MS);
+            while( readFrame() )
+            {
+                continue;
+            }
+        }
+        catch(WebSocketException ex)
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("WebSocket connection error: " + ex.getMessage());
+            }
+
+            close(ex.getStatusCode(), null);
+        }
+        catch(IOException ex)
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("WebSocket connection closed: " + ex.getMessage());
+            }
+        }
+        catch(RuntimeException ex)
+        {
+            logger.error("WebSocket listener failed: " + ex.getMessage(), ex);
+            close(INTERNAL_ERROR, null);
+        }
+        finally
+        {
+            v_closed = true;
+            awaitDrained();
+
+            if( open )
+            {
+                try
+                {
+                    v_listener.onClose(this, v_close_code, v_close_reason);
+                }
+                catch(RuntimeException ex)
+                {
+                    logger.error("WebSocket listener failed: " +
+                                 ex.getMessage(), ex);
+                }
+            }
+
+            if( v_deflate != null )
+            {
+                v_deflate.end();
+            }
+        }
+    }
+
+    /**
+     * Sends a text message.
+     *
+     * @param message the message
+     * @return false if the message was refused, because the
+     * connection is closing or its queue holds the high-water mark.
+     */
+    public boolean sendText(String message)
+    {
+        if( message == null )
+        {
+            throw new IllegalArgumentException("message cannot be null.");
+        }
+
+        byte octets [] = message.getBytes(StandardCharsets.UTF_8);
+        return send(WebSocketFrameReader.TEXT, octets, 0, octets.length);
+    }
+
+    /**
+     * Sends a binary message.
+     *
+     * @param message the message
+     * @return false if the message was refused, because the
+     * connection is closing or its queue holds the high-water mark.
+     */
+    public boolean sendBinary(byte message [])
+    {
+        if( message == null )
+        {
+            throw new IllegalArgumentException("message cannot be null.");
+        }
+
+        return send(WebSocketFrameReader.BINARY, message, 0, message.length);
+    }
+
+    /**
+     * Starts the closing handshake: a Close frame is sent, and the
+     * connection is closed once the client answers with its own.
+     *
+     * @param status_code the status code
+     * @param reason the reason, or null
+     * @see "Section 7 of RFC6455"
+     */
+    public void close(int status_code, String reason)
+    {
+        byte text [] = (reason == null) ? new byte[0] :
+                reason.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(text.length, MAX_CONTROL_PAYLOAD - 2);
+        byte payload [] = new byte[2 + length];
+        payload[0] = (byte) (status_code >>> 8);
+        payload[1] = (byte) status_code;
+        System.arraycopy(text, 0, payload, 2, length);
+
+        synchronized(v_send_lock)
+        {
+            if( v_close_sent || v_closed )
+            {
+                return;
+            }
+
+            v_close_sent = true;
+            enqueue(encode(WebSocketFrameReader.CLOSE, false,
+                           payload, 0, payload.length));
+        }
+    }
+
+    /**
+     * @return true, if neither side has started closing the
+     * connection.
+     */
+    public boolean isOpen()
+    {
+        return ! v_close_sent && ! v_closed;
+    }
+
+    /**
+     * @return the number of octets queued and not yet written
+     */
+    public long getQueued()
+    {
+        return v_queued.get();
+    }
+
+    /**
+     * @return the request that opened the connection
+     */
+    public HttpRequestHeader getRequestHeader()
+    {
+        return v_header;
+    }
+
+    /**
+     * @return the client address
+     */
+    public InetAddress getRemoteAddress()
+    {
+        return v_handle.getSocket().getInetAddress();
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The GUID appended to the key of the opening handshake. */
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    /** The largest payload of a control frame. */
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    /** The smallest message compressed. */
+    private static final int MIN_DEFLATE_SIZE = 64;
+
+    /** The largest message received. */
+    private static final int MAX_MESSAGE_SIZE =
+            HttpProperties.getInt(HttpProperties.WEBSOCKET_MAX_MESSAGE_SIZE,
+                                  1048576);
+
+    /** The time in milliseconds a quiet connection is pinged after. */
+    private static final int PING_INTERVAL_MS =
+            HttpProperties.getInt(HttpProperties.WEBSOCKET_PING_INTERVAL_MS,
+                                  30000);
+
+    /** The octets queued above which the messages sent are refused. */
+    private static final long HIGH_WATER =
+            HttpProperties.getLong(HttpProperties.WEBSOCKET_HIGH_WATER,
+                                   1048576L);
+
+    /** Whether permessage-deflate is accepted. */
+    private static final boolean DEFLATE =
+            HttpProperties.getBoolean(HttpProperties.WEBSOCKET_DEFLATE, true);
+
+    /** The number of writer threads. */
+    private static final int WRITERS =
+            HttpProperties.getInt(HttpProperties.WEBSOCKET_WRITERS,
+                                  Runtime.getRuntime().availableProcessors());
+
+    /** The writer threads shared by all the connections. */
+    private static final ExecutorService WRITER_EXECUTOR =
+            Executors.newFixedThreadPool(WRITERS, new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "websocket-writer-" +
+                                               THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * Validates the opening handshake of the client.
+     *
+     * @param header the request header
+     * @return the Sec-WebSocket-Accept header field value
+     * @throws HttpClientErrorException if the handshake is invalid.
+     */
+    private static String validate(HttpRequestHeader header)
+        throws HttpClientErrorException
+    {
+        if( header.getRequestLine().getMethod() != HttpRequestMethodType.GET ||
+            ! "HTTP/1.1".equals(header.getRequestLine().getHttpVersion()) )
+        {
+            throw new HttpClientErrorException(400,
+                    "WebSocket opening handshake must be an HTTP/1.1 GET");
+        }
+
+        String connection = header.getHeader("Connection");
+        if( connection == null || ! hasToken(connection, "Upgrade") )
+        {
+            throw new HttpClientErrorException(400,
+                    "WebSocket opening handshake without Connection: Upgrade");
+        }
+
+        if(! "13".equals(header.getHeader("Sec-WebSocket-Version")) )
+        {
+            throw new HttpClientErrorException(426,
+                    "WebSocket version [" +
+                    header.getHeader("Sec-WebSocket-Version") +
+                    "] is not 13");
+        }
+
+        String key = header.getHeader("Sec-WebSocket-Key");
+        try
+        {
+            if( key == null || Base64.getDecoder().decode(key).length != 16 )
+            {
+                throw new IllegalArgumentException("not a 16 octets nonce");
+            }
+        }
+        catch(IllegalArgumentException ex)
+        {
+            throw new HttpClientErrorException(400,
+                    "invalid Sec-WebSocket-Key [" + key + "]");
+        }
+
+        try
+        {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(sha1.digest(
+                    (key + GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        }
+        catch(NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException("SHA-1 not available", ex);
+        }
+    }
+
+    /**
+     * Sends the opening handshake response.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    private void handshake()
+        throws IOException
+    {
+        StringBuilder buff = new StringBuilder(256);
+        buff.append("HTTP/1.1 101 Switching Protocols").append(Constants.CRLF);
+        buff.append("Upgrade: websocket").append(Constants.CRLF);
+        buff.append("Connection: Upgrade").append(Constants.CRLF);
+        buff.append("Sec-WebSocket-Accept: ").append(v_accept)
+            .append(Constants.CRLF);
+        if( v_deflate != null )
+        {
+            buff.append("Sec-WebSocket-Extensions: ")
+                .append(v_deflate.getResponse()).append(Constants.CRLF);
+        }
+
+        buff.append(Constants.CRLF);
+
+        HttpDeadlineTimer.Deadline deadline = v_timer.arm(v_handle,
+                v_write_timeout_ms, HttpMetricType.TIMEOUT_WRITE);
+        try
+        {
+            v_out.write(buff.toString().getBytes(StandardCharsets.ISO_8859_1));
+            v_out.flush();
+        }
+        finally
+        {
+            deadline.cancel();
+        }
+    }
+
+    /**
+     * Reads and handles the next frame.
+     *
+     * @return false, if the connection is to be closed.
+     * @throws WebSocketException if the frame breaks the protocol.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean readFrame()
+        throws WebSocketException, IOException
+    {
+        try
+        {
+            if(! v_frames.readFrame() )
+            {
+                return false;
+            }
+        }
+        catch(SocketTimeoutException ex)
+        {
+            if( v_close_sent || v_ping_sent )
+            {
+                // no Close answer, or no Pong, in time
+                return false;
+            }
+
+            v_ping_sent = true;
+            enqueue(encode(WebSocketFrameReader.PING, false, new byte[0], 0, 0));
+            return true;
+        }
+
+        v_ping_sent = false;
+        int opcode = v_frames.getOpcode();
+        byte payload [] = v_frames.getPayload();
+        int length = v_frames.getLength();
+
+        if( opcode >= WebSocketFrameReader.CLOSE )
+        {
+            if(! v_frames.isFin() || v_frames.getRsv() != 0 ||
+               length > MAX_CONTROL_PAYLOAD )
+            {
+                throw new WebSocketException(WebSocketException.PROTOCOL_ERROR,
+                        "invalid control frame");
+            }
+
+            switch(opcode)
+            {
+                case WebSocketFrameReader.CLOSE:
+                    closed(payload, length);
+                    return false;
+
+                case WebSocketFrameReader.PING:
+                    enqueue(encode(WebSocketFrameReader.PONG, false,
+                                   payload, 0, length));
+                    return true;
+
+                case WebSocketFrameReader.PONG:
+                    return true;
+
+                default:
+                    throw new WebSocketException(
+                            WebSocketException.PROTOCOL_ERROR,
+                            "unknown opcode [" + opcode + "]");
+            }
+        }
+
+        boolean compressed = (v_frames.getRsv() & 0x4) != 0;
+        if( (v_frames.getRsv() & 0x3) != 0 ||
+            (compressed && v_deflate == null) )
+        {
+            throw new WebSocketException(WebSocketException.PROTOCOL_ERROR,
+                    "reserved bits set without an extension");
+        }
+
+        if( opcode == WebSocketFrameReader.CONTINUATION )
+        {
+            if( v_message_opcode < 0 || compressed )
+            {
+                throw new WebSocketException(WebSocketException.PROTOCOL_ERROR,
+                        "unexpected continuation frame");
+            }
+        }
+        else if( opcode == WebSocketFrameReader.TEXT ||
+                 opcode == WebSocketFrameReader.BINARY )
+        {
+            if( v_message_opcode >= 0 )
+            {
+                throw new WebSocketException(WebSocketException.PROTOCOL_ERROR,
+                        "new message before the end of the fragmented one");
+            }
+
+            v_message_opcode = opcode;
+            v_message_compressed = compressed;
+        }
+        else
+        {
+            throw new WebSocketException(WebSocketException.PROTOCOL_ERROR,
+                    "unknown opcode [" + opcode + "]");
+        }
+
+        // an unfragmented message is handed over from the frame buffer
+        if( v_frames.isFin() && v_message_length == 0 )
+        {
+            deliver(payload, length);
+            return true;
+        }
+
+        if( v_message_length + length > MAX_MESSAGE_SIZE )
+        {
+            throw new WebSocketException(WebSocketException.MESSAGE_TOO_BIG,
+                    "message exceeds the maximum of [" + MAX_MESSAGE_SIZE + "]");
+        }
+
+        if( v_message_length + length > v_message.length )
+        {
+            v_message = Arrays.copyOf(v_message, Math.min(MAX_MESSAGE_SIZE,
+                    Math.max(v_message_length + length, v_message.length * 2)));
+        }
+
+        System.arraycopy(payload, 0, v_message, v_message_length, length);
+        v_message_length += length;
+        if( v_frames.isFin() )
+        {
+            deliver(v_message, v_message_length);
+        }
+
+        return true;
+    }
+
+    /**
+     * Hands a whole message to the listener.
+     *
+     * @param octets the message payload
+     * @param length the length of the payload
+     * @throws WebSocketException if the message is not valid.
+     */
+    private void deliver(byte octets [], int length)
+        throws WebSocketException
+    {
+        int opcode = v_message_opcode;
+        if( v_message_compressed )
+        {
+            length = v_deflate.decompress(octets, length, MAX_MESSAGE_SIZE);
+            octets = v_deflate.getDecompressed();
+        }
+
+        v_message_opcode = -1;
+        v_message_length = 0;
+
+        if( opcode == WebSocketFrameReader.TEXT )
+        {
+            String message = null;
+            try
+            {
+                message = v_decoder.reset().decode(
+                        ByteBuffer.wrap(octets, 0, length)).toString();
+            }
+            catch(CharacterCodingException ex)
+            {
+                throw new WebSocketException(WebSocketException.INVALID_DATA,
+                        "text message not valid UTF-8");
+            }
+
+            v_listener.onText(this, message);
+        }
+        else
+        {
+            v_listener.onBinary(this, Arrays.copyOf(octets, length));
+        }
+    }
+
+    /**
+     * Handles the Close frame of the client, and answers it unless
+     * the server started the closing handshake.
+     *
+     * @param payload the payload of the Close frame
+     * @param length the length of the payload
+     * @throws WebSocketException if the payload is not valid.
+     */
+    private void closed(byte payload [], int length)
+        throws WebSocketException
+    {
+        if( length == 1 )
+        {
+            throw new WebSocketException(WebSocketException.PROTOCOL_ERROR,
+                    "Close frame with a one octet payload");
+        }
+
+        if( length >= 2 )
+        {
+            int code = ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+            if(! isValidCloseCode(code) )
+            {
+                throw new WebSocketException(WebSocketException.PROTOCOL_ERROR,
+                        "Close frame with invalid status code [" + code + "]");
+            }
+
+            try
+            {
+                v_close_reason = v_decoder.reset().decode(
+                        ByteBuffer.wrap(payload, 2, length - 2)).toString();
+            }
+            catch(CharacterCodingException ex)
+            {
+                throw new WebSocketException(WebSocketException.INVALID_DATA,
+                        "Close frame reason not valid UTF-8");
+            }
+
+            v_close_code = code;
+        }
+        else
+        {
+            v_close_code = NORMAL_CLOSURE;
+        }
+
+        close(v_close_code, null);
+    }
+
+    /**
+     * Sends a data message, compressed if the extension was agreed
+     * on and the message is not too small.
+     *
+     * @return false if the message was refused.
+     */
+    private boolean send(int opcode, byte octets [], int off, int len)
+    {
+        synchronized(v_send_lock)
+        {
+            // the compressed messages are queued in the order they
+            // went through the compression context
+            if( v_close_sent || v_closed )
+            {
+                return false;
+            }
+
+            if( v_queued.get() >= HIGH_WATER )
+            {
+                HttpMetrics.instance().increment(
+                        HttpMetricType.WEBSOCKET_REFUSED);
+                return false;
+            }
+
+            if( v_deflate != null && len >= MIN_DEFLATE_SIZE )
+            {
+                byte compressed [] = v_deflate.compress(octets, off, len);
+                enqueue(encode(opcode, true, compressed, 0, compressed.length));
+            }
+            else
+            {
+                enqueue(encode(opcode, false, octets, off, len));
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Checks the status code of a Close frame received.  The codes
+     * below 1000, the ones an endpoint must never send (1005, 1006
+     * and 1015), and the others not defined but reserved for the
+     * protocol (1004 and 1016 to 2999) are invalid, as are those
+     * above the private use range.
+     *
+     * @param code the status code
+     * @return true, if the code may be received.
+     * @see "Section 7.4 of RFC6455"
+     */
+    private static boolean isValidCloseCode(int code)
+    {
+        if( code >= 3000 )
+        {
+            return code <= 4999;
+        }
+
+        return code >= 1000 && code <= 1014 &&
+               code != 1004 && code != 1005 && code != 1006;
+    }
+
+    /**
+     * Frames a payload.  The frames of the server are not masked.
+     *
+     * @param opcode the opcode
+     * @param rsv1 whether the RSV1 bit is set
+     * @param octets the payload
+     * @param off the offset of the payload
+     * @param len the length of the payload
+     * @return the frame
+     */
+    private static byte [] encode(int opcode, boolean rsv1, byte octets [],
+                                  int off, int len)
+    {
+        int header = (len < 126) ? 2 : (len < 65536) ? 4 : 10;
+        byte frame [] = new byte[header + len];
+        frame[0] = (byte) (0x80 | (rsv1 ? 0x40 : 0) | opcode);
+        if( len < 126 )
+        {
+            frame[1] = (byte) len;
+        }
+        else if( len < 65536 )
+        {
+            frame[1] = 126;
+            frame[2] = (byte) (len >>> 8);
+            frame[3] = (byte) len;
+        }
+        else
+        {
+            frame[1] = 127;
+            for(int i = 0; i < 8; i++)
+            {
+                frame[2 + i] = (byte) ((long) len >>> (56 - (i << 3)));
+            }
+        }
+
+        System.arraycopy(octets, off, frame, header, len);
+        return frame;
+    }
+
+    /**
+     * Queues a frame, and has a writer thread write the queue out
+     * unless one already does.
+     *
+     * @param frame the frame
+     */
+    private void enqueue(byte frame [])
+    {
+        v_queued.addAndGet(frame.length);
+        v_queue.add(frame);
+        if( v_draining.compareAndSet(false, true) )
+        {
+            WRITER_EXECUTOR.execute(v_drain);
+        }
+    }
+
+    /**
+     * Writes the queued frames out, on a writer thread.
+     */
+    private void drain()
+    {
+        try
+        {
+            while( true )
+            {
+                HttpDeadlineTimer.Deadline deadline = v_timer.arm(v_handle,
+                        v_write_timeout_ms, HttpMetricType.TIMEOUT_WRITE);
+                try
+                {
+                    byte frame [] = v_queue.poll();
+                    while( frame != null )
+                    {
+                        v_out.write(frame);
+                        v_queued.addAndGet(-frame.length);
+                        frame = v_queue.poll();
+                    }
+
+                    v_out.flush();
+                }
+                finally
+                {
+                    deadline.cancel();
+                }
+
+                // a frame queued meanwhile is written by this thread,
+                // unless the one queuing it already took over
+                v_draining.set(false);
+                if( v_queue.isEmpty() ||
+                    ! v_draining.compareAndSet(false, true) )
+                {
+                    break;
+                }
+            }
+        }
+        catch(IOException ex)
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("error writing WebSocket frames: " +
+                             ex.getMessage());
+            }
+
+            // the queue stays marked as draining, so nothing more is
+            // written; closing the socket ends the connection thread
+            v_queue.clear();
+            v_closed = true;
+            try
+            {
+                v_handle.close();
+            }
+            catch(IOException ioex)
+            {
+                // already closed
+            }
+        }
+        finally
+        {
+            synchronized(v_queue)
+            {
+                v_queue.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits, up to the write timeout, for the queued frames to be
+     * written before the connection is closed.
+     */
+    private void awaitDrained()
+    {
+        long end = System.currentTimeMillis() + v_write_timeout_ms;
+        synchronized(v_queue)
+        {
+            while( (! v_queue.isEmpty() || v_draining.get()) &&
+                   ! v_handle.getSocket().isClosed() )
+            {
+                long remaining = end - System.currentTimeMillis();
+                if( remaining <= 0 )
+                {
+                    return;
+                }
+
+                try
+                {
+                    v_queue.wait(remaining);
+                }
+                catch(InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true, if the comma separated list contains the
+     * given token, ignoring case.
+     */
+    private static boolean hasToken(String list, String token)
+    {
+        for(String item : list.split(","))
+        {
+            if( item.trim().equalsIgnoreCase(token) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private final SocketHandle v_handle;
+    private final OutputStream v_out;
+    private final HttpRequestHeader v_header;
+    private final WebSocketListener v_listener;
+    private final long v_write_timeout_ms;
+    private final HttpDeadlineTimer v_timer;
+    private final String v_accept;
+    private final WebSocketDeflate v_deflate;
+    private final WebSocketFrameReader v_frames;
+    private final CharsetDecoder v_decoder;
+    private final ConcurrentLinkedQueue<byte[]> v_queue;
+    private final AtomicLong v_queued;
+    private final AtomicBoolean v_draining;
+    private final Runnable v_drain;
+    private final Object v_send_lock;
+    private byte v_message [];
+    private int v_message_length;
+    private int v_message_opcode;
+    private boolean v_message_compressed;
+    private boolean v_ping_sent;
+    private int v_close_code;
+    private String v_close_reason;
+    private volatile boolean v_close_sent;
+    private volatile boolean v_closed;
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: WebSocketDeflate.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.websocket;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * The permessage-deflate extension of a WebSocket connection: the
+ * payload of a message is compressed as a DEFLATE block ended with
+ * an empty stored block, less its last four octets.
+ * </p>
+ * <p>
+ * The compression context is kept from message to message unless
+ * the client asked for no context takeover.  The deflater of the
+ * JDK always uses a 32 KiB window, so an offer limiting the server
+ * window below it is declined; the client may use any window, which
+ * the inflater handles.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "RFC7692 - Compression Extensions for WebSocket"
+ */
+public final class WebSocketDeflate
+{
+    /** The extension token. */
+    public static final String EXTENSION = "permessage-deflate";
+
+    /**
+     * Accepts the first permessage-deflate offer of the client that
+     * the server supports.
+     *
+     * @param extensions the Sec-WebSocket-Extensions header field
+     * value of the opening handshake, or null
+     * @return the extension, or null if no offer is accepted.
+     */
+    public static WebSocketDeflate negotiate(String extensions)
+    {
+        if( extensions == null )
+        {
+            return null;
+        }
+
+        for(String offer : extensions.split(","))
+        {
+            String params [] = offer.split(";");
+            if(! params[0].trim().equalsIgnoreCase(EXTENSION) )
+            {
+                continue;
+            }
+
+            boolean accepted = true;
+            boolean server_no_takeover = false;
+            boolean client_no_takeover = false;
+            for(int i = 1; i < params.length && accepted; i++)
+            {
+                String param = params[i].trim();
+                int equals = param.indexOf('=');
+                String name = ((equals < 0) ? param :
+                               param.substring(0, equals)).trim();
+                String value = (equals < 0) ? null :
+                        param.substring(equals + 1).trim().replace("\"", "");
+
+                if( name.equalsIgnoreCase("server_no_context_takeover") )
+                {
+                    server_no_takeover = true;
+                }
+                else if( name.equalsIgnoreCase("client_no_context_takeover") )
+                {
+                    client_no_takeover = true;
+                }
+                else if( name.equalsIgnoreCase("server_max_window_bits") )
+                {
+                    accepted = "15".equals(value);
+                }
+                else if(! name.equalsIgnoreCase("client_max_window_bits") )
+                {
+                    accepted = false;
+                }
+            }
+
+            if( accepted )
+            {
+                return new WebSocketDeflate(server_no_takeover,
+                                            client_no_takeover);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the Sec-WebSocket-Extensions header field value of the
+     * opening handshake response
+     */
+    public String getResponse()
+    {
+        return EXTENSION +
+               (v_server_no_takeover ? "; server_no_context_takeover" : "") +
+               (v_client_no_takeover ? "; client_no_context_takeover" : "");
+    }
+
+    /**
+     * Compresses the payload of a message.
+     *
+     * @param octets the payload
+     * @param off the offset of the payload
+     * @param len the length of the payload
+     * @return the compressed payload
+     */
+    public synchronized byte [] compress(byte octets [], int off, int len)
+    {
+        if( v_server_no_takeover )
+        {
+            v_deflater.reset();
+        }
+
+        v_deflater.setInput(octets, off, len);
+        int length = 0;
+        while( true )
+        {
+            length += v_deflater.deflate(v_out, length, v_out.length - length,
+                                         Deflater.SYNC_FLUSH);
+            if( length < v_out.length )
+            {
+                break;
+            }
+
+            v_out = grow(v_out, v_out.length * 2);
+        }
+
+        // the sync flush ends with the 00 00 FF FF the peer adds back
+        byte compressed [] = new byte[length - TAIL.length];
+        System.arraycopy(v_out, 0, compressed, 0, compressed.length);
+        return compressed;
+    }
+
+    /**
+     * Decompresses the payload of a message into the buffer given by
+     * getDecompressed().
+     *
+     * @param octets the compressed payload
+     * @param len the length of the compressed payload
+     * @param max_length the largest payload accepted
+     * @return the length of the payload
+     * @throws WebSocketException if the payload is larger than the
+     * maximum, or is not valid DEFLATE data.
+     */
+    public int decompress(byte octets [], int len, int max_length)
+        throws WebSocketException
+    {
+        if( v_client_no_takeover )
+        {
+            v_inflater.reset();
+        }
+
+        int length = 0;
+        try
+        {
+            v_inflater.setInput(octets, 0, len);
+            length = inflate(length, max_length);
+            v_inflater.setInput(TAIL);
+            length = inflate(length, max_length);
+        }
+        catch(DataFormatException ex)
+        {
+            throw new WebSocketException(WebSocketException.PROTOCOL_ERROR,
+                    "invalid compressed message: " + ex.getMessage());
+        }
+
+        return length;
+    }
+
+    /**
+     * @return the buffer holding the last payload decompressed from
+     * its start; it is overwritten by the next one.
+     */
+    public byte [] getDecompressed()
+    {
+        return v_in;
+    }
+
+    /**
+     * Releases the compression contexts.
+     */
+    public synchronized void end()
+    {
+        v_deflater.end();
+        v_inflater.end();
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The octets ending a block flushed with SYNC_FLUSH. */
+    private static final byte TAIL [] = { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+
+    /** The initial size of the buffers. */
+    private static final int INITIAL_SIZE = 4096;
+
+    private WebSocketDeflate(boolean server_no_takeover,
+                             boolean client_no_takeover)
+    {
+        v_server_no_takeover = server_no_takeover;
+        v_client_no_takeover = client_no_takeover;
+        v_deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        v_inflater = new Inflater(true);
+        v_out = new byte[INITIAL_SIZE];
+        v_in = new byte[INITIAL_SIZE];
+    }
+
+    /**
+     * Inflates the input set into the decompressed buffer.
+     *
+     * @param length the length decompressed so far
+     * @param max_length the largest payload accepted
+     * @return the length decompressed
+     */
+    private int inflate(int length, int max_length)
+        throws DataFormatException, WebSocketException
+    {
+        while(! v_inflater.finished() )
+        {
+            if( length == v_in.length )
+            {
+                // one octet more than the maximum tells it is exceeded
+                v_in = grow(v_in, Math.min(max_length + 1, length * 2));
+            }
+
+            int count = v_inflater.inflate(v_in, length, v_in.length - length);
+            length += count;
+            if( length > max_length )
+            {
+                throw new WebSocketException(
+                        WebSocketException.MESSAGE_TOO_BIG,
+                        "decompressed message exceeds the maximum of [" +
+                        max_length + "]");
+            }
+
+            // a full buffer may leave output pending with no input
+            if( count == 0 && v_inflater.needsInput() )
+            {
+                break;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * @return a copy of the buffer of the given size
+     */
+    private static byte [] grow(byte buff [], int size)
+    {
+        byte grown [] = new byte[size];
+        System.arraycopy(buff, 0, grown, 0, buff.length);
+        return grown;
+    }
+
+    private final boolean v_server_no_takeover;
+    private final boolean v_client_no_takeover;
+    private final Deflater v_deflater;
+    private final Inflater v_inflater;
+    private byte v_out [];
+    private byte v_in [];
+}
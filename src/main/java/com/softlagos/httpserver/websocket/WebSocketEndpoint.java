@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: WebSocketEndpoint.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.websocket;
+
+import java.util.Locale;
+
+import com.softlagos.httpserver.HttpClientErrorException;
+import com.softlagos.httpserver.HttpErrorException;
+import com.softlagos.httpserver.HttpProperties;
+import com.softlagos.httpserver.HttpRequest;
+import com.softlagos.httpserver.HttpRequestHandler;
+import com.softlagos.httpserver.HttpRequestHeader;
+import com.softlagos.httpserver.HttpResponse;
+
+/**
+ * <p>
+ * A WebSocket endpoint, registered with the HttpHandlerRegistry on
+ * the path prefix its clients connect to.
+ * </p>
+ * <p>
+ * The HTTP/1.1 requests routed to the endpoint asking to upgrade to
+ * WebSocket are upgraded by the server task, and the connection is
+ * then served by a WebSocketConnection handing the messages to the
+ * listener of the endpoint.  Any other request is answered with 426
+ * Upgrade Required.
+ * </p>
+ * <p>
+ * A browser lets any page open a WebSocket to any server, carrying
+ * the cookies of that server, and tells the server the origin of
+ * the page in the Origin header field.  The opening handshake is
+ * therefore refused with 403 unless its Origin is one of the
+ * allowed origins, or, when none are set, the origin of the
+ * endpoint itself as named by the Host header field.  A request
+ * without Origin does not come from a browser, and is accepted.
+ * </p>
+ *
+ * @author Rubens Gomes
+ * @see "RFC6455 - The WebSocket Protocol"
+ * @see "Section 10.2 of RFC6455"
+ */
+public final class WebSocketEndpoint
+  implements HttpRequestHandler
+{
+    /**
+     * Instantiates a new WebSocket endpoint allowing the origins
+     * found in the system properties.
+     *
+     * @param listener the listener of the connections
+     */
+    public WebSocketEndpoint(WebSocketListener listener)
+    {
+        this(listener, HttpProperties.getList(
+                HttpProperties.WEBSOCKET_ORIGINS));
+    }
+
+    /**
+     * Instantiates a new WebSocket endpoint.
+     *
+     * @param listener the listener of the connections
+     * @param origins the allowed origins, such as
+     * "https://example.com", or "*" for any; none allows only the
+     * origin of the endpoint itself.
+     */
+    public WebSocketEndpoint(WebSocketListener listener, String origins [])
+    {
+        if( listener == null )
+        {
+            throw new IllegalArgumentException("listener cannot be null.");
+        }
+
+        if( origins == null )
+        {
+            throw new IllegalArgumentException("origins cannot be null.");
+        }
+
+        v_listener = listener;
+        v_origins = new String[origins.length];
+        for(int i = 0; i < origins.length; i++)
+        {
+            v_origins[i] = origins[i].trim().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * @return the listener of the connections
+     */
+    public WebSocketListener getListener()
+    {
+        return v_listener;
+    }
+
+    /**
+     * Checks the Origin of an opening handshake.
+     *
+     * @param header the request asking to upgrade to WebSocket
+     * @throws HttpClientErrorException with 403 if the origin is
+     * not allowed.
+     */
+    public void checkOrigin(HttpRequestHeader header)
+        throws HttpClientErrorException
+    {
+        if( header == null )
+        {
+            throw new IllegalArgumentException("header cannot be null.");
+        }
+
+        String origin = header.getHeader("Origin");
+        if( origin == null )
+        {
+            return;
+        }
+
+        origin = origin.trim().toLowerCase(Locale.ROOT);
+        if( v_origins.length == 0 )
+        {
+            // the scheme is dropped: the Host names the endpoint
+            int scheme = origin.indexOf("://");
+            String host = header.getHeader("Host");
+            if( scheme > 0 && host != null &&
+                origin.substring(scheme + 3).equals(
+                        host.trim().toLowerCase(Locale.ROOT)) )
+            {
+                return;
+            }
+        }
+
+        for(String allowed : v_origins)
+        {
+            if( allowed.equals("*") || allowed.equals(origin) )
+            {
+                return;
+            }
+        }
+
+        throw new HttpClientErrorException(403,
+                "WebSocket origin [" + origin + "] not allowed");
+    }
+
+    /* (non-Javadoc)
+     * @see com.softlagos.httpserver.HttpRequestHandler#handle(com.softlagos.httpserver.HttpRequest)
+     */
+    @Override
+    public HttpResponse handle(HttpRequest request)
+        throws HttpErrorException
+    {
+        throw new HttpClientErrorException(426,
+                "WebSocket endpoint [" +
+                request.getHeader().getRequestLine().getRequestURI() +
+                "] requires an upgrade to websocket");
+    }
+
+    /* (non-Javadoc)
+     * @see com.softlagos.httpserver.HttpRequestHandler#isStreaming()
+     */
+    @Override
+    public boolean isStreaming()
+    {
+        // the endpoint never reads a message body
+        return true;
+    }
+
+    // ------ >>> Private <<< ------
+    private final WebSocketListener v_listener;
+    private final String v_origins [];
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: WebSocketException.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.websocket;
+
+/**
+ * A WebSocket protocol error, ending the connection with a Close
+ * frame carrying its status code.
+ *
+ * @author Rubens Gomes
+ * @see "Section 7.4 of RFC6455 - The WebSocket Protocol"
+ */
+@SuppressWarnings("serial")
+public class WebSocketException extends Exception
+{
+    /** The endpoint received data it does not comply with. */
+    public static final int PROTOCOL_ERROR = 1002;
+
+    /** The endpoint received a text message not valid UTF-8. */
+    public static final int INVALID_DATA = 1007;
+
+    /** The endpoint received a message too big to process. */
+    public static final int MESSAGE_TOO_BIG = 1009;
+
+    /**
+     * Instantiates a new WebSocket protocol error.
+     *
+     * @param status_code the Close frame status code
+     * @param message the error description
+     */
+    public WebSocketException(int status_code, String message)
+    {
+        super(message);
+        v_status_code = status_code;
+    }
+
+    /**
+     * @return the Close frame status code
+     */
+    public int getStatusCode()
+    {
+        return v_status_code;
+    }
+
+    // ------ >>> Private <<< ------
+    private final int v_status_code;
+}
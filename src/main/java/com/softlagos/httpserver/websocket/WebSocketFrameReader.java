@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: WebSocketFrameReader.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.websocket;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.SocketTimeoutException;
+import java.nio.ByteOrder;
+
+import com.softlagos.httpserver.HttpLineReader;
+
+/**
+ * <p>
+ * Reads the WebSocket frames sent by a client from the buffered
+ * reader of the HTTP/1.1 request head, so the octets already
+ * buffered when the connection is upgraded are not lost.
+ * </p>
+ * <p>
+ * The reader allocates nothing per frame: the header of the last
+ * frame read is kept in its fields, and its payload in a buffer
+ * reused from frame to frame, where it is unmasked in place eight
+ * octets at a time.
+ * </p>
+ * <pre>
+ *  0                   1                   2                   3
+ *  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ * +-+-+-+-+-------+-+-------------+-------------------------------+
+ * |F|R|R|R| opcode|M| Payload len |    Extended payload length    |
+ * |I|S|S|S|  (4)  |A|     (7)     |             (16/64)           |
+ * |N|V|V|V|       |S|             |   (if payload len==126/127)   |
+ * | |1|2|3|       |K|             |                               |
+ * +-+-+-+-+-------+-+-------------+ - - - - - - - - - - - - - - - +
+ * |     Extended payload length continued, if payload len == 127  |
+ * + - - - - - - - - - - - - - - - +-------------------------------+
+ * |                               |Masking-key, if MASK set to 1  |
+ * +-------------------------------+-------------------------------+
+ * | Masking-key (continued)       |          Payload Data         |
+ * +-------------------------------- - - - - - - - - - - - - - - - +
+ * </pre>
+ *
+ * @author Rubens Gomes
+ * @see "Section 5 of RFC6455 - The WebSocket Protocol"
+ */
+public final class WebSocketFrameReader
+{
+    /** The opcode of a continuation frame. */
+    public static final int CONTINUATION = 0x0;
+
+    /** The opcode of a text frame. */
+    public static final int TEXT = 0x1;
+
+    /** The opcode of a binary frame. */
+    public static final int BINARY = 0x2;
+
+    /** The opcode of a Close frame. */
+    public static final int CLOSE = 0x8;
+
+    /** The opcode of a Ping frame. */
+    public static final int PING = 0x9;
+
+    /** The opcode of a Pong frame. */
+    public static final int PONG = 0xA;
+
+    /**
+     * Instantiates a new frame reader.
+     *
+     * @param reader the client connection reader
+     * @param max_payload the largest frame payload accepted
+     */
+    public WebSocketFrameReader(HttpLineReader reader, int max_payload)
+    {
+        if( reader == null )
+        {
+            throw new IllegalArgumentException("reader cannot be null.");
+        }
+
+        v_reader = reader;
+        v_max_payload = max_payload;
+        v_header = new byte[14];
+        v_payload = new byte[INITIAL_SIZE];
+    }
+
+    /**
+     * Reads the next frame, and unmasks its payload.
+     *
+     * @return false if the client closed the connection between two
+     * frames.
+     * @throws SocketTimeoutException if no frame started within the
+     * socket timeout; the reader is left at the frame boundary and
+     * may be called again.
+     * @throws WebSocketException if the frame is not masked, or
+     * larger than the maximum payload.
+     * @throws IOException if an I/O error occurs, or if the
+     * connection was closed in the middle of a frame.
+     */
+    public boolean readFrame()
+        throws WebSocketException, IOException
+    {
+        if(! readFully(v_header, 0, 2, true) )
+        {
+            return false;
+        }
+
+        v_fin = (v_header[0] & 0x80) != 0;
+        v_rsv = (v_header[0] & 0x70) >>> 4;
+        v_opcode = v_header[0] & 0x0F;
+        if( (v_header[1] & 0x80) == 0 )
+        {
+            throw new WebSocketException(WebSocketException.PROTOCOL_ERROR,
+                    "client frame not masked");
+        }
+
+        long length = v_header[1] & 0x7F;
+        if( length == 126 )
+        {
+            readFully(v_header, 2, 2, false);
+            length = ((v_header[2] & 0xFF) << 8) | (v_header[3] & 0xFF);
+        }
+        else if( length == 127 )
+        {
+            readFully(v_header, 2, 8, false);
+            length = 0;
+            for(int i = 2; i < 10; i++)
+            {
+                length = (length << 8) | (v_header[i] & 0xFF);
+            }
+        }
+
+        if( length < 0 || length > v_max_payload )
+        {
+            throw new WebSocketException(WebSocketException.MESSAGE_TOO_BIG,
+                    "frame length [" + length + "] exceeds the maximum of [" +
+                    v_max_payload + "]");
+        }
+
+        readFully(v_header, 10, 4, false);
+        int mask = ((v_header[10] & 0xFF) << 24) |
+                   ((v_header[11] & 0xFF) << 16) |
+                   ((v_header[12] & 0xFF) << 8) |
+                   (v_header[13] & 0xFF);
+
+        v_length = (int) length;
+        if( v_length > v_payload.length )
+        {
+            v_payload = new byte[Math.min(v_max_payload,
+                    Math.max(v_length, v_payload.length * 2))];
+        }
+
+        readFully(v_payload, 0, v_length, false);
+        unmask(v_payload, 0, v_length, mask);
+        return true;
+    }
+
+    /**
+     * @return true, if the frame is the last of its message
+     */
+    public boolean isFin()
+    {
+        return v_fin;
+    }
+
+    /**
+     * @return the RSV1, RSV2 and RSV3 bits of the frame, in this
+     * order from the most significant one.
+     */
+    public int getRsv()
+    {
+        return v_rsv;
+    }
+
+    /**
+     * @return the opcode of the frame
+     */
+    public int getOpcode()
+    {
+        return v_opcode;
+    }
+
+    /**
+     * @return the buffer holding the unmasked payload of the frame
+     * from its start; it is overwritten by the next frame.
+     */
+    public byte [] getPayload()
+    {
+        return v_payload;
+    }
+
+    /**
+     * @return the length of the payload of the frame
+     */
+    public int getLength()
+    {
+        return v_length;
+    }
+
+    /**
+     * Unmasks, or masks, octets in place.
+     *
+     * @param buff the octets
+     * @param off the offset of the first octet
+     * @param len the number of octets
+     * @param mask the masking key, its first octet the most
+     * significant one.
+     * @see "Section 5.3 of RFC6455"
+     */
+    public static void unmask(byte buff [], int off, int len, int mask)
+    {
+        long mask8 = ((mask & 0xFFFFFFFFL) << 32) | (mask & 0xFFFFFFFFL);
+        int i = 0;
+        for(; i + 8 <= len; i += 8)
+        {
+            long octets = (long) LONGS.get(buff, off + i);
+            LONGS.set(buff, off + i, octets ^ mask8);
+        }
+
+        // i is a multiple of 8, so the mask restarts at its first octet
+        for(; i < len; i++)
+        {
+            buff[off + i] ^= (byte) (mask >>> (24 - ((i & 3) << 3)));
+        }
+    }
+
+    // ------ >>> Private <<< ------
+
+    /** The initial size of the payload buffer. */
+    private static final int INITIAL_SIZE = 4096;
+
+    /** Eight octets of a byte array viewed as a big-endian long. */
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class,
+                                                 ByteOrder.BIG_ENDIAN);
+
+    /**
+     * @param boundary true, if the read starts at a frame boundary
+     * where the socket timeout may be retried.
+     * @return false if the connection was closed before the first
+     * octet.
+     * @throws EOFException if the connection was closed after the
+     * first octet.
+     */
+    private boolean readFully(byte buff [], int off, int len,
+                              boolean boundary)
+        throws IOException
+    {
+        int done = 0;
+        while( done < len )
+        {
+            int count;
+            try
+            {
+                count = v_reader.read(buff, off + done, len - done);
+            }
+            catch(SocketTimeoutException ex)
+            {
+                if( boundary && done == 0 )
+                {
+                    throw ex;
+                }
+
+                // the octets already read would be lost
+                throw new IOException("timed out in the middle of a frame");
+            }
+
+            if( count < 0 )
+            {
+                if( boundary && done == 0 )
+                {
+                    return false;
+                }
+
+                throw new EOFException("connection closed after [" + done +
+                                       "] of [" + len + "] octets");
+            }
+
+            done += count;
+        }
+
+        return true;
+    }
+
+    private final HttpLineReader v_reader;
+    private final int v_max_payload;
+    private final byte v_header [];
+    private byte v_payload [];
+    private boolean v_fin;
+    private int v_rsv;
+    private int v_opcode;
+    private int v_length;
+}
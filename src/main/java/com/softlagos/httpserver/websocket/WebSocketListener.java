@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: WebSocketListener.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.websocket;
+
+/**
+ * The application side of the WebSocket connections of an endpoint.
+ * The messages of a connection are received one at a time, on the
+ * thread reading the connection; the messages sent by the listener,
+ * from any thread, are queued and written by the writer threads.
+ *
+ * @author Rubens Gomes
+ * @see WebSocketEndpoint
+ */
+public interface WebSocketListener
+{
+    /**
+     * Receives a text message.
+     *
+     * @param connection the connection
+     * @param message the message
+     */
+    void onText(WebSocketConnection connection, String message);
+
+    /**
+     * Called once the opening handshake is sent, before the first
+     * message is read.
+     *
+     * @param connection the connection
+     */
+    default void onOpen(WebSocketConnection connection)
+    {
+    }
+
+    /**
+     * Receives a binary message.
+     *
+     * @param connection the connection
+     * @param message the message
+     */
+    default void onBinary(WebSocketConnection connection, byte message [])
+    {
+    }
+
+    /**
+     * Called once the connection is closed, whichever side closed
+     * it.
+     *
+     * @param connection the connection
+     * @param status_code the status code of the Close frame, or
+     * 1006 if the connection ended without one.
+     * @param reason the reason of the Close frame, possibly empty
+     */
+    default void onClose(WebSocketConnection connection, int status_code,
+                         String reason)
+    {
+    }
+}
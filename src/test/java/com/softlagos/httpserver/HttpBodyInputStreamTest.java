@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpBodyInputStreamTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the chunked framing read from a client: only a plain
+ * hexadecimal chunk-size is accepted, and the trailer section is
+ * held to the limits of a request head.
+ *
+ * @author Rubens Gomes
+ * @see "Section 4.1 of RFC7230"
+ */
+public class HttpBodyInputStreamTest
+{
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        v_listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        v_client = new Socket(v_listener.getInetAddress(),
+                              v_listener.getLocalPort());
+        v_server = v_listener.accept();
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        v_client.close();
+        v_server.close();
+        v_listener.close();
+    }
+
+    @Test
+    public void testChunkedBodyRead()
+        throws Exception
+    {
+        send("5 ;name=value\r\nhello\r\nA\r\n, world!!!\r\n0\r\n" +
+             "Checksum: 1\r\n\r\n");
+        InputStream body = makeBody();
+        assertEquals("hello, world!!!", readAll(body));
+        assertTrue(((HttpBodyInputStream) body).isComplete());
+    }
+
+    @Test
+    public void testSignedChunkSizeRejected()
+        throws Exception
+    {
+        assertRejected("+5\r\nhello\r\n0\r\n\r\n");
+    }
+
+    @Test
+    public void testNegativeZeroChunkSizeRejected()
+        throws Exception
+    {
+        assertRejected("-0\r\n\r\n");
+    }
+
+    @Test
+    public void testPrefixedChunkSizeRejected()
+        throws Exception
+    {
+        assertRejected(" 5\r\nhello\r\n0\r\n\r\n");
+    }
+
+    @Test
+    public void testOversizedChunkSizeRejected()
+        throws Exception
+    {
+        assertRejected("10000000000000000\r\n");
+    }
+
+    @Test
+    public void testTrailerFieldCountLimited()
+        throws Exception
+    {
+        StringBuilder trailer = new StringBuilder("0\r\n");
+        for(int idx = 0; idx <= 100; idx++)
+        {
+            trailer.append("X-Trailer: ").append(idx).append("\r\n");
+        }
+
+        trailer.append("\r\n");
+        assertRejected(trailer.toString());
+    }
+
+    // ------ >>> Private <<< ------
+
+    private void assertRejected(String chunked)
+        throws Exception
+    {
+        send(chunked);
+        try
+        {
+            readAll(makeBody());
+            fail("chunked framing [" + chunked.trim() + "] must be rejected");
+        }
+        catch(IOException ex)
+        {
+            // expected
+        }
+    }
+
+    private InputStream makeBody()
+        throws Exception
+    {
+        HttpRequestHeader header = new HttpRequestHeader(
+                new HttpRequestLine("POST /upload HTTP/1.1"));
+        header.addHeader("Host", "localhost");
+        header.addHeader("Transfer-Encoding", "chunked");
+        return HttpBodyInputStream.create(header,
+                new HttpLineReader(v_server.getInputStream(), 8192),
+                v_server, 1024L, 5000);
+    }
+
+    private void send(String octets)
+        throws IOException
+    {
+        v_client.getOutputStream().write(
+                octets.getBytes(StandardCharsets.ISO_8859_1));
+        v_client.getOutputStream().flush();
+    }
+
+    private static String readAll(InputStream in)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte buff [] = new byte[64];
+        int count;
+        while( (count = in.read(buff)) >= 0 )
+        {
+            out.write(buff, 0, count);
+        }
+
+        return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    private ServerSocket v_listener;
+    private Socket v_client;
+    private Socket v_server;
+}
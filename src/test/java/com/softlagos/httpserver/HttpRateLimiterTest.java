@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpRateLimiterTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+/**
+ * Checks how client addresses are mapped onto the buckets of the
+ * rate limiter: an IPv6 host cannot get a bucket per address, and
+ * a full table sends new clients to a shared overflow bucket
+ * rather than refusing them all.
+ *
+ * @author Rubens Gomes
+ */
+public class HttpRateLimiterTest
+{
+    @Test
+    public void testIpv6KeyedByPrefix()
+        throws Exception
+    {
+        HttpRateLimiter limiter = new HttpRateLimiter(1, 1, 1, 100, 60000L);
+        assertTrue(limiter.tryAcquireConnection(
+                InetAddress.getByName("2001:db8:1:2::1")));
+
+        // another address of the same /64
+        assertFalse(limiter.tryAcquireConnection(
+                InetAddress.getByName("2001:db8:1:2:ffff::7")));
+
+        // another /64
+        assertTrue(limiter.tryAcquireConnection(
+                InetAddress.getByName("2001:db8:1:3::1")));
+    }
+
+    @Test
+    public void testFullTableSharesOverflowBucket()
+        throws Exception
+    {
+        HttpRateLimiter limiter = new HttpRateLimiter(1, 1, 1, 1, 60000L);
+        InetAddress tracked = InetAddress.getByName("192.0.2.1");
+        InetAddress first = InetAddress.getByName("192.0.2.2");
+        InetAddress second = InetAddress.getByName("192.0.2.3");
+
+        assertTrue(limiter.tryAcquireConnection(tracked));
+
+        // the untracked clients share a single connection
+        assertTrue(limiter.tryAcquireConnection(first));
+        assertFalse(limiter.tryAcquireConnection(second));
+
+        limiter.releaseConnection(first);
+        assertTrue(limiter.tryAcquireConnection(second));
+
+        // and a single token
+        assertTrue(limiter.tryAcquireRequest(first));
+        assertFalse(limiter.tryAcquireRequest(second));
+    }
+
+    @Test
+    public void testTrackedReleaseLeavesOverflowAlone()
+        throws Exception
+    {
+        HttpRateLimiter limiter = new HttpRateLimiter(1, 1, 1, 1, 60000L);
+        InetAddress tracked = InetAddress.getByName("192.0.2.1");
+        InetAddress untracked = InetAddress.getByName("192.0.2.2");
+
+        assertTrue(limiter.tryAcquireConnection(tracked));
+        assertTrue(limiter.tryAcquireConnection(untracked));
+
+        limiter.releaseConnection(tracked);
+        assertTrue(limiter.tryAcquireConnection(tracked));
+        assertFalse(limiter.tryAcquireConnection(untracked));
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpRequestTargetTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.softlagos.httpserver.enums.HttpRequestMethodType;
+
+/**
+ * Checks the normalization of the request-target path, which the
+ * router, the response cache and the static files all rely on: an
+ * encoded dot segment must be removed like a plain one, so a target
+ * cannot reach one route while being taken for another.
+ *
+ * @author Rubens Gomes
+ */
+public class HttpRequestTargetTest
+{
+    @Test
+    public void testDotSegmentsRemoved()
+        throws Exception
+    {
+        assertEquals("/b", normalize("/a/../b"));
+        assertEquals("/a/b", normalize("/a/./b"));
+        assertEquals("/", normalize("/.."));
+        assertEquals("/a/", normalize("/a/b/.."));
+    }
+
+    @Test
+    public void testEncodedDotSegmentsRemoved()
+        throws Exception
+    {
+        assertEquals("/secret", normalize("/static/%2e%2e/secret"));
+        assertEquals("/jfr/start", normalize("/health/%2E%2E/jfr/start"));
+        assertEquals("/b", normalize("/a/.%2e/b"));
+        assertEquals("/a/b", normalize("/a/%2e/b"));
+    }
+
+    @Test
+    public void testDecodedPathHasNoDotSegments()
+        throws Exception
+    {
+        HttpRequestTarget target = new HttpRequestTarget(
+                HttpRequestMethodType.GET, "/static/%2e%2e/secret?x=1");
+        assertEquals("/secret", target.getDecodedPath());
+        assertEquals("x=1", target.getQuery());
+    }
+
+    @Test
+    public void testEncodingsNormalized()
+        throws Exception
+    {
+        // unreserved characters are decoded, the others upper cased
+        assertEquals("/a~b", normalize("/%61%7eb"));
+        assertEquals("/a%2Fb", normalize("/a%2fb"));
+        assertEquals("/a%2F..", normalize("/a%2f%2e%2e"));
+    }
+
+    @Test
+    public void testMalformedEncodingRejectedOnDecode()
+        throws Exception
+    {
+        HttpRequestTarget target = new HttpRequestTarget(
+                HttpRequestMethodType.GET, "/a/%zz/%2e%2e/b");
+        assertEquals("/a/b", target.getNormalizedPath());
+
+        target = new HttpRequestTarget(HttpRequestMethodType.GET, "/a/%z");
+        try
+        {
+            target.getDecodedPath();
+            fail("a malformed percent-encoding must be rejected");
+        }
+        catch(HttpClientErrorException ex)
+        {
+            assertEquals(400, ex.getStatusCode());
+        }
+    }
+
+    // ------ >>> Private <<< ------
+
+    private static String normalize(String request_target)
+        throws HttpClientErrorException
+    {
+        return new HttpRequestTarget(HttpRequestMethodType.GET,
+                                     request_target).getNormalizedPath();
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HpackDecoderTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.softlagos.httpserver.enums.Http2ErrorCodeType;
+
+/**
+ * Checks the header compression against the examples of RFC7541
+ * Appendix C, decoded in sequence on one decoder so that the
+ * dynamic table carries over from one header block to the next.
+ *
+ * @author Rubens Gomes
+ * @see "Appendix C of RFC7541 - HPACK: Header Compression for
+ * HTTP/2"
+ */
+public class HpackDecoderTest
+{
+    @Test
+    public void testLiteralFields()
+        throws Exception
+    {
+        // C.2.1 to C.2.4
+        assertFields(new HpackDecoder(4096),
+                "400a637573746f6d2d6b65790d637573746f6d2d686561646572",
+                "custom-key", "custom-header");
+        assertFields(new HpackDecoder(4096),
+                "040c2f73616d706c652f70617468",
+                ":path", "/sample/path");
+        assertFields(new HpackDecoder(4096),
+                "100870617373776f726406736563726574",
+                "password", "secret");
+        assertFields(new HpackDecoder(4096), "82", ":method", "GET");
+    }
+
+    @Test
+    public void testRequestsWithoutHuffman()
+        throws Exception
+    {
+        // C.3.1 to C.3.3
+        HpackDecoder decoder = new HpackDecoder(4096);
+        assertFields(decoder,
+                "828684410f7777772e6578616d706c652e636f6d",
+                ":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com");
+        assertFields(decoder,
+                "828684be58086e6f2d6361636865",
+                ":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com",
+                "cache-control", "no-cache");
+        assertFields(decoder,
+                "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565",
+                ":method", "GET", ":scheme", "https", ":path", "/index.html",
+                ":authority", "www.example.com",
+                "custom-key", "custom-value");
+    }
+
+    @Test
+    public void testRequestsWithHuffman()
+        throws Exception
+    {
+        // C.4.1 to C.4.3
+        HpackDecoder decoder = new HpackDecoder(4096);
+        assertFields(decoder,
+                "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+                ":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com");
+        assertFields(decoder,
+                "828684be5886a8eb10649cbf",
+                ":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com",
+                "cache-control", "no-cache");
+        assertFields(decoder,
+                "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+                ":method", "GET", ":scheme", "https", ":path", "/index.html",
+                ":authority", "www.example.com",
+                "custom-key", "custom-value");
+    }
+
+    @Test
+    public void testResponsesEvictOldestEntries()
+        throws Exception
+    {
+        // C.5.1 and C.5.2, with a 256 octet table: the :status 302
+        // entry is evicted to make room for :status 307
+        HpackDecoder decoder = new HpackDecoder(256);
+        assertFields(decoder,
+                "4803333032580770726976617465611d4d6f6e2c203231204f63" +
+                "7420323031332032303a31333a323120474d546e176874747073" +
+                "3a2f2f7777772e6578616d706c652e636f6d",
+                ":status", "302", "cache-control", "private",
+                "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+                "location", "https://www.example.com");
+        assertFields(decoder,
+                "4803333037c1c0bf",
+                ":status", "307", "cache-control", "private",
+                "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+                "location", "https://www.example.com");
+    }
+
+    @Test
+    public void testHuffmanEncoding()
+        throws Exception
+    {
+        assertHuffman("www.example.com", "f1e3c2e5f23a6ba0ab90f4ff");
+        assertHuffman("no-cache", "a8eb10649cbf");
+        assertHuffman("custom-key", "25a849e95ba97d7f");
+        assertHuffman("custom-value", "25a849e95bb8e8b4bf");
+    }
+
+    @Test
+    public void testInvalidIndexRejected()
+        throws Exception
+    {
+        try
+        {
+            new HpackDecoder(4096).decode(bytes("be"), 0, 1);
+            fail("an index past the tables must be rejected");
+        }
+        catch(Http2Exception ex)
+        {
+            assertEquals(Http2ErrorCodeType.COMPRESSION_ERROR,
+                         ex.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testEncoderRoundTrip()
+        throws Exception
+    {
+        List<HpackHeaderField> fields = new ArrayList<HpackHeaderField>();
+        fields.add(new HpackHeaderField(":status", "200"));
+        fields.add(new HpackHeaderField("content-type", "text/plain"));
+        fields.add(new HpackHeaderField("x-custom", "some value"));
+
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(HpackEncoder.DEFAULT_TABLE_SIZE);
+        for(int round = 0; round < 2; round++)
+        {
+            byte block [] = encoder.encode(fields);
+            List<HpackHeaderField> decoded =
+                    decoder.decode(block, 0, block.length);
+            assertEquals(fields.size(), decoded.size());
+            for(int idx = 0; idx < fields.size(); idx++)
+            {
+                assertEquals(fields.get(idx).getName(),
+                             decoded.get(idx).getName());
+                assertEquals(fields.get(idx).getValue(),
+                             decoded.get(idx).getValue());
+            }
+        }
+    }
+
+    // ------ >>> Private <<< ------
+
+    private static void assertFields(HpackDecoder decoder, String hex,
+                                     String ... expected)
+        throws Http2Exception
+    {
+        byte block [] = bytes(hex);
+        List<HpackHeaderField> fields = decoder.decode(block, 0, block.length);
+        assertEquals(expected.length / 2, fields.size());
+        for(int idx = 0; idx < fields.size(); idx++)
+        {
+            assertEquals(expected[2 * idx], fields.get(idx).getName());
+            assertEquals(expected[2 * idx + 1], fields.get(idx).getValue());
+        }
+    }
+
+    private static void assertHuffman(String value, String hex)
+        throws Http2Exception
+    {
+        byte octets [] = value.getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HpackHuffman.encode(octets, out);
+        assertEquals(hex, hex(out.toByteArray()));
+        assertEquals(hex.length() / 2, HpackHuffman.encodedLength(octets));
+
+        byte encoded [] = bytes(hex);
+        assertEquals(value, new String(
+                HpackHuffman.decode(encoded, 0, encoded.length),
+                StandardCharsets.ISO_8859_1));
+    }
+
+    private static byte [] bytes(String hex)
+    {
+        byte buff [] = new byte[hex.length() / 2];
+        for(int idx = 0; idx < buff.length; idx++)
+        {
+            buff[idx] = (byte) Integer.parseInt(
+                    hex.substring(2 * idx, 2 * idx + 2), 16);
+        }
+
+        return buff;
+    }
+
+    private static String hex(byte buff [])
+    {
+        StringBuilder out = new StringBuilder(buff.length * 2);
+        for(byte octet : buff)
+        {
+            out.append(String.format("%02x", octet & 0xff));
+        }
+
+        return out.toString();
+    }
+}
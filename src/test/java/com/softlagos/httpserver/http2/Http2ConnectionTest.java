@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: Http2ConnectionTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.http2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import com.softlagos.httpserver.HttpLineReader;
+import com.softlagos.httpserver.enums.Http2ErrorCodeType;
+import com.softlagos.httpserver.enums.Http2FrameType;
+
+/**
+ * Checks the limits the connection puts on what a client sends:
+ * the size of a header block spread over CONTINUATION frames,
+ * the padding of DATA and HEADERS frames, and the receive flow
+ * control windows.
+ *
+ * @author Rubens Gomes
+ * @see "RFC7540 - Hypertext Transfer Protocol Version 2 (HTTP/2)"
+ */
+public class Http2ConnectionTest
+{
+    @Test
+    public void testContinuationsCompleteHeaderBlock()
+        throws Exception
+    {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        writeFrame(wire, CONTINUATION, 0, 1, new byte[] { 1, 2 });
+        writeFrame(wire, CONTINUATION, Http2Frame.FLAG_END_HEADERS, 1,
+                   new byte[] { 3 });
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        block.write(0);
+        Http2Connection.readContinuations(reader(wire), 1, block, 1024L);
+        assertArrayEquals(new byte[] { 0, 1, 2, 3 }, block.toByteArray());
+    }
+
+    @Test
+    public void testOversizedHeaderBlockRejected()
+        throws Exception
+    {
+        // CONTINUATION frames that never end the header block
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        for(int idx = 0; idx < 8; idx++)
+        {
+            writeFrame(wire, CONTINUATION, 0, 1, new byte[1000]);
+        }
+
+        try
+        {
+            Http2Connection.readContinuations(reader(wire), 1,
+                    new ByteArrayOutputStream(), 4096L);
+            fail("a header block past the limit must be rejected");
+        }
+        catch(Http2Exception ex)
+        {
+            assertEquals(Http2ErrorCodeType.ENHANCE_YOUR_CALM,
+                         ex.getErrorCode());
+            assertTrue(ex.isConnectionError());
+        }
+    }
+
+    @Test
+    public void testOversizedContinuationFrameRejected()
+        throws Exception
+    {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        writeFrame(wire, CONTINUATION, Http2Frame.FLAG_END_HEADERS, 1,
+                   new byte[Http2Settings.DEFAULT_MAX_FRAME_SIZE + 1]);
+
+        try
+        {
+            Http2Connection.readContinuations(reader(wire), 1,
+                    new ByteArrayOutputStream(), Integer.MAX_VALUE);
+            fail("a frame larger than the maximum frame size must be rejected");
+        }
+        catch(Http2Exception ex)
+        {
+            assertEquals(Http2ErrorCodeType.FRAME_SIZE_ERROR,
+                         ex.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testContinuationOfAnotherStreamRejected()
+        throws Exception
+    {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        writeFrame(wire, CONTINUATION, Http2Frame.FLAG_END_HEADERS, 3,
+                   new byte[] { 1 });
+
+        try
+        {
+            Http2Connection.readContinuations(reader(wire), 1,
+                    new ByteArrayOutputStream(), 1024L);
+            fail("a CONTINUATION of another stream must be rejected");
+        }
+        catch(Http2Exception ex)
+        {
+            assertEquals(Http2ErrorCodeType.PROTOCOL_ERROR,
+                         ex.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testPaddingRemoved()
+        throws Exception
+    {
+        Http2Frame frame = new Http2Frame(DATA, Http2Frame.FLAG_PADDED, 1,
+                new byte[] { 2, 'a', 'b', 0, 0 });
+        assertArrayEquals(new byte[] { 'a', 'b' },
+                          Http2Connection.unpad(frame));
+
+        frame = new Http2Frame(DATA, Http2Frame.FLAG_PADDED, 1,
+                               new byte[] { 0 });
+        assertEquals(0, Http2Connection.unpad(frame).length);
+
+        frame = new Http2Frame(DATA, 0, 1, new byte[] { 2, 'a' });
+        assertArrayEquals(new byte[] { 2, 'a' }, Http2Connection.unpad(frame));
+    }
+
+    @Test
+    public void testInvalidPaddingRejected()
+        throws Exception
+    {
+        // the padding as long as the frame payload
+        assertInvalidPadding(new byte[] { 3, 0, 0 });
+        // the padding longer than the payload
+        assertInvalidPadding(new byte[] { (byte) 200, 'a' });
+        // no room for the pad length
+        assertInvalidPadding(new byte[0]);
+    }
+
+    @Test
+    public void testReceiveWindowOverrun()
+    {
+        Http2ReceiveWindow window = new Http2ReceiveWindow(100);
+        assertTrue(window.receive(60));
+        assertTrue(window.receive(40));
+        assertEquals(0L, window.getWindow());
+
+        // a frame past the window leaves it unchanged
+        assertFalse(window.receive(1));
+        assertEquals(0L, window.getWindow());
+    }
+
+    @Test
+    public void testReceiveWindowCredited()
+    {
+        Http2ReceiveWindow window = new Http2ReceiveWindow(100);
+        assertTrue(window.receive(100));
+
+        // credited back only once half of the window is due
+        assertEquals(0, window.consumed(30));
+        assertEquals(0L, window.getWindow());
+        assertEquals(50, window.consumed(20));
+        assertEquals(50L, window.getWindow());
+
+        assertFalse(window.receive(51));
+        assertTrue(window.receive(50));
+    }
+
+    // ------ >>> Private <<< ------
+    private static final int DATA = Http2FrameType.DATA.getCode();
+    private static final int CONTINUATION =
+            Http2FrameType.CONTINUATION.getCode();
+
+    private static void assertInvalidPadding(byte payload [])
+    {
+        try
+        {
+            Http2Connection.unpad(new Http2Frame(DATA, Http2Frame.FLAG_PADDED,
+                                                 1, payload));
+            fail("invalid padding must be rejected");
+        }
+        catch(Http2Exception ex)
+        {
+            assertEquals(Http2ErrorCodeType.PROTOCOL_ERROR, ex.getErrorCode());
+            assertTrue(ex.isConnectionError());
+        }
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, int type,
+                                   int flags, int stream_id, byte payload [])
+    {
+        out.write(payload.length >>> 16);
+        out.write(payload.length >>> 8);
+        out.write(payload.length);
+        out.write(type);
+        out.write(flags);
+        out.write(stream_id >>> 24);
+        out.write(stream_id >>> 16);
+        out.write(stream_id >>> 8);
+        out.write(stream_id);
+        out.write(payload, 0, payload.length);
+    }
+
+    private static Http2FrameReader reader(ByteArrayOutputStream wire)
+    {
+        return new Http2FrameReader(new HttpLineReader(
+                new ByteArrayInputStream(wire.toByteArray()), 8192),
+                Http2Settings.DEFAULT_MAX_FRAME_SIZE);
+    }
+}
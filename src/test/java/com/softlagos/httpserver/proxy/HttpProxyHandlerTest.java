@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 1999-2016 Rubens Gomes <rubens.s.gomes@gmail.com>.
+ * All Rights Reserved.
+ *
+ * File: HttpProxyHandlerTest.java
+ *
+ * Author: Rubens Gomes
+ */
+package com.softlagos.httpserver.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.softlagos.httpserver.HttpBodyInputStream;
+import com.softlagos.httpserver.HttpClientErrorException;
+import com.softlagos.httpserver.HttpLineReader;
+import com.softlagos.httpserver.HttpRequest;
+import com.softlagos.httpserver.HttpRequestHeader;
+import com.softlagos.httpserver.HttpRequestLine;
+import com.softlagos.httpserver.HttpResponse;
+
+/**
+ * Checks the message body framing the proxy forwards to a stub
+ * upstream: it must be the framing of the octets actually read
+ * from the client, so that no second request can be smuggled onto
+ * a pooled upstream connection.
+ *
+ * @author Rubens Gomes
+ */
+public class HttpProxyHandlerTest
+{
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        v_upstream = new StubUpstream();
+        v_upstream.start();
+
+        HttpUpstream upstream = new HttpUpstream("127.0.0.1",
+                v_upstream.getPort(), 2000, 5000, 4, 60000L);
+        v_proxy = new HttpProxyHandler(
+                new HttpBalancer(new HttpUpstream [] { upstream }));
+
+        v_listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        v_client = new Socket(v_listener.getInetAddress(),
+                              v_listener.getLocalPort());
+        v_server = v_listener.accept();
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        v_client.close();
+        v_server.close();
+        v_listener.close();
+        v_upstream.close();
+    }
+
+    @Test
+    public void testTransferEncodingWithContentLengthRejected()
+        throws Exception
+    {
+        HttpRequestHeader header = makeHeader("POST /upload HTTP/1.1");
+        header.addHeader("Transfer-Encoding", "chunked");
+        header.addHeader("Content-Length", "0");
+
+        try
+        {
+            HttpBodyInputStream.create(header, makeReader(), v_server,
+                                       1024L, 5000);
+            fail("a request with both framings must be rejected");
+        }
+        catch(HttpClientErrorException ex)
+        {
+            assertEquals(400, ex.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testContentLengthForwardedFromBody()
+        throws Exception
+    {
+        HttpRequestHeader header = makeHeader("POST /upload HTTP/1.1");
+        header.addHeader("Content-Length", "5");
+        send("hello");
+
+        HttpBodyInputStream body = HttpBodyInputStream.create(header,
+                makeReader(), v_server, 1024L, 5000);
+        HttpResponse response = v_proxy.handle(new HttpRequest(header, body));
+
+        assertEquals(200, response.getHeader().getStatusLine().getStatusCode());
+        String received = v_upstream.getReceived();
+        assertEquals(1, count(received.toLowerCase(), "content-length:"));
+        assertTrue(received.contains("Content-Length: 5\r\n"));
+        assertFalse(received.toLowerCase().contains("transfer-encoding"));
+        assertTrue(received.endsWith("\r\n\r\nhello"));
+    }
+
+    @Test
+    public void testChunkedForwardedChunked()
+        throws Exception
+    {
+        HttpRequestHeader header = makeHeader("POST /upload HTTP/1.1");
+        header.addHeader("Transfer-Encoding", "chunked");
+        send("5\r\nhello\r\n0\r\n\r\n");
+
+        HttpBodyInputStream body = HttpBodyInputStream.create(header,
+                makeReader(), v_server, 1024L, 5000);
+        v_proxy.handle(new HttpRequest(header, body));
+
+        String received = v_upstream.getReceived();
+        assertFalse(received.toLowerCase().contains("content-length"));
+        assertTrue(received.contains("Transfer-Encoding: chunked\r\n"));
+        assertTrue(received.endsWith("\r\n\r\n5\r\nhello\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    public void testAnnouncedLengthNotTrusted()
+        throws Exception
+    {
+        // a body stream that is not delimited by the Content-Length
+        // of the client, such as the DATA frames of an HTTP/2 stream
+        String smuggled = "GET /admin HTTP/1.1\r\nHost: upstream\r\n\r\n";
+        HttpRequestHeader header = makeHeader("POST /upload HTTP/1.1");
+        header.addHeader("Content-Length", "0");
+        InputStream body = new ByteArrayInputStream(
+                smuggled.getBytes(StandardCharsets.ISO_8859_1));
+
+        v_proxy.handle(new HttpRequest(header, body));
+
+        String received = v_upstream.getReceived();
+        assertFalse(received.toLowerCase().contains("content-length"));
+        assertTrue(received.contains("Transfer-Encoding: chunked\r\n"));
+        assertTrue(received.endsWith(Integer.toHexString(smuggled.length()) +
+                                     "\r\n" + smuggled + "\r\n0\r\n\r\n"));
+    }
+
+    // ------ >>> Private <<< ------
+
+    /**
+     * An upstream answering a single request with 200, once the
+     * proxy has stopped sending, and keeping every octet received.
+     */
+    private static final class StubUpstream extends Thread
+    {
+        private StubUpstream()
+            throws IOException
+        {
+            v_socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            v_octets = new ByteArrayOutputStream();
+            setDaemon(true);
+        }
+
+        private int getPort()
+        {
+            return v_socket.getLocalPort();
+        }
+
+        @Override
+        public void run()
+        {
+            try(Socket conn = v_socket.accept())
+            {
+                conn.setSoTimeout(QUIET_MS);
+                InputStream in = conn.getInputStream();
+                byte buff [] = new byte[4096];
+                try
+                {
+                    int count;
+                    while( (count = in.read(buff)) >= 0 )
+                    {
+                        synchronized( v_octets )
+                        {
+                            v_octets.write(buff, 0, count);
+                        }
+                    }
+                }
+                catch(SocketTimeoutException ex)
+                {
+                    // the proxy has sent the whole request
+                }
+
+                OutputStream out = conn.getOutputStream();
+                out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok"
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+            }
+            catch(IOException ex)
+            {
+                // the test closed the upstream
+            }
+        }
+
+        private String getReceived()
+        {
+            synchronized( v_octets )
+            {
+                return new String(v_octets.toByteArray(),
+                                  StandardCharsets.ISO_8859_1);
+            }
+        }
+
+        private void close()
+            throws IOException
+        {
+            v_socket.close();
+        }
+
+        private final ServerSocket v_socket;
+        private final ByteArrayOutputStream v_octets;
+    }
+
+    /** The silence after which the stub upstream answers. */
+    private static final int QUIET_MS = 500;
+
+    private static HttpRequestHeader makeHeader(String request_line)
+        throws Exception
+    {
+        HttpRequestHeader header =
+                new HttpRequestHeader(new HttpRequestLine(request_line));
+        header.addHeader("Host", "localhost");
+        return header;
+    }
+
+    private static int count(String text, String token)
+    {
+        int count = 0;
+        int index = text.indexOf(token);
+        while( index >= 0 )
+        {
+            count++;
+            index = text.indexOf(token, index + token.length());
+        }
+
+        return count;
+    }
+
+    private HttpLineReader makeReader()
+        throws IOException
+    {
+        return new HttpLineReader(v_server.getInputStream(), 8192);
+    }
+
+    private void send(String body)
+        throws IOException
+    {
+        OutputStream out = v_client.getOutputStream();
+        out.write(body.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    private StubUpstream v_upstream;
+    private HttpProxyHandler v_proxy;
+    private ServerSocket v_listener;
+    private Socket v_client;
+    private Socket v_server;
+}